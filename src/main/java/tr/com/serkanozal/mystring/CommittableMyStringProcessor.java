@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import tr.com.serkanozal.mystring.api.MyStringProcessor;
+
+/**
+ * Optional extension of {@link MyStringProcessor} for processors which need to know 
+ * when the content of a storage allocated by size (for derived or decoded strings) 
+ * has been completely written, for example to checksum or persist it.
+ */
+public interface CommittableMyStringProcessor<S> extends MyStringProcessor<S> {
+
+    /**
+     * Called once the first <code>length</code> chars of the given storage are written 
+     * and won't be modified anymore.
+     */
+    void commit(long storageId, S storageBase, int length);
+    
+}
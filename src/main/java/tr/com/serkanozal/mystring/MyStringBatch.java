@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import tr.com.serkanozal.mystring.api.MyString;
+import tr.com.serkanozal.mystring.api.MyStringProcessor;
+
+/**
+ * Strings created together by a single storage allocation when the processor is 
+ * a {@link SliceableMyStringProcessor}, or by an allocation per string otherwise. 
+ * Strings of a batch must not be destroyed one by one, 
+ * but all together by {@link #destroy()}.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public final class MyStringBatch {
+
+    private final MyStringProcessor myStrProcessor;
+    private final String[] strings;
+    private long storageId;
+    private Object storageBase;
+    private long storageSize;
+    
+    MyStringBatch(MyStringProcessor myStrProcessor, String[] strings, 
+                  long storageId, Object storageBase, long storageSize) {
+        this.myStrProcessor = myStrProcessor;
+        this.strings = strings;
+        this.storageId = storageId;
+        this.storageBase = storageBase;
+        this.storageSize = storageSize;
+    }
+    
+    public int size() {
+        return strings.length;
+    }
+    
+    public String get(int index) {
+        return strings[index];
+    }
+    
+    public String[] toArray() {
+        return strings.clone();
+    }
+    
+    public boolean isShared() {
+        return storageId != MyString.INVALID_STORAGE_ID;
+    }
+    
+    public long getStorageSize() {
+        if (isShared()) {
+            return storageSize;
+        }
+        long size = 0;
+        for (String str : strings) {
+            size += ((MyString) ((Object) str)).getStorageSize();
+        }
+        return size;
+    }
+    
+    // Note that this method is not thread-safe
+    public void destroy() {
+        for (String str : strings) {
+            ((MyString) ((Object) str)).destroy();
+        }
+        if (isShared()) {
+            myStrProcessor.destroy(storageId, storageBase);
+            storageId = MyString.INVALID_STORAGE_ID;
+            storageBase = MyString.INVALID_STORAGE_BASE;
+            storageSize = MyString.INVALID_STORAGE_SIZE;
+        }
+    }
+    
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import tr.com.serkanozal.mystring.api.MyStringProcessor;
+
+/**
+ * Builds a string by appending chars directly into the storage allocated by a processor. 
+ * Only a small chunk of chars is staged on heap, so huge strings are built with constant heap. 
+ * Storage is grown in place if the processor is a {@link ResizableMyStringProcessor} 
+ * (by <code>realloc</code> for native memory), otherwise by copying into a larger storage. 
+ * {@link #toMyString()} finishes the string without copying it.
+ * 
+ * Note that this class is not thread-safe.
+ */
+@SuppressWarnings("rawtypes")
+public final class MyStringBuilder implements Appendable, CharSequence {
+
+    private static final int CHUNK_SIZE = 1024;
+    
+    private final MyStringProcessor myStrProcessor;
+    private final boolean affine;
+    private final int initialCapacity;
+    // Created lazily, so a finished builder doesn't hold storage until it is appended again
+    private MyStringTemplate.ValueAppender appender;
+    
+    MyStringBuilder(MyStringProcessor myStrProcessor, boolean affine, int initialCapacity) {
+        this.myStrProcessor = myStrProcessor;
+        this.affine = affine;
+        this.initialCapacity = initialCapacity;
+    }
+    
+    private MyStringTemplate.ValueAppender appender() {
+        if (appender == null) {
+            appender = new MyStringTemplate.ValueAppender(myStrProcessor, true, affine, initialCapacity);
+        }
+        return appender;
+    }
+    
+    @Override
+    public MyStringBuilder append(char c) {
+        appender().append(c);
+        return this;
+    }
+    
+    public MyStringBuilder appendCodePoint(int codePoint) {
+        if (!Character.isValidCodePoint(codePoint)) {
+            throw new IllegalArgumentException("Invalid code point: " + codePoint);
+        }
+        appender().appendCodePoint(codePoint);
+        return this;
+    }
+    
+    public MyStringBuilder append(char[] chars) {
+        return append(chars, 0, chars.length);
+    }
+    
+    public MyStringBuilder append(char[] chars, int offset, int len) {
+        if (offset < 0 || len < 0 || offset > chars.length - len) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", len " + len + ", length " + chars.length);
+        }
+        appender().append(chars, offset, len);
+        return this;
+    }
+    
+    public MyStringBuilder append(String str) {
+        if (str == null) {
+            str = "null";
+        }
+        appender().append(str);
+        return this;
+    }
+    
+    @Override
+    public MyStringBuilder append(CharSequence csq) {
+        if (csq == null) {
+            csq = "null";
+        }
+        return append(csq, 0, csq.length());
+    }
+    
+    @Override
+    public MyStringBuilder append(CharSequence csq, int start, int end) {
+        if (csq == null) {
+            csq = "null";
+        }
+        if (start < 0 || start > end || end > csq.length()) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + csq.length());
+        }
+        MyStringTemplate.ValueAppender appender = appender();
+        if (csq instanceof String) {
+            appender.append((String) csq, start, end);
+        } else if (csq instanceof StringBuilder || csq instanceof StringBuffer || csq instanceof MyStringBuilder) {
+            // Copied chunk by chunk instead of char by char
+            char[] chunk = new char[Math.min(end - start, CHUNK_SIZE)];
+            while (start < end) {
+                int n = Math.min(chunk.length, end - start);
+                if (csq instanceof StringBuilder) {
+                    ((StringBuilder) csq).getChars(start, start + n, chunk, 0);
+                } else if (csq instanceof StringBuffer) {
+                    ((StringBuffer) csq).getChars(start, start + n, chunk, 0);
+                } else {
+                    ((MyStringBuilder) csq).getChars(start, start + n, chunk, 0);
+                }
+                appender.append(chunk, 0, n);
+                start += n;
+            }
+        } else {
+            for (int i = start; i < end; i++) {
+                appender.append(csq.charAt(i));
+            }
+        }
+        return this;
+    }
+    
+    public MyStringBuilder append(boolean b) {
+        return append(String.valueOf(b));
+    }
+    
+    public MyStringBuilder append(int i) {
+        return append(String.valueOf(i));
+    }
+    
+    public MyStringBuilder append(long l) {
+        return append(String.valueOf(l));
+    }
+    
+    public MyStringBuilder append(Object obj) {
+        return append(String.valueOf(obj));
+    }
+    
+    @Override
+    public int length() {
+        return appender != null ? appender.length() : 0;
+    }
+    
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+        return appender.charAt(index);
+    }
+    
+    public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+        if (srcBegin < 0 || srcBegin > srcEnd || srcEnd > length()) {
+            throw new StringIndexOutOfBoundsException("begin " + srcBegin + ", end " + srcEnd + ", length " + length());
+        }
+        if (srcBegin < srcEnd) {
+            appender.getChars(srcBegin, srcEnd, dst, dstBegin);
+        }
+    }
+    
+    /**
+     * Gets the chars in the given range as a heap string.
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || start > end || end > length()) {
+            throw new StringIndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length());
+        }
+        char[] chars = new char[end - start];
+        getChars(start, end, chars, 0);
+        return new String(chars);
+    }
+    
+    /**
+     * Finishes the built string without copying it, so its storage is owned by the returned string 
+     * and the builder is reset to be empty.
+     */
+    public String toMyString() {
+        MyStringTemplate.ValueAppender result = appender();
+        appender = null;
+        return result.toResult();
+    }
+    
+    /**
+     * Releases the storage of the chars appended so far and resets the builder to be empty.
+     */
+    public void discard() {
+        if (appender != null) {
+            appender.discard();
+            appender = null;
+        }
+    }
+    
+    /**
+     * Gets a heap copy of the built chars. Use {@link #toMyString()} to get the built string 
+     * without copying it.
+     */
+    @Override
+    public String toString() {
+        return (String) subSequence(0, length());
+    }
+    
+}
@@ -0,0 +1,524 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import tr.com.serkanozal.mystring.api.MyString;
+
+/**
+ * Cache of strings created by a {@link MyStringFactory}, bounded by the total storage size 
+ * ({@link MyString#getStorageSize()}) of its values and evicting them by the W-TinyLFU policy. 
+ * 
+ * New entries are put into a small LRU window (1% of the bytes). 
+ * Entries evicted from the window are candidates for the main space, 
+ * which is a segmented LRU of probation and protected (80% of the main bytes) entries. 
+ * A candidate is admitted into the main space only if it has been used more frequently 
+ * than the probation entry it would replace, where the frequencies are estimated 
+ * by a count-min sketch of 4-bit counters which are halved periodically. 
+ * 
+ * Lookups are lock-free. Accesses are recorded into striped buffers 
+ * which are applied to the policy in batches by the thread holding the policy lock 
+ * (accesses are dropped when the buffers are full, since the policy tolerates losing some). 
+ * 
+ * Values are reference counted, so an evicted (or removed, or replaced) value 
+ * is destroyed by the cache as soon as no reader holds it anymore.
+ */
+public final class MyStringCache<K> {
+
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+    private static final int READ_BUFFER_COUNT = 16;
+    private static final int READ_BUFFER_SIZE = 32;
+    
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    
+    private final MyStringFactory factory;
+    private final long maxBytes;
+    private final long windowMaxBytes;
+    private final long protectedMaxBytes;
+    private final ConcurrentHashMap<K, Entry<K>> map = new ConcurrentHashMap<K, Entry<K>>();
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final ReadBuffer[] readBuffers = new ReadBuffer[READ_BUFFER_COUNT];
+    // Following fields are guarded by the policy lock
+    private final AccessOrder<K> window = new AccessOrder<K>();
+    private final AccessOrder<K> probation = new AccessOrder<K>();
+    private final AccessOrder<K> protectedOrder = new AccessOrder<K>();
+    private final FrequencySketch sketch = new FrequencySketch();
+    private long totalBytes;
+    
+    /**
+     * @param factory  factory of the cached strings
+     * @param maxBytes max total storage size of the cached strings
+     */
+    public MyStringCache(MyStringFactory factory, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Max bytes must be positive: " + maxBytes);
+        }
+        this.factory = factory;
+        this.maxBytes = maxBytes;
+        this.windowMaxBytes = Math.max(1, maxBytes / 100 * WINDOW_PERCENT);
+        this.protectedMaxBytes = (maxBytes - windowMaxBytes) / 100 * PROTECTED_PERCENT;
+        for (int i = 0; i < READ_BUFFER_COUNT; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+    }
+    
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+    
+    /**
+     * Gets the total storage size of the cached strings.
+     */
+    public long getBytes() {
+        policyLock.lock();
+        try {
+            return totalBytes;
+        } finally {
+            policyLock.unlock();
+        }
+    }
+    
+    public int size() {
+        return map.size();
+    }
+    
+    public boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    /**
+     * Gets the entry of the given key by holding its value, 
+     * or returns <code>null</code> if there is no such entry. 
+     * Value is not destroyed until {@link Entry#release()} is called, 
+     * which must be called exactly once for each acquisition.
+     */
+    public Entry<K> acquire(K key) {
+        Entry<K> entry = map.get(key);
+        if (entry == null || !entry.retain()) {
+            return null;
+        }
+        recordAccess(entry);
+        return entry;
+    }
+    
+    /**
+     * Gets a heap copy of the value of the given key, 
+     * or returns <code>null</code> if there is no such entry.
+     */
+    public String getCopy(K key) {
+        Entry<K> entry = acquire(key);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return new String(entry.value.toCharArray());
+        } finally {
+            entry.release();
+        }
+    }
+    
+    /**
+     * Puts the given value for the given key. If the value is a MyString, 
+     * the cache takes it over (it is destroyed by the cache when it is evicted), 
+     * otherwise it is copied by the factory of the cache. 
+     * Value of an existing entry is replaced (and destroyed when it is released by its readers).
+     * 
+     * @return <code>true</code> if the value is cached, 
+     *         <code>false</code> if its storage is larger than the cache (so it is destroyed)
+     */
+    public boolean put(K key, String value) {
+        String myStr = ((Object) value) instanceof MyString ? value : factory.create(value);
+        long bytes = ((MyString) ((Object) myStr)).getStorageSize();
+        if (bytes > maxBytes) {
+            ((MyString) ((Object) myStr)).destroy();
+            return false;
+        }
+        Entry<K> entry = new Entry<K>(key, myStr, bytes);
+        policyLock.lock();
+        try {
+            drainReadBuffers();
+            Entry<K> old = map.put(key, entry);
+            if (old != null) {
+                unlink(old);
+                old.release();
+            }
+            sketch.ensureCapacity(map.size());
+            sketch.increment(key.hashCode());
+            entry.queue = WINDOW;
+            window.addLast(entry);
+            totalBytes += bytes;
+            evict();
+        } finally {
+            policyLock.unlock();
+        }
+        return true;
+    }
+    
+    /**
+     * Removes the entry of the given key. 
+     * Its value is destroyed when it is released by its readers.
+     * 
+     * @return <code>true</code> if the entry is removed, <code>false</code> if there is no such entry
+     */
+    public boolean remove(K key) {
+        policyLock.lock();
+        try {
+            drainReadBuffers();
+            Entry<K> entry = map.remove(key);
+            if (entry == null) {
+                return false;
+            }
+            unlink(entry);
+            entry.release();
+            return true;
+        } finally {
+            policyLock.unlock();
+        }
+    }
+    
+    /**
+     * Removes all the entries. 
+     * Their values are destroyed when they are released by their readers.
+     */
+    public void clear() {
+        policyLock.lock();
+        try {
+            drainReadBuffers();
+            for (K key : map.keySet()) {
+                Entry<K> entry = map.remove(key);
+                if (entry != null) {
+                    unlink(entry);
+                    entry.release();
+                }
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    private void recordAccess(Entry<K> entry) {
+        ReadBuffer buffer = readBuffers[(int) Thread.currentThread().getId() & (READ_BUFFER_COUNT - 1)];
+        boolean full;
+        synchronized (buffer) {
+            if (buffer.size < READ_BUFFER_SIZE) {
+                buffer.entries[buffer.size++] = entry;
+            }
+            full = buffer.size == READ_BUFFER_SIZE;
+        }
+        if (full && policyLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                policyLock.unlock();
+            }
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers) {
+            synchronized (buffer) {
+                for (int i = 0; i < buffer.size; i++) {
+                    onAccess((Entry<K>) buffer.entries[i]);
+                    buffer.entries[i] = null;
+                }
+                buffer.size = 0;
+            }
+        }
+    }
+    
+    private void onAccess(Entry<K> entry) {
+        if (entry.queue < 0) {
+            // Already removed
+            return;
+        }
+        sketch.increment(entry.key.hashCode());
+        switch (entry.queue) {
+            case WINDOW:
+                window.moveToLast(entry);
+                break;
+            case PROBATION:
+                probation.remove(entry);
+                entry.queue = PROTECTED;
+                protectedOrder.addLast(entry);
+                // Demote the least recently used protected entries if protected space is full
+                while (protectedOrder.bytes > protectedMaxBytes) {
+                    Entry<K> demoted = protectedOrder.first();
+                    protectedOrder.remove(demoted);
+                    demoted.queue = PROBATION;
+                    probation.addLast(demoted);
+                }
+                break;
+            default:
+                protectedOrder.moveToLast(entry);
+                break;
+        }
+    }
+    
+    private void unlink(Entry<K> entry) {
+        switch (entry.queue) {
+            case WINDOW:
+                window.remove(entry);
+                break;
+            case PROBATION:
+                probation.remove(entry);
+                break;
+            case PROTECTED:
+                protectedOrder.remove(entry);
+                break;
+            default:
+                return;
+        }
+        entry.queue = -1;
+        totalBytes -= entry.bytes;
+    }
+    
+    private void evict() {
+        // Entries evicted from the window are added to the end of the probation as candidates
+        int candidates = 0;
+        while (window.bytes > windowMaxBytes && window.first() != null) {
+            Entry<K> candidate = window.first();
+            window.remove(candidate);
+            candidate.queue = PROBATION;
+            probation.addLast(candidate);
+            candidates++;
+        }
+        while (totalBytes > maxBytes) {
+            Entry<K> victim = probation.first();
+            if (victim == null) {
+                victim = protectedOrder.first() != null ? protectedOrder.first() : window.first();
+            }
+            Entry<K> candidate = candidates > 0 ? probation.last() : null;
+            Entry<K> evicted;
+            if (candidate == null || candidate == victim) {
+                evicted = victim;
+            } else if (sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+                evicted = victim;
+            } else {
+                evicted = candidate;
+            }
+            if (evicted == candidate) {
+                candidates--;
+            }
+            map.remove(evicted.key, evicted);
+            unlink(evicted);
+            evicted.release();
+            candidates = Math.min(candidates, probation.count);
+        }
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    /**
+     * Cached entry whose value is valid while it is held (between acquiring and releasing it).
+     */
+    public static final class Entry<K> {
+        
+        private final K key;
+        private final String value;
+        private final long bytes;
+        /** Count of the holders, including the cache itself while the entry is cached */
+        private final AtomicInteger refCount = new AtomicInteger(1);
+        // Following fields are guarded by the policy lock
+        private int queue = -1;
+        private Entry<K> prev;
+        private Entry<K> next;
+        
+        private Entry(K key, String value, long bytes) {
+            this.key = key;
+            this.value = value;
+            this.bytes = bytes;
+        }
+        
+        private boolean retain() {
+            for (;;) {
+                int count = refCount.get();
+                if (count == 0) {
+                    // Value has been destroyed
+                    return false;
+                }
+                if (refCount.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+        
+        public K getKey() {
+            return key;
+        }
+        
+        public String getValue() {
+            return value;
+        }
+        
+        /**
+         * Releases the value, which must not be used after this call.
+         */
+        public void release() {
+            int count = refCount.decrementAndGet();
+            if (count == 0) {
+                ((MyString) ((Object) value)).destroy();
+            } else if (count < 0) {
+                throw new IllegalStateException("Entry is released more than acquired!");
+            }
+        }
+        
+    }
+    
+    /**
+     * Doubly linked list of entries from the least recently used one to the most recently used one.
+     */
+    private static final class AccessOrder<K> {
+        
+        private Entry<K> head;
+        private Entry<K> tail;
+        private int count;
+        private long bytes;
+        
+        private Entry<K> first() {
+            return head;
+        }
+        
+        private Entry<K> last() {
+            return tail;
+        }
+        
+        private void addLast(Entry<K> entry) {
+            entry.prev = tail;
+            entry.next = null;
+            if (tail == null) {
+                head = entry;
+            } else {
+                tail.next = entry;
+            }
+            tail = entry;
+            count++;
+            bytes += entry.bytes;
+        }
+        
+        private void remove(Entry<K> entry) {
+            if (entry.prev == null) {
+                head = entry.next;
+            } else {
+                entry.prev.next = entry.next;
+            }
+            if (entry.next == null) {
+                tail = entry.prev;
+            } else {
+                entry.next.prev = entry.prev;
+            }
+            entry.prev = null;
+            entry.next = null;
+            count--;
+            bytes -= entry.bytes;
+        }
+        
+        private void moveToLast(Entry<K> entry) {
+            if (entry != tail) {
+                remove(entry);
+                addLast(entry);
+            }
+        }
+        
+    }
+    
+    private static final class ReadBuffer {
+        
+        private final Entry<?>[] entries = new Entry<?>[READ_BUFFER_SIZE];
+        private int size;
+        
+    }
+    
+    /**
+     * Count-min sketch of 4-bit counters (16 counters in each long) estimating 
+     * the access frequencies of the keys. Counters are halved after a sample of accesses, 
+     * so old accesses fade away.
+     */
+    private static final class FrequencySketch {
+        
+        private static final long[] SEEDS = { 
+            0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L 
+        };
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final int MAX_COUNTER = 15;
+        private static final int SAMPLE_FACTOR = 10;
+        
+        private long[] table = new long[16];
+        private int sampleSize = SAMPLE_FACTOR * 16;
+        private int additions;
+        
+        private void ensureCapacity(int size) {
+            if (size <= table.length || table.length >= (1 << 30)) {
+                return;
+            }
+            int length = table.length;
+            while (length < size && length < (1 << 30)) {
+                length <<= 1;
+            }
+            table = new long[length];
+            sampleSize = SAMPLE_FACTOR * length;
+            additions = 0;
+        }
+        
+        private static long hash(int hashCode, int i) {
+            long h = (hashCode + SEEDS[i]) * SEEDS[i];
+            return h ^ (h >>> 32);
+        }
+        
+        private int frequency(int hashCode) {
+            int frequency = MAX_COUNTER;
+            for (int i = 0; i < SEEDS.length; i++) {
+                long h = hash(hashCode, i);
+                int index = (int) (h >>> 4) & (table.length - 1);
+                int shift = (int) (h & 15) << 2;
+                frequency = Math.min(frequency, (int) ((table[index] >>> shift) & MAX_COUNTER));
+            }
+            return frequency;
+        }
+        
+        private void increment(int hashCode) {
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                long h = hash(hashCode, i);
+                int index = (int) (h >>> 4) & (table.length - 1);
+                int shift = (int) (h & 15) << 2;
+                if (((table[index] >>> shift) & MAX_COUNTER) < MAX_COUNTER) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions >>>= 1;
+            }
+        }
+        
+    }
+    
+}
@@ -0,0 +1,559 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import sun.misc.Unsafe;
+import tr.com.serkanozal.mystring.util.JvmUtil;
+
+/**
+ * Immutable column of strings stored contiguously in native memory, 
+ * so its values don't have any object or native block of their own. 
+ * 
+ * Layout is the same with the Arrow variable-size binary layout: 
+ * a validity bitmap (least significant bit first, or none if there is no <code>null</code> value), 
+ * an offsets buffer of <code>size + 1</code> 32-bit byte offsets 
+ * and a data buffer holding the chars of all the values back to back (in native byte order). 
+ * A dictionary encoded column has a buffer of 32-bit indices into a dictionary column 
+ * (holding the distinct values) instead of its own offsets and data buffers. 
+ * 
+ * Values are got as read-only views, or scanned through a reusable {@link Value} flyweight 
+ * without creating any object. Views are valid until the column is destroyed. 
+ * 
+ * Buffers are allocated (and grown while building) by {@link Unsafe} directly, not through a 
+ * {@link tr.com.serkanozal.mystring.api.MyStringProcessor MyStringProcessor}, 
+ * since their layout is fixed and a value is a range of the shared buffers rather than a storage of its own. 
+ * So they are not visible to the processors and they are freed only by destroying the column. 
+ * 
+ * Note that building a column is not thread-safe but a built column can be read concurrently.
+ */
+public final class MyStringColumn {
+
+    private static final Unsafe UNSAFE = JvmUtil.getUnsafe();
+    
+    private static final int CHAR_SIZE = 2;
+    private static final int OFFSET_SIZE = 4;
+    private static final int INDEX_SIZE = 4;
+    private static final int INITIAL_CAPACITY = 1024;
+    
+    private final int size;
+    private final int nullCount;
+    private long validity;
+    private long offsets;
+    private long data;
+    private long indices;
+    private final MyStringColumn dictionary;
+    private boolean destroyed;
+    
+    private MyStringColumn(int size, int nullCount, long validity, long offsets, long data, 
+                           long indices, MyStringColumn dictionary) {
+        this.size = size;
+        this.nullCount = nullCount;
+        this.validity = validity;
+        this.offsets = offsets;
+        this.data = data;
+        this.indices = indices;
+        this.dictionary = dictionary;
+    }
+    
+    public static Builder builder() {
+        return new Builder(false);
+    }
+    
+    /**
+     * Creates a builder of a dictionary encoded column, 
+     * which stores each distinct value only once in its dictionary.
+     */
+    public static Builder dictionaryBuilder() {
+        return new Builder(true);
+    }
+    
+    private void checkNotDestroyed() {
+        if (destroyed) {
+            throw new IllegalStateException("Column is destroyed!");
+        }
+    }
+    
+    private void checkIndex(int index) {
+        checkNotDestroyed();
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public int nullCount() {
+        return nullCount;
+    }
+    
+    public boolean isDictionaryEncoded() {
+        return dictionary != null;
+    }
+    
+    /**
+     * Gets the dictionary of a dictionary encoded column, or <code>null</code> if it isn't encoded.
+     */
+    public MyStringColumn getDictionary() {
+        return dictionary;
+    }
+    
+    /**
+     * Gets the index of the value into the dictionary of a dictionary encoded column.
+     */
+    public int getDictionaryIndex(int index) {
+        checkIndex(index);
+        if (dictionary == null) {
+            throw new IllegalStateException("Column is not dictionary encoded!");
+        }
+        return UNSAFE.getInt(indices + (long) index * INDEX_SIZE);
+    }
+    
+    public long getValidityAddress() {
+        return validity;
+    }
+    
+    public long getOffsetsAddress() {
+        return offsets;
+    }
+    
+    public long getDataAddress() {
+        return data;
+    }
+    
+    public long getIndicesAddress() {
+        return indices;
+    }
+    
+    public boolean isNull(int index) {
+        checkIndex(index);
+        return validity != 0 && ((UNSAFE.getByte(validity + (index >> 3)) >> (index & 7)) & 1) == 0;
+    }
+    
+    // Gets the address of the value in its plain column, or 0 if it is null. 
+    // Length of the value is got by {@link #valueLength(int)} from the same plain column.
+    private long valueAddress(int index) {
+        checkIndex(index);
+        if (validity != 0 && ((UNSAFE.getByte(validity + (index >> 3)) >> (index & 7)) & 1) == 0) {
+            return 0;
+        }
+        if (dictionary != null) {
+            return dictionary.valueAddress(UNSAFE.getInt(indices + (long) index * INDEX_SIZE));
+        }
+        return data + UNSAFE.getInt(offsets + (long) index * OFFSET_SIZE);
+    }
+    
+    /**
+     * Gets the length of the value, or <code>-1</code> if it is <code>null</code>.
+     */
+    public int length(int index) {
+        checkIndex(index);
+        if (validity != 0 && ((UNSAFE.getByte(validity + (index >> 3)) >> (index & 7)) & 1) == 0) {
+            return -1;
+        }
+        if (dictionary != null) {
+            return dictionary.length(UNSAFE.getInt(indices + (long) index * INDEX_SIZE));
+        }
+        long offset = offsets + (long) index * OFFSET_SIZE;
+        return (UNSAFE.getInt(offset + OFFSET_SIZE) - UNSAFE.getInt(offset)) / CHAR_SIZE;
+    }
+    
+    public char charAt(int index, int charIndex) {
+        int length = length(index);
+        if (charIndex < 0 || charIndex >= length) {
+            throw new StringIndexOutOfBoundsException(charIndex);
+        }
+        return UNSAFE.getChar(valueAddress(index) + (long) charIndex * CHAR_SIZE);
+    }
+    
+    /**
+     * Gets a read-only view of the value, or <code>null</code> if it is <code>null</code>.
+     */
+    public String get(int index) {
+        int length = length(index);
+        if (length < 0) {
+            return null;
+        }
+        return MyStringNativeChars.view(valueAddress(index), length, 0);
+    }
+    
+    /**
+     * Copies the chars of the value (which must not be <code>null</code>) into the given array.
+     */
+    public void getChars(int index, char[] dst, int dstBegin) {
+        int length = length(index);
+        if (length < 0) {
+            throw new NullPointerException("Value at " + index + " is null!");
+        }
+        getChars(index, 0, length, dst, dstBegin);
+    }
+    
+    /**
+     * Copies the chars of the value (which must not be <code>null</code>) in the given range 
+     * into the given array, as {@link String#getChars(int, int, char[], int)} does.
+     */
+    public void getChars(int index, int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+        int length = length(index);
+        if (length < 0) {
+            throw new NullPointerException("Value at " + index + " is null!");
+        }
+        if (srcBegin < 0 || srcBegin > srcEnd || srcEnd > length) {
+            throw new StringIndexOutOfBoundsException("begin " + srcBegin + ", end " + srcEnd + ", length " + length);
+        }
+        if (dstBegin < 0 || dstBegin > dst.length - (srcEnd - srcBegin)) {
+            throw new ArrayIndexOutOfBoundsException(dstBegin);
+        }
+        UNSAFE.copyMemory(null, valueAddress(index) + (long) srcBegin * CHAR_SIZE, 
+                          dst, MyStringNativeChars.CHAR_ARRAY_BASE_OFFSET + (long) dstBegin * CHAR_SIZE, 
+                          (long) (srcEnd - srcBegin) * CHAR_SIZE);
+    }
+    
+    /**
+     * Checks whether the value has the same content with the given sequence 
+     * (or both are <code>null</code>).
+     */
+    public boolean contentEquals(int index, CharSequence csq) {
+        int length = length(index);
+        if (length < 0 || csq == null) {
+            return length < 0 && csq == null;
+        }
+        if (length != csq.length()) {
+            return false;
+        }
+        long address = valueAddress(index);
+        for (int i = 0; i < length; i++) {
+            if (UNSAFE.getChar(address + (long) i * CHAR_SIZE) != csq.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Creates a reusable view which can be moved over the values of this column.
+     */
+    public Value flyweight() {
+        checkNotDestroyed();
+        return new Value();
+    }
+    
+    /**
+     * Releases all the native memory of the column (and its dictionary). 
+     * The column and its value views must not be used anymore.
+     */
+    public void destroy() {
+        if (!destroyed) {
+            UNSAFE.freeMemory(validity);
+            UNSAFE.freeMemory(offsets);
+            UNSAFE.freeMemory(data);
+            UNSAFE.freeMemory(indices);
+            validity = offsets = data = indices = 0;
+            if (dictionary != null) {
+                dictionary.destroy();
+            }
+            destroyed = true;
+        }
+    }
+    
+    /**
+     * Flyweight view of a non-null value of the column, moved by {@link #at(int)}.
+     */
+    public final class Value implements CharSequence {
+        
+        private long address;
+        private int length;
+        
+        private Value() {
+        }
+        
+        /**
+         * Moves this view to the value at the given index, which must not be <code>null</code>.
+         */
+        public Value at(int index) {
+            int len = MyStringColumn.this.length(index);
+            if (len < 0) {
+                throw new NullPointerException("Value at " + index + " is null!");
+            }
+            address = valueAddress(index);
+            length = len;
+            return this;
+        }
+        
+        @Override
+        public int length() {
+            return length;
+        }
+        
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new StringIndexOutOfBoundsException(index);
+            }
+            return UNSAFE.getChar(address + (long) index * CHAR_SIZE);
+        }
+        
+        /**
+         * Gets a read-only view of the given part of the current value.
+         */
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new StringIndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+            }
+            return MyStringNativeChars.view(address + (long) start * CHAR_SIZE, end - start, 0);
+        }
+        
+        /**
+         * Gets a heap copy of the current value.
+         */
+        @Override
+        public String toString() {
+            char[] chars = new char[length];
+            UNSAFE.copyMemory(null, address, 
+                              chars, MyStringNativeChars.CHAR_ARRAY_BASE_OFFSET, (long) length * CHAR_SIZE);
+            return new String(chars);
+        }
+        
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    public static final class Builder {
+        
+        private final boolean dictionaryEncoded;
+        private int size;
+        private int nullCount;
+        private int capacity = INITIAL_CAPACITY;
+        private long validity;
+        private long offsets;
+        private long data;
+        private long dataSize;
+        private long dataCapacity;
+        private long indices;
+        // Dictionary of the distinct values and the hash table of their indices (index + 1, or 0 if empty)
+        private Builder dictionary;
+        private int[] dictionaryTable;
+        private int[] dictionaryHashes;
+        private char[] copyChunk;
+        private boolean built;
+        
+        private Builder(boolean dictionaryEncoded) {
+            this.dictionaryEncoded = dictionaryEncoded;
+            if (dictionaryEncoded) {
+                indices = UNSAFE.allocateMemory((long) capacity * INDEX_SIZE);
+                dictionary = new Builder(false);
+                dictionaryTable = new int[16];
+                dictionaryHashes = new int[16];
+            } else {
+                offsets = UNSAFE.allocateMemory((long) (capacity + 1) * OFFSET_SIZE);
+                UNSAFE.putInt(offsets, 0);
+                dataCapacity = (long) INITIAL_CAPACITY * 8 * CHAR_SIZE;
+                data = UNSAFE.allocateMemory(dataCapacity);
+            }
+        }
+        
+        private void checkNotBuilt() {
+            if (built) {
+                throw new IllegalStateException("Column is already built!");
+            }
+        }
+        
+        public int size() {
+            return size;
+        }
+        
+        private void ensureCapacity() {
+            if (size < capacity) {
+                return;
+            }
+            if (capacity == Integer.MAX_VALUE) {
+                throw new IllegalStateException("Column is full!");
+            }
+            int newCapacity = (int) Math.min((long) capacity << 1, Integer.MAX_VALUE);
+            if (dictionaryEncoded) {
+                indices = UNSAFE.reallocateMemory(indices, (long) newCapacity * INDEX_SIZE);
+            } else {
+                offsets = UNSAFE.reallocateMemory(offsets, (long) (newCapacity + 1) * OFFSET_SIZE);
+            }
+            if (validity != 0) {
+                long oldSize = validitySize(capacity);
+                long newSize = validitySize(newCapacity);
+                validity = UNSAFE.reallocateMemory(validity, newSize);
+                UNSAFE.setMemory(validity + oldSize, newSize - oldSize, (byte) 0);
+            }
+            capacity = newCapacity;
+        }
+        
+        private static long validitySize(int capacity) {
+            return ((long) capacity + 7) >> 3;
+        }
+        
+        private void setValid(int index) {
+            if (validity != 0) {
+                long address = validity + (index >> 3);
+                UNSAFE.putByte(address, (byte) (UNSAFE.getByte(address) | (1 << (index & 7))));
+            }
+        }
+        
+        public Builder appendNull() {
+            checkNotBuilt();
+            ensureCapacity();
+            if (validity == 0) {
+                // Bitmap is created by the first null value, so all the previous values are valid
+                long validitySize = validitySize(capacity);
+                validity = UNSAFE.allocateMemory(validitySize);
+                UNSAFE.setMemory(validity, validitySize, (byte) 0);
+                for (int i = 0; i < size; i++) {
+                    setValid(i);
+                }
+            }
+            if (dictionaryEncoded) {
+                UNSAFE.putInt(indices + (long) size * INDEX_SIZE, 0);
+            } else {
+                UNSAFE.putInt(offsets + (long) (size + 1) * OFFSET_SIZE, (int) dataSize);
+            }
+            size++;
+            nullCount++;
+            return this;
+        }
+        
+        /**
+         * Appends the given value (or a <code>null</code> value if it is <code>null</code>) 
+         * by copying it into native memory.
+         */
+        public Builder append(CharSequence value) {
+            if (value == null) {
+                return appendNull();
+            }
+            checkNotBuilt();
+            ensureCapacity();
+            if (dictionaryEncoded) {
+                UNSAFE.putInt(indices + (long) size * INDEX_SIZE, dictionaryIndex(value));
+            } else {
+                appendData(value);
+            }
+            setValid(size);
+            size++;
+            return this;
+        }
+        
+        private void appendData(CharSequence value) {
+            int length = value.length();
+            long newDataSize = dataSize + (long) length * CHAR_SIZE;
+            if (newDataSize > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Data of the column exceeds " + Integer.MAX_VALUE + " bytes!");
+            }
+            if (newDataSize > dataCapacity) {
+                dataCapacity = Math.max(newDataSize, Math.min(dataCapacity << 1, Integer.MAX_VALUE));
+                data = UNSAFE.reallocateMemory(data, dataCapacity);
+            }
+            writeChars(data + dataSize, value, length);
+            dataSize = newDataSize;
+            UNSAFE.putInt(offsets + (long) (size + 1) * OFFSET_SIZE, (int) dataSize);
+        }
+        
+        private void writeChars(long address, CharSequence csq, int length) {
+            copyChunk = MyStringNativeChars.writeChars(address, csq, length, copyChunk);
+        }
+        
+        private boolean valueEquals(int index, CharSequence value) {
+            int start = UNSAFE.getInt(offsets + (long) index * OFFSET_SIZE);
+            int end = UNSAFE.getInt(offsets + (long) (index + 1) * OFFSET_SIZE);
+            int length = value.length();
+            if ((end - start) / CHAR_SIZE != length) {
+                return false;
+            }
+            long address = data + start;
+            for (int i = 0; i < length; i++) {
+                if (UNSAFE.getChar(address + (long) i * CHAR_SIZE) != value.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        // Finds the index of the value in the dictionary, or adds the value into the dictionary
+        private int dictionaryIndex(CharSequence value) {
+            int hash = MyStringNativeChars.hash(value);
+            int mask = dictionaryTable.length - 1;
+            int i = MyStringNativeChars.mix(hash) & mask;
+            for (; dictionaryTable[i] != 0; i = (i + 1) & mask) {
+                if (dictionaryHashes[i] == hash && dictionary.valueEquals(dictionaryTable[i] - 1, value)) {
+                    return dictionaryTable[i] - 1;
+                }
+            }
+            int index = dictionary.size;
+            dictionary.append(value);
+            dictionaryTable[i] = index + 1;
+            dictionaryHashes[i] = hash;
+            if (dictionary.size << 1 > dictionaryTable.length) {
+                rehashDictionary();
+            }
+            return index;
+        }
+        
+        private void rehashDictionary() {
+            int[] oldTable = dictionaryTable;
+            int[] oldHashes = dictionaryHashes;
+            dictionaryTable = new int[oldTable.length << 1];
+            dictionaryHashes = new int[oldHashes.length << 1];
+            int mask = dictionaryTable.length - 1;
+            for (int j = 0; j < oldTable.length; j++) {
+                if (oldTable[j] != 0) {
+                    int i = MyStringNativeChars.mix(oldHashes[j]) & mask;
+                    while (dictionaryTable[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    dictionaryTable[i] = oldTable[j];
+                    dictionaryHashes[i] = oldHashes[j];
+                }
+            }
+        }
+        
+        /**
+         * Builds the column by handing the native memory over to it, 
+         * so this builder must not be used anymore.
+         */
+        public MyStringColumn build() {
+            checkNotBuilt();
+            built = true;
+            MyStringColumn dictionaryColumn = dictionary != null ? dictionary.build() : null;
+            dictionaryTable = null;
+            dictionaryHashes = null;
+            return new MyStringColumn(size, nullCount, validity, offsets, data, indices, dictionaryColumn);
+        }
+        
+        /**
+         * Releases the native memory of the values appended so far without building the column.
+         */
+        public void discard() {
+            if (!built) {
+                built = true;
+                UNSAFE.freeMemory(validity);
+                UNSAFE.freeMemory(offsets);
+                UNSAFE.freeMemory(data);
+                UNSAFE.freeMemory(indices);
+                if (dictionary != null) {
+                    dictionary.discard();
+                }
+            }
+        }
+        
+    }
+    
+}
@@ -0,0 +1,732 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import sun.misc.Unsafe;
+import tr.com.serkanozal.mystring.util.DirectBufferUtil;
+import tr.com.serkanozal.mystring.util.JvmUtil;
+
+/**
+ * Immutable dictionary of sorted distinct strings stored in native memory by front coding. 
+ * 
+ * Strings are grouped into blocks. First string of a block is stored as a whole 
+ * and each of the others is stored as the length of the prefix shared with the previous string 
+ * and the remaining chars, so common prefixes are stored once. 
+ * Strings are looked up by binary search over the first strings of the blocks 
+ * and by scanning a single block without decoding the strings. 
+ * Each string is identified by its ordinal (rank) in the sorted order. 
+ * 
+ * Image of the dictionary is a single native memory region which is saved into a file as it is 
+ * and loaded back by mapping the file (or by reading it into native memory if it is larger than 2GB) 
+ * without building anything: 
+ *      header | offsets of the blocks in data section (long) | data section. 
+ * Lengths are encoded as chars by 15 bits each (high bit is set if more chars follow), 
+ * so the data section consists of chars only (as UTF-16 with the native byte order). 
+ * A loaded image is validated by a single sequential scan, so lookups trust the decoded lengths. 
+ * 
+ * Note that a dictionary can be read concurrently but its cursors are not thread-safe.
+ */
+public final class MyStringDictionary {
+
+    private static final Unsafe UNSAFE = JvmUtil.getUnsafe();
+    
+    private static final long MAGIC = 0x4D79537472446963L; // "MyStrDic"
+    private static final int VERSION = 1;
+    private static final int BIG_ENDIAN = 0;
+    private static final int LITTLE_ENDIAN = 1;
+    
+    // Layout of the header:
+    //      magic (long) | version (int) | byte order of image (int) | string count (int) | 
+    //      block size (int) | block count (int) | max string length (int) | data size (long)
+    private static final int VERSION_OFFSET = 8;
+    private static final int BYTE_ORDER_OFFSET = 12;
+    private static final int COUNT_OFFSET = 16;
+    private static final int BLOCK_SIZE_OFFSET = 20;
+    private static final int BLOCK_COUNT_OFFSET = 24;
+    private static final int MAX_LENGTH_OFFSET = 28;
+    private static final int DATA_SIZE_OFFSET = 32;
+    private static final int HEADER_SIZE = 40;
+    private static final int BLOCK_OFFSET_SIZE = 8;
+    
+    private static final int DEFAULT_BLOCK_SIZE = 16;
+    private static final int CHAR_SIZE = 2;
+    private static final int LENGTH_CHAR_BITS = 15;
+    private static final int LENGTH_CHAR_MASK = (1 << LENGTH_CHAR_BITS) - 1;
+    private static final int LENGTH_CHAR_CONTINUE = 1 << LENGTH_CHAR_BITS;
+    private static final long INITIAL_DATA_CAPACITY = 64 * 1024;
+    /** Max size of a file region mapped at once */
+    private static final int MAX_REGION_SIZE = 1 << 30;
+    /** Max count of chars encoding a length, since 3 chars hold 45 bits */
+    private static final int MAX_LENGTH_CHARS = 3;
+    
+    private static final long CHAR_ARRAY_BASE_OFFSET;
+    
+    static {
+        try {
+            CHAR_ARRAY_BASE_OFFSET = UNSAFE.arrayBaseOffset(char[].class);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+    
+    private final long address;
+    private final long imageSize;
+    private final int count;
+    private final int blockSize;
+    private final int blockCount;
+    private final int maxLength;
+    private final long blockOffsets;
+    private final long data;
+    /** Mapped region of the image if it is loaded from a file, or <code>null</code> if it is built */
+    private MappedByteBuffer mappedImage;
+    private volatile boolean destroyed;
+    
+    private MyStringDictionary(long address, long imageSize, MappedByteBuffer mappedImage) {
+        this.address = address;
+        this.imageSize = imageSize;
+        this.mappedImage = mappedImage;
+        this.count = UNSAFE.getInt(address + COUNT_OFFSET);
+        this.blockSize = UNSAFE.getInt(address + BLOCK_SIZE_OFFSET);
+        this.blockCount = UNSAFE.getInt(address + BLOCK_COUNT_OFFSET);
+        this.maxLength = UNSAFE.getInt(address + MAX_LENGTH_OFFSET);
+        this.blockOffsets = address + HEADER_SIZE;
+        this.data = blockOffsets + (long) blockCount * BLOCK_OFFSET_SIZE;
+    }
+    
+    private static int nativeByteOrder() {
+        return ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? LITTLE_ENDIAN : BIG_ENDIAN;
+    }
+    
+    private void checkNotDestroyed() {
+        if (destroyed) {
+            throw new IllegalStateException("Dictionary is destroyed!");
+        }
+    }
+    
+    public int size() {
+        return count;
+    }
+    
+    /**
+     * Gets the size of the native memory (or the file) holding the dictionary.
+     */
+    public long getImageSize() {
+        return imageSize;
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    public static MyStringDictionary build(Iterable<? extends CharSequence> sortedStrs) {
+        return build(sortedStrs.iterator(), DEFAULT_BLOCK_SIZE);
+    }
+    
+    /**
+     * Builds a dictionary from the given strings which must be distinct 
+     * and sorted in the order of {@link String#compareTo(String)}.
+     * 
+     * @param blockSize count of the strings in a block, 
+     *                  larger blocks store less but scan more strings for a lookup
+     */
+    public static MyStringDictionary build(Iterator<? extends CharSequence> sortedStrs, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        Builder builder = new Builder(blockSize);
+        try {
+            while (sortedStrs.hasNext()) {
+                builder.add(sortedStrs.next());
+            }
+            return builder.build();
+        } finally {
+            builder.free();
+        }
+    }
+    
+    private static final class Builder {
+        
+        private final int blockSize;
+        private long data;
+        private long dataCapacity = INITIAL_DATA_CAPACITY;
+        private long dataSize;
+        private long[] blockOffsets = new long[16];
+        private int count;
+        private int maxLength;
+        private char[] previous = new char[16];
+        private int previousLength;
+        
+        private Builder(int blockSize) {
+            this.blockSize = blockSize;
+            this.data = UNSAFE.allocateMemory(dataCapacity);
+        }
+        
+        private void ensureCapacity(long size) {
+            if (dataSize + size > dataCapacity) {
+                dataCapacity = Math.max(dataSize + size, dataCapacity << 1);
+                data = UNSAFE.reallocateMemory(data, dataCapacity);
+            }
+        }
+        
+        private void putChar(char c) {
+            UNSAFE.putChar(data + dataSize, c);
+            dataSize += CHAR_SIZE;
+        }
+        
+        private void putLength(int length) {
+            while (length > LENGTH_CHAR_MASK) {
+                putChar((char) ((length & LENGTH_CHAR_MASK) | LENGTH_CHAR_CONTINUE));
+                length >>>= LENGTH_CHAR_BITS;
+            }
+            putChar((char) length);
+        }
+        
+        private void add(CharSequence str) {
+            if (count == Integer.MAX_VALUE) {
+                throw new IllegalStateException("Dictionary is full!");
+            }
+            int length = str.length();
+            int shared = 0;
+            int max = Math.min(length, previousLength);
+            while (shared < max && str.charAt(shared) == previous[shared]) {
+                shared++;
+            }
+            if (count > 0 
+                    && (shared == length || (shared < previousLength && str.charAt(shared) < previous[shared]))) {
+                throw new IllegalArgumentException("Strings are not sorted or not distinct at index " + count + "!");
+            }
+            // Max 3 chars for each length
+            ensureCapacity((long) (length + 6) * CHAR_SIZE);
+            if (count % blockSize == 0) {
+                int block = count / blockSize;
+                if (block == blockOffsets.length) {
+                    blockOffsets = Arrays.copyOf(blockOffsets, block << 1);
+                }
+                blockOffsets[block] = dataSize;
+                shared = 0;
+                putLength(length);
+            } else {
+                putLength(shared);
+                putLength(length - shared);
+            }
+            for (int i = shared; i < length; i++) {
+                putChar(str.charAt(i));
+            }
+            if (length > previous.length) {
+                previous = Arrays.copyOf(previous, Math.max(length, previous.length << 1));
+            }
+            for (int i = shared; i < length; i++) {
+                previous[i] = str.charAt(i);
+            }
+            previousLength = length;
+            maxLength = Math.max(maxLength, length);
+            count++;
+        }
+        
+        private MyStringDictionary build() {
+            int blockCount = (count + blockSize - 1) / blockSize;
+            long imageSize = HEADER_SIZE + (long) blockCount * BLOCK_OFFSET_SIZE + dataSize;
+            long address = UNSAFE.allocateMemory(imageSize);
+            UNSAFE.putLong(address, MAGIC);
+            UNSAFE.putInt(address + VERSION_OFFSET, VERSION);
+            UNSAFE.putInt(address + BYTE_ORDER_OFFSET, nativeByteOrder());
+            UNSAFE.putInt(address + COUNT_OFFSET, count);
+            UNSAFE.putInt(address + BLOCK_SIZE_OFFSET, blockSize);
+            UNSAFE.putInt(address + BLOCK_COUNT_OFFSET, blockCount);
+            UNSAFE.putInt(address + MAX_LENGTH_OFFSET, maxLength);
+            UNSAFE.putLong(address + DATA_SIZE_OFFSET, dataSize);
+            for (int i = 0; i < blockCount; i++) {
+                UNSAFE.putLong(address + HEADER_SIZE + (long) i * BLOCK_OFFSET_SIZE, blockOffsets[i]);
+            }
+            UNSAFE.copyMemory(data, address + HEADER_SIZE + (long) blockCount * BLOCK_OFFSET_SIZE, dataSize);
+            return new MyStringDictionary(address, imageSize, null);
+        }
+        
+        private void free() {
+            UNSAFE.freeMemory(data);
+            data = 0;
+        }
+        
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    /**
+     * Saves the image of the dictionary into the given file by mapping it in regions. File is replaced 
+     * atomically (if supported by the file system), so a previous dictionary is never left half written.
+     */
+    public void save(File file) throws IOException {
+        checkNotDestroyed();
+        File tmpFile = new File(file.getPath() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+        boolean done = false;
+        try {
+            raf.setLength(imageSize);
+            for (long position = 0; position < imageSize; position += MAX_REGION_SIZE) {
+                long size = Math.min(MAX_REGION_SIZE, imageSize - position);
+                MappedByteBuffer region = 
+                        raf.getChannel().map(FileChannel.MapMode.READ_WRITE, position, size);
+                try {
+                    UNSAFE.copyMemory(address + position, DirectBufferUtil.getAddress(region), size);
+                    region.force();
+                } finally {
+                    DirectBufferUtil.release(region);
+                }
+            }
+            done = true;
+        } finally {
+            raf.close();
+            if (!done) {
+                tmpFile.delete();
+            }
+        }
+        if (!tmpFile.renameTo(file)) {
+            // Some platforms don't replace the existing file by renaming
+            if (!file.delete() || !tmpFile.renameTo(file)) {
+                throw new IOException("Unable to replace dictionary file " + file);
+            }
+        }
+    }
+    
+    /**
+     * Loads the dictionary saved into the given file by mapping the file read-only. 
+     * File must not be modified while the dictionary is in use. 
+     * Files larger than 2GB can't be mapped as a single region, so they are read into native memory.
+     */
+    public static MyStringDictionary load(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long fileSize = raf.length();
+            if (fileSize < HEADER_SIZE) {
+                throw new IOException("Not a dictionary file!");
+            }
+            if (fileSize > Integer.MAX_VALUE) {
+                return read(raf.getChannel(), fileSize);
+            }
+            MappedByteBuffer region = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            boolean done = false;
+            try {
+                long address = DirectBufferUtil.getAddress(region);
+                checkImage(address, fileSize);
+                MyStringDictionary dictionary = new MyStringDictionary(address, fileSize, region);
+                done = true;
+                return dictionary;
+            } finally {
+                if (!done) {
+                    DirectBufferUtil.release(region);
+                }
+            }
+        } finally {
+            // Mapping stays valid after the file is closed
+            raf.close();
+        }
+    }
+    
+    private static MyStringDictionary read(FileChannel channel, long fileSize) throws IOException {
+        long address = UNSAFE.allocateMemory(fileSize);
+        boolean done = false;
+        try {
+            for (long position = 0; position < fileSize;) {
+                ByteBuffer region = 
+                        DirectBufferUtil.wrap(address + position, (int) Math.min(MAX_REGION_SIZE, fileSize - position));
+                while (region.hasRemaining()) {
+                    int n = channel.read(region, position + region.position());
+                    if (n < 0) {
+                        throw new EOFException("Dictionary file is truncated!");
+                    }
+                }
+                position += region.capacity();
+            }
+            checkImage(address, fileSize);
+            MyStringDictionary dictionary = new MyStringDictionary(address, fileSize, null);
+            done = true;
+            return dictionary;
+        } finally {
+            if (!done) {
+                UNSAFE.freeMemory(address);
+            }
+        }
+    }
+    
+    private static void checkImage(long address, long size) throws IOException {
+        long magic = UNSAFE.getLong(address);
+        if (magic == Long.reverseBytes(MAGIC)) {
+            throw new IOException("Dictionary was saved on a platform with different byte order!");
+        }
+        if (magic != MAGIC) {
+            throw new IOException("Not a dictionary file!");
+        }
+        int version = UNSAFE.getInt(address + VERSION_OFFSET);
+        if (version != VERSION) {
+            throw new IOException("Unsupported dictionary version: " + version);
+        }
+        if (UNSAFE.getInt(address + BYTE_ORDER_OFFSET) != nativeByteOrder()) {
+            throw new IOException("Dictionary was saved on a platform with different byte order!");
+        }
+        int count = UNSAFE.getInt(address + COUNT_OFFSET);
+        int blockSize = UNSAFE.getInt(address + BLOCK_SIZE_OFFSET);
+        int blockCount = UNSAFE.getInt(address + BLOCK_COUNT_OFFSET);
+        int maxLength = UNSAFE.getInt(address + MAX_LENGTH_OFFSET);
+        long dataSize = UNSAFE.getLong(address + DATA_SIZE_OFFSET);
+        // A string can't be longer than all the chars in the data section
+        if (count < 0 || blockSize < 1 || blockCount != (int) (((long) count + blockSize - 1) / blockSize) 
+                || dataSize < 0 || maxLength < 0 || maxLength > dataSize / CHAR_SIZE 
+                || HEADER_SIZE + (long) blockCount * BLOCK_OFFSET_SIZE + dataSize != size) {
+            throw new IOException("Corrupted dictionary file!");
+        }
+        checkData(address, count, blockSize, blockCount, maxLength, dataSize);
+    }
+    
+    // Decodes the lengths of all the strings (without their chars) to check that the blocks start 
+    // at their offsets, the lengths fit into the max length and the strings don't exceed the data section
+    private static void checkData(long address, int count, int blockSize, int blockCount, 
+                                  int maxLength, long dataSize) throws IOException {
+        long blockOffsets = address + HEADER_SIZE;
+        long data = blockOffsets + (long) blockCount * BLOCK_OFFSET_SIZE;
+        long dataEnd = data + dataSize;
+        long[] position = { data };
+        int previousLength = 0;
+        for (int ordinal = 0; ordinal < count; ordinal++) {
+            long shared = 0;
+            if (ordinal % blockSize == 0) {
+                long offset = UNSAFE.getLong(blockOffsets + (long) (ordinal / blockSize) * BLOCK_OFFSET_SIZE);
+                if (offset != position[0] - data) {
+                    throw new IOException("Corrupted dictionary file!");
+                }
+            } else {
+                shared = readLength(position, dataEnd);
+                if (shared < 0 || shared > previousLength) {
+                    throw new IOException("Corrupted dictionary file!");
+                }
+            }
+            long suffixLength = readLength(position, dataEnd);
+            if (suffixLength < 0 || shared + suffixLength > maxLength 
+                    || position[0] + suffixLength * CHAR_SIZE > dataEnd) {
+                throw new IOException("Corrupted dictionary file!");
+            }
+            position[0] += suffixLength * CHAR_SIZE;
+            previousLength = (int) (shared + suffixLength);
+        }
+        if (position[0] != dataEnd) {
+            throw new IOException("Corrupted dictionary file!");
+        }
+    }
+    
+    // Decodes a length as "readLength(long[])" does, but without reading beyond the given end. 
+    // Returns -1 if the length is not ended before the end or it doesn't fit into an int.
+    private static long readLength(long[] position, long end) {
+        long p = position[0];
+        long length = 0;
+        char c;
+        int i = 0;
+        do {
+            if (i == MAX_LENGTH_CHARS || p + CHAR_SIZE > end) {
+                return -1;
+            }
+            c = UNSAFE.getChar(p);
+            p += CHAR_SIZE;
+            length |= (long) (c & LENGTH_CHAR_MASK) << (i * LENGTH_CHAR_BITS);
+            i++;
+        } while ((c & LENGTH_CHAR_CONTINUE) != 0);
+        position[0] = p;
+        return length <= Integer.MAX_VALUE ? length : -1;
+    }
+    
+    /**
+     * Releases the native memory (or unmaps the file) of the dictionary. 
+     * The dictionary and its cursors must not be used anymore.
+     */
+    public synchronized void destroy() {
+        if (!destroyed) {
+            destroyed = true;
+            if (mappedImage != null) {
+                DirectBufferUtil.release(mappedImage);
+                mappedImage = null;
+            } else {
+                UNSAFE.freeMemory(address);
+            }
+        }
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    private long blockAddress(int block) {
+        return data + UNSAFE.getLong(blockOffsets + (long) block * BLOCK_OFFSET_SIZE);
+    }
+    
+    // Decoded length is returned and the address following it is kept into the given position holder
+    private static int readLength(long[] position) {
+        long p = position[0];
+        int length = 0;
+        int shift = 0;
+        char c;
+        do {
+            c = UNSAFE.getChar(p);
+            p += CHAR_SIZE;
+            length |= (c & LENGTH_CHAR_MASK) << shift;
+            shift += LENGTH_CHAR_BITS;
+        } while ((c & LENGTH_CHAR_CONTINUE) != 0);
+        position[0] = p;
+        return length;
+    }
+    
+    // Compares the given key with the first string of the block
+    private int compareFirst(int block, CharSequence key) {
+        long[] position = { blockAddress(block) };
+        int length = readLength(position);
+        long chars = position[0];
+        int keyLength = key.length();
+        int lim = Math.min(length, keyLength);
+        for (int i = 0; i < lim; i++) {
+            char c = UNSAFE.getChar(chars + (long) i * CHAR_SIZE);
+            char k = key.charAt(i);
+            if (c != k) {
+                return c - k;
+            }
+        }
+        return length - keyLength;
+    }
+    
+    /**
+     * Gets the ordinal of the given string, or <code>(-(insertion point) - 1)</code> 
+     * if the dictionary doesn't contain it (as {@link Arrays#binarySearch(Object[], Object)} does).
+     */
+    public int rank(CharSequence key) {
+        checkNotDestroyed();
+        if (count == 0) {
+            return -1;
+        }
+        // Find the last block whose first string is not greater than the key
+        int low = 0;
+        int high = blockCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareFirst(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid * blockSize;
+            }
+        }
+        if (high < 0) {
+            return -1;
+        }
+        return rankInBlock(high, key);
+    }
+    
+    // Scans the block whose first string is less than the key, without decoding the strings. 
+    // While a string is less than the key, the next string is less than the key as well 
+    // if it shares more chars with the previous one than the key does, 
+    // and it is greater than the key if it shares less.
+    private int rankInBlock(int block, CharSequence key) {
+        long[] position = { blockAddress(block) };
+        int keyLength = key.length();
+        int ordinal = block * blockSize;
+        int end = Math.min(ordinal + blockSize, count);
+        // Length of the common prefix of the key and the current string
+        int match;
+        {
+            int length = readLength(position);
+            match = commonPrefix(position[0], 0, length, key, keyLength);
+            position[0] += (long) length * CHAR_SIZE;
+        }
+        for (ordinal++; ordinal < end; ordinal++) {
+            int shared = readLength(position);
+            int suffixLength = readLength(position);
+            long suffix = position[0];
+            position[0] += (long) suffixLength * CHAR_SIZE;
+            if (shared > match) {
+                continue;
+            }
+            if (shared < match) {
+                return -ordinal - 1;
+            }
+            int n = commonPrefix(suffix, shared, suffixLength, key, keyLength);
+            int length = shared + suffixLength;
+            if (n == length && n == keyLength) {
+                return ordinal;
+            }
+            if (n == keyLength 
+                    || (n < length && UNSAFE.getChar(suffix + (long) (n - shared) * CHAR_SIZE) > key.charAt(n))) {
+                return -ordinal - 1;
+            }
+            match = n;
+        }
+        return -end - 1;
+    }
+    
+    // Gets the length of the common prefix of the key and a string, 
+    // whose chars from the given index are at the given address
+    private static int commonPrefix(long chars, int from, int length, CharSequence key, int keyLength) {
+        int i = from;
+        int lim = Math.min(from + length, keyLength);
+        while (i < lim && UNSAFE.getChar(chars + (long) (i - from) * CHAR_SIZE) == key.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+    
+    public boolean contains(CharSequence key) {
+        return rank(key) >= 0;
+    }
+    
+    /**
+     * Gets the string with the given ordinal as a heap string.
+     */
+    public String select(int ordinal) {
+        if (ordinal < 0 || ordinal >= count) {
+            throw new IndexOutOfBoundsException("ordinal " + ordinal + ", size " + count);
+        }
+        Cursor cursor = cursor(ordinal);
+        cursor.next();
+        return cursor.key().toString();
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    public Cursor cursor() {
+        return cursor(0);
+    }
+    
+    /**
+     * Iterates over the strings in the sorted order starting from the given ordinal.
+     */
+    public Cursor cursor(int ordinal) {
+        checkNotDestroyed();
+        if (ordinal < 0 || ordinal > count) {
+            throw new IndexOutOfBoundsException("ordinal " + ordinal + ", size " + count);
+        }
+        return new Cursor(ordinal, null);
+    }
+    
+    /**
+     * Iterates over the strings starting with the given prefix in the sorted order.
+     */
+    public Cursor prefixCursor(CharSequence prefix) {
+        int rank = rank(prefix);
+        return new Cursor(rank >= 0 ? rank : -rank - 1, prefix);
+    }
+    
+    public final class Cursor {
+        
+        private final CharSequence prefix;
+        private final char[] chars = new char[maxLength];
+        private final long[] position = new long[1];
+        private final Key key = new Key();
+        private int ordinal;
+        private int length;
+        
+        private Cursor(int ordinal, CharSequence prefix) {
+            this.prefix = prefix;
+            // Decode the strings before the ordinal in its block
+            this.ordinal = ordinal - ordinal % blockSize - 1;
+            while (this.ordinal < ordinal - 1) {
+                decodeNext();
+            }
+        }
+        
+        private void decodeNext() {
+            ordinal++;
+            int shared = 0;
+            if (ordinal % blockSize == 0) {
+                position[0] = blockAddress(ordinal / blockSize);
+            } else {
+                shared = readLength(position);
+            }
+            int suffixLength = readLength(position);
+            UNSAFE.copyMemory(null, position[0], chars, 
+                              CHAR_ARRAY_BASE_OFFSET + (long) shared * CHAR_SIZE, 
+                              (long) suffixLength * CHAR_SIZE);
+            position[0] += (long) suffixLength * CHAR_SIZE;
+            length = shared + suffixLength;
+        }
+        
+        public boolean next() {
+            checkNotDestroyed();
+            if (ordinal + 1 >= count) {
+                ordinal = count;
+                return false;
+            }
+            decodeNext();
+            if (prefix != null) {
+                int prefixLength = prefix.length();
+                if (length < prefixLength) {
+                    ordinal = count;
+                    return false;
+                }
+                for (int i = 0; i < prefixLength; i++) {
+                    if (chars[i] != prefix.charAt(i)) {
+                        ordinal = count;
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        
+        public int ordinal() {
+            return ordinal;
+        }
+        
+        /**
+         * Gets the current string as a view which is valid until the cursor moves.
+         */
+        public CharSequence key() {
+            return key;
+        }
+        
+        private final class Key implements CharSequence {
+            
+            @Override
+            public int length() {
+                return length;
+            }
+            
+            @Override
+            public char charAt(int index) {
+                if (index < 0 || index >= length) {
+                    throw new StringIndexOutOfBoundsException(index);
+                }
+                return chars[index];
+            }
+            
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                return toString().substring(start, end);
+            }
+            
+            @Override
+            public String toString() {
+                return new String(chars, 0, length);
+            }
+            
+        }
+        
+    }
+    
+}
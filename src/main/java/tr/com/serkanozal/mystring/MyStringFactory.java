@@ -16,6 +16,15 @@
 
 package tr.com.serkanozal.mystring;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Iterator;
+
 public interface MyStringFactory {
 
     String create(String str);
@@ -27,5 +36,41 @@ public interface MyStringFactory {
     String create(byte[] ascii, int hibyte);
     
     String create(byte[] ascii, int hibyte, int offset, int count);
+    
+    String create(byte[] bytes, Charset charset);
+    
+    String create(byte[] bytes, int offset, int length, Charset charset);
+    
+    String create(ByteBuffer buffer, Charset charset);
+    
+    String create(long address, int length, Charset charset);
+    
+    String create(Reader reader) throws IOException;
+    
+    String create(Reader reader, int lengthHint) throws IOException;
+    
+    String create(InputStream in, Charset charset) throws IOException;
+    
+    String create(InputStream in, Charset charset, int lengthHint) throws IOException;
+    
+    String create(ReadableByteChannel channel, Charset charset) throws IOException;
+    
+    String create(ReadableByteChannel channel, Charset charset, int lengthHint) throws IOException;
+    
+    MyStringBatch createBatch(String[] strs);
+    
+    MyStringBatch createBatch(String[] strs, boolean parallel);
+    
+    MyStringBatch createBatch(Collection<String> strs);
+    
+    MyStringBatch createBatch(Collection<String> strs, boolean parallel);
+    
+    MyStringBatch createBatch(Iterator<? extends CharSequence> strs);
+    
+    MyStringBatch createBatch(Iterator<? extends CharSequence> strs, boolean parallel);
+    
+    MyStringBuilder createBuilder();
+    
+    MyStringBuilder createBuilder(int capacity);
 
 }
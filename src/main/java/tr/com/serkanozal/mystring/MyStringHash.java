@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import java.nio.ByteOrder;
+
+import sun.misc.Unsafe;
+import tr.com.serkanozal.mystring.util.JvmUtil;
+
+/**
+ * Seeded 64-bit hash of strings, which is xxHash64 of the UTF-16LE encoding of their chars, 
+ * so it is the same for the same content regardless of where the content is stored. 
+ * 
+ * Off-heap strings are hashed directly over their storage in bulk (8 bytes at a time) 
+ * without copying their contents to heap. Content streamed in pieces is hashed 
+ * by a {@link Hasher}, which gives the same hash with hashing the whole content at once.
+ */
+public final class MyStringHash {
+
+    private static final Unsafe UNSAFE = JvmUtil.getUnsafe();
+    
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    
+    private static final int CHAR_SIZE = 2;
+    /** Count of the chars in a stripe (4 lanes of 8 bytes) */
+    private static final int STRIPE_CHARS = 16;
+    private static final int CHUNK_SIZE = 1024;
+    /** Native memory can be read as little-endian lanes only on little-endian platforms */
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    
+    private MyStringHash() {
+        throw new UnsupportedOperationException("Not available for instantiation!");
+    }
+    
+    public static long longHash(CharSequence str) {
+        return longHash(str, 0);
+    }
+    
+    public static long longHash(CharSequence str, long seed) {
+        Hasher hasher = new Hasher(seed);
+        hasher.update(str);
+        return hasher.hash();
+    }
+    
+    public static Hasher newHasher() {
+        return new Hasher(0);
+    }
+    
+    public static Hasher newHasher(long seed) {
+        return new Hasher(seed);
+    }
+    
+    private static long round(long acc, long lane) {
+        acc += lane * PRIME2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME1;
+    }
+    
+    private static long mergeRound(long acc, long v) {
+        acc ^= round(0, v);
+        return acc * PRIME1 + PRIME4;
+    }
+    
+    private static long lane(char[] chars, int i) {
+        return chars[i] 
+                | ((long) chars[i + 1] << 16) 
+                | ((long) chars[i + 2] << 32) 
+                | ((long) chars[i + 3] << 48);
+    }
+    
+    /**
+     * Incremental hasher of streamed content. Note that this class is not thread-safe.
+     */
+    public static final class Hasher {
+        
+        private final long seed;
+        private long v1;
+        private long v2;
+        private long v3;
+        private long v4;
+        private long totalChars;
+        /** Chars which don't fill a stripe yet */
+        private final char[] buffer = new char[STRIPE_CHARS];
+        private int buffered;
+        private char[] chunk;
+        
+        private Hasher(long seed) {
+            this.seed = seed;
+            reset();
+        }
+        
+        public Hasher reset() {
+            v1 = seed + PRIME1 + PRIME2;
+            v2 = seed + PRIME2;
+            v3 = seed;
+            v4 = seed - PRIME1;
+            totalChars = 0;
+            buffered = 0;
+            return this;
+        }
+        
+        private void stripe(long lane1, long lane2, long lane3, long lane4) {
+            v1 = round(v1, lane1);
+            v2 = round(v2, lane2);
+            v3 = round(v3, lane3);
+            v4 = round(v4, lane4);
+        }
+        
+        public Hasher update(char c) {
+            buffer[buffered++] = c;
+            totalChars++;
+            if (buffered == STRIPE_CHARS) {
+                stripe(lane(buffer, 0), lane(buffer, 4), lane(buffer, 8), lane(buffer, 12));
+                buffered = 0;
+            }
+            return this;
+        }
+        
+        public Hasher update(char[] chars, int offset, int length) {
+            if (offset < 0 || length < 0 || offset > chars.length - length) {
+                throw new IndexOutOfBoundsException("offset " + offset + ", length " + length);
+            }
+            int end = offset + length;
+            // Fill the buffered stripe first
+            while (buffered != 0 && offset < end) {
+                update(chars[offset++]);
+            }
+            for (; offset + STRIPE_CHARS <= end; offset += STRIPE_CHARS) {
+                stripe(lane(chars, offset), lane(chars, offset + 4), 
+                       lane(chars, offset + 8), lane(chars, offset + 12));
+                totalChars += STRIPE_CHARS;
+            }
+            while (offset < end) {
+                update(chars[offset++]);
+            }
+            return this;
+        }
+        
+        public Hasher update(CharSequence csq) {
+            return update(csq, 0, csq.length());
+        }
+        
+        public Hasher update(CharSequence csq, int start, int end) {
+            if (start < 0 || end > csq.length() || start > end) {
+                throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + csq.length());
+            }
+            if (csq instanceof MyStringTemplate) {
+                ((MyStringTemplate) csq).updateHasher(this, start, end);
+                return this;
+            }
+            if (csq instanceof String) {
+                String str = (String) csq;
+                if (chunk == null) {
+                    chunk = new char[CHUNK_SIZE];
+                }
+                for (int i = start; i < end;) {
+                    int n = Math.min(chunk.length, end - i);
+                    str.getChars(i, i + n, chunk, 0);
+                    update(chunk, 0, n);
+                    i += n;
+                }
+                return this;
+            }
+            for (int i = start; i < end; i++) {
+                update(csq.charAt(i));
+            }
+            return this;
+        }
+        
+        /**
+         * Hashes the given count of chars in native memory (with the native byte order).
+         */
+        void updateNative(long address, long count) {
+            if (!LITTLE_ENDIAN) {
+                for (long i = 0; i < count; i++) {
+                    update(UNSAFE.getChar(address + i * CHAR_SIZE));
+                }
+                return;
+            }
+            long end = address + count * CHAR_SIZE;
+            while (buffered != 0 && address < end) {
+                update(UNSAFE.getChar(address));
+                address += CHAR_SIZE;
+            }
+            for (; address + STRIPE_CHARS * CHAR_SIZE <= end; address += STRIPE_CHARS * CHAR_SIZE) {
+                stripe(UNSAFE.getLong(address), UNSAFE.getLong(address + 8), 
+                       UNSAFE.getLong(address + 16), UNSAFE.getLong(address + 24));
+                totalChars += STRIPE_CHARS;
+            }
+            while (address < end) {
+                update(UNSAFE.getChar(address));
+                address += CHAR_SIZE;
+            }
+        }
+        
+        /**
+         * Gets the hash of the content so far. Hasher can be updated further after this call.
+         */
+        public long hash() {
+            long h;
+            if (totalChars >= STRIPE_CHARS) {
+                h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) 
+                        + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                h = mergeRound(h, v1);
+                h = mergeRound(h, v2);
+                h = mergeRound(h, v3);
+                h = mergeRound(h, v4);
+            } else {
+                h = seed + PRIME5;
+            }
+            h += totalChars * CHAR_SIZE;
+            int i = 0;
+            for (; i + 4 <= buffered; i += 4) {
+                h ^= round(0, lane(buffer, i));
+                h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+            }
+            if (i + 2 <= buffered) {
+                h ^= (buffer[i] | ((long) buffer[i + 1] << 16)) * PRIME1;
+                h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+                i += 2;
+            }
+            if (i < buffered) {
+                char c = buffer[i];
+                h ^= (c & 0xFF) * PRIME5;
+                h = Long.rotateLeft(h, 11) * PRIME1;
+                h ^= (c >>> 8) * PRIME5;
+                h = Long.rotateLeft(h, 11) * PRIME1;
+            }
+            h ^= h >>> 33;
+            h *= PRIME2;
+            h ^= h >>> 29;
+            h *= PRIME3;
+            h ^= h >>> 32;
+            return h;
+        }
+        
+    }
+    
+}
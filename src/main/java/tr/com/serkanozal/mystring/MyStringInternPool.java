@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+/**
+ * Pool of canonical strings of a processor for {@link String#intern()}. 
+ * 
+ * Pool is split into stripes selected by the hashes of the strings, 
+ * each of which is an open-addressing table guarded by its own lock, 
+ * so strings with different hashes are mostly interned concurrently. 
+ * The first interned string with a content becomes the canonical one without copying it, 
+ * and it is kept (not destroyed) until the pool is cleared. Strings over a shared storage 
+ * (such as the strings of a batch) are copied into their own storage to become canonical, 
+ * since the shared storage is destroyed by its owner regardless of the pool. 
+ * 
+ * Tables hold references to the canonical strings, so they are kept on heap 
+ * while the chars of the strings stay in the storage of their processor.
+ */
+final class MyStringInternPool {
+
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPE_COUNT = 1 << STRIPE_BITS;
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+    
+    private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+    
+    MyStringInternPool() {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+    
+    private static int mix(int hash) {
+        // Finalizer of MurmurHash3, so both stripe (high bits) and slot (low bits) are well distributed
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+    
+    String intern(MyStringTemplate str) {
+        int hash = str.hashCode();
+        int mixed = mix(hash);
+        Stripe stripe = stripes[mixed >>> (Integer.SIZE - STRIPE_BITS)];
+        synchronized (stripe) {
+            return stripe.intern(str, hash, mixed).toString();
+        }
+    }
+    
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * Removes and destroys all the canonical strings, 
+     * so they must not be used anymore.
+     */
+    void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+    
+    private static final class Stripe {
+        
+        private MyStringTemplate[] strs = new MyStringTemplate[INITIAL_STRIPE_CAPACITY];
+        private int[] hashes = new int[INITIAL_STRIPE_CAPACITY];
+        private int size;
+        
+        private MyStringTemplate intern(MyStringTemplate str, int hash, int mixed) {
+            int mask = strs.length - 1;
+            for (int i = mixed & mask;; i = (i + 1) & mask) {
+                MyStringTemplate canonical = strs[i];
+                if (canonical == null) {
+                    break;
+                }
+                if (canonical == str || (hashes[i] == hash && canonical.equals(str))) {
+                    return canonical;
+                }
+            }
+            if ((size + 1) << 1 > strs.length) {
+                grow();
+            }
+            if (str.isSharedStorage()) {
+                str = str.copyToOwnedStorage();
+            }
+            insert(str, hash, mixed);
+            str.setInterned(true);
+            size++;
+            return str;
+        }
+        
+        private void insert(MyStringTemplate str, int hash, int mixed) {
+            int mask = strs.length - 1;
+            int i = mixed & mask;
+            while (strs[i] != null) {
+                i = (i + 1) & mask;
+            }
+            strs[i] = str;
+            hashes[i] = hash;
+        }
+        
+        private void grow() {
+            MyStringTemplate[] oldStrs = strs;
+            int[] oldHashes = hashes;
+            strs = new MyStringTemplate[oldStrs.length << 1];
+            hashes = new int[oldHashes.length << 1];
+            for (int i = 0; i < oldStrs.length; i++) {
+                if (oldStrs[i] != null) {
+                    insert(oldStrs[i], oldHashes[i], mix(oldHashes[i]));
+                }
+            }
+        }
+        
+        private void clear() {
+            for (int i = 0; i < strs.length; i++) {
+                MyStringTemplate str = strs[i];
+                if (str != null) {
+                    str.setInterned(false);
+                    str.destroy();
+                }
+            }
+            strs = new MyStringTemplate[INITIAL_STRIPE_CAPACITY];
+            hashes = new int[INITIAL_STRIPE_CAPACITY];
+            size = 0;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import sun.misc.Unsafe;
+import tr.com.serkanozal.mystring.api.MyString;
+import tr.com.serkanozal.mystring.api.MyStringProcessor;
+import tr.com.serkanozal.mystring.util.DirectBufferUtil;
+import tr.com.serkanozal.mystring.util.JvmUtil;
+
+/**
+ * Reads the lines (or the records ended by a custom delimiter) of a file by mapping it 
+ * in windows, so files larger than 2GB are also supported. Delimiters are searched 
+ * word-at-a-time (8 bytes at once) over the mapped memory. 
+ * 
+ * A line is exposed as a read-only string viewing the mapped bytes without any copy 
+ * if it is decodable byte by byte (ISO-8859-1 lines or ASCII lines of ASCII compatible charsets), 
+ * or it is decoded from the mapped bytes into the storage of a factory directly. 
+ * Views (and line buffers) reference the window they are mapped by, so the window is unmapped 
+ * only after they are garbage collected and they stay valid even after the reader is closed.
+ * 
+ * When the delimiter is <code>'\n'</code>, a <code>'\r'</code> before it is not included in the line.
+ */
+public final class MyStringLineReader implements Closeable {
+
+    private static final Unsafe UNSAFE = JvmUtil.getUnsafe();
+    
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 28;
+    
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    
+    private static final int BYTES_PER_WORD = 8;
+    private static final long BYTE_LANE_ONES = 0x0101010101010101L;
+    private static final long BYTE_LANE_LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long BYTE_LANE_HIGH_BITS = 0x8080808080808080L;
+    private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+    
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final Charset charset;
+    private final byte delimiter;
+    private final long delimiterPattern;
+    private final int windowSize;
+    /** Whether all the lines can be viewed since every byte is decoded to a single char */
+    private final boolean latin1;
+    /** Whether the ASCII lines can be viewed since ASCII chars are encoded as themselves */
+    private final boolean asciiCompatible;
+    private final ViewMyStringProcessor viewProcessor = new ViewMyStringProcessor();
+    // Windows are not unmapped explicitly, since they may still be referenced by the views
+    private MappedByteBuffer window;
+    private long windowBegin;
+    private long windowEnd;
+    private long windowAddress;
+    private long position;
+    private long lineBegin;
+    private int lineLength = -1;
+    private boolean lineAscii;
+    // High bits of the bytes scanned by the last "scan" call before the delimiter
+    private long scanHighBits;
+    private boolean closed;
+    
+    public MyStringLineReader(File file) throws IOException {
+        this(file, UTF_8);
+    }
+    
+    public MyStringLineReader(File file, Charset charset) throws IOException {
+        this(file, charset, (byte) '\n', DEFAULT_WINDOW_SIZE);
+    }
+    
+    /**
+     * @param delimiter  byte ending the records, which must be encoded as itself by the charset 
+     * @param windowSize size of the regions of the file mapped at once. 
+     *                   Windows are grown for the records longer than this size.
+     */
+    public MyStringLineReader(File file, Charset charset, byte delimiter, int windowSize) throws IOException {
+        if (windowSize < BYTES_PER_WORD) {
+            throw new IllegalArgumentException("Invalid window size: " + windowSize);
+        }
+        this.charset = charset;
+        this.delimiter = delimiter;
+        this.delimiterPattern = (delimiter & 0xFFL) * BYTE_LANE_ONES;
+        this.windowSize = windowSize;
+        this.latin1 = ISO_8859_1.equals(charset);
+        this.asciiCompatible = latin1 || isAsciiCompatible(charset);
+        if (!isSingleByte(charset, delimiter)) {
+            throw new IllegalArgumentException(
+                    "Delimiter " + delimiter + " is not encoded as itself by charset " + charset);
+        }
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        this.fileSize = channel.size();
+    }
+    
+    private static boolean isAsciiCompatible(Charset charset) {
+        if (US_ASCII.equals(charset) || UTF_8.equals(charset)) {
+            return true;
+        }
+        if (!charset.canEncode()) {
+            return false;
+        }
+        char[] chars = new char[0x80];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) i;
+        }
+        byte[] bytes = new String(chars).getBytes(charset);
+        if (bytes.length != chars.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean isSingleByte(Charset charset, byte b) {
+        if (!charset.canEncode()) {
+            return false;
+        }
+        byte[] bytes = String.valueOf((char) (b & 0xFF)).getBytes(charset);
+        return bytes.length == 1 && bytes[0] == b;
+    }
+    
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Reader is closed!");
+        }
+    }
+    
+    private void checkLine() {
+        checkOpen();
+        if (lineLength < 0) {
+            throw new IllegalStateException("There is no current line!");
+        }
+    }
+    
+    private void map(long begin, long size) throws IOException {
+        window = channel.map(FileChannel.MapMode.READ_ONLY, begin, size);
+        windowBegin = begin;
+        windowEnd = begin + size;
+        windowAddress = size > 0 ? DirectBufferUtil.getAddress(window) : 0;
+    }
+    
+    /**
+     * Moves to the next line.
+     * 
+     * @return <code>true</code> if there is a next line, <code>false</code> at the end of the file
+     */
+    public boolean next() throws IOException {
+        checkOpen();
+        if (position >= fileSize) {
+            lineLength = -1;
+            return false;
+        }
+        if (position < windowBegin || position >= windowEnd) {
+            map(position, Math.min(fileSize - position, windowSize));
+        }
+        long begin = position;
+        long from = begin;
+        long highBits = 0;
+        long end;
+        for (;;) {
+            long limit = windowEnd - windowBegin;
+            long found = scan(from - windowBegin, limit);
+            if (found >= 0) {
+                end = windowBegin + found;
+                highBits |= scanHighBits;
+                position = end + 1;
+                break;
+            }
+            highBits |= scanHighBits;
+            if (windowEnd >= fileSize) {
+                // Last line isn't ended by delimiter
+                end = fileSize;
+                position = fileSize;
+                break;
+            }
+            // Line doesn't end in the current window, so the window is remapped 
+            // from the beginning of the line with a larger size
+            long size = Math.min(fileSize - begin, Math.max((long) windowSize, (windowEnd - begin) << 1));
+            if (size > MAX_WINDOW_SIZE) {
+                throw new IOException("Line at offset " + begin + " is too long!");
+            }
+            from = windowEnd;
+            map(begin, size);
+        }
+        // '\r' is stripped only before a '\n', not at the end of an unterminated last line
+        if (delimiter == '\n' && end > begin && end < fileSize 
+                && UNSAFE.getByte(windowAddress + (end - 1 - windowBegin)) == '\r') {
+            end--;
+        }
+        lineBegin = begin;
+        lineLength = (int) (end - begin);
+        lineAscii = (highBits & BYTE_LANE_HIGH_BITS) == 0;
+        return true;
+    }
+    
+    // Searches the delimiter in the given range of the window word-at-a-time 
+    // while collecting high bits of the bytes before it to detect non-ASCII bytes
+    private long scan(long from, long limit) {
+        long base = windowAddress;
+        long highBits = 0;
+        long p = from;
+        for (; p + BYTES_PER_WORD <= limit; p += BYTES_PER_WORD) {
+            long word = UNSAFE.getLong(base + p);
+            long x = word ^ delimiterPattern;
+            // High bit of a byte is set if and only if the byte is zero, so the byte is the delimiter 
+            long matches = ~(((x & BYTE_LANE_LOW_BITS) + BYTE_LANE_LOW_BITS) | x | BYTE_LANE_LOW_BITS);
+            if (matches != 0) {
+                int k = (LITTLE_ENDIAN 
+                            ? Long.numberOfTrailingZeros(matches) 
+                            : Long.numberOfLeadingZeros(matches)) >>> 3;
+                p += k;
+                for (long q = p - k; q < p; q++) {
+                    highBits |= UNSAFE.getByte(base + q);
+                }
+                scanHighBits = highBits;
+                return p;
+            }
+            highBits |= word;
+        }
+        for (; p < limit; p++) {
+            byte b = UNSAFE.getByte(base + p);
+            if (b == delimiter) {
+                scanHighBits = highBits;
+                return p;
+            }
+            highBits |= b;
+        }
+        scanHighBits = highBits;
+        return -1;
+    }
+    
+    private long lineAddress() {
+        return windowAddress + (lineBegin - windowBegin);
+    }
+    
+    /**
+     * Gets the offset of the current line in the file.
+     */
+    public long lineOffset() {
+        checkLine();
+        return lineBegin;
+    }
+    
+    /**
+     * Gets the count of the bytes of the current line.
+     */
+    public int lineByteLength() {
+        checkLine();
+        return lineLength;
+    }
+    
+    /**
+     * Gets whether the current line can be viewed without decoding.
+     */
+    public boolean isViewable() {
+        checkLine();
+        return latin1 || (asciiCompatible && lineAscii);
+    }
+    
+    /**
+     * Gets the bytes of the current line as a read-only buffer over the mapped file.
+     */
+    public ByteBuffer lineBytes() {
+        checkLine();
+        // Slice references the window, so the window stays mapped while the buffer is used
+        ByteBuffer bytes = window.duplicate();
+        bytes.position((int) (lineBegin - windowBegin));
+        bytes.limit((int) (lineBegin - windowBegin) + lineLength);
+        return bytes.slice();
+    }
+    
+    /**
+     * Gets the current line as a read-only string viewing the mapped bytes if it is viewable, 
+     * otherwise as a string decoded on heap.
+     */
+    public String line() {
+        if (!isViewable()) {
+            return charset.decode(lineBytes()).toString();
+        }
+        return MyStringTemplate.attachShared(viewProcessor, false, lineAddress(), window, lineLength, 0);
+    }
+    
+    /**
+     * Gets the current line decoded from the mapped bytes into the storage of the given factory.
+     */
+    public String line(MyStringFactory factory) {
+        checkLine();
+        return factory.create(DirectBufferUtil.wrap(lineAddress(), lineLength), charset);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // Windows are unmapped by GC once the views over them are not reachable anymore
+        window = null;
+        raf.close();
+    }
+    
+    /**
+     * Processor of the views whose storage id is the address of the viewed bytes 
+     * and whose storage base is the window mapping them. 
+     * Every byte is a char, since only the bytes decoded to a single char are viewed.
+     */
+    private static final class ViewMyStringProcessor implements MyStringProcessor<MappedByteBuffer> {
+        
+        private static UnsupportedOperationException readOnly() {
+            return new UnsupportedOperationException("Line views are read-only!");
+        }
+        
+        @Override
+        public long createStorageId(long size) {
+            throw readOnly();
+        }
+        
+        @Override
+        public MappedByteBuffer createStorageBase(long storageId, long size) {
+            return null;
+        }
+        
+        @Override
+        public long getStorageSize(long storageId, long size) {
+            return size;
+        }
+        
+        @Override
+        public long createStorageId(char[] value, int offset, int length) {
+            throw readOnly();
+        }
+        
+        @Override
+        public MappedByteBuffer createStorageBase(long storageId, char[] value, int offset, int length) {
+            return null;
+        }
+        
+        @Override
+        public long getStorageSize(long storageId, char[] value, int offset, int length) {
+            return length;
+        }
+        
+        @Override
+        public long createStorageId(MyString myStr) {
+            throw readOnly();
+        }
+        
+        @Override
+        public MappedByteBuffer createStorageBase(long storageId, MyString myStr) {
+            return null;
+        }
+        
+        @Override
+        public long getStorageSize(long storageId, MyString myStr) {
+            return myStr.length();
+        }
+        
+        @Override
+        public char readValue(long storageId, MappedByteBuffer storageBase, int index) {
+            return (char) (UNSAFE.getByte(storageId + index) & 0xFF);
+        }
+        
+        @Override
+        public void writeValue(long storageId, MappedByteBuffer storageBase, int index, char c) {
+            throw readOnly();
+        }
+        
+        @Override
+        public void copyValue(long storageId, MappedByteBuffer storageBase, int srcBegin, char[] dst, int dstBegin, int len) {
+            long address = storageId + srcBegin;
+            for (int i = 0; i < len; i++) {
+                dst[dstBegin + i] = (char) (UNSAFE.getByte(address + i) & 0xFF);
+            }
+        }
+        
+        @Override
+        public void destroy(long storageId, MappedByteBuffer storageBase) {
+            // Mapped windows are released by GC
+        }
+        
+    }
+    
+}
@@ -0,0 +1,895 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import sun.misc.Unsafe;
+import tr.com.serkanozal.mystring.api.MyString;
+import tr.com.serkanozal.mystring.util.DirectBufferUtil;
+import tr.com.serkanozal.mystring.util.JvmUtil;
+
+/**
+ * Durable storage of strings as an append-only log of records in memory-mapped segment files. 
+ * 
+ * Strings created by the factory of the log are appended to the log as length-prefixed 
+ * and checksummed records, and destroying them appends tombstones. Segments mostly 
+ * occupied by dead records are rewritten by a background compactor. When a log is opened, 
+ * its live strings are recovered by a single sequential scan of the segments 
+ * and attached to the mapped records without copying.
+ * 
+ * Strings are read without lock while compaction moves their records. Readers register themselves 
+ * in the current read epoch, and a compacted segment is unmapped only after the epoch is advanced 
+ * and all the readers registered in the previous epoch (which may still see its records) are done. 
+ * 
+ * Records are durable once {@link #sync()} returns (or the mapped pages are written back by OS). 
+ * Strings of the log must not be used after the log is closed.
+ */
+public final class MyStringLog implements CommittableMyStringProcessor<Void>, Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(MyStringLog.class.getName());
+    private static final Unsafe UNSAFE = JvmUtil.getUnsafe();
+    
+    private static final long CHAR_ARRAY_BASE_OFFSET;
+    private static final long LONG_ARRAY_BASE_OFFSET;
+    private static final int LONG_ARRAY_INDEX_SHIFT = 3;
+    private static final int CHAR_SIZE = 2;
+    
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final long DEFAULT_COMPACTION_INTERVAL_MILLIS = 10 * 1000;
+    
+    /** Segments whose live records occupy less than this ratio are compacted */
+    private static final double COMPACTION_LIVE_RATIO = 0.5;
+    /** Count of the reader counters of each epoch, to reduce contention between reader threads */
+    private static final int READER_STRIPES = 16;
+    /** Reader counters are in different cache lines */
+    private static final int READER_STRIPE_PADDING = 8;
+    private static final int MAX_SEGMENT_SIZE = 1 << 30;
+    
+    private static final String SEGMENT_FILE_PREFIX = "segment-";
+    private static final String SEGMENT_FILE_SUFFIX = ".log";
+    private static final long SEGMENT_MAGIC = 0x4D79537472696E67L; // "MyString"
+    private static final int SEGMENT_MAGIC_OFFSET = 0;
+    private static final int SEGMENT_SEQUENCE_OFFSET = 8;
+    private static final int SEGMENT_HEADER_SIZE = 16;
+    /** A record must fit into a segment of the max size */
+    private static final int MAX_RECORD_SIZE = MAX_SEGMENT_SIZE - SEGMENT_HEADER_SIZE;
+    
+    // Layout of a record: 
+    //      type (int) | checksum (int) | generation (long) | slot (int) | length (int) | 
+    //      capacity (int) | padding (int) | chars (capacity * 2 bytes, aligned to 8 bytes)
+    // Checksum covers the record from generation to the end of the written chars.
+    private static final int RECORD_TYPE_OFFSET = 0;
+    private static final int RECORD_CHECKSUM_OFFSET = 4;
+    private static final int RECORD_GENERATION_OFFSET = 8;
+    private static final int RECORD_SLOT_OFFSET = 16;
+    private static final int RECORD_LENGTH_OFFSET = 20;
+    private static final int RECORD_CAPACITY_OFFSET = 24;
+    private static final int RECORD_HEADER_SIZE = 32;
+    private static final int RECORD_ALIGNMENT = 8;
+    
+    /** Marks the end of the records in a segment, as unused space of segments is zeroed */
+    private static final int RECORD_TYPE_END = 0;
+    /** Record whose content is still being written, ignored on recovery */
+    private static final int RECORD_TYPE_PENDING = 1;
+    private static final int RECORD_TYPE_VALUE = 2;
+    private static final int RECORD_TYPE_TOMBSTONE = 3;
+    
+    private static final int INITIAL_SLOT_CAPACITY = 1024;
+
+    static {
+        try {
+            CHAR_ARRAY_BASE_OFFSET = UNSAFE.arrayBaseOffset(char[].class);
+            LONG_ARRAY_BASE_OFFSET = UNSAFE.arrayBaseOffset(long[].class);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+    
+    private final File directory;
+    private final String factoryId;
+    private final int segmentSize;
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private final List<Segment> retiredSegments = new ArrayList<Segment>();
+    /** Counts of the readers registered in the even and the odd epochs */
+    private final AtomicLongArray readers = new AtomicLongArray(2 * READER_STRIPES * READER_STRIPE_PADDING);
+    /** Serializes advancing the read epoch and unmapping the retired segments */
+    private final Object reclaimLock = new Object();
+    private volatile long readEpoch;
+    private final List<String> recoveredStrings;
+    private final ScheduledExecutorService compactor;
+    private Segment activeSegment;
+    private long nextSegmentSequence;
+    private long nextGeneration;
+    
+    // Records are referenced by slots (storage ids of the strings) instead of addresses, 
+    // so they can be moved by compaction. Record addresses are read without lock 
+    // by the readers registered in the read epoch.
+    private volatile long[] recordAddresses = new long[INITIAL_SLOT_CAPACITY];
+    private long[] generations = new long[INITIAL_SLOT_CAPACITY];
+    private Segment[] recordSegments = new Segment[INITIAL_SLOT_CAPACITY];
+    private int[] freeSlots = new int[INITIAL_SLOT_CAPACITY];
+    private int freeSlotCount;
+    private int slotCount;
+    private boolean closed;
+    
+    private MyStringLog(File directory, String factoryId, int segmentSize, 
+                        long compactionIntervalMillis) throws IOException {
+        if (segmentSize <= SEGMENT_HEADER_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create log directory " + directory);
+        }
+        this.directory = directory;
+        this.factoryId = factoryId;
+        this.segmentSize = segmentSize;
+        this.recoveredStrings = Collections.unmodifiableList(recover());
+        if (compactionIntervalMillis > 0) {
+            this.compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "MyStringLog-Compactor-" + MyStringLog.this.factoryId);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            this.compactor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compact();
+                    } catch (Throwable t) {
+                        LOGGER.log(Level.SEVERE, "Unable to compact log at " + MyStringLog.this.directory, t);
+                    }
+                }
+            }, compactionIntervalMillis, compactionIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.compactor = null;
+        }
+    }
+    
+    /**
+     * Opens (or creates) the log in the given directory, recovers its live strings 
+     * and registers a factory with the given id to create strings in the log.
+     */
+    public static MyStringLog open(File directory, String factoryId) throws IOException {
+        return open(directory, factoryId, DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACTION_INTERVAL_MILLIS);
+    }
+    
+    /**
+     * Opens (or creates) the log in the given directory, recovers its live strings 
+     * and registers a factory with the given id to create strings in the log.
+     * 
+     * @param segmentSize              size of the segment files in bytes
+     * @param compactionIntervalMillis interval of the background compaction, 
+     *                                 or <code>0</code> to compact only by {@link #compact()}
+     */
+    public static MyStringLog open(File directory, String factoryId, 
+                                   int segmentSize, long compactionIntervalMillis) throws IOException {
+        MyStringLog log = new MyStringLog(directory, factoryId, segmentSize, compactionIntervalMillis);
+        boolean done = false;
+        try {
+            MyStringService.registerMyStringFactory(factoryId, log);
+            done = true;
+        } finally {
+            if (!done) {
+                log.shutdown();
+            }
+        }
+        return log;
+    }
+    
+    public MyStringFactory getFactory() {
+        return MyStringService.getMyStringFactory(factoryId);
+    }
+    
+    /**
+     * Gets the live strings recovered from the log when it was opened. 
+     * They are owned by the caller, so they are removed from the log when they are destroyed.
+     */
+    public List<String> getRecoveredStrings() {
+        return recoveredStrings;
+    }
+    
+    /**
+     * Gets the total size of the segment files in bytes.
+     */
+    public synchronized long getSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.capacity;
+        }
+        return size;
+    }
+    
+    /**
+     * Gets the size of the records of the live strings in bytes.
+     */
+    public synchronized long getLiveSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.liveBytes;
+        }
+        return size;
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    // Record size is calculated as long, since it overflows int for the capacities 
+    // larger than the max record size, which must be rejected by the callers
+    private static long recordSize(int capacity) {
+        long size = RECORD_HEADER_SIZE + (long) capacity * CHAR_SIZE;
+        return (size + RECORD_ALIGNMENT - 1) & -RECORD_ALIGNMENT;
+    }
+    
+    // Length must not be larger than the capacity of a record which fits into a segment
+    private static int checksum(long recordAddress, int length) {
+        CRC32 crc = new CRC32();
+        long size = RECORD_HEADER_SIZE - RECORD_GENERATION_OFFSET + (long) length * CHAR_SIZE;
+        crc.update(DirectBufferUtil.wrap(recordAddress + RECORD_GENERATION_OFFSET, (int) size));
+        return (int) crc.getValue();
+    }
+    
+    private static String segmentFileName(long sequence) {
+        return SEGMENT_FILE_PREFIX + String.format("%016x", sequence) + SEGMENT_FILE_SUFFIX;
+    }
+    
+    private long recordAddress(long storageId) {
+        return recordAddresses[(int) storageId];
+    }
+    
+    // Registers the current thread as a reader in the current epoch and returns its counter, 
+    // so the records it reads until it exits are not unmapped
+    private int enterRead() {
+        int stripe = ((int) Thread.currentThread().getId() & (READER_STRIPES - 1)) * READER_STRIPE_PADDING;
+        for (;;) {
+            long epoch = readEpoch;
+            int counter = (int) (epoch & 1) * READER_STRIPES * READER_STRIPE_PADDING + stripe;
+            readers.incrementAndGet(counter);
+            // If the epoch is advanced meanwhile, the reclaimer may not wait for this reader
+            if (readEpoch == epoch) {
+                return counter;
+            }
+            readers.decrementAndGet(counter);
+        }
+    }
+    
+    private void exitRead(int counter) {
+        readers.decrementAndGet(counter);
+    }
+    
+    // Advances the read epoch and waits for the readers registered in the previous epoch. 
+    // Readers registered in the new epoch see the record addresses updated before it is advanced.
+    private void awaitReaders() {
+        long epoch = readEpoch;
+        readEpoch = epoch + 1;
+        int from = (int) (epoch & 1) * READER_STRIPES * READER_STRIPE_PADDING;
+        for (int stripe = 0; stripe < READER_STRIPES; stripe++) {
+            while (readers.get(from + stripe * READER_STRIPE_PADDING) != 0) {
+                Thread.yield();
+            }
+        }
+    }
+    
+    private Segment mapSegment(File file, long sequence, int capacity) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < capacity) {
+                // Extended region of the file is zeroed
+                raf.setLength(capacity);
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return new Segment(sequence, file, buffer, capacity);
+        } finally {
+            raf.close();
+        }
+    }
+    
+    private Segment createSegment(long minCapacity) {
+        if (minCapacity > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("Record of " + minCapacity + " bytes is too big for the log!");
+        }
+        int capacity = Math.max(segmentSize, SEGMENT_HEADER_SIZE + (int) minCapacity);
+        long sequence = nextSegmentSequence++;
+        File file = new File(directory, segmentFileName(sequence));
+        Segment segment;
+        try {
+            segment = mapSegment(file, sequence, capacity);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to create segment " + file, e);
+        }
+        UNSAFE.putLong(segment.address + SEGMENT_MAGIC_OFFSET, SEGMENT_MAGIC);
+        UNSAFE.putLong(segment.address + SEGMENT_SEQUENCE_OFFSET, sequence);
+        segment.dirty = true;
+        segments.add(segment);
+        return segment;
+    }
+    
+    // Gets the segment to append a record with the given size by rolling the active segment if it is full
+    private Segment segmentFor(long recordSize) {
+        if (activeSegment == null || activeSegment.position + recordSize > activeSegment.capacity) {
+            activeSegment = createSegment(recordSize);
+        }
+        return activeSegment;
+    }
+    
+    private void ensureSlotCapacity(int minCapacity) {
+        int capacity = generations.length;
+        if (minCapacity <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(minCapacity, capacity << 1);
+        generations = Arrays.copyOf(generations, newCapacity);
+        recordSegments = Arrays.copyOf(recordSegments, newCapacity);
+        freeSlots = Arrays.copyOf(freeSlots, newCapacity);
+        recordAddresses = Arrays.copyOf(recordAddresses, newCapacity);
+    }
+    
+    private void setRecordAddress(int slot, long recordAddress) {
+        UNSAFE.putLongVolatile(recordAddresses, 
+                               LONG_ARRAY_BASE_OFFSET + ((long) slot << LONG_ARRAY_INDEX_SHIFT), 
+                               recordAddress);
+    }
+    
+    private int acquireSlot() {
+        if (freeSlotCount > 0) {
+            return freeSlots[--freeSlotCount];
+        }
+        ensureSlotCapacity(slotCount + 1);
+        return slotCount++;
+    }
+    
+    private void releaseSlot(int slot) {
+        setRecordAddress(slot, 0);
+        recordSegments[slot] = null;
+        freeSlots[freeSlotCount++] = slot;
+    }
+    
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Log at " + directory + " is closed!");
+        }
+    }
+    
+    // Appends a pending record with the given capacity and returns its slot
+    private synchronized int append(int capacity) {
+        checkOpen();
+        long recordSize = recordSize(capacity);
+        if (recordSize > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("Record of " + recordSize + " bytes is too big for the log!");
+        }
+        Segment segment = segmentFor(recordSize);
+        long recordAddress = segment.address + segment.position;
+        int slot = acquireSlot();
+        long generation = nextGeneration++;
+        UNSAFE.putLong(recordAddress + RECORD_GENERATION_OFFSET, generation);
+        UNSAFE.putInt(recordAddress + RECORD_SLOT_OFFSET, slot);
+        UNSAFE.putInt(recordAddress + RECORD_LENGTH_OFFSET, 0);
+        UNSAFE.putInt(recordAddress + RECORD_CAPACITY_OFFSET, capacity);
+        UNSAFE.putInt(recordAddress + RECORD_TYPE_OFFSET, RECORD_TYPE_PENDING);
+        segment.position += recordSize;
+        segment.pendingCount++;
+        segment.dirty = true;
+        generations[slot] = generation;
+        recordSegments[slot] = segment;
+        setRecordAddress(slot, recordAddress);
+        return slot;
+    }
+    
+    private void appendTombstone(int slot, long generation) {
+        Segment segment = segmentFor(RECORD_HEADER_SIZE);
+        long recordAddress = segment.address + segment.position;
+        UNSAFE.putLong(recordAddress + RECORD_GENERATION_OFFSET, generation);
+        UNSAFE.putInt(recordAddress + RECORD_SLOT_OFFSET, slot);
+        UNSAFE.putInt(recordAddress + RECORD_LENGTH_OFFSET, 0);
+        UNSAFE.putInt(recordAddress + RECORD_CAPACITY_OFFSET, 0);
+        UNSAFE.putInt(recordAddress + RECORD_CHECKSUM_OFFSET, checksum(recordAddress, 0));
+        UNSAFE.putInt(recordAddress + RECORD_TYPE_OFFSET, RECORD_TYPE_TOMBSTONE);
+        segment.position += RECORD_HEADER_SIZE;
+        segment.dirty = true;
+    }
+    
+    // Seals the pending record, so it is recovered after restart
+    private void seal(int slot, int length) {
+        long recordAddress = recordAddress(slot);
+        if (UNSAFE.getInt(recordAddress + RECORD_TYPE_OFFSET) != RECORD_TYPE_PENDING) {
+            return;
+        }
+        // Content is owned by the creator until sealing, so checksum is calculated without lock
+        UNSAFE.putInt(recordAddress + RECORD_LENGTH_OFFSET, length);
+        UNSAFE.putInt(recordAddress + RECORD_CHECKSUM_OFFSET, checksum(recordAddress, length));
+        synchronized (this) {
+            checkOpen();
+            UNSAFE.putInt(recordAddress + RECORD_TYPE_OFFSET, RECORD_TYPE_VALUE);
+            Segment segment = recordSegments[slot];
+            segment.pendingCount--;
+            segment.liveBytes += recordSize(UNSAFE.getInt(recordAddress + RECORD_CAPACITY_OFFSET));
+            segment.dirty = true;
+        }
+    }
+    
+    private long createStorageId(char[] value, int offset, int length, boolean seal) {
+        int slot = append(length);
+        long recordAddress = recordAddress(slot);
+        UNSAFE.copyMemory(value, CHAR_ARRAY_BASE_OFFSET + ((long) offset * CHAR_SIZE), 
+                          null, recordAddress + RECORD_HEADER_SIZE, 
+                          (long) length * CHAR_SIZE);
+        if (seal) {
+            seal(slot, length);
+        }
+        return slot;
+    }
+    
+    private long getStorageSize(long storageId) {
+        int reader = enterRead();
+        try {
+            long recordAddress = recordAddress(storageId);
+            return (long) UNSAFE.getInt(recordAddress + RECORD_CAPACITY_OFFSET) * CHAR_SIZE;
+        } finally {
+            exitRead(reader);
+        }
+    }
+    
+    @Override
+    public long createStorageId(long size) {
+        if (size < 0 || size / CHAR_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid storage size: " + size);
+        }
+        return append((int) (size / CHAR_SIZE));
+    }
+    
+    @Override
+    public Void createStorageBase(long storageId, long size) {
+        return null;
+    }
+    
+    @Override
+    public long getStorageSize(long storageId, long size) {
+        return getStorageSize(storageId);
+    }
+    
+    @Override
+    public long createStorageId(char[] value, int offset, int length) {
+        return createStorageId(value, offset, length, true);
+    }
+    
+    @Override
+    public Void createStorageBase(long storageId, char[] value, int offset, int length) {
+        return null;
+    }
+    
+    @Override
+    public long getStorageSize(long storageId, char[] value, int offset, int length) {
+        return getStorageSize(storageId);
+    }
+    
+    @Override
+    public long createStorageId(MyString myStr) {
+        char[] value = myStr.toCharArray();
+        return createStorageId(value, 0, value.length, true);
+    }
+    
+    @Override
+    public Void createStorageBase(long storageId, MyString myStr) {
+        return null;
+    }
+    
+    @Override
+    public long getStorageSize(long storageId, MyString myStr) {
+        return getStorageSize(storageId);
+    }
+    
+    @Override
+    public char readValue(long storageId, Void storageBase, int index) {
+        int reader = enterRead();
+        try {
+            return UNSAFE.getChar(recordAddress(storageId) + RECORD_HEADER_SIZE + ((long) index * CHAR_SIZE));
+        } finally {
+            exitRead(reader);
+        }
+    }
+    
+    // Content is written only before the record is sealed, 
+    // and segments having pending records are not compacted
+    @Override
+    public void writeValue(long storageId, Void storageBase, int index, char c) {
+        UNSAFE.putChar(recordAddress(storageId) + RECORD_HEADER_SIZE + ((long) index * CHAR_SIZE), c);
+    }
+    
+    @Override
+    public void copyValue(long storageId, Void storageBase, int srcBegin, char[] dst, int dstBegin, int len) {
+        int reader = enterRead();
+        try {
+            UNSAFE.copyMemory(null, recordAddress(storageId) + RECORD_HEADER_SIZE + ((long) srcBegin * CHAR_SIZE), 
+                              dst, CHAR_ARRAY_BASE_OFFSET + ((long) dstBegin * CHAR_SIZE), 
+                              (long) len * CHAR_SIZE);
+        } finally {
+            exitRead(reader);
+        }
+    }
+    
+    @Override
+    public void commit(long storageId, Void storageBase, int length) {
+        seal((int) storageId, length);
+    }
+    
+    @Override
+    public synchronized void destroy(long storageId, Void storageBase) {
+        if (closed) {
+            return;
+        }
+        int slot = (int) storageId;
+        long recordAddress = recordAddresses[slot];
+        if (recordAddress == 0) {
+            return;
+        }
+        Segment segment = recordSegments[slot];
+        if (UNSAFE.getInt(recordAddress + RECORD_TYPE_OFFSET) == RECORD_TYPE_VALUE) {
+            appendTombstone(slot, generations[slot]);
+            segment.liveBytes -= recordSize(UNSAFE.getInt(recordAddress + RECORD_CAPACITY_OFFSET));
+        } else {
+            // Pending records are not recovered, so no tombstone is needed
+            segment.pendingCount--;
+        }
+        releaseSlot(slot);
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    private List<String> recover() throws IOException {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String name = file.getName();
+                return file.isFile() 
+                        && name.startsWith(SEGMENT_FILE_PREFIX) 
+                        && name.endsWith(SEGMENT_FILE_SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Unable to list log directory " + directory);
+        }
+        // Sequences are zero padded hex numbers, so names are ordered by sequence
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return f1.getName().compareTo(f2.getName());
+            }
+        });
+        boolean done = false;
+        try {
+            long maxGeneration = -1;
+            for (File file : files) {
+                String name = file.getName();
+                long sequence = Long.parseLong(
+                        name.substring(SEGMENT_FILE_PREFIX.length(), name.length() - SEGMENT_FILE_SUFFIX.length()), 16);
+                long length = file.length();
+                if (length < SEGMENT_HEADER_SIZE || length > MAX_SEGMENT_SIZE) {
+                    throw new IOException("Invalid segment file " + file);
+                }
+                Segment segment = mapSegment(file, sequence, (int) length);
+                segments.add(segment);
+                nextSegmentSequence = sequence + 1;
+                long magic = UNSAFE.getLong(segment.address + SEGMENT_MAGIC_OFFSET);
+                if (magic == 0) {
+                    // Crashed just after the segment was created
+                    UNSAFE.putLong(segment.address + SEGMENT_MAGIC_OFFSET, SEGMENT_MAGIC);
+                    UNSAFE.putLong(segment.address + SEGMENT_SEQUENCE_OFFSET, sequence);
+                    segment.dirty = true;
+                } else if (magic != SEGMENT_MAGIC 
+                        || UNSAFE.getLong(segment.address + SEGMENT_SEQUENCE_OFFSET) != sequence) {
+                    throw new IOException("Invalid segment file " + file);
+                }
+                maxGeneration = Math.max(maxGeneration, replay(segment));
+            }
+            nextGeneration = maxGeneration + 1;
+            for (int slot = slotCount; slot-- > 0;) {
+                if (recordAddresses[slot] == 0) {
+                    freeSlots[freeSlotCount++] = slot;
+                }
+            }
+            if (!segments.isEmpty()) {
+                activeSegment = segments.get(segments.size() - 1);
+                // Clear the torn or skipped records at the end, 
+                // so they are not mixed with the records to be appended
+                UNSAFE.setMemory(activeSegment.address + activeSegment.position, 
+                                 activeSegment.capacity - activeSegment.position, (byte) 0);
+            }
+            List<String> result = new ArrayList<String>();
+            for (int slot = 0; slot < slotCount; slot++) {
+                long recordAddress = recordAddresses[slot];
+                if (recordAddress != 0) {
+                    result.add(MyStringTemplate.attach(this, false, slot, null, getStorageSize(slot), 
+                                                       UNSAFE.getInt(recordAddress + RECORD_LENGTH_OFFSET)));
+                }
+            }
+            done = true;
+            return result;
+        } finally {
+            if (!done) {
+                release();
+            }
+        }
+    }
+    
+    // Applies the records of the segment to slots and returns the max generation seen in the segment
+    private long replay(Segment segment) {
+        long maxGeneration = -1;
+        int position = SEGMENT_HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= segment.capacity) {
+            long recordAddress = segment.address + position;
+            int type = UNSAFE.getInt(recordAddress + RECORD_TYPE_OFFSET);
+            int capacity = UNSAFE.getInt(recordAddress + RECORD_CAPACITY_OFFSET);
+            int length = UNSAFE.getInt(recordAddress + RECORD_LENGTH_OFFSET);
+            if (type == RECORD_TYPE_END 
+                    || type > RECORD_TYPE_TOMBSTONE || type < RECORD_TYPE_END
+                    || capacity < 0 || length < 0 || length > capacity 
+                    || recordSize(capacity) > Math.min(MAX_RECORD_SIZE, segment.capacity - position)) {
+                break;
+            }
+            long recordSize = recordSize(capacity);
+            position += recordSize;
+            // Pending and torn records were not committed, so they are skipped
+            if (type == RECORD_TYPE_PENDING 
+                    || UNSAFE.getInt(recordAddress + RECORD_CHECKSUM_OFFSET) != checksum(recordAddress, length)) {
+                continue;
+            }
+            int slot = UNSAFE.getInt(recordAddress + RECORD_SLOT_OFFSET);
+            long generation = UNSAFE.getLong(recordAddress + RECORD_GENERATION_OFFSET);
+            if (slot < 0) {
+                continue;
+            }
+            maxGeneration = Math.max(maxGeneration, generation);
+            ensureSlotCapacity(slot + 1);
+            slotCount = Math.max(slotCount, slot + 1);
+            long currentAddress = recordAddresses[slot];
+            if (type == RECORD_TYPE_VALUE) {
+                // Later copy of the same record (by an interrupted compaction) replaces the former one
+                if (currentAddress == 0 || generations[slot] <= generation) {
+                    if (currentAddress != 0) {
+                        recordSegments[slot].liveBytes -= 
+                                recordSize(UNSAFE.getInt(currentAddress + RECORD_CAPACITY_OFFSET));
+                    }
+                    recordAddresses[slot] = recordAddress;
+                    generations[slot] = generation;
+                    recordSegments[slot] = segment;
+                    segment.liveBytes += recordSize;
+                }
+            } else if (currentAddress != 0 && generations[slot] == generation) {
+                recordSegments[slot].liveBytes -= 
+                        recordSize(UNSAFE.getInt(currentAddress + RECORD_CAPACITY_OFFSET));
+                recordAddresses[slot] = 0;
+                recordSegments[slot] = null;
+            }
+        }
+        segment.position = position;
+        return maxGeneration;
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    /**
+     * Forces the appended records to the segment files.
+     */
+    public synchronized void sync() {
+        checkOpen();
+        for (Segment segment : segments) {
+            if (segment.dirty) {
+                segment.buffer.force();
+                segment.dirty = false;
+            }
+        }
+    }
+    
+    /**
+     * Rewrites the live records of the segments mostly occupied by dead records 
+     * to the active segment and deletes these segments. 
+     * Appends wait while a segment is being rewritten, 
+     * and the rewritten segments are unmapped after the readers which may still be on them are done.
+     */
+    public void compact() {
+        List<Segment> candidates;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            candidates = new ArrayList<Segment>();
+            for (Segment segment : segments) {
+                if (segment != activeSegment 
+                        && segment.pendingCount == 0 
+                        && segment.liveBytes <= (segment.position - SEGMENT_HEADER_SIZE) * COMPACTION_LIVE_RATIO) {
+                    candidates.add(segment);
+                }
+            }
+        }
+        for (Segment segment : candidates) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (segments.contains(segment) && segment.pendingCount == 0) {
+                    compact(segment);
+                }
+            }
+        }
+        releaseRetiredSegments();
+    }
+    
+    private void compact(Segment segment) {
+        // Tombstones may still hide records in the older segments, 
+        // so they are dropped only while compacting the oldest segment
+        boolean oldest = segments.get(0) == segment;
+        int position = SEGMENT_HEADER_SIZE;
+        while (position < segment.position) {
+            long recordAddress = segment.address + position;
+            int type = UNSAFE.getInt(recordAddress + RECORD_TYPE_OFFSET);
+            long recordSize = recordSize(UNSAFE.getInt(recordAddress + RECORD_CAPACITY_OFFSET));
+            position += recordSize;
+            int slot = UNSAFE.getInt(recordAddress + RECORD_SLOT_OFFSET);
+            boolean live = 
+                    type == RECORD_TYPE_VALUE 
+                    && slot >= 0 && slot < slotCount 
+                    && recordAddresses[slot] == recordAddress;
+            if (live || (type == RECORD_TYPE_TOMBSTONE && !oldest)) {
+                Segment target = segmentFor(recordSize);
+                long targetAddress = target.address + target.position;
+                // Checksum doesn't depend on the location, so record is copied as it is
+                UNSAFE.copyMemory(recordAddress, targetAddress, recordSize);
+                target.position += recordSize;
+                target.dirty = true;
+                if (live) {
+                    segment.liveBytes -= recordSize;
+                    target.liveBytes += recordSize;
+                    recordSegments[slot] = target;
+                    setRecordAddress(slot, targetAddress);
+                }
+            }
+        }
+        // Copies must be durable before the segment is deleted
+        for (Segment s : segments) {
+            if (s.dirty && s != segment) {
+                s.buffer.force();
+                s.dirty = false;
+            }
+        }
+        segments.remove(segment);
+        segment.deleted = segment.file.delete();
+        retiredSegments.add(segment);
+    }
+    
+    // Unmaps the retired segments after the readers which may still be on them are done. 
+    // Readers don't take the lock of the log, so they are awaited without holding it.
+    private void releaseRetiredSegments() {
+        synchronized (reclaimLock) {
+            List<Segment> retired;
+            synchronized (this) {
+                if (retiredSegments.isEmpty()) {
+                    return;
+                }
+                retired = new ArrayList<Segment>(retiredSegments);
+                retiredSegments.clear();
+            }
+            awaitReaders();
+            for (Segment segment : retired) {
+                releaseRetiredSegment(segment);
+            }
+        }
+    }
+    
+    private static void releaseRetiredSegment(Segment segment) {
+        DirectBufferUtil.release(segment.buffer);
+        if (!segment.deleted && !segment.file.delete()) {
+            LOGGER.log(Level.WARNING, "Unable to delete compacted segment " + segment.file);
+        }
+    }
+    
+    private synchronized void release() {
+        closed = true;
+        for (Segment segment : segments) {
+            DirectBufferUtil.release(segment.buffer);
+        }
+        segments.clear();
+        activeSegment = null;
+        // Strings of the log must not be read anymore, so readers are not awaited
+        for (Segment segment : retiredSegments) {
+            releaseRetiredSegment(segment);
+        }
+        retiredSegments.clear();
+    }
+    
+    /**
+     * Syncs and closes the log and deregisters its factory. 
+     * Strings of the log must not be used anymore after this call.
+     */
+    @Override
+    public void close() {
+        if (shutdown()) {
+            MyStringService.deregisterMyStringFactory(factoryId);
+        }
+    }
+    
+    private boolean shutdown() {
+        if (compactor != null) {
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            sync();
+            release();
+            return true;
+        }
+    }
+    
+    private static final class Segment {
+        
+        private final long sequence;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private final long address;
+        private final int capacity;
+        // Position to append the next record
+        private int position = SEGMENT_HEADER_SIZE;
+        // Total size of the committed records which are still live
+        private long liveBytes;
+        // Count of the records whose content is still being written
+        private int pendingCount;
+        private boolean dirty;
+        private boolean deleted;
+        
+        private Segment(long sequence, File file, MappedByteBuffer buffer, int capacity) {
+            this.sequence = sequence;
+            this.file = file;
+            this.buffer = buffer;
+            this.address = DirectBufferUtil.getAddress(buffer);
+            this.capacity = capacity;
+        }
+        
+        @Override
+        public String toString() {
+            return "Segment [sequence=" + sequence + ", file=" + file + "]";
+        }
+        
+    }
+    
+}
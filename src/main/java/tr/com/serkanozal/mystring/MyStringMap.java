@@ -0,0 +1,579 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import java.util.Arrays;
+
+import sun.misc.Unsafe;
+import tr.com.serkanozal.mystring.util.JvmUtil;
+
+/**
+ * Hash map whose keys and values are strings stored in native memory, 
+ * so its entries don't create any object on heap. 
+ * 
+ * Table is an open-addressing (linear probing) array of slots in native memory. 
+ * A slot holds the address of its entry, the hash and the length of its key, 
+ * so most of the mismatching entries are skipped without touching them. 
+ * Entries (key and value chars) are appended into native memory chunks 
+ * and they are not moved by resizing the table. 
+ * 
+ * Keys are looked up by {@link String}s, {@link CharSequence}s or UTF-8 encoded bytes 
+ * without allocating anything. Values are got as read-only views 
+ * which are valid until their entries are removed or replaced, or the map is destroyed. 
+ * Space of the removed entries is reclaimed only when the map is cleared or destroyed. 
+ * 
+ * Table and chunks are allocated by {@link Unsafe} directly, not through a 
+ * {@link tr.com.serkanozal.mystring.api.MyStringProcessor MyStringProcessor}, 
+ * since many entries share a chunk, which doesn't fit a storage per string. 
+ * So they are not visible to the processors and they are freed only by the map itself. 
+ * 
+ * Note that this class is not thread-safe.
+ */
+public final class MyStringMap {
+
+    private static final Unsafe UNSAFE = JvmUtil.getUnsafe();
+    
+    private static final int CHAR_SIZE = 2;
+    
+    // Layout of a slot: entry address (long) | key hash (int) | key length (int)
+    private static final int SLOT_SIZE = 16;
+    private static final int SLOT_HASH_OFFSET = 8;
+    private static final int SLOT_KEY_LENGTH_OFFSET = 12;
+    private static final long EMPTY = 0;
+    /** Marks the slots of the removed entries, so probing continues after them */
+    private static final long REMOVED = 1;
+    
+    // Layout of an entry: key length (int) | value length (int) | key chars | value chars
+    private static final int ENTRY_VALUE_LENGTH_OFFSET = 4;
+    private static final int ENTRY_HEADER_SIZE = 8;
+    private static final int ENTRY_ALIGNMENT = 8;
+    private static final int NO_VALUE = -1;
+    
+    private static final long MIN_CAPACITY = 16;
+    private static final long MAX_CAPACITY = 1L << 30;
+    private static final double LOAD_FACTOR = 0.75;
+    /** Load factor (including the removed slots) at which the table is cleaned at the maximum capacity */
+    private static final double MAX_CAPACITY_LOAD_FACTOR = 0.9;
+    private static final int CHUNK_SIZE = 16 * 1024 * 1024;
+    
+    private long table;
+    private long capacity;
+    private long size;
+    private long removedCount;
+    private long[] chunks = new long[16];
+    private int chunkCount;
+    private long chunkPosition;
+    private long chunkLimit;
+    private char[] copyChunk;
+    // Count of the chars decoded by the last UTF-8 hash calculation
+    private int decodedLength;
+    // Index of the byte following the last decoded UTF-8 sequence
+    private int decodedIndex;
+    private boolean destroyed;
+    
+    public MyStringMap() {
+        this(MIN_CAPACITY);
+    }
+    
+    public MyStringMap(long expectedSize) {
+        long minCapacity = (long) Math.ceil(expectedSize / LOAD_FACTOR);
+        long cap = MIN_CAPACITY;
+        while (cap < minCapacity && cap < MAX_CAPACITY) {
+            cap <<= 1;
+        }
+        this.capacity = cap;
+        this.table = allocateTable(cap);
+    }
+    
+    private static long allocateTable(long capacity) {
+        long tableSize = capacity * SLOT_SIZE;
+        long address = UNSAFE.allocateMemory(tableSize);
+        UNSAFE.setMemory(address, tableSize, (byte) 0);
+        return address;
+    }
+    
+    private void checkNotDestroyed() {
+        if (destroyed) {
+            throw new IllegalStateException("Map is destroyed!");
+        }
+    }
+    
+    public long size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    private static boolean keyEquals(long entry, CharSequence key, int keyLength) {
+        long keyAddress = entry + ENTRY_HEADER_SIZE;
+        for (int i = 0; i < keyLength; i++) {
+            if (UNSAFE.getChar(keyAddress + ((long) i * CHAR_SIZE)) != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // Finds the slot of the given key, or returns -1 if it isn't found
+    private long find(CharSequence key) {
+        return find(key, MyStringNativeChars.hash(key));
+    }
+    
+    private long find(CharSequence key, int hash) {
+        checkNotDestroyed();
+        int keyLength = key.length();
+        long mask = capacity - 1;
+        for (long i = MyStringNativeChars.mix(hash) & mask;; i = (i + 1) & mask) {
+            long slot = table + i * SLOT_SIZE;
+            long entry = UNSAFE.getLong(slot);
+            if (entry == EMPTY) {
+                return -1;
+            }
+            if (entry != REMOVED 
+                    && UNSAFE.getInt(slot + SLOT_HASH_OFFSET) == hash 
+                    && UNSAFE.getInt(slot + SLOT_KEY_LENGTH_OFFSET) == keyLength 
+                    && keyEquals(entry, key, keyLength)) {
+                return slot;
+            }
+        }
+    }
+    
+    private int decodeUtf8(byte[] bytes, int index, int end) {
+        int b0 = bytes[index] & 0xFF;
+        if (b0 < 0x80) {
+            decodedIndex = index + 1;
+            return b0;
+        }
+        int n;
+        int cp;
+        int min;
+        if (b0 >= 0xC2 && b0 <= 0xDF) {
+            n = 1;
+            cp = b0 & 0x1F;
+            min = 0x80;
+        } else if (b0 >= 0xE0 && b0 <= 0xEF) {
+            n = 2;
+            cp = b0 & 0x0F;
+            min = 0x800;
+        } else if (b0 >= 0xF0 && b0 <= 0xF4) {
+            n = 3;
+            cp = b0 & 0x07;
+            min = 0x10000;
+        } else {
+            decodedIndex = index + 1;
+            return 0xFFFD;
+        }
+        if (index + n >= end) {
+            decodedIndex = index + 1;
+            return 0xFFFD;
+        }
+        for (int k = 1; k <= n; k++) {
+            int b = bytes[index + k];
+            if ((b & 0xC0) != 0x80) {
+                decodedIndex = index + 1;
+                return 0xFFFD;
+            }
+            cp = (cp << 6) | (b & 0x3F);
+        }
+        if (cp < min || cp > Character.MAX_CODE_POINT 
+                || (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)) {
+            decodedIndex = index + 1;
+            return 0xFFFD;
+        }
+        decodedIndex = index + n + 1;
+        return cp;
+    }
+    
+    private static char highSurrogate(int codePoint) {
+        return (char) ((codePoint >>> 10) 
+                + (Character.MIN_HIGH_SURROGATE - (Character.MIN_SUPPLEMENTARY_CODE_POINT >>> 10)));
+    }
+    
+    private static char lowSurrogate(int codePoint) {
+        return (char) ((codePoint & 0x3FF) + Character.MIN_LOW_SURROGATE);
+    }
+    
+    private int hashUtf8(byte[] bytes, int offset, int length) {
+        int h = 0;
+        int count = 0;
+        int end = offset + length;
+        for (int i = offset; i < end; i = decodedIndex) {
+            int cp = decodeUtf8(bytes, i, end);
+            if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                h = 31 * h + cp;
+                count++;
+            } else {
+                h = 31 * h + highSurrogate(cp);
+                h = 31 * h + lowSurrogate(cp);
+                count += 2;
+            }
+        }
+        decodedLength = count;
+        return h;
+    }
+    
+    private boolean keyEqualsUtf8(long entry, byte[] bytes, int offset, int length) {
+        long keyAddress = entry + ENTRY_HEADER_SIZE;
+        int end = offset + length;
+        long i = 0;
+        for (int p = offset; p < end; p = decodedIndex) {
+            int cp = decodeUtf8(bytes, p, end);
+            if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                if (UNSAFE.getChar(keyAddress + (i++ * CHAR_SIZE)) != cp) {
+                    return false;
+                }
+            } else {
+                if (UNSAFE.getChar(keyAddress + (i++ * CHAR_SIZE)) != highSurrogate(cp)
+                        || UNSAFE.getChar(keyAddress + (i++ * CHAR_SIZE)) != lowSurrogate(cp)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    // Finds the slot of the given UTF-8 encoded key, or returns -1 if it isn't found
+    private long find(byte[] bytes, int offset, int length) {
+        checkNotDestroyed();
+        if (offset < 0 || length < 0 || offset > bytes.length - length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length);
+        }
+        int hash = hashUtf8(bytes, offset, length);
+        int keyLength = decodedLength;
+        long mask = capacity - 1;
+        for (long i = MyStringNativeChars.mix(hash) & mask;; i = (i + 1) & mask) {
+            long slot = table + i * SLOT_SIZE;
+            long entry = UNSAFE.getLong(slot);
+            if (entry == EMPTY) {
+                return -1;
+            }
+            if (entry != REMOVED 
+                    && UNSAFE.getInt(slot + SLOT_HASH_OFFSET) == hash 
+                    && UNSAFE.getInt(slot + SLOT_KEY_LENGTH_OFFSET) == keyLength 
+                    && keyEqualsUtf8(entry, bytes, offset, length)) {
+                return slot;
+            }
+        }
+    }
+    
+    public boolean containsKey(CharSequence key) {
+        return find(key) >= 0;
+    }
+    
+    // Checks the key whose hash has been already calculated by "MyStringNativeChars.hash(CharSequence)"
+    boolean containsKey(CharSequence key, int hash) {
+        return find(key, hash) >= 0;
+    }
+    
+    /**
+     * Checks the key given as UTF-8 encoded bytes. 
+     * Each byte of a malformed sequence is matched as the replacement char (<code>U+FFFD</code>).
+     */
+    public boolean containsKey(byte[] key, int offset, int length) {
+        return find(key, offset, length) >= 0;
+    }
+    
+    private static String valueOf(long slot) {
+        if (slot < 0) {
+            return null;
+        }
+        long entry = UNSAFE.getLong(slot);
+        int valueLength = UNSAFE.getInt(entry + ENTRY_VALUE_LENGTH_OFFSET);
+        if (valueLength == NO_VALUE) {
+            return null;
+        }
+        int keyLength = UNSAFE.getInt(entry);
+        long valueAddress = entry + ENTRY_HEADER_SIZE + (long) keyLength * CHAR_SIZE;
+        return MyStringNativeChars.view(valueAddress, valueLength, 0);
+    }
+    
+    /**
+     * Gets a read-only view of the value of the given key, 
+     * or <code>null</code> if there is no such key or the key has no value.
+     */
+    public String get(CharSequence key) {
+        return valueOf(find(key));
+    }
+    
+    /**
+     * Gets a read-only view of the value of the key given as UTF-8 encoded bytes, 
+     * or <code>null</code> if there is no such key or the key has no value.
+     */
+    public String get(byte[] key, int offset, int length) {
+        return valueOf(find(key, offset, length));
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    private long allocateEntry(long entrySize) {
+        if (chunkPosition + entrySize > chunkLimit) {
+            long chunkSize = Math.max(CHUNK_SIZE, entrySize);
+            long chunk = UNSAFE.allocateMemory(chunkSize);
+            if (chunkCount == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunkCount << 1);
+            }
+            chunks[chunkCount++] = chunk;
+            chunkPosition = chunk;
+            chunkLimit = chunk + chunkSize;
+        }
+        long entry = chunkPosition;
+        chunkPosition += entrySize;
+        return entry;
+    }
+    
+    private void writeChars(long address, CharSequence csq, int length) {
+        copyChunk = MyStringNativeChars.writeChars(address, csq, length, copyChunk);
+    }
+    
+    private long writeEntry(CharSequence key, int keyLength, CharSequence value) {
+        int valueLength = value != null ? value.length() : NO_VALUE;
+        long entrySize = ENTRY_HEADER_SIZE + ((long) keyLength + Math.max(valueLength, 0)) * CHAR_SIZE;
+        entrySize = (entrySize + ENTRY_ALIGNMENT - 1) & -ENTRY_ALIGNMENT;
+        long entry = allocateEntry(entrySize);
+        UNSAFE.putInt(entry, keyLength);
+        UNSAFE.putInt(entry + ENTRY_VALUE_LENGTH_OFFSET, valueLength);
+        writeChars(entry + ENTRY_HEADER_SIZE, key, keyLength);
+        if (value != null) {
+            writeChars(entry + ENTRY_HEADER_SIZE + (long) keyLength * CHAR_SIZE, value, valueLength);
+        }
+        return entry;
+    }
+    
+    /**
+     * Puts the given key with the given value (or without value if it is <code>null</code>) 
+     * by copying them into native memory. If the key exists, its value is replaced.
+     * 
+     * @return <code>true</code> if the key is added, <code>false</code> if it already exists
+     * @throws IllegalStateException if the key doesn't exist and the map is full at its maximum capacity
+     */
+    public boolean put(CharSequence key, CharSequence value) {
+        return put(key, MyStringNativeChars.hash(key), value);
+    }
+    
+    // Puts the key whose hash has been already calculated by "MyStringNativeChars.hash(CharSequence)"
+    boolean put(CharSequence key, int hash, CharSequence value) {
+        checkNotDestroyed();
+        if (size + removedCount + 1 > capacity * LOAD_FACTOR) {
+            if (capacity < MAX_CAPACITY) {
+                // Removed slots are cleared by rehashing without growing if they are the majority
+                rehash(size + 1 > (capacity >> 1) ? capacity << 1 : capacity);
+            } else if (size + removedCount + 1 > capacity * MAX_CAPACITY_LOAD_FACTOR) {
+                // Table can't grow anymore, so removed slots are cleared only 
+                // once they fill the room above the load factor, not at every put
+                rehash(capacity);
+            }
+        }
+        int keyLength = key.length();
+        long mask = capacity - 1;
+        long target = -1;
+        for (long i = MyStringNativeChars.mix(hash) & mask;; i = (i + 1) & mask) {
+            long slot = table + i * SLOT_SIZE;
+            long entry = UNSAFE.getLong(slot);
+            if (entry == EMPTY) {
+                if (target < 0) {
+                    target = slot;
+                }
+                break;
+            }
+            if (entry == REMOVED) {
+                if (target < 0) {
+                    target = slot;
+                }
+            } else if (UNSAFE.getInt(slot + SLOT_HASH_OFFSET) == hash 
+                    && UNSAFE.getInt(slot + SLOT_KEY_LENGTH_OFFSET) == keyLength 
+                    && keyEquals(entry, key, keyLength)) {
+                int oldValueLength = UNSAFE.getInt(entry + ENTRY_VALUE_LENGTH_OFFSET);
+                int valueLength = value != null ? value.length() : NO_VALUE;
+                if (valueLength <= oldValueLength) {
+                    // New value fits into the space of the old one
+                    UNSAFE.putInt(entry + ENTRY_VALUE_LENGTH_OFFSET, valueLength);
+                    if (value != null) {
+                        writeChars(entry + ENTRY_HEADER_SIZE + (long) keyLength * CHAR_SIZE, value, valueLength);
+                    }
+                } else {
+                    UNSAFE.putLong(slot, writeEntry(key, keyLength, value));
+                }
+                return false;
+            }
+            if (i == ((MyStringNativeChars.mix(hash) - 1) & mask)) {
+                break;
+            }
+        }
+        // Some slots are kept empty, so probing for the missing keys terminates
+        if (target < 0 || size + 1 > capacity * LOAD_FACTOR) {
+            throw new IllegalStateException("Map is full!");
+        }
+        if (UNSAFE.getLong(target) == REMOVED) {
+            removedCount--;
+        }
+        UNSAFE.putLong(target, writeEntry(key, keyLength, value));
+        UNSAFE.putInt(target + SLOT_HASH_OFFSET, hash);
+        UNSAFE.putInt(target + SLOT_KEY_LENGTH_OFFSET, keyLength);
+        size++;
+        return true;
+    }
+    
+    /**
+     * Adds the given key without value.
+     * 
+     * @return <code>true</code> if the key is added, <code>false</code> if it already exists
+     */
+    public boolean add(CharSequence key) {
+        return put(key, null);
+    }
+    
+    /**
+     * Grows the table (if needed) to hold the given count of keys without rehashing again.
+     */
+    void ensureCapacity(long expectedSize) {
+        checkNotDestroyed();
+        long minCapacity = (long) Math.ceil((expectedSize + removedCount) / LOAD_FACTOR);
+        if (minCapacity <= capacity || capacity == MAX_CAPACITY) {
+            return;
+        }
+        long cap = capacity;
+        while (cap < minCapacity && cap < MAX_CAPACITY) {
+            cap <<= 1;
+        }
+        rehash(cap);
+    }
+    
+    private void rehash(long newCapacity) {
+        long newTable = allocateTable(newCapacity);
+        long mask = newCapacity - 1;
+        for (long i = 0; i < capacity; i++) {
+            long slot = table + i * SLOT_SIZE;
+            long entry = UNSAFE.getLong(slot);
+            if (entry == EMPTY || entry == REMOVED) {
+                continue;
+            }
+            int hash = UNSAFE.getInt(slot + SLOT_HASH_OFFSET);
+            long j = MyStringNativeChars.mix(hash) & mask;
+            while (UNSAFE.getLong(newTable + j * SLOT_SIZE) != EMPTY) {
+                j = (j + 1) & mask;
+            }
+            UNSAFE.copyMemory(slot, newTable + j * SLOT_SIZE, SLOT_SIZE);
+        }
+        UNSAFE.freeMemory(table);
+        table = newTable;
+        capacity = newCapacity;
+        removedCount = 0;
+    }
+    
+    /**
+     * Removes the given key. Its value views must not be used anymore.
+     * 
+     * @return <code>true</code> if the key is removed, <code>false</code> if it doesn't exist
+     */
+    public boolean remove(CharSequence key) {
+        long slot = find(key);
+        if (slot < 0) {
+            return false;
+        }
+        UNSAFE.putLong(slot, REMOVED);
+        size--;
+        removedCount++;
+        return true;
+    }
+    
+    private void freeChunks() {
+        for (int i = 0; i < chunkCount; i++) {
+            UNSAFE.freeMemory(chunks[i]);
+        }
+        chunkCount = 0;
+        chunkPosition = 0;
+        chunkLimit = 0;
+    }
+    
+    /**
+     * Removes all the keys and releases the memory of the entries.
+     */
+    public void clear() {
+        checkNotDestroyed();
+        UNSAFE.setMemory(table, capacity * SLOT_SIZE, (byte) 0);
+        freeChunks();
+        size = 0;
+        removedCount = 0;
+    }
+    
+    /**
+     * Releases all the native memory of the map. 
+     * The map and its value views must not be used anymore.
+     */
+    public void destroy() {
+        if (!destroyed) {
+            freeChunks();
+            UNSAFE.freeMemory(table);
+            table = 0;
+            destroyed = true;
+        }
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    /**
+     * Iterates over the entries of the map. 
+     * Map must not be modified while it is being iterated.
+     */
+    public Cursor cursor() {
+        checkNotDestroyed();
+        return new Cursor();
+    }
+    
+    public final class Cursor {
+        
+        private long index = -1;
+        private long slot;
+        
+        private Cursor() {
+        }
+        
+        public boolean next() {
+            while (++index < capacity) {
+                slot = table + index * SLOT_SIZE;
+                long entry = UNSAFE.getLong(slot);
+                if (entry != EMPTY && entry != REMOVED) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        /**
+         * Gets a read-only view of the key of the current entry.
+         */
+        public String key() {
+            long entry = UNSAFE.getLong(slot);
+            return MyStringNativeChars.view(entry + ENTRY_HEADER_SIZE, 
+                                            UNSAFE.getInt(entry), UNSAFE.getInt(slot + SLOT_HASH_OFFSET));
+        }
+        
+        /**
+         * Gets a read-only view of the value of the current entry, 
+         * or <code>null</code> if it has no value.
+         */
+        public String value() {
+            return valueOf(slot);
+        }
+        
+    }
+    
+}
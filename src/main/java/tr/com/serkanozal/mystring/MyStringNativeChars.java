@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import sun.misc.Unsafe;
+import tr.com.serkanozal.mystring.offheap.OffHeapMyStringProcessor;
+import tr.com.serkanozal.mystring.util.JvmUtil;
+
+/**
+ * Common helpers of the off-heap structures (map, trie and column) 
+ * to hash the given strings, to write their chars into native memory 
+ * and to view the chars in native memory as read-only strings.
+ */
+final class MyStringNativeChars {
+
+    private static final Unsafe UNSAFE = JvmUtil.getUnsafe();
+    
+    static final long CHAR_ARRAY_BASE_OFFSET;
+    private static final int CHAR_SIZE = 2;
+    private static final int COPY_CHUNK_SIZE = 1024;
+    
+    /** Processor of the views, whose storage id is the address of the viewed chars */
+    private static final OffHeapMyStringProcessor VIEW_PROCESSOR = new OffHeapMyStringProcessor();
+    
+    static {
+        try {
+            CHAR_ARRAY_BASE_OFFSET = UNSAFE.arrayBaseOffset(char[].class);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+    
+    private MyStringNativeChars() {
+    }
+    
+    /**
+     * Gets the same hash with {@link String#hashCode()} without creating a string.
+     */
+    static int hash(CharSequence csq) {
+        if (csq instanceof String) {
+            // Cached by the string
+            return csq.hashCode();
+        }
+        int h = 0;
+        for (int i = 0, len = csq.length(); i < len; i++) {
+            h = 31 * h + csq.charAt(i);
+        }
+        return h;
+    }
+    
+    static int mix(int hash) {
+        // Finalizer of MurmurHash3, since string hashes are not well distributed in the low bits
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+    
+    /**
+     * Writes the first <code>length</code> chars of the given sequence to the given address. 
+     * Chars of strings are copied in bulk through the given chunk (created if it is <code>null</code>).
+     * 
+     * @return the chunk to be passed to the next call
+     */
+    static char[] writeChars(long address, CharSequence csq, int length, char[] copyChunk) {
+        if (csq instanceof String) {
+            String str = (String) csq;
+            if (copyChunk == null) {
+                copyChunk = new char[COPY_CHUNK_SIZE];
+            }
+            for (int i = 0; i < length;) {
+                int n = Math.min(copyChunk.length, length - i);
+                str.getChars(i, i + n, copyChunk, 0);
+                UNSAFE.copyMemory(copyChunk, CHAR_ARRAY_BASE_OFFSET, 
+                                  null, address + (long) i * CHAR_SIZE, (long) n * CHAR_SIZE);
+                i += n;
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                UNSAFE.putChar(address + ((long) i * CHAR_SIZE), csq.charAt(i));
+            }
+        }
+        return copyChunk;
+    }
+    
+    /**
+     * Gets a read-only view of the given chars in native memory. 
+     * The hash is cached if it is known (not <code>0</code>).
+     */
+    static String view(long address, int length, int hash) {
+        return MyStringTemplate.attachShared(VIEW_PROCESSOR, false, address, null, length, hash);
+    }
+    
+}
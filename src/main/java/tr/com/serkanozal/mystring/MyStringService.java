@@ -16,10 +16,20 @@
 
 package tr.com.serkanozal.mystring;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.lang.instrument.ClassDefinition;
 import java.lang.instrument.Instrumentation;
 import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.jar.JarFile;
 import java.util.logging.Level;
@@ -53,10 +63,26 @@ public class MyStringService {
     private static final boolean ACTIVE;
     private static final Map<String, MyStringFactory> MY_STR_FACTORY_MAP = 
             new HashMap<String, MyStringFactory>();
+    @SuppressWarnings("rawtypes")
+    private static final Map<String, MyStringFactoryRegistration> MY_STR_FACTORY_REGISTRATION_MAP = 
+            new HashMap<String, MyStringFactoryRegistration>();
+    @SuppressWarnings("rawtypes")
+    private static final Map<MyStringProcessor, MyStringFactoryRegistration> MY_STR_PROCESSOR_REGISTRATION_MAP = 
+            new IdentityHashMap<MyStringProcessor, MyStringFactoryRegistration>();
     private static final Unsafe UNSAFE;
     private static final Instrumentation INSTRUMENTATION;
     private static final ClassPool CLASS_POOL;
     private static final String OFFHEAP_MYSTRING_FACTORY_ID = "OffHeapMyStringProcessor";
+    private static final String AFFINE_OFFHEAP_MYSTRING_FACTORY_ID = "AffineOffHeapMyStringProcessor";
+    
+    private static Class<? extends MyStringFactory> myStrFactoryClass;
+    // Replaced on every change, so it is read without lock by each created string
+    @SuppressWarnings("rawtypes")
+    private static volatile Map<MyStringProcessor, MyStringTracker> myStrTrackerMap = 
+            new IdentityHashMap<MyStringProcessor, MyStringTracker>();
+    @SuppressWarnings("rawtypes")
+    private static volatile Map<MyStringProcessor, MyStringInternPool> myStrInternPoolMap = 
+            new IdentityHashMap<MyStringProcessor, MyStringInternPool>();
     
     static {
         Instrumentation inst = null;
@@ -228,10 +254,26 @@ public class MyStringService {
     
     private static void registerDefaultMyStringFactories() {
         registerMyStringFactoryInternal(OFFHEAP_MYSTRING_FACTORY_ID, new OffHeapMyStringProcessor());
+        registerMyStringFactoryInternal(AFFINE_OFFHEAP_MYSTRING_FACTORY_ID, new OffHeapMyStringProcessor(), true);
     }
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    private static MyStringFactory createMyStringFactory(MyStringProcessor myStrProcessor) {
+    private static MyStringFactory createMyStringFactory(MyStringProcessor myStrProcessor, boolean affine) {
+        try {
+            // Factory class is generated only once and shared by all the registered factories
+            if (myStrFactoryClass == null) {
+                myStrFactoryClass = defineMyStringFactoryClass();
+            }
+            Constructor myStrFactoryConstructor = 
+                    myStrFactoryClass.getConstructor(MyStringProcessor.class, boolean.class);
+            return (MyStringFactory) myStrFactoryConstructor.newInstance(myStrProcessor, affine);
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Class<? extends MyStringFactory> defineMyStringFactoryClass() {
         try {
             CtClass ctMyStrFactoryClass = 
                     CLASS_POOL.makeClass("tr.com.serkanozal.mystring.DefaultMyStringFactory");
@@ -245,13 +287,18 @@ public class MyStringService {
             CtField ctMyStrProcessorField = new CtField(myStrProcessorClass, "myStrProcessor", ctMyStrFactoryClass);
             ctMyStrFactoryClass.addField(ctMyStrProcessorField);
             
+            CtField ctAffineField = new CtField(CtClass.booleanType, "affine", ctMyStrFactoryClass);
+            ctMyStrFactoryClass.addField(ctAffineField);
+            
             ////////////////////////////////////////////////////////////////////////////////////
             
             CtConstructor ctMyStrFactoryConstructor = 
-                    new CtConstructor(new CtClass[] { myStrProcessorClass }, ctMyStrFactoryClass);
+                    new CtConstructor(new CtClass[] { myStrProcessorClass, CtClass.booleanType }, 
+                                      ctMyStrFactoryClass);
             ctMyStrFactoryConstructor.setBody(
                     "{" + 
                         "this.myStrProcessor = $1;" +
+                        "this.affine = $2;" +
                     "}");
             ctMyStrFactoryClass.addConstructor(ctMyStrFactoryConstructor);
             
@@ -264,7 +311,7 @@ public class MyStringService {
                                  ctMyStrFactoryClass);
             ctCreateMethod1.setBody(
                     "{" + 
-                        "return new tr.com.serkanozal.mystring.MyStringTemplate(myStrProcessor, $1);" + 
+                        "return new tr.com.serkanozal.mystring.MyStringTemplate(myStrProcessor, affine, $1);" + 
                     "}");
             ctMyStrFactoryClass.addMethod(ctCreateMethod1);
             
@@ -277,7 +324,7 @@ public class MyStringService {
                                  ctMyStrFactoryClass);
             ctCreateMethod2.setBody(
                     "{" + 
-                        "return new tr.com.serkanozal.mystring.MyStringTemplate(myStrProcessor, $1);" + 
+                        "return new tr.com.serkanozal.mystring.MyStringTemplate(myStrProcessor, affine, $1);" + 
                     "}");
             ctMyStrFactoryClass.addMethod(ctCreateMethod2);
             
@@ -293,7 +340,7 @@ public class MyStringService {
                                  ctMyStrFactoryClass);
             ctCreateMethod3.setBody(
                     "{" + 
-                        "return new tr.com.serkanozal.mystring.MyStringTemplate(myStrProcessor, $1, $2, $3);" + 
+                        "return new tr.com.serkanozal.mystring.MyStringTemplate(myStrProcessor, affine, $1, $2, $3);" + 
                     "}");
             ctMyStrFactoryClass.addMethod(ctCreateMethod3);
             
@@ -308,7 +355,7 @@ public class MyStringService {
                                  ctMyStrFactoryClass);
             ctCreateMethod4.setBody(
                     "{" + 
-                        "return new tr.com.serkanozal.mystring.MyStringTemplate(myStrProcessor, $1, $2);" + 
+                        "return new tr.com.serkanozal.mystring.MyStringTemplate(myStrProcessor, affine, $1, $2);" + 
                     "}");
             ctMyStrFactoryClass.addMethod(ctCreateMethod4);
             
@@ -325,23 +372,80 @@ public class MyStringService {
                                  ctMyStrFactoryClass);
             ctCreateMethod5.setBody(
                     "{" + 
-                        "return new tr.com.serkanozal.mystring.MyStringTemplate(myStrProcessor, $1, $2, $3, $4);" + 
+                        "return new tr.com.serkanozal.mystring.MyStringTemplate(myStrProcessor, affine, $1, $2, $3, $4);" + 
                     "}");
             ctMyStrFactoryClass.addMethod(ctCreateMethod5);
 
             ////////////////////////////////////////////////////////////////////////////////////
             
+            addDelegatingCreateMethod(ctMyStrFactoryClass, "$1, 0, $1.length, $2", byte[].class, Charset.class);
+            addDelegatingCreateMethod(ctMyStrFactoryClass, "$1, $2, $3, $4", 
+                                      byte[].class, int.class, int.class, Charset.class);
+            addDelegatingCreateMethod(ctMyStrFactoryClass, "$1, $2", ByteBuffer.class, Charset.class);
+            addDelegatingCreateMethod(ctMyStrFactoryClass, "$1, $2, $3", long.class, int.class, Charset.class);
+            addDelegatingCreateMethod(ctMyStrFactoryClass, "$1, -1", Reader.class);
+            addDelegatingCreateMethod(ctMyStrFactoryClass, "$1, $2", Reader.class, int.class);
+            addDelegatingCreateMethod(ctMyStrFactoryClass, "$1, $2, -1", InputStream.class, Charset.class);
+            addDelegatingCreateMethod(ctMyStrFactoryClass, "$1, $2, $3", 
+                                      InputStream.class, Charset.class, int.class);
+            addDelegatingCreateMethod(ctMyStrFactoryClass, "$1, $2, -1", 
+                                      ReadableByteChannel.class, Charset.class);
+            addDelegatingCreateMethod(ctMyStrFactoryClass, "$1, $2, $3", 
+                                      ReadableByteChannel.class, Charset.class, int.class);
+            addDelegatingMethod(ctMyStrFactoryClass, MyStringBatch.class, "createBatch", "$1", 
+                                String[].class);
+            addDelegatingMethod(ctMyStrFactoryClass, MyStringBatch.class, "createBatch", "$1, $2", 
+                                String[].class, boolean.class);
+            addDelegatingMethod(ctMyStrFactoryClass, MyStringBatch.class, "createBatch", "$1", 
+                                Collection.class);
+            addDelegatingMethod(ctMyStrFactoryClass, MyStringBatch.class, "createBatch", "$1", 
+                                Iterator.class);
+            addDelegatingMethod(ctMyStrFactoryClass, MyStringBatch.class, "createBatch", "$1, $2", 
+                                Collection.class, boolean.class);
+            addDelegatingMethod(ctMyStrFactoryClass, MyStringBatch.class, "createBatch", "$1, $2", 
+                                Iterator.class, boolean.class);
+            addDelegatingMethod(ctMyStrFactoryClass, MyStringBuilder.class, "createBuilder", "-1");
+            addDelegatingMethod(ctMyStrFactoryClass, MyStringBuilder.class, "createBuilder", "$1", 
+                                int.class);
+            
+            ////////////////////////////////////////////////////////////////////////////////////
+            
             byte[] byteCodeOfMyStrFactoryClass = ctMyStrFactoryClass.toBytecode();
-            Class<? extends MyStringFactory> myStrFactoryClass = (Class<? extends MyStringFactory>)
+            return (Class<? extends MyStringFactory>)
                 UNSAFE.defineClass(ctMyStrFactoryClass.getName(), 
                                    byteCodeOfMyStrFactoryClass, 
                                    0, byteCodeOfMyStrFactoryClass.length,
                                    MyStringService.class.getClassLoader(), null);
-            Constructor myStrFactoryConstructor = myStrFactoryClass.getConstructor(MyStringProcessor.class);
-            return (MyStringFactory) myStrFactoryConstructor.newInstance(myStrProcessor);
         } catch (Throwable t) {
-            throw new RuntimeException(t);
+            throw new RuntimeException("Unable to define MyStringFactory implementation!", t);
+        }
+    }
+    
+    private static void addDelegatingCreateMethod(CtClass ctMyStrFactoryClass, String args, 
+                                                  Class<?>... paramTypes) throws Exception {
+        addDelegatingMethod(ctMyStrFactoryClass, String.class, "create", args, paramTypes);
+    }
+    
+    // Adds a method which delegates to the static "MyStringTemplate" method with the same name 
+    // by passing the processor and affinity of the factory with the given arguments 
+    private static void addDelegatingMethod(CtClass ctMyStrFactoryClass, Class<?> returnType, 
+                                            String name, String args, 
+                                            Class<?>... paramTypes) throws Exception {
+        CtClass[] ctParamTypes = new CtClass[paramTypes.length];
+        for (int i = 0; i < paramTypes.length; i++) {
+            ctParamTypes[i] = CLASS_POOL.get(paramTypes[i].getName());
         }
+        CtMethod ctMethod = 
+                new CtMethod(CLASS_POOL.get(returnType.getName()), 
+                             name, 
+                             ctParamTypes, 
+                             ctMyStrFactoryClass);
+        ctMethod.setBody(
+                "{" + 
+                    "return tr.com.serkanozal.mystring.MyStringTemplate." + name + 
+                        "(myStrProcessor, affine, " + args + ");" + 
+                "}");
+        ctMyStrFactoryClass.addMethod(ctMethod);
     }
     
     private static void checkActive() {
@@ -360,11 +464,23 @@ public class MyStringService {
     
     @SuppressWarnings("rawtypes")
     public static void registerMyStringFactoryInternal(String id, MyStringProcessor myStrProcessor) {
+        registerMyStringFactoryInternal(id, myStrProcessor, false);
+    }
+    
+    @SuppressWarnings("rawtypes")
+    public static void registerMyStringFactoryInternal(String id, MyStringProcessor myStrProcessor, 
+                                                       boolean affine) {
         synchronized (MY_STR_FACTORY_MAP) {
             MyStringFactory myStrFactory = MY_STR_FACTORY_MAP.get(id);
             if (myStrFactory == null) {
-                myStrFactory = createMyStringFactory(myStrProcessor);
+                myStrFactory = createMyStringFactory(myStrProcessor, affine);
                 MY_STR_FACTORY_MAP.put(id, myStrFactory);
+                MyStringFactoryRegistration registration = 
+                        new MyStringFactoryRegistration(id, myStrProcessor, affine);
+                MY_STR_FACTORY_REGISTRATION_MAP.put(id, registration);
+                if (!MY_STR_PROCESSOR_REGISTRATION_MAP.containsKey(myStrProcessor)) {
+                    MY_STR_PROCESSOR_REGISTRATION_MAP.put(myStrProcessor, registration);
+                }
             } else {
                 throw new IllegalArgumentException("There is already registered factory with id " + id);
             }
@@ -378,11 +494,32 @@ public class MyStringService {
         registerMyStringFactoryInternal(id, myStrProcessor);
     }
     
+    /**
+     * Registers a factory whose created strings are affine to the given processor 
+     * if <code>affine</code> is <code>true</code>. Strings derived from an affine string 
+     * (by <code>substring</code>, <code>concat</code>, <code>replace</code>, 
+     * <code>toLowerCase</code>, <code>toUpperCase</code>, <code>trim</code>, ...) 
+     * are allocated through the same processor instead of heap, 
+     * so they also must be destroyed by the caller.
+     */
+    @SuppressWarnings("rawtypes")
+    public static void registerMyStringFactory(String id, MyStringProcessor myStrProcessor, boolean affine) {
+        checkActive();
+        
+        registerMyStringFactoryInternal(id, myStrProcessor, affine);
+    }
+    
+    @SuppressWarnings("rawtypes")
     public static MyStringFactory deregisterMyStringFactory(String id) {
         checkActive();
         
         synchronized (MY_STR_FACTORY_MAP) {
-            return MY_STR_FACTORY_MAP.get(id);
+            MyStringFactoryRegistration registration = MY_STR_FACTORY_REGISTRATION_MAP.remove(id);
+            if (registration != null 
+                    && MY_STR_PROCESSOR_REGISTRATION_MAP.get(registration.myStrProcessor) == registration) {
+                MY_STR_PROCESSOR_REGISTRATION_MAP.remove(registration.myStrProcessor);
+            }
+            return MY_STR_FACTORY_MAP.remove(id);
         }
     }
     
@@ -392,6 +529,175 @@ public class MyStringService {
         return getMyStringFactory(OFFHEAP_MYSTRING_FACTORY_ID);
     }
     
+    public static MyStringFactory getAffineOffHeapMyStringFactory() {
+        checkActive();
+        
+        return getMyStringFactory(AFFINE_OFFHEAP_MYSTRING_FACTORY_ID);
+    }
+    
+    // Gets id of the factory which uses the given processor, 
+    // so strings can be recreated by the same factory (for example, on deserialization)
+    @SuppressWarnings("rawtypes")
+    static String findMyStringFactoryId(MyStringProcessor myStrProcessor) {
+        synchronized (MY_STR_FACTORY_MAP) {
+            MyStringFactoryRegistration registration = MY_STR_PROCESSOR_REGISTRATION_MAP.get(myStrProcessor);
+            return registration != null ? registration.id : null;
+        }
+    }
+    
+    @SuppressWarnings("rawtypes")
+    static MyStringFactoryRegistration findMyStringFactoryRegistration(String id) {
+        synchronized (MY_STR_FACTORY_MAP) {
+            return MY_STR_FACTORY_REGISTRATION_MAP.get(id);
+        }
+    }
+    
+    @SuppressWarnings("rawtypes")
+    static final class MyStringFactoryRegistration {
+        
+        final String id;
+        final MyStringProcessor myStrProcessor;
+        final boolean affine;
+        
+        private MyStringFactoryRegistration(String id, MyStringProcessor myStrProcessor, boolean affine) {
+            this.id = id;
+            this.myStrProcessor = myStrProcessor;
+            this.affine = affine;
+        }
+        
+    }
+    
+    /**
+     * Starts tracking the live strings of the factory with the given id 
+     * (strings created by the factory or derived from them by the same processor), 
+     * so they can be snapshotted by {@link #snapshotMyStringFactory(String, File)}. 
+     * Strings created before tracking is started are not tracked. Tracked strings are referenced weakly, 
+     * so strings which are not referenced anymore (for example, the ones of heap-backed factories 
+     * which are not destroyed explicitly) are not kept alive by tracking.
+     */
+    @SuppressWarnings("rawtypes")
+    public static void trackMyStringFactory(String id) {
+        checkActive();
+        
+        synchronized (MY_STR_FACTORY_MAP) {
+            MyStringFactoryRegistration registration = getMyStringFactoryRegistration(id);
+            if (!myStrTrackerMap.containsKey(registration.myStrProcessor)) {
+                Map<MyStringProcessor, MyStringTracker> trackerMap = 
+                        new IdentityHashMap<MyStringProcessor, MyStringTracker>(myStrTrackerMap);
+                trackerMap.put(registration.myStrProcessor, new MyStringTracker());
+                myStrTrackerMap = trackerMap;
+            }
+        }
+    }
+    
+    /**
+     * Gets the intern pool of the processor of a registered factory, 
+     * or <code>null</code> if the processor is not registered.
+     */
+    @SuppressWarnings("rawtypes")
+    static MyStringInternPool findMyStringInternPool(MyStringProcessor myStrProcessor) {
+        Map<MyStringProcessor, MyStringInternPool> internPoolMap = myStrInternPoolMap;
+        MyStringInternPool internPool = internPoolMap.get(myStrProcessor);
+        if (internPool != null) {
+            return internPool;
+        }
+        synchronized (MY_STR_FACTORY_MAP) {
+            if (!MY_STR_PROCESSOR_REGISTRATION_MAP.containsKey(myStrProcessor)) {
+                return null;
+            }
+            internPool = myStrInternPoolMap.get(myStrProcessor);
+            if (internPool == null) {
+                internPool = new MyStringInternPool();
+                internPoolMap = new IdentityHashMap<MyStringProcessor, MyStringInternPool>(myStrInternPoolMap);
+                internPoolMap.put(myStrProcessor, internPool);
+                myStrInternPoolMap = internPoolMap;
+            }
+            return internPool;
+        }
+    }
+    
+    /**
+     * Destroys the canonical strings interned by the strings of the factory with the given id, 
+     * so they must not be used anymore.
+     * 
+     * @return the count of the destroyed strings
+     */
+    @SuppressWarnings("rawtypes")
+    public static int clearInternPool(String id) {
+        checkActive();
+        
+        MyStringFactoryRegistration registration = getMyStringFactoryRegistration(id);
+        MyStringInternPool internPool = myStrInternPoolMap.get(registration.myStrProcessor);
+        if (internPool == null) {
+            return 0;
+        }
+        int size = internPool.size();
+        internPool.clear();
+        return size;
+    }
+    
+    @SuppressWarnings("rawtypes")
+    static MyStringTracker findMyStringTracker(MyStringProcessor myStrProcessor) {
+        Map<MyStringProcessor, MyStringTracker> trackerMap = myStrTrackerMap;
+        return trackerMap.isEmpty() ? null : trackerMap.get(myStrProcessor);
+    }
+    
+    @SuppressWarnings("rawtypes")
+    private static MyStringFactoryRegistration getMyStringFactoryRegistration(String id) {
+        MyStringFactoryRegistration registration = findMyStringFactoryRegistration(id);
+        if (registration == null) {
+            throw new IllegalArgumentException("There is no registered factory with id " + id);
+        }
+        return registration;
+    }
+    
+    /**
+     * Writes all the live strings of the tracked factory with the given id into the given file 
+     * as a compact image to be loaded back by {@link #loadMyStringSnapshot(String, File)} 
+     * or {@link #mapMyStringSnapshot(File)}. 
+     * Strings of the factory must not be destroyed while the snapshot is being written.
+     * 
+     * @return the count of the written strings
+     */
+    @SuppressWarnings("rawtypes")
+    public static int snapshotMyStringFactory(String id, File file) throws IOException {
+        checkActive();
+        
+        MyStringFactoryRegistration registration = getMyStringFactoryRegistration(id);
+        MyStringTracker tracker = findMyStringTracker(registration.myStrProcessor);
+        if (tracker == null) {
+            throw new IllegalStateException("Factory with id " + id + " is not tracked!");
+        }
+        MyStringTemplate[] strs = tracker.toArray();
+        MyStringSnapshot.write(file, strs);
+        return strs.length;
+    }
+    
+    /**
+     * Loads the strings in the given snapshot file into the storage of the factory with the given id. 
+     * If the processor of the factory supports slicing, chars of all the strings are loaded 
+     * into a single storage by a single bulk read, so the strings must be destroyed together 
+     * by destroying the returned batch.
+     */
+    @SuppressWarnings("rawtypes")
+    public static MyStringBatch loadMyStringSnapshot(String id, File file) throws IOException {
+        checkActive();
+        
+        MyStringFactoryRegistration registration = getMyStringFactoryRegistration(id);
+        return MyStringSnapshot.load(registration.myStrProcessor, registration.affine, file);
+    }
+    
+    /**
+     * Maps the given snapshot file and attaches the strings in it to the mapped regions 
+     * without reading them. Strings are read-only and must not be used 
+     * after the returned batch is destroyed.
+     */
+    public static MyStringBatch mapMyStringSnapshot(File file) throws IOException {
+        checkActive();
+        
+        return MyStringSnapshot.map(file);
+    }
+    
     public static MyString getMyStringOrNull(String str) {
         checkActive();
         
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import java.util.Collection;
+
+import sun.misc.Unsafe;
+import tr.com.serkanozal.mystring.util.JvmUtil;
+
+/**
+ * Set of strings stored in native memory ({@link MyStringMap} without values) 
+ * fronted by a blocked Bloom filter, so most of the strings which are not in the set 
+ * are rejected without probing the table and comparing the chars. 
+ * 
+ * Bloom filter consists of cache line sized (512 bits) blocks in native memory. 
+ * All bits of a string are in the same block, so a test touches a single cache line. 
+ * Block and bits are derived from the 64-bit {@link MyStringHash} of the chars, 
+ * since the 32-bit {@link String#hashCode()} has too few bits to select both a block and 
+ * independent bits in it and its collisions can't be rejected by the filter. 
+ * The 32-bit hash is still used by the table and is computed only for the strings 
+ * which pass the filter. 
+ * Filter is rebuilt with a larger capacity when the set grows beyond the capacity of the filter, 
+ * to keep its false positive rate. Bits of the removed strings are not cleared 
+ * until the filter is rebuilt or the set is cleared. 
+ * 
+ * Note that this class is not thread-safe.
+ */
+public final class MyStringSet {
+
+    private static final Unsafe UNSAFE = JvmUtil.getUnsafe();
+    
+    private static final int BLOCK_SIZE = 64;
+    private static final int BLOCK_BITS = BLOCK_SIZE * 8;
+    private static final int BLOCK_BIT_SHIFT = Long.SIZE - 9;
+    private static final int MAX_HASH_COUNT = 16;
+    private static final long DEFAULT_EXPECTED_SIZE = 1024;
+    private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+    
+    private final MyStringMap map;
+    private final MyStringHash.Hasher hasher = MyStringHash.newHasher();
+    private final double bitsPerKey;
+    private final int hashCount;
+    /** Allocated memory of the filter, whose blocks start from the next cache line boundary */
+    private long bloomMemory;
+    private long bloom;
+    private long blockCount;
+    /** Count of the strings the filter is sized for */
+    private long bloomCapacity;
+    
+    public MyStringSet() {
+        this(DEFAULT_EXPECTED_SIZE, DEFAULT_FALSE_POSITIVE_RATE);
+    }
+    
+    /**
+     * @param expectedSize      expected count of the strings in the set
+     * @param falsePositiveRate rate of the strings not in the set which pass the filter 
+     *                          and are looked up from the table
+     */
+    public MyStringSet(long expectedSize, double falsePositiveRate) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Expected size must not be negative: " + expectedSize);
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + falsePositiveRate);
+        }
+        this.map = new MyStringMap(expectedSize);
+        this.bitsPerKey = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        this.hashCount = (int) Math.max(1, Math.min(MAX_HASH_COUNT, Math.round(bitsPerKey * Math.log(2))));
+        allocateBloom(Math.max(expectedSize, DEFAULT_EXPECTED_SIZE));
+    }
+    
+    private void allocateBloom(long capacity) {
+        long bits = (long) Math.ceil(capacity * bitsPerKey);
+        blockCount = Math.max(1, (bits + BLOCK_BITS - 1) / BLOCK_BITS);
+        long bloomSize = blockCount * BLOCK_SIZE;
+        bloomMemory = UNSAFE.allocateMemory(bloomSize + BLOCK_SIZE - 1);
+        bloom = (bloomMemory + BLOCK_SIZE - 1) & -BLOCK_SIZE;
+        UNSAFE.setMemory(bloom, bloomSize, (byte) 0);
+        bloomCapacity = capacity;
+    }
+    
+    private long bloomHash(CharSequence str) {
+        return hasher.reset().update(str).hash();
+    }
+    
+    private long block(long h) {
+        return bloom + (((h >>> 32) * blockCount) >>> 32) * BLOCK_SIZE;
+    }
+    
+    private void addToBloom(long h) {
+        long block = block(h);
+        long g = h;
+        for (int i = 0; i < hashCount; i++) {
+            g = g * GOLDEN_RATIO + 1;
+            int bit = (int) (g >>> BLOCK_BIT_SHIFT);
+            long word = block + ((bit >>> 6) << 3);
+            UNSAFE.putLong(word, UNSAFE.getLong(word) | (1L << bit));
+        }
+    }
+    
+    private boolean mightContain(long h) {
+        long block = block(h);
+        long g = h;
+        for (int i = 0; i < hashCount; i++) {
+            g = g * GOLDEN_RATIO + 1;
+            int bit = (int) (g >>> BLOCK_BIT_SHIFT);
+            if ((UNSAFE.getLong(block + ((bit >>> 6) << 3)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // Rebuilds the filter for the given count of strings from the strings in the table
+    private void rebuildBloom(long capacity) {
+        UNSAFE.freeMemory(bloomMemory);
+        allocateBloom(capacity);
+        MyStringMap.Cursor cursor = map.cursor();
+        while (cursor.next()) {
+            addToBloom(bloomHash(cursor.key()));
+        }
+    }
+    
+    private void checkNotDestroyed() {
+        if (bloomMemory == 0) {
+            throw new IllegalStateException("Set is destroyed!");
+        }
+    }
+    
+    public long size() {
+        return map.size();
+    }
+    
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+    
+    /**
+     * Checks the filter only, so <code>false</code> means the string is not in the set 
+     * but <code>true</code> means it may be in the set.
+     */
+    public boolean mightContain(CharSequence str) {
+        checkNotDestroyed();
+        return mightContain(bloomHash(str));
+    }
+    
+    public boolean contains(CharSequence str) {
+        checkNotDestroyed();
+        return mightContain(bloomHash(str)) && map.containsKey(str, MyStringNativeChars.hash(str));
+    }
+    
+    /**
+     * Checks whether all the given strings are in the set. All of them are tested by the filter 
+     * before any of them is looked up from the table, so it fails fast if any of them is rejected.
+     */
+    public boolean containsAll(Iterable<? extends CharSequence> strs) {
+        checkNotDestroyed();
+        for (CharSequence str : strs) {
+            if (!mightContain(bloomHash(str))) {
+                return false;
+            }
+        }
+        for (CharSequence str : strs) {
+            if (!map.containsKey(str, MyStringNativeChars.hash(str))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Adds the given string by copying it into native memory.
+     * 
+     * @return <code>true</code> if the string is added, <code>false</code> if it is already in the set
+     */
+    public boolean add(CharSequence str) {
+        checkNotDestroyed();
+        if (!map.put(str, MyStringNativeChars.hash(str), null)) {
+            return false;
+        }
+        if (map.size() > bloomCapacity) {
+            rebuildBloom(bloomCapacity << 1);
+        } else {
+            addToBloom(bloomHash(str));
+        }
+        return true;
+    }
+    
+    /**
+     * Adds the given strings. If their count is known, the table and the filter 
+     * are grown at once before adding them.
+     * 
+     * @return the count of the added strings
+     */
+    public long addAll(Iterable<? extends CharSequence> strs) {
+        checkNotDestroyed();
+        if (strs instanceof Collection) {
+            long expectedSize = map.size() + ((Collection<?>) strs).size();
+            map.ensureCapacity(expectedSize);
+            if (expectedSize > bloomCapacity) {
+                rebuildBloom(Math.max(expectedSize, bloomCapacity << 1));
+            }
+        }
+        long added = 0;
+        for (CharSequence str : strs) {
+            if (add(str)) {
+                added++;
+            }
+        }
+        return added;
+    }
+    
+    /**
+     * Removes the given string. Its bit in the filter is not cleared.
+     * 
+     * @return <code>true</code> if the string is removed, <code>false</code> if it is not in the set
+     */
+    public boolean remove(CharSequence str) {
+        checkNotDestroyed();
+        return mightContain(bloomHash(str)) && map.remove(str);
+    }
+    
+    public void clear() {
+        checkNotDestroyed();
+        map.clear();
+        UNSAFE.setMemory(bloom, blockCount * BLOCK_SIZE, (byte) 0);
+    }
+    
+    /**
+     * Releases all the native memory of the set. 
+     * The set and its key views must not be used anymore.
+     */
+    public void destroy() {
+        if (bloomMemory != 0) {
+            map.destroy();
+            UNSAFE.freeMemory(bloomMemory);
+            bloomMemory = 0;
+            bloom = 0;
+        }
+    }
+    
+    /**
+     * Iterates over the strings of the set. 
+     * Set must not be modified while it is being iterated.
+     */
+    public Cursor cursor() {
+        checkNotDestroyed();
+        return new Cursor(map.cursor());
+    }
+    
+    public static final class Cursor {
+        
+        private final MyStringMap.Cursor cursor;
+        
+        private Cursor(MyStringMap.Cursor cursor) {
+            this.cursor = cursor;
+        }
+        
+        public boolean next() {
+            return cursor.next();
+        }
+        
+        /**
+         * Gets a read-only view of the current string.
+         */
+        public String key() {
+            return cursor.key();
+        }
+        
+    }
+    
+}
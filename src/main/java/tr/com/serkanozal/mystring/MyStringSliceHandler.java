@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+/**
+ * Handles slices of a string by their boundaries, 
+ * so slices can be processed without creating a string for each of them.
+ */
+public interface MyStringSliceHandler {
+
+    /**
+     * @return <code>true</code> to continue with the next slice, 
+     *         <code>false</code> to stop
+     */
+    boolean handle(String str, int beginIndex, int endIndex);
+    
+}
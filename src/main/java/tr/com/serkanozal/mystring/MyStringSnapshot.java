@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import tr.com.serkanozal.mystring.api.MyString;
+import tr.com.serkanozal.mystring.api.MyStringProcessor;
+import tr.com.serkanozal.mystring.offheap.OffHeapMyStringProcessor;
+import tr.com.serkanozal.mystring.util.DirectBufferUtil;
+
+/**
+ * Saves strings into a file image and loads them back. 
+ * 
+ * Image consists of a header, an index of the strings and the chars of all the strings 
+ * packed into a page aligned data section (as UTF-16 with the native byte order), 
+ * so it is loaded by a single bulk read into a single storage or by mapping the file 
+ * and strings are attached to their offsets without decoding or copying them one by one.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+final class MyStringSnapshot {
+
+    private static final long MAGIC = 0x4D79537472536E70L; // "MyStrSnp"
+    private static final int VERSION = 1;
+    private static final int BIG_ENDIAN = 0;
+    private static final int LITTLE_ENDIAN = 1;
+    
+    // Layout of the header:
+    //      magic (long) | version (int) | byte order of data (int) | 
+    //      string count (int) | padding (int) | data offset (long) | data size (long)
+    private static final int HEADER_SIZE = 40;
+    // Layout of an index entry: 
+    //      offset in data section (long) | length (int) | hash or 0 if not known (int)
+    private static final int INDEX_ENTRY_SIZE = 16;
+    private static final int INDEX_BUFFER_ENTRY_COUNT = 4096;
+    private static final int DATA_ALIGNMENT = 4096;
+    private static final int CHAR_SIZE = 2;
+    private static final int CHUNK_SIZE = 1024;
+    
+    /** Max size of a file region transferred or mapped at once */
+    private static final int MAX_REGION_SIZE = 1 << 30;
+    
+    /** Storage id of the mapped strings batch which owns the mapped regions */
+    private static final long MAPPED_STORAGE_ID = 0;
+    
+    private MyStringSnapshot() {
+    }
+    
+    private static int nativeByteOrder() {
+        return ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? LITTLE_ENDIAN : BIG_ENDIAN;
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer bb, long position) throws IOException {
+        while (bb.hasRemaining()) {
+            int n = channel.read(bb, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of snapshot file!");
+            }
+            position += n;
+        }
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer bb) throws IOException {
+        while (bb.hasRemaining()) {
+            channel.write(bb);
+        }
+    }
+    
+    /**
+     * Writes the given strings into the given file. File is replaced atomically 
+     * (if supported by the file system), so a previous snapshot is never left half written.
+     * 
+     * Note that strings must not be destroyed while they are being written.
+     */
+    static void write(File file, MyStringTemplate[] strs) throws IOException {
+        int count = strs.length;
+        long dataOffset = HEADER_SIZE + (long) count * INDEX_ENTRY_SIZE;
+        dataOffset = (dataOffset + DATA_ALIGNMENT - 1) & -DATA_ALIGNMENT;
+        long dataSize = 0;
+        for (MyStringTemplate str : strs) {
+            dataSize += (long) str.length() * CHAR_SIZE;
+        }
+        
+        File tmpFile = new File(file.getPath() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+        boolean done = false;
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            ByteBuffer bb = ByteBuffer.allocate(INDEX_BUFFER_ENTRY_COUNT * INDEX_ENTRY_SIZE);
+            bb.putLong(MAGIC);
+            bb.putInt(VERSION);
+            bb.putInt(nativeByteOrder());
+            bb.putInt(count);
+            bb.putInt(0);
+            bb.putLong(dataOffset);
+            bb.putLong(dataSize);
+            long offset = 0;
+            for (MyStringTemplate str : strs) {
+                if (bb.remaining() < INDEX_ENTRY_SIZE) {
+                    bb.flip();
+                    writeFully(channel, bb);
+                    bb.clear();
+                }
+                bb.putLong(offset);
+                bb.putInt(str.length());
+                bb.putInt(str.getCachedHash());
+                offset += (long) str.length() * CHAR_SIZE;
+            }
+            bb.flip();
+            writeFully(channel, bb);
+            
+            channel.position(dataOffset);
+            for (MyStringTemplate str : strs) {
+                str.writeChars(channel);
+            }
+            channel.force(true);
+            done = true;
+        } finally {
+            raf.close();
+            if (!done) {
+                tmpFile.delete();
+            }
+        }
+        if (!tmpFile.renameTo(file)) {
+            // Some platforms don't replace the existing file by renaming
+            if (!file.delete() || !tmpFile.renameTo(file)) {
+                throw new IOException("Unable to replace snapshot file " + file);
+            }
+        }
+    }
+    
+    private static final class Index {
+        
+        private final long dataOffset;
+        private final long dataSize;
+        private final long[] offsets;
+        private final int[] lengths;
+        private final int[] hashes;
+        
+        private Index(long dataOffset, long dataSize, int count) {
+            this.dataOffset = dataOffset;
+            this.dataSize = dataSize;
+            this.offsets = new long[count];
+            this.lengths = new int[count];
+            this.hashes = new int[count];
+        }
+        
+    }
+    
+    private static Index readIndex(FileChannel channel) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(INDEX_BUFFER_ENTRY_COUNT * INDEX_ENTRY_SIZE);
+        bb.limit(HEADER_SIZE);
+        readFully(channel, bb, 0);
+        bb.flip();
+        if (bb.getLong() != MAGIC) {
+            throw new IOException("Not a snapshot file!");
+        }
+        int version = bb.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version: " + version);
+        }
+        if (bb.getInt() != nativeByteOrder()) {
+            throw new IOException("Snapshot was written on a platform with different byte order!");
+        }
+        int count = bb.getInt();
+        bb.getInt();
+        long dataOffset = bb.getLong();
+        long dataSize = bb.getLong();
+        if (count < 0 || dataOffset < HEADER_SIZE + (long) count * INDEX_ENTRY_SIZE 
+                || dataSize < 0 || dataOffset + dataSize > channel.size()) {
+            throw new IOException("Corrupted snapshot file!");
+        }
+        Index index = new Index(dataOffset, dataSize, count);
+        long position = HEADER_SIZE;
+        for (int i = 0; i < count;) {
+            int n = Math.min(count - i, INDEX_BUFFER_ENTRY_COUNT);
+            bb.clear();
+            bb.limit(n * INDEX_ENTRY_SIZE);
+            readFully(channel, bb, position);
+            bb.flip();
+            for (int k = 0; k < n; k++, i++) {
+                long offset = bb.getLong();
+                int length = bb.getInt();
+                if (offset < 0 || length < 0 || offset + (long) length * CHAR_SIZE > dataSize) {
+                    throw new IOException("Corrupted snapshot file!");
+                }
+                index.offsets[i] = offset;
+                index.lengths[i] = length;
+                index.hashes[i] = bb.getInt();
+            }
+            position += n * INDEX_ENTRY_SIZE;
+        }
+        return index;
+    }
+    
+    /**
+     * Loads the strings in the given file into the storage allocated by the given processor. 
+     * If the processor is a {@link SliceableMyStringProcessor}, all of the chars are read 
+     * into a single storage (by a single bulk read for native memory storages) 
+     * and the strings are attached to its slices.
+     */
+    static MyStringBatch load(MyStringProcessor myStrProcessor, boolean affine, File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            Index index = readIndex(channel);
+            int count = index.offsets.length;
+            String[] result = new String[count];
+            if (!(myStrProcessor instanceof SliceableMyStringProcessor)) {
+                ByteBuffer bb = ByteBuffer.allocate(CHUNK_SIZE * CHAR_SIZE).order(ByteOrder.nativeOrder());
+                boolean done = false;
+                try {
+                    for (int i = 0; i < count; i++) {
+                        char[] value = new char[index.lengths[i]];
+                        readChars(channel, bb, index.dataOffset + index.offsets[i], value);
+                        result[i] = new MyStringTemplate(myStrProcessor, affine, value).toString();
+                    }
+                    done = true;
+                } finally {
+                    if (!done) {
+                        destroy(result);
+                    }
+                }
+                return new MyStringBatch(myStrProcessor, result, 
+                                         MyString.INVALID_STORAGE_ID, MyString.INVALID_STORAGE_BASE, 0);
+            }
+            SliceableMyStringProcessor sliceableProcessor = (SliceableMyStringProcessor) myStrProcessor;
+            long storageId = myStrProcessor.createStorageId(index.dataSize);
+            Object storageBase = myStrProcessor.createStorageBase(storageId, index.dataSize);
+            long storageSize = myStrProcessor.getStorageSize(storageId, index.dataSize);
+            boolean done = false;
+            try {
+                if (myStrProcessor instanceof OffHeapMyStringProcessor) {
+                    // Storage id is the address of the native memory, so file is read into it directly
+                    for (long offset = 0; offset < index.dataSize;) {
+                        int n = (int) Math.min(index.dataSize - offset, MAX_REGION_SIZE);
+                        readFully(channel, DirectBufferUtil.wrap(storageId + offset, n), index.dataOffset + offset);
+                        offset += n;
+                    }
+                } else {
+                    readChars(channel, index.dataOffset, index.dataSize, myStrProcessor, storageId, storageBase);
+                }
+                for (int i = 0; i < count; i++) {
+                    long offset = index.offsets[i];
+                    result[i] = 
+                            MyStringTemplate.attachShared(
+                                    myStrProcessor, affine, 
+                                    sliceableProcessor.sliceStorageId(storageId, storageBase, offset),
+                                    sliceableProcessor.sliceStorageBase(storageId, storageBase, offset),
+                                    index.lengths[i], index.hashes[i]);
+                }
+                done = true;
+            } finally {
+                if (!done) {
+                    destroy(result);
+                    myStrProcessor.destroy(storageId, storageBase);
+                }
+            }
+            return new MyStringBatch(myStrProcessor, result, storageId, storageBase, storageSize);
+        } finally {
+            raf.close();
+        }
+    }
+    
+    private static void readChars(FileChannel channel, ByteBuffer bb, long position, char[] value) 
+            throws IOException {
+        CharBuffer cb = bb.asCharBuffer();
+        for (int i = 0; i < value.length;) {
+            int n = Math.min(CHUNK_SIZE, value.length - i);
+            bb.clear();
+            bb.limit(n * CHAR_SIZE);
+            readFully(channel, bb, position);
+            cb.clear();
+            cb.get(value, i, n);
+            position += n * CHAR_SIZE;
+            i += n;
+        }
+    }
+    
+    private static void readChars(FileChannel channel, long position, long size, 
+                                  MyStringProcessor myStrProcessor, long storageId, Object storageBase) 
+            throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(CHUNK_SIZE * CHAR_SIZE).order(ByteOrder.nativeOrder());
+        CharBuffer cb = bb.asCharBuffer();
+        long length = size / CHAR_SIZE;
+        for (long i = 0; i < length;) {
+            int n = (int) Math.min(CHUNK_SIZE, length - i);
+            bb.clear();
+            bb.limit(n * CHAR_SIZE);
+            readFully(channel, bb, position);
+            for (int k = 0; k < n; k++) {
+                myStrProcessor.writeValue(storageId, storageBase, (int) (i + k), cb.get(k));
+            }
+            position += n * CHAR_SIZE;
+            i += n;
+        }
+    }
+    
+    private static void destroy(String[] strs) {
+        for (String str : strs) {
+            if (str != null) {
+                ((MyString) ((Object) str)).destroy();
+            }
+        }
+    }
+    
+    /**
+     * Maps the given file and attaches the strings to their offsets in the mapped regions. 
+     * Strings are read-only and valid until the returned batch is destroyed.
+     */
+    static MyStringBatch map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedMyStringProcessor myStrProcessor = new MappedMyStringProcessor();
+        boolean done = false;
+        try {
+            FileChannel channel = raf.getChannel();
+            Index index = readIndex(channel);
+            int count = index.offsets.length;
+            String[] result = new String[count];
+            // Files larger than the max region size are mapped in multiple regions 
+            // split at string boundaries, so every string is placed in a single region
+            long regionBegin = 0;
+            long regionAddress = 0;
+            long regionEnd = 0;
+            for (int i = 0; i < count; i++) {
+                long offset = index.offsets[i];
+                long end = offset + (long) index.lengths[i] * CHAR_SIZE;
+                if (offset < regionBegin || end > regionEnd) {
+                    regionBegin = offset;
+                    regionEnd = Math.min(index.dataSize, regionBegin + MAX_REGION_SIZE);
+                    if (end > regionEnd) {
+                        throw new IOException("String at index " + i + " is too big to be mapped!");
+                    }
+                    regionAddress = myStrProcessor.map(channel, index.dataOffset + regionBegin, 
+                                                       (int) (regionEnd - regionBegin));
+                }
+                result[i] = 
+                        MyStringTemplate.attachShared(myStrProcessor, false, 
+                                                      regionAddress + (offset - regionBegin), null, 
+                                                      index.lengths[i], index.hashes[i]);
+            }
+            done = true;
+            return new MyStringBatch(myStrProcessor, result, MAPPED_STORAGE_ID, null, index.dataSize);
+        } finally {
+            raf.close();
+            if (!done) {
+                myStrProcessor.destroy(MAPPED_STORAGE_ID, null);
+            }
+        }
+    }
+    
+    /**
+     * Processor of the strings attached to the mapped regions of a snapshot file. 
+     * Storage id of a string is the address of its chars as for {@link OffHeapMyStringProcessor}, 
+     * so the strings are also written to channels without copying.
+     */
+    private static final class MappedMyStringProcessor extends OffHeapMyStringProcessor {
+        
+        private final List<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+        
+        private synchronized long map(FileChannel channel, long position, int size) throws IOException {
+            if (size == 0) {
+                return 0;
+            }
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            regions.add(region);
+            return DirectBufferUtil.getAddress(region);
+        }
+        
+        @Override
+        public void writeValue(long storageId, Void storageBase, int index, char c) {
+            throw new UnsupportedOperationException("Mapped strings are read-only!");
+        }
+        
+        @Override
+        public long resizeStorage(long storageId, Void storageBase, long size) {
+            throw new UnsupportedOperationException("Mapped strings are read-only!");
+        }
+        
+        @Override
+        public synchronized void destroy(long storageId, Void storageBase) {
+            if (storageId == MAPPED_STORAGE_ID) {
+                for (MappedByteBuffer region : regions) {
+                    DirectBufferUtil.release(region);
+                }
+                regions.clear();
+            } else {
+                super.destroy(storageId, storageBase);
+            }
+        }
+        
+    }
+    
+}
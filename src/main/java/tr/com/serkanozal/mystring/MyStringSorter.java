@@ -0,0 +1,453 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sorts strings in the same order with {@link String#compareTo(String)} 
+ * by most significant digit radix sort, whose digits are 8-byte keys packing 4 chars. 
+ * 
+ * Keys are extracted once for each string at each depth (by bulk reads of 4 chars), 
+ * so off-heap strings are not compared char by char through their processors 
+ * <code>O(n log n)</code> times. Strings having the same key are sorted by their next keys, 
+ * and small groups are sorted by comparing their remaining chars. 
+ * When sorting is parallel, keys are extracted and groups are sorted by multiple threads.
+ */
+public final class MyStringSorter {
+
+    private static final int PREFIX_CHARS = 4;
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+    private static final int PARALLEL_THRESHOLD = 8192;
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    private static final int RADIX_PASSES = Long.SIZE / RADIX_BITS;
+    
+    private MyStringSorter() {
+        throw new UnsupportedOperationException("Not available for instantiation!");
+    }
+    
+    public static void sort(String[] strs) {
+        sort(strs, 0, strs.length, false);
+    }
+    
+    public static void sort(String[] strs, boolean parallel) {
+        sort(strs, 0, strs.length, parallel);
+    }
+    
+    public static void sort(String[] strs, int from, int to, boolean parallel) {
+        if (from < 0 || to > strs.length || from > to) {
+            throw new ArrayIndexOutOfBoundsException("from " + from + ", to " + to + ", length " + strs.length);
+        }
+        int count = to - from;
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = from + i;
+        }
+        sort(new ArraySource(strs), ids, parallel);
+        String[] sorted = new String[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = strs[ids[i]];
+        }
+        System.arraycopy(sorted, 0, strs, from, count);
+    }
+    
+    public static void sort(List<String> strs, boolean parallel) {
+        String[] array = strs.toArray(new String[strs.size()]);
+        sort(array, parallel);
+        ListIterator<String> iter = strs.listIterator();
+        for (String str : array) {
+            iter.next();
+            iter.set(str);
+        }
+    }
+    
+    /**
+     * Gets the indices of the values of the given column in the sorted order of the values, 
+     * where <code>null</code> values come first.
+     */
+    public static int[] sortedIndices(MyStringColumn column, boolean parallel) {
+        int size = column.size();
+        int[] ids = new int[size];
+        int nullCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (column.isNull(i)) {
+                ids[nullCount++] = i;
+            }
+        }
+        int[] nonNullIds = new int[size - nullCount];
+        for (int i = 0, j = 0; i < size; i++) {
+            if (!column.isNull(i)) {
+                nonNullIds[j++] = i;
+            }
+        }
+        sort(new ColumnSource(column), nonNullIds, parallel);
+        System.arraycopy(nonNullIds, 0, ids, nullCount, nonNullIds.length);
+        return ids;
+    }
+    
+    private static void sort(Source source, int[] ids, boolean parallel) {
+        int count = ids.length;
+        if (count < 2) {
+            return;
+        }
+        int[] lengths = new int[source.size()];
+        for (int id : ids) {
+            lengths[id] = source.length(id);
+        }
+        parallel = parallel && count > PARALLEL_THRESHOLD;
+        Sorter sorter = new Sorter(source, lengths, ids, new long[count], new int[count], new long[count], 
+                                   0, count, 0, parallel);
+        if (parallel) {
+            ForkJoinPool.commonPool().invoke(sorter);
+        } else {
+            sorter.compute();
+        }
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    /**
+     * Strings to be sorted, identified by their indices.
+     */
+    private interface Source {
+        
+        int size();
+        
+        int length(int id);
+        
+        char charAt(int id, int index);
+        
+        void getChars(int id, int begin, int end, char[] dst);
+        
+    }
+    
+    private static final class ArraySource implements Source {
+        
+        private final String[] strs;
+        
+        private ArraySource(String[] strs) {
+            this.strs = strs;
+        }
+        
+        @Override
+        public int size() {
+            return strs.length;
+        }
+        
+        @Override
+        public int length(int id) {
+            return strs[id].length();
+        }
+        
+        @Override
+        public char charAt(int id, int index) {
+            return strs[id].charAt(index);
+        }
+        
+        @Override
+        public void getChars(int id, int begin, int end, char[] dst) {
+            strs[id].getChars(begin, end, dst, 0);
+        }
+        
+    }
+    
+    private static final class ColumnSource implements Source {
+        
+        private final MyStringColumn column;
+        
+        private ColumnSource(MyStringColumn column) {
+            this.column = column;
+        }
+        
+        @Override
+        public int size() {
+            return column.size();
+        }
+        
+        @Override
+        public int length(int id) {
+            return column.length(id);
+        }
+        
+        @Override
+        public char charAt(int id, int index) {
+            return column.charAt(id, index);
+        }
+        
+        @Override
+        public void getChars(int id, int begin, int end, char[] dst) {
+            column.getChars(id, begin, end, dst, 0);
+        }
+        
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    // Packs the 4 chars from the given depth (or zeros after the end of the string) into a key 
+    // whose unsigned order is the same with the order of the chars
+    private static long key(Source source, int id, int length, int depth, char[] buffer) {
+        int n = Math.min(PREFIX_CHARS, length - depth);
+        if (n <= 0) {
+            return 0;
+        }
+        source.getChars(id, depth, depth + n, buffer);
+        long key = 0;
+        for (int i = 0; i < PREFIX_CHARS; i++) {
+            key = (key << Character.SIZE) | (i < n ? buffer[i] : 0);
+        }
+        return key;
+    }
+    
+    @SuppressWarnings("serial")
+    private static final class KeyExtractor extends RecursiveAction {
+        
+        private final Source source;
+        private final int[] lengths;
+        private final int[] ids;
+        private final long[] keys;
+        private final int from;
+        private final int to;
+        private final int depth;
+        private final boolean parallel;
+        
+        private KeyExtractor(Source source, int[] lengths, int[] ids, long[] keys, 
+                             int from, int to, int depth, boolean parallel) {
+            this.source = source;
+            this.lengths = lengths;
+            this.ids = ids;
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+            this.parallel = parallel;
+        }
+        
+        @Override
+        protected void compute() {
+            if (parallel && to - from > PARALLEL_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new KeyExtractor(source, lengths, ids, keys, from, mid, depth, true), 
+                          new KeyExtractor(source, lengths, ids, keys, mid, to, depth, true));
+                return;
+            }
+            char[] buffer = new char[PREFIX_CHARS];
+            for (int i = from; i < to; i++) {
+                int id = ids[i];
+                keys[i] = key(source, id, lengths[id], depth, buffer);
+            }
+        }
+        
+    }
+    
+    /**
+     * Sorts the strings in the given range, which have the same chars before the given depth.
+     */
+    @SuppressWarnings("serial")
+    private static final class Sorter extends RecursiveAction {
+        
+        private final Source source;
+        private final int[] lengths;
+        private final int[] ids;
+        private final long[] keys;
+        private final int[] tmpIds;
+        private final long[] tmpKeys;
+        private final int from;
+        private final int to;
+        private final int depth;
+        private final boolean parallel;
+        
+        private Sorter(Source source, int[] lengths, int[] ids, long[] keys, int[] tmpIds, long[] tmpKeys, 
+                       int from, int to, int depth, boolean parallel) {
+            this.source = source;
+            this.lengths = lengths;
+            this.ids = ids;
+            this.keys = keys;
+            this.tmpIds = tmpIds;
+            this.tmpKeys = tmpKeys;
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+            this.parallel = parallel;
+        }
+        
+        // Largest group of each range is sorted by the next iteration of the loop instead of recursion, 
+        // so strings sharing long prefixes (or equal long strings) don't use a stack frame for each 4 chars. 
+        // Other groups are sorted recursively, but each of them is at most half of its range, 
+        // so the recursion is not deeper than the logarithm of the count of the strings.
+        @Override
+        protected void compute() {
+            int from = this.from;
+            int to = this.to;
+            int depth = this.depth;
+            List<Sorter> subSorters = null;
+            while (to - from > 1) {
+                if (to - from < INSERTION_SORT_THRESHOLD) {
+                    insertionSort(from, to, depth);
+                    break;
+                }
+                // Extractor is split into subtasks only if sorting is parallel
+                new KeyExtractor(source, lengths, ids, keys, from, to, depth, parallel).compute();
+                radixSort(from, to);
+                int nextDepth = depth + PREFIX_CHARS;
+                int largestFrom = 0;
+                int largestTo = 0;
+                for (int i = from; i < to;) {
+                    int j = i + 1;
+                    while (j < to && keys[j] == keys[i]) {
+                        j++;
+                    }
+                    if (j - i > 1) {
+                        int k = moveEndedToFront(i, j, depth, nextDepth);
+                        if (j - k > largestTo - largestFrom) {
+                            subSorters = sortGroup(largestFrom, largestTo, nextDepth, subSorters);
+                            largestFrom = k;
+                            largestTo = j;
+                        } else {
+                            subSorters = sortGroup(k, j, nextDepth, subSorters);
+                        }
+                    }
+                    i = j;
+                }
+                if (parallel && largestTo - largestFrom > PARALLEL_THRESHOLD) {
+                    subSorters = sortGroup(largestFrom, largestTo, nextDepth, subSorters);
+                    break;
+                }
+                from = largestFrom;
+                to = largestTo;
+                depth = nextDepth;
+            }
+            if (subSorters != null) {
+                invokeAll(subSorters);
+            }
+        }
+        
+        // Sorts the given group having the same chars before the given depth now, 
+        // or adds its sorter to the given list to be forked if it is large enough. 
+        // Returns the list of the sorters to be forked.
+        private List<Sorter> sortGroup(int groupFrom, int groupTo, int groupDepth, List<Sorter> subSorters) {
+            if (groupTo - groupFrom < 2) {
+                return subSorters;
+            }
+            Sorter subSorter = new Sorter(source, lengths, ids, keys, tmpIds, tmpKeys, 
+                                          groupFrom, groupTo, groupDepth, parallel);
+            if (parallel && groupTo - groupFrom > PARALLEL_THRESHOLD) {
+                if (subSorters == null) {
+                    subSorters = new ArrayList<Sorter>();
+                }
+                subSorters.add(subSorter);
+            } else {
+                subSorter.compute();
+            }
+            return subSorters;
+        }
+        
+        // Stable LSD radix sort of the range by the unsigned keys, skipping the digits having a single value
+        private void radixSort(int from, int to) {
+            int count = to - from;
+            int[] histograms = new int[RADIX_PASSES * RADIX];
+            for (int i = from; i < to; i++) {
+                long key = keys[i];
+                for (int pass = 0; pass < RADIX_PASSES; pass++) {
+                    histograms[pass * RADIX + (int) ((key >>> (pass * RADIX_BITS)) & (RADIX - 1))]++;
+                }
+            }
+            int[] srcIds = ids;
+            long[] srcKeys = keys;
+            int[] dstIds = tmpIds;
+            long[] dstKeys = tmpKeys;
+            int[] positions = new int[RADIX];
+            for (int pass = 0; pass < RADIX_PASSES; pass++) {
+                int base = pass * RADIX;
+                int shift = pass * RADIX_BITS;
+                if (histograms[base + (int) ((srcKeys[from] >>> shift) & (RADIX - 1))] == count) {
+                    continue;
+                }
+                int position = from;
+                for (int d = 0; d < RADIX; d++) {
+                    positions[d] = position;
+                    position += histograms[base + d];
+                }
+                for (int i = from; i < to; i++) {
+                    long key = srcKeys[i];
+                    int p = positions[(int) ((key >>> shift) & (RADIX - 1))]++;
+                    dstIds[p] = srcIds[i];
+                    dstKeys[p] = key;
+                }
+                int[] swapIds = srcIds;
+                srcIds = dstIds;
+                dstIds = swapIds;
+                long[] swapKeys = srcKeys;
+                srcKeys = dstKeys;
+                dstKeys = swapKeys;
+            }
+            if (srcIds != ids) {
+                System.arraycopy(srcIds, from, ids, from, count);
+                System.arraycopy(srcKeys, from, keys, from, count);
+            }
+        }
+        
+        // Moves the strings ending before the given depth to the front of the group having the same key, 
+        // ordered by their lengths since they are the prefixes of the others. 
+        // Returns the start of the strings continuing after the given depth.
+        private int moveEndedToFront(int groupFrom, int groupTo, int depth, int nextDepth) {
+            int ended = groupFrom;
+            for (int minLength = depth; minLength <= nextDepth; minLength++) {
+                for (int i = ended; i < groupTo; i++) {
+                    int id = ids[i];
+                    if (lengths[id] == minLength) {
+                        ids[i] = ids[ended];
+                        ids[ended++] = id;
+                    }
+                }
+            }
+            return ended;
+        }
+        
+        private int compare(int id1, int id2, int depth) {
+            int length1 = lengths[id1];
+            int length2 = lengths[id2];
+            int length = Math.min(length1, length2);
+            for (int i = depth; i < length; i++) {
+                char c1 = source.charAt(id1, i);
+                char c2 = source.charAt(id2, i);
+                if (c1 != c2) {
+                    return c1 - c2;
+                }
+            }
+            return length1 - length2;
+        }
+        
+        private void insertionSort(int from, int to, int depth) {
+            for (int i = from + 1; i < to; i++) {
+                int id = ids[i];
+                int j = i - 1;
+                while (j >= from && compare(ids[j], id, depth) > 0) {
+                    ids[j + 1] = ids[j];
+                    j--;
+                }
+                ids[j + 1] = id;
+            }
+        }
+        
+    }
+    
+}
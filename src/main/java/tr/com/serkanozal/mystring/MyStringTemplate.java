@@ -16,34 +16,116 @@
 
 package tr.com.serkanozal.mystring;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
 import java.io.ObjectStreamField;
+import java.io.Reader;
 import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.io.UTFDataFormatException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
 import sun.misc.Unsafe;
 import tr.com.serkanozal.mystring.api.MyString;
 import tr.com.serkanozal.mystring.api.MyStringProcessor;
+import tr.com.serkanozal.mystring.offheap.OffHeapMyStringProcessor;
+import tr.com.serkanozal.mystring.util.DirectBufferUtil;
 import tr.com.serkanozal.mystring.util.JvmUtil;
+import tr.com.serkanozal.mystring.util.PatternCache;
 
 @SuppressWarnings({ "deprecation", "rawtypes", "unchecked" })
 public final class MyStringTemplate
         implements Serializable, Comparable<String>, CharSequence, MyString {
     
     private static final Unsafe UNSAFE = JvmUtil.getUnsafe();
+    private static final PatternCache PATTERN_CACHE = PatternCache.getDefault();
 
     private static final long VALUE_FIELD_OFFSET;
     private static final long HASH_FIELD_OFFSET;
+    private static final long CHAR_ARRAY_BASE_OFFSET;
+    private static final long BYTE_ARRAY_BASE_OFFSET;
+    
+    /** Count of chars to be read from storage at once by bulk operations */
+    private static final int CHUNK_SIZE = 1024;
+    /** Count of the first chars cached for comparisons */
+    private static final int PREFIX_CHARS = 4;
+    
+    /** Size of the byte buffer used while decoding streamed input */
+    private static final int DECODE_BUFFER_SIZE = 8192;
+    
+    /** Size of the byte buffer used while encoding content to be written to channel */
+    private static final int ENCODE_BUFFER_SIZE = 8192;
+    
+    /** Maximum size of native memory to be wrapped by a direct buffer at once */
+    private static final int MAX_DIRECT_SEGMENT_SIZE = 1 << 30;
+    
+    /** Minimum count of strings to fill a batch by multiple threads */
+    private static final int BATCH_PARALLEL_THRESHOLD = 4096;
+    
+    private static final byte SERIAL_FORMAT_LATIN1 = 0;
+    private static final byte SERIAL_FORMAT_MODIFIED_UTF8 = 1;
+    
+    /** Size of a char in storage */
+    private static final int CHAR_SIZE = 2;
+    
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset NATIVE_UTF_16 = 
+            Charset.forName(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? "UTF-16LE" : "UTF-16BE");
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    private static final int ASCII_LIMIT = 0x80;
+    private static final int LATIN1_LIMIT = 0x100;
+    private static final byte REPLACEMENT_BYTE = (byte) '?';
+    private static final char REPLACEMENT_CHAR = '\uFFFD';
+    
+    /** Count of chars processed at once by word-at-a-time operations */
+    private static final int CHARS_PER_WORD = 4;
+    private static final long LANE_ONES = 0x0001000100010001L;
+    private static final long ASCII_HIGH_BITS = 0x0080008000800080L;
+    private static final long NON_ASCII_BITS = 0xFF80FF80FF80FF80L;
+    private static final long NON_ASCII_BYTE_BITS = 0x8080808080808080L;
+    private static final int BYTES_PER_WORD = 8;
+    
+    private static final int WIDEN_ASCII = 0;
+    private static final int WIDEN_LATIN1 = 1;
+    private static final int WIDEN_UTF8_ASCII_PREFIX = 2;
 
     static {
         try {
             VALUE_FIELD_OFFSET = UNSAFE.fieldOffset(String.class.getDeclaredField("value"));
             HASH_FIELD_OFFSET = UNSAFE.fieldOffset(String.class.getDeclaredField("hash"));
+            CHAR_ARRAY_BASE_OFFSET = UNSAFE.arrayBaseOffset(char[].class);
+            BYTE_ARRAY_BASE_OFFSET = UNSAFE.arrayBaseOffset(byte[].class);
         } catch (Throwable t) {
             throw new IllegalStateException(t);
         }
@@ -66,6 +148,28 @@ public final class MyStringTemplate
     
     /** Pluggable processor for allocating storage and reading/writing char from/to storage */
     private final MyStringProcessor myStrProcessor;
+    
+    /** Whether strings derived from this string are also allocated through the same processor */
+    private final boolean affine;
+    
+    /** Whether the storage is a slice of a storage shared with other strings */
+    private final boolean sharedStorage;
+    
+    /** Index of this string in the tracker of its processor, or 0 if it is not tracked */
+    private int trackingIndex;
+    
+    /** Whether this string is the canonical one in the intern pool, so it must not be destroyed */
+    private volatile boolean interned;
+    
+    /** 
+     * First chars packed into a long (zeros after the end), whose unsigned order is the same 
+     * with the order of the strings by their first chars, so most of the comparisons are decided 
+     * without reading the storage 
+     */
+    private long cachedPrefix;
+    
+    /** Whether the prefix has been cached, it is written after the prefix to publish it safely */
+    private volatile boolean prefixCached;
 
     /** use serialVersionUID from JDK 1.0.2 for interoperability */
     private static final long serialVersionUID = -6849794470754667710L;
@@ -81,21 +185,43 @@ public final class MyStringTemplate
         new ObjectStreamField[0];
 
     public MyStringTemplate(MyStringProcessor myStrProcessor, String original) {
+        this(myStrProcessor, false, original);
+    }
+    
+    public MyStringTemplate(MyStringProcessor myStrProcessor, boolean affine, String original) {
         this.myStrProcessor = myStrProcessor;
+        this.affine = affine;
+        this.sharedStorage = false;
         createStorage(original);
         this.hash = getHash(original);
         this.length = original.length();
+        if (!isMyString(original)) {
+            char[] value = getValue(original);
+            cachePrefix(value, 0, value.length);
+        }
         init();
     }
 
     public MyStringTemplate(MyStringProcessor myStrProcessor, char value[]) {
+        this(myStrProcessor, false, value);
+    }
+    
+    public MyStringTemplate(MyStringProcessor myStrProcessor, boolean affine, char value[]) {
         this.myStrProcessor = myStrProcessor;
+        this.affine = affine;
+        this.sharedStorage = false;
         createStorage(value);
         this.length = value.length;
+        cachePrefix(value, 0, value.length);
         init();
     }
 
     public MyStringTemplate(MyStringProcessor myStrProcessor, char value[], int offset, int count) {
+        this(myStrProcessor, false, value, offset, count);
+    }
+    
+    public MyStringTemplate(MyStringProcessor myStrProcessor, boolean affine, 
+                            char value[], int offset, int count) {
         if (offset < 0) {
             throw new StringIndexOutOfBoundsException(offset);
         }
@@ -107,19 +233,33 @@ public final class MyStringTemplate
             throw new StringIndexOutOfBoundsException(offset + count);
         }
         this.myStrProcessor = myStrProcessor;
+        this.affine = affine;
+        this.sharedStorage = false;
         createStorage(value, offset, count);
         this.length = count;
+        cachePrefix(value, offset, count);
         init();
     }
 
     public MyStringTemplate(MyStringProcessor myStrProcessor, byte ascii[], int hibyte) {
-        this(myStrProcessor, ascii, hibyte, 0, ascii.length);
+        this(myStrProcessor, false, ascii, hibyte, 0, ascii.length);
+    }
+    
+    public MyStringTemplate(MyStringProcessor myStrProcessor, boolean affine, byte ascii[], int hibyte) {
+        this(myStrProcessor, affine, ascii, hibyte, 0, ascii.length);
     }
 
     public MyStringTemplate(MyStringProcessor myStrProcessor, byte ascii[], int hibyte, int offset, int count) {
+        this(myStrProcessor, false, ascii, hibyte, offset, count);
+    }
+    
+    public MyStringTemplate(MyStringProcessor myStrProcessor, boolean affine, 
+                            byte ascii[], int hibyte, int offset, int count) {
         checkBounds(ascii, offset, count);
-        createStorage(count);
         this.myStrProcessor = myStrProcessor;
+        this.affine = affine;
+        this.sharedStorage = false;
+        createStorage((long) count * CHAR_SIZE);
         this.length = count;
         if (hibyte == 0) {
             for (int i = count; i-- > 0;) {
@@ -131,33 +271,135 @@ public final class MyStringTemplate
                 writeValue(i,  (char)(hibyte | (ascii[i + offset] & 0xff)));
             }
         }
+        commitStorage();
         init();
     }
+    
+    // Allocates storage for derived strings, content is written by "ValueAppender"
+    private MyStringTemplate(MyStringProcessor myStrProcessor, boolean affine, int capacity) {
+        this.myStrProcessor = myStrProcessor;
+        this.affine = affine;
+        this.sharedStorage = false;
+        createStorage((long) capacity * CHAR_SIZE);
+        init(false);
+    }
+    
+    // Attaches to an already allocated storage (or to a slice of a shared storage), 
+    // content is written by the creator. If the content is not written yet, 
+    // string is not tracked and the creator tracks it after writing the content.
+    private MyStringTemplate(MyStringProcessor myStrProcessor, boolean affine, 
+                             long storageId, Object storageBase, long storageSize, 
+                             int length, boolean sharedStorage, boolean track) {
+        this.myStrProcessor = myStrProcessor;
+        this.affine = affine;
+        this.sharedStorage = sharedStorage;
+        this.storageId = storageId;
+        this.storageBase = storageBase;
+        this.storageSize = storageSize;
+        this.length = length;
+        init(track);
+    }
+    
+    /**
+     * Creates a string owning the given storage whose first <code>length</code> chars 
+     * have been already written (for example, recovered from a persistent storage). 
+     * The storage is destroyed through the given processor when the string is destroyed.
+     */
+    static String attach(MyStringProcessor myStrProcessor, boolean affine, 
+                         long storageId, Object storageBase, long storageSize, int length) {
+        return new MyStringTemplate(myStrProcessor, affine, storageId, storageBase, storageSize, 
+                                    length, false, true).toString();
+    }
+    
+    /**
+     * Creates a string attached to the given slice of a shared storage whose content 
+     * has been already written. The hash is cached if it is known (not <code>0</code>).
+     */
+    static String attachShared(MyStringProcessor myStrProcessor, boolean affine, 
+                               long storageId, Object storageBase, int length, int hash) {
+        MyStringTemplate myStr = 
+                new MyStringTemplate(myStrProcessor, affine, storageId, storageBase, 
+                                     (long) length * CHAR_SIZE, length, true, true);
+        myStr.hash = hash;
+        return myStr.toString();
+    }
+    
+    // Gets the cached hash without calculating it
+    int getCachedHash() {
+        return hash;
+    }
 
     ///////////////////////////////////////////////////////////////////////////
     
-    private boolean isMyString(String str) {
+    private static boolean isMyString(String str) {
         return ((Object) str) instanceof MyStringTemplate;
     }
     
-    private char[] getValue(String str) {
+    private static char[] getValue(String str) {
         return (char[]) UNSAFE.getObject(str, VALUE_FIELD_OFFSET);
     }
     
-    private int getLength(String str) {
+    private static int getLength(String str) {
         return str.length();
     }
     
-    private int getHash(String str) {
+    private static int getHash(String str) {
         return UNSAFE.getInt(str, HASH_FIELD_OFFSET);
     }
     
+    private static long packPrefix(char[] value, int offset, int count) {
+        long p = 0;
+        for (int i = 0; i < PREFIX_CHARS; i++) {
+            p = (p << Character.SIZE) | (i < count ? value[offset + i] : 0);
+        }
+        return p;
+    }
+    
+    private static char prefixChar(long prefix, int index) {
+        return (char) (prefix >>> ((PREFIX_CHARS - 1 - index) * Character.SIZE));
+    }
+    
+    private void cachePrefix(char[] value, int offset, int count) {
+        cachedPrefix = packPrefix(value, offset, count);
+        prefixCached = true;
+    }
+    
+    // Content may be written after creation (by the creator or by "ValueAppender"), 
+    // so prefix is cached on the first comparison if it is not cached at creation
+    private long getPrefix() {
+        if (prefixCached) {
+            return cachedPrefix;
+        }
+        int n = Math.min(PREFIX_CHARS, length);
+        long p = 0;
+        for (int i = 0; i < PREFIX_CHARS; i++) {
+            p = (p << Character.SIZE) | (i < n ? readValue(i) : 0);
+        }
+        cachedPrefix = p;
+        prefixCached = true;
+        return p;
+    }
+    
+    private static long getPrefix(String str, char[] value, boolean isMyString) {
+        if (isMyString) {
+            return ((MyStringTemplate) ((Object) str)).getPrefix();
+        } else {
+            return packPrefix(value, 0, value.length);
+        }
+    }
+    
     private void createStorage(long size) {
         storageId = myStrProcessor.createStorageId(size);
         storageBase = myStrProcessor.createStorageBase(storageId, size);
         storageSize = myStrProcessor.getStorageSize(storageId, size);
     }
     
+    private void resizeStorage(long size) {
+        storageId = ((ResizableMyStringProcessor) myStrProcessor).resizeStorage(storageId, storageBase, size);
+        storageBase = myStrProcessor.createStorageBase(storageId, size);
+        storageSize = myStrProcessor.getStorageSize(storageId, size);
+    }
+    
     private void createStorage(char[] value, int offset, int length) {
         storageId = myStrProcessor.createStorageId(value, offset, length);
         storageBase = myStrProcessor.createStorageBase(storageId, value, offset, length);
@@ -184,8 +426,15 @@ public final class MyStringTemplate
         }    
     }
 
+    // Notifies the processor that the content of the storage allocated by size is completely written
+    private void commitStorage() {
+        if (myStrProcessor instanceof CommittableMyStringProcessor) {
+            ((CommittableMyStringProcessor) myStrProcessor).commit(storageId, storageBase, length);
+        }
+    }
+    
     private char readValue(int index) {
-        return myStrProcessor.readValue(index, storageBase, index);
+        return myStrProcessor.readValue(storageId, storageBase, index);
     }
     
     private char readValue(int index, Object str, char[] value, boolean isMyString) {
@@ -197,7 +446,7 @@ public final class MyStringTemplate
     }
 
     private void writeValue(int index, char c) {
-        myStrProcessor.writeValue(c, storageBase, index, c);
+        myStrProcessor.writeValue(storageId, storageBase, index, c);
     }
     
     @SuppressWarnings("unused")
@@ -213,6 +462,181 @@ public final class MyStringTemplate
         myStrProcessor.copyValue(storageId, storageBase, srcBegin, dst, dstBegin, len);
     }
     
+    // Storage is written directly only when it belongs to the off-heap processor itself, 
+    // since the processors extending it may intercept the writes
+    private boolean isDirectlyWritable() {
+        return myStrProcessor.getClass() == OffHeapMyStringProcessor.class;
+    }
+    
+    private void writeValue(int index, char[] src, int srcBegin, int len) {
+        if (isDirectlyWritable()) {
+            UNSAFE.copyMemory(src, CHAR_ARRAY_BASE_OFFSET + ((long) srcBegin * CHAR_SIZE), 
+                              null, storageId + ((long) index * CHAR_SIZE), 
+                              (long) len * CHAR_SIZE);
+            return;
+        }
+        for (int i = 0; i < len; i++) {
+            writeValue(index + i, src[srcBegin + i]);
+        }
+    }
+    
+    private static long getWord(char[] chars, int index) {
+        return UNSAFE.getLong(chars, CHAR_ARRAY_BASE_OFFSET + ((long) index << 1));
+    }
+    
+    private static void putWord(char[] chars, int index, long word) {
+        UNSAFE.putLong(chars, CHAR_ARRAY_BASE_OFFSET + ((long) index << 1), word);
+    }
+    
+    // Returns a word which has "0x80" at the lanes of chars between "lo" and "hi" (inclusive). 
+    // Requires all of the chars in the word to be ASCII.
+    private static long asciiRangeMask(long word, char lo, char hi) {
+        long aboveLo = word + ((0x80 - lo) * LANE_ONES);
+        long aboveHi = word + ((0x7F - hi) * LANE_ONES);
+        return (aboveLo ^ aboveHi) & ASCII_HIGH_BITS;
+    }
+    
+    private static long toLowerCaseAscii(long word) {
+        return word ^ (asciiRangeMask(word, 'A', 'Z') >>> 2);
+    }
+    
+    private static long toUpperCaseAscii(long word) {
+        return word ^ (asciiRangeMask(word, 'a', 'z') >>> 2);
+    }
+    
+    private static char toLowerCaseAscii(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c ^ 0x20) : c;
+    }
+    
+    private static char toUpperCaseAscii(char c) {
+        return (c >= 'a' && c <= 'z') ? (char) (c ^ 0x20) : c;
+    }
+    
+    private static boolean isAsciiCaseMappable(Locale locale) {
+        String lang = locale.getLanguage();
+        return !(lang == "tr" || lang == "az" || lang == "lt");
+    }
+    
+    // Returns index of the first char to be converted, 
+    // "length" if there is no such char or "-1" if content is not ASCII 
+    private int scanAsciiCase(boolean toUpper) {
+        char lo = toUpper ? 'a' : 'A';
+        char hi = toUpper ? 'z' : 'Z';
+        int first = length;
+        char[] chunk = createChunk(length);
+        for (int i = 0; i < length;) {
+            int n = Math.min(chunk.length, length - i);
+            copyValue(i, chunk, 0, n);
+            int k = 0;
+            for (; k + CHARS_PER_WORD <= n; k += CHARS_PER_WORD) {
+                long word = getWord(chunk, k);
+                if ((word & NON_ASCII_BITS) != 0) {
+                    return -1;
+                }
+                if (first == length && asciiRangeMask(word, lo, hi) != 0) {
+                    for (int j = k; ; j++) {
+                        if (chunk[j] >= lo && chunk[j] <= hi) {
+                            first = i + j;
+                            break;
+                        }
+                    }
+                }
+            }
+            for (; k < n; k++) {
+                char c = chunk[k];
+                if (c >= ASCII_LIMIT) {
+                    return -1;
+                }
+                if (first == length && c >= lo && c <= hi) {
+                    first = i + k;
+                }
+            }
+            i += n;
+        }
+        return first;
+    }
+    
+    // Returns "null" if content is not ASCII, so the caller should go on with the generic way
+    private String convertCaseAscii(boolean toUpper) {
+        int first = scanAsciiCase(toUpper);
+        if (first < 0) {
+            return null;
+        }
+        if (first == length) {
+            return this.toString();
+        }
+        ValueAppender result = new ValueAppender(this, length);
+        result.append(this, 0, first);
+        char[] chunk = createChunk(length - first);
+        for (int i = first; i < length;) {
+            int n = Math.min(chunk.length, length - i);
+            copyValue(i, chunk, 0, n);
+            int k = 0;
+            for (; k + CHARS_PER_WORD <= n; k += CHARS_PER_WORD) {
+                long word = getWord(chunk, k);
+                putWord(chunk, k, toUpper ? toUpperCaseAscii(word) : toLowerCaseAscii(word));
+            }
+            for (; k < n; k++) {
+                chunk[k] = toUpper ? toUpperCaseAscii(chunk[k]) : toLowerCaseAscii(chunk[k]);
+            }
+            result.append(chunk, 0, n);
+            i += n;
+        }
+        return result.toResult();
+    }
+    
+    private boolean equalsIgnoreCaseAscii(String anotherString) {
+        boolean isMyString = isMyString(anotherString);
+        MyStringTemplate anotherMyString = isMyString ? (MyStringTemplate) ((Object) anotherString) : null;
+        char[] anotherValue = isMyString ? null : getValue(anotherString);
+        char[] chunk = createChunk(length);
+        char[] anotherChunk = isMyString ? createChunk(length) : null;
+        for (int i = 0; i < length;) {
+            int n = Math.min(chunk.length, length - i);
+            copyValue(i, chunk, 0, n);
+            char[] other;
+            int o;
+            if (isMyString) {
+                anotherMyString.copyValue(i, anotherChunk, 0, n);
+                other = anotherChunk;
+                o = 0;
+            } else {
+                other = anotherValue;
+                o = i;
+            }
+            int k = 0;
+            for (; k + CHARS_PER_WORD <= n; k += CHARS_PER_WORD) {
+                long word1 = getWord(chunk, k);
+                long word2 = getWord(other, o + k);
+                if (word1 == word2) {
+                    continue;
+                }
+                if (((word1 | word2) & NON_ASCII_BITS) != 0) {
+                    // Not ASCII, so go on with the generic comparison for the rest 
+                    return regionMatches(true, i + k, anotherString, i + k, length - (i + k));
+                }
+                if (toLowerCaseAscii(word1) != toLowerCaseAscii(word2)) {
+                    return false;
+                }
+            }
+            for (; k < n; k++) {
+                char c1 = chunk[k];
+                char c2 = other[o + k];
+                if (c1 == c2) {
+                    continue;
+                }
+                if ((c1 | c2) >= ASCII_LIMIT) {
+                    return regionMatches(true, i + k, anotherString, i + k, length - (i + k));
+                }
+                if (toLowerCaseAscii(c1) != toLowerCaseAscii(c2)) {
+                    return false;
+                }
+            }
+            i += n;
+        }
+        return true;
+    }
+    
     private void checkBounds(byte[] bytes, int offset, int length) {
         if (length < 0) {
             throw new StringIndexOutOfBoundsException(length);
@@ -225,140 +649,611 @@ public final class MyStringTemplate
         }    
     }
 
-    private byte[] encode(int off, int len) {
-        throw new UnsupportedOperationException();
-    }
-    
-    private byte[] encode(String charsetName, int off, int len) {
-        throw new UnsupportedOperationException();
+    private int readChunk(int index, int end, char[] chunk) {
+        int count = Math.min(chunk.length, end - index);
+        copyValue(index, chunk, 0, count);
+        // Don't split surrogate pairs between chunks, 
+        // so leave the trailing high surrogate to the next chunk
+        if (count > 1 && index + count < end && Character.isHighSurrogate(chunk[count - 1])) {
+            count--;
+        }
+        return count;
     }
     
-    private byte[] encode(Charset cs, int off, int len) {
-        throw new UnsupportedOperationException();
+    /**
+     * Moves the chars left unconsumed by the encoder to the start of the given buffer 
+     * and reads the next chars after them, so no char is dropped between chunks 
+     * (such as a trailing high surrogate which is only resolved at the end of input).
+     * 
+     * @return the count of the read chars
+     */
+    private int refillChunk(int index, int end, CharBuffer cb) {
+        cb.compact();
+        int carried = cb.position();
+        int n = Math.min(cb.capacity() - carried, end - index);
+        copyValue(index, cb.array(), carried, n);
+        cb.limit(carried + n);
+        cb.position(0);
+        return n;
     }
     
-    private void init() {
-        UNSAFE.putObject(this, VALUE_FIELD_OFFSET, null);
+    private char[] createChunk(int len) {
+        return new char[Math.min(len, CHUNK_SIZE)];
     }
 
-    @Override
-    public int length() {
-        return length;
-    }
-
-    @Override
-    public boolean isEmpty() {
-        return length == 0;
+    private byte[] encode(int off, int len) {
+        return encode(Charset.defaultCharset(), off, len);
     }
-
-    @Override
-    public char charAt(int index) {
-        if ((index < 0) || (index >= length)) {
-            throw new StringIndexOutOfBoundsException(index);
+    
+    private byte[] encode(String charsetName, int off, int len) 
+            throws UnsupportedEncodingException {
+        Charset cs;
+        try {
+            cs = Charset.forName(charsetName);
+        } catch (IllegalCharsetNameException e) {
+            throw new UnsupportedEncodingException(charsetName);
+        } catch (UnsupportedCharsetException e) {
+            throw new UnsupportedEncodingException(charsetName);
         }
-        return readValue(index);
+        return encode(cs, off, len);
     }
     
-    private int codePointAtImpl(int index, int limit) {
-        char c1 = readValue(index++);
-        if (Character.isHighSurrogate(c1)) {
-            if (index < limit) {
-                char c2 = readValue(index);
-                if (Character.isLowSurrogate(c2)) {
-                    return Character.toCodePoint(c1, c2);
-                }
-            }
+    private byte[] encode(Charset cs, int off, int len) {
+        if (US_ASCII.equals(cs)) {
+            return encodeSingleByte(off, len, ASCII_LIMIT);
+        } else if (ISO_8859_1.equals(cs)) {
+            return encodeSingleByte(off, len, LATIN1_LIMIT);
+        } else if (UTF_8.equals(cs)) {
+            return encodeUtf8(off, len);
+        } else {
+            return encodeWithEncoder(cs, off, len);
         }
-        return c1;
     }
-
-    @Override
-    public int codePointAt(int index) {
-        if ((index < 0) || (index >= length)) {
-            throw new StringIndexOutOfBoundsException(index);
-        }
-        return codePointAtImpl(index, length);
+    
+    private byte[] encodeSingleByte(int off, int len, int limit) {
+        byte[] ba = new byte[len];
+        char[] chunk = createChunk(len);
+        int end = off + len;
+        int dp = 0;
+        for (int i = off; i < end;) {
+            int n = readChunk(i, end, chunk);
+            dp = encodeSingleByte(chunk, n, ba, dp, limit);
+            i += n;
+        }
+        // Surrogate pairs are replaced by single byte, so result might be shorter 
+        return dp == len ? ba : Arrays.copyOf(ba, dp);
     }
     
-    private int codePointBeforeImpl(int index, int start) {
-        char c2 = readValue(--index);
-        if (Character.isLowSurrogate(c2)) {
-            if (index > start) {
-                char c1 = readValue(--index);
-                if (Character.isHighSurrogate(c1)) {
-                    return Character.toCodePoint(c1, c2);
-                }
+    private byte[] encodeUtf8(int off, int len) {
+        char[] chunk = createChunk(len);
+        int end = off + len;
+        // Calculate exact length at first pass, so there is no need to trim result
+        int size = 0;
+        for (int i = off; i < end;) {
+            int n = readChunk(i, end, chunk);
+            size += utf8Length(chunk, n);
+            i += n;
+        }
+        byte[] ba = new byte[size];
+        int dp = 0;
+        for (int i = off; i < end;) {
+            int n = readChunk(i, end, chunk);
+            dp = encodeUtf8(chunk, n, ba, dp);
+            i += n;
+        }
+        return ba;
+    }
+    
+    private byte[] encodeWithEncoder(Charset cs, int off, int len) {
+        CharsetEncoder ce = newReplacingEncoder(cs);
+        ByteBuffer bb = ByteBuffer.allocate(Math.max((int) (len * (double) ce.averageBytesPerChar()), 16));
+        CharBuffer cb = CharBuffer.wrap(createChunk(len), 0, 0);
+        int end = off + len;
+        for (int i = off; i < end;) {
+            i += refillChunk(i, end, cb);
+            bb = encodeWithEncoder(ce, cb, bb, false);
+        }
+        bb = encodeWithEncoder(ce, cb, bb, true);
+        for (;;) {
+            CoderResult cr = ce.flush(bb);
+            if (cr.isUnderflow()) {
+                break;
             }
+            bb = growByteBuffer(bb);
         }
-        return c2;
+        return Arrays.copyOf(bb.array(), bb.position());
     }
-
-    @Override
-    public int codePointBefore(int index) {
-        int i = index - 1;
-        if ((i < 0) || (i >= length)) {
-            throw new StringIndexOutOfBoundsException(index);
-        }
-        return codePointBeforeImpl(index, 0);
+    
+    private static CharsetEncoder newReplacingEncoder(Charset cs) {
+        return cs.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
     }
     
-    private int codePointCountImpl(int offset, int count) {
-        int endIndex = offset + count;
-        int n = count;
-        for (int i = offset; i < endIndex;) {
-            if (Character.isHighSurrogate(readValue(i++)) && i < endIndex
-                    && Character.isLowSurrogate(readValue(i))) {
-                n--;
+    private boolean isNativeUtf16(Charset cs) {
+        return myStrProcessor instanceof OffHeapMyStringProcessor
+                && NATIVE_UTF_16.equals(cs);
+    }
+    
+    /**
+     * Checks whether there is no unpaired surrogate in the given range of the off-heap storage, 
+     * so the range can be handed as UTF-16 as it is. Otherwise unpaired surrogates 
+     * must be replaced by the encoder as {@link String#getBytes(Charset)} does.
+     */
+    private boolean hasNoUnpairedSurrogate(int begin, int end) {
+        for (int i = begin; i < end; i++) {
+            char c = UNSAFE.getChar(storageId + (long) i * CHAR_SIZE);
+            if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                continue;
+            }
+            if (Character.isHighSurrogate(c)) {
+                if (i + 1 >= length 
+                        || !Character.isLowSurrogate(UNSAFE.getChar(storageId + (long) (i + 1) * CHAR_SIZE))) {
+                    return false;
+                }
                 i++;
+            } else if (i == begin 
+                        && i > 0 
+                        && Character.isHighSurrogate(UNSAFE.getChar(storageId + (long) (i - 1) * CHAR_SIZE))) {
+                // Low surrogate of a pair which is started before the range
+                continue;
+            } else {
+                return false;
             }
         }
-        return n;
-    }
-
-    @Override
-    public int codePointCount(int beginIndex, int endIndex) {
-        if (beginIndex < 0 || endIndex > length || beginIndex > endIndex) {
-            throw new IndexOutOfBoundsException();
-        }
-        return codePointCountImpl(beginIndex, endIndex - beginIndex);
+        return true;
     }
     
-    private int offsetByCodePointsImpl(int start, int count, int index,
-            int codePointOffset) {
-        int x = index;
-        if (codePointOffset >= 0) {
-            int limit = start + count;
-            int i;
-            for (i = 0; x < limit && i < codePointOffset; i++) {
-                if (Character.isHighSurrogate(readValue(x++)) && x < limit
-                        && Character.isLowSurrogate(readValue(x))) {
-                    x++;
-                }
+    /**
+     * Writes the content encoded by the given charset to the given (blocking) channel. 
+     * If the storage is native memory and the charset is UTF-16 with the native byte order, 
+     * storage is handed to the channel directly without any copy. 
+     * Otherwise content is encoded chunk by chunk through a small buffer.
+     * 
+     * @return the count of written bytes
+     */
+    public long writeTo(WritableByteChannel channel, Charset charset) throws IOException {
+        if (isNativeUtf16(charset) && hasNoUnpairedSurrogate(0, length)) {
+            long size = (long) length * CHAR_SIZE;
+            for (long offset = 0; offset < size;) {
+                int segmentSize = (int) Math.min(size - offset, MAX_DIRECT_SEGMENT_SIZE);
+                writeFully(channel, DirectBufferUtil.wrap(storageId + offset, segmentSize));
+                offset += segmentSize;
             }
-            if (i < codePointOffset) {
-                throw new IndexOutOfBoundsException();
+            return size;
+        }
+        ByteBuffer bb = ByteBuffer.allocate(ENCODE_BUFFER_SIZE);
+        long written = 0;
+        if (US_ASCII.equals(charset) || ISO_8859_1.equals(charset) || UTF_8.equals(charset)) {
+            boolean utf8 = UTF_8.equals(charset);
+            int limit = US_ASCII.equals(charset) ? ASCII_LIMIT : LATIN1_LIMIT;
+            // Encoded chunk always fits into the buffer, 
+            // since a char is encoded to 3 bytes at most and chunk size is less than a third of it
+            char[] chunk = createChunk(length);
+            byte[] ba = bb.array();
+            for (int i = 0; i < length;) {
+                int n = readChunk(i, length, chunk);
+                int size = utf8 
+                            ? encodeUtf8(chunk, n, ba, 0) 
+                            : encodeSingleByte(chunk, n, ba, 0, limit);
+                bb.clear();
+                bb.limit(size);
+                writeFully(channel, bb);
+                written += size;
+                i += n;
             }
         } else {
-            int i;
-            for (i = codePointOffset; x > start && i < 0; i++) {
-                if (Character.isLowSurrogate(readValue(--x)) && x > start
-                        && Character.isHighSurrogate(readValue(x - 1))) {
-                    x--;
+            CharsetEncoder ce = newReplacingEncoder(charset);
+            CharBuffer cb = CharBuffer.wrap(createChunk(length), 0, 0);
+            for (int i = 0; i < length;) {
+                i += refillChunk(i, length, cb);
+                written += encodeAndWrite(ce, cb, bb, channel, false);
+            }
+            written += encodeAndWrite(ce, cb, bb, channel, true);
+            for (;;) {
+                CoderResult cr = ce.flush(bb);
+                bb.flip();
+                written += bb.remaining();
+                writeFully(channel, bb);
+                bb.clear();
+                if (cr.isUnderflow()) {
+                    break;
                 }
             }
-            if (i < 0) {
-                throw new IndexOutOfBoundsException();
+        }
+        return written;
+    }
+    
+    private static long encodeAndWrite(CharsetEncoder ce, CharBuffer cb, ByteBuffer bb, 
+                                       WritableByteChannel channel, boolean endOfInput) throws IOException {
+        long written = 0;
+        for (;;) {
+            CoderResult cr = ce.encode(cb, bb, endOfInput);
+            bb.flip();
+            written += bb.remaining();
+            writeFully(channel, bb);
+            bb.clear();
+            if (cr.isUnderflow()) {
+                return written;
+            } else if (!cr.isOverflow()) {
+                // Should not happen since malformed and unmappable input are replaced
+                throw new IllegalStateException(cr.toString());
             }
         }
-        return x;
     }
-
-    @Override
-    public int offsetByCodePoints(int index, int codePointOffset) {
-        if (index < 0 || index > length) {
-            throw new IndexOutOfBoundsException();
+    
+    private static void writeFully(WritableByteChannel channel, ByteBuffer bb) throws IOException {
+        while (bb.hasRemaining()) {
+            channel.write(bb);
         }
-        return offsetByCodePointsImpl(0, length, index, codePointOffset);
+    }
+    
+    /**
+     * Encodes the content by the given charset into the given buffer as much as it fits.
+     * 
+     * @return the index of the first char which couldn't be encoded 
+     *         or length of this string if all of the content is encoded
+     */
+    public int encodeInto(ByteBuffer dst, Charset charset) {
+        return encodeInto(0, dst, charset);
+    }
+    
+    /**
+     * Encodes the content starting from the given index by the given charset 
+     * into the given buffer as much as it fits, so a large string can be encoded 
+     * into a buffer of limited size by multiple calls. Note that each call starts a new encoding, 
+     * so charsets which write a byte order mark (such as <code>UTF-16</code>) write it at each call. 
+     * Each call also completes its encoding (stateful charsets return to their initial state), 
+     * so fewer chars may be encoded than would fit to leave room for the bytes which complete it.
+     * 
+     * @return the index of the first char which couldn't be encoded 
+     *         or length of this string if all of the rest is encoded
+     */
+    public int encodeInto(int beginIndex, ByteBuffer dst, Charset charset) {
+        if (beginIndex < 0 || beginIndex > length) {
+            throw new StringIndexOutOfBoundsException(beginIndex);
+        }
+        if (isNativeUtf16(charset)) {
+            int n = Math.min(length - beginIndex, dst.remaining() / CHAR_SIZE);
+            // Don't split a surrogate pair between calls, as the encoder doesn't
+            if (n > 0 
+                    && beginIndex + n < length 
+                    && Character.isHighSurrogate(UNSAFE.getChar(storageId + (long) (beginIndex + n - 1) * CHAR_SIZE))) {
+                n--;
+            }
+            if (hasNoUnpairedSurrogate(beginIndex, beginIndex + n)) {
+                ByteBuffer src = DirectBufferUtil.wrap(storageId + (long) beginIndex * CHAR_SIZE, n * CHAR_SIZE);
+                dst.put(src);
+                return beginIndex + n;
+            }
+        }
+        CharsetEncoder ce = newReplacingEncoder(charset);
+        int start = dst.position();
+        int endIndex = length;
+        for (int backOff = 1;; backOff <<= 1) {
+            int index = encodeRange(ce, beginIndex, endIndex, dst);
+            if (index >= 0) {
+                return index;
+            }
+            if (endIndex == beginIndex) {
+                dst.position(start);
+                return beginIndex;
+            }
+            // Bytes which return a stateful charset (such as ISO-2022-JP) 
+            // to its initial state didn't fit, so less chars are encoded from the beginning
+            dst.position(start);
+            ce.reset();
+            endIndex = Math.max(beginIndex, ~index - backOff);
+            if (endIndex > beginIndex 
+                    && Character.isHighSurrogate(readValue(endIndex - 1)) 
+                    && Character.isLowSurrogate(readValue(endIndex))) {
+                endIndex--;
+            }
+        }
+    }
+    
+    /**
+     * Encodes the chars in the given range as much as they fit and completes the encoding 
+     * by flushing the encoder, so the written bytes can be decoded independently.
+     * 
+     * @return the index of the first char which couldn't be encoded, 
+     *         or its complement if the bytes written by flushing the encoder didn't fit
+     */
+    private int encodeRange(CharsetEncoder ce, int beginIndex, int endIndex, ByteBuffer dst) {
+        CharBuffer cb = CharBuffer.wrap(createChunk(endIndex - beginIndex), 0, 0);
+        int i = beginIndex;
+        boolean overflow = false;
+        while (!overflow && i < endIndex) {
+            i += refillChunk(i, endIndex, cb);
+            overflow = ce.encode(cb, dst, false).isOverflow();
+        }
+        if (!overflow) {
+            overflow = ce.encode(cb, dst, true).isOverflow();
+        }
+        int index = i - cb.remaining();
+        if (overflow) {
+            // Chars which didn't fit are dropped, so the encoding can be ended without them
+            cb.limit(cb.position());
+            ce.encode(cb, dst, true);
+        }
+        return ce.flush(dst).isOverflow() ? ~index : index;
+    }
+    
+    /**
+     * Feeds the chars in the given range to the given hasher, directly from the storage when it is off-heap.
+     */
+    void updateHasher(MyStringHash.Hasher hasher, int begin, int end) {
+        if (myStrProcessor instanceof OffHeapMyStringProcessor) {
+            hasher.updateNative(storageId + (long) begin * CHAR_SIZE, end - begin);
+            return;
+        }
+        char[] chunk = createChunk(end - begin);
+        for (int i = begin; i < end;) {
+            int n = Math.min(chunk.length, end - i);
+            copyValue(i, chunk, 0, n);
+            hasher.update(chunk, 0, n);
+            i += n;
+        }
+    }
+    
+    /**
+     * Writes the chars as they are (UTF-16 with the native byte order, without any replacement) 
+     * to the given (blocking) channel.
+     */
+    void writeChars(WritableByteChannel channel) throws IOException {
+        if (myStrProcessor instanceof OffHeapMyStringProcessor) {
+            writeTo(channel, NATIVE_UTF_16);
+            return;
+        }
+        char[] chunk = createChunk(length);
+        ByteBuffer bb = ByteBuffer.allocate(chunk.length * CHAR_SIZE).order(ByteOrder.nativeOrder());
+        CharBuffer cb = bb.asCharBuffer();
+        for (int i = 0; i < length;) {
+            int n = Math.min(chunk.length, length - i);
+            copyValue(i, chunk, 0, n);
+            cb.clear();
+            cb.put(chunk, 0, n);
+            bb.clear();
+            bb.limit(n * CHAR_SIZE);
+            writeFully(channel, bb);
+            i += n;
+        }
+    }
+    
+    private static ByteBuffer encodeWithEncoder(CharsetEncoder ce, CharBuffer cb, 
+                                                ByteBuffer bb, boolean endOfInput) {
+        for (;;) {
+            CoderResult cr = ce.encode(cb, bb, endOfInput);
+            if (cr.isUnderflow()) {
+                return bb;
+            } else if (cr.isOverflow()) {
+                bb = growByteBuffer(bb);
+            } else {
+                // Should not happen since malformed and unmappable input are replaced
+                throw new IllegalStateException(cr.toString());
+            }
+        }
+    }
+    
+    private static ByteBuffer growByteBuffer(ByteBuffer bb) {
+        ByteBuffer newBB = ByteBuffer.allocate(bb.capacity() << 1);
+        bb.flip();
+        newBB.put(bb);
+        return newBB;
+    }
+    
+    private static int encodeSingleByte(char[] chunk, int n, byte[] dst, int dp, int limit) {
+        for (int k = 0; k < n; k++) {
+            char c = chunk[k];
+            if (c < limit) {
+                dst[dp++] = (byte) c;
+            } else {
+                if (Character.isHighSurrogate(c) 
+                        && k + 1 < n && Character.isLowSurrogate(chunk[k + 1])) {
+                    k++;
+                }
+                dst[dp++] = REPLACEMENT_BYTE;
+            }
+        }
+        return dp;
+    }
+    
+    private static int utf8Length(char[] chunk, int n) {
+        int size = 0;
+        for (int k = 0; k < n; k++) {
+            char c = chunk[k];
+            if (c < 0x80) {
+                size++;
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                if (Character.isHighSurrogate(c) 
+                        && k + 1 < n && Character.isLowSurrogate(chunk[k + 1])) {
+                    k++;
+                    size += 4;
+                } else {
+                    size++;
+                }
+            } else {
+                size += 3;
+            }
+        }
+        return size;
+    }
+    
+    private static int encodeUtf8(char[] chunk, int n, byte[] dst, int dp) {
+        for (int k = 0; k < n; k++) {
+            char c = chunk[k];
+            if (c < 0x80) {
+                dst[dp++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[dp++] = (byte) (0xC0 | (c >> 6));
+                dst[dp++] = (byte) (0x80 | (c & 0x3F));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                if (Character.isHighSurrogate(c) 
+                        && k + 1 < n && Character.isLowSurrogate(chunk[k + 1])) {
+                    int uc = Character.toCodePoint(c, chunk[++k]);
+                    dst[dp++] = (byte) (0xF0 | (uc >> 18));
+                    dst[dp++] = (byte) (0x80 | ((uc >> 12) & 0x3F));
+                    dst[dp++] = (byte) (0x80 | ((uc >> 6) & 0x3F));
+                    dst[dp++] = (byte) (0x80 | (uc & 0x3F));
+                } else {
+                    // Malformed surrogate is replaced as it is done by "String"
+                    dst[dp++] = REPLACEMENT_BYTE;
+                }
+            } else {
+                dst[dp++] = (byte) (0xE0 | (c >> 12));
+                dst[dp++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dst[dp++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return dp;
+    }
+    
+    private void init() {
+        init(true);
+    }
+    
+    private void init(boolean track) {
+        UNSAFE.putObject(this, VALUE_FIELD_OFFSET, null);
+        if (track) {
+            track();
+        }
+    }
+    
+    // Registers this string to the tracker of its processor (if there is) to be found by snapshots
+    private void track() {
+        MyStringTracker tracker = MyStringService.findMyStringTracker(myStrProcessor);
+        if (tracker != null) {
+            trackingIndex = tracker.add(this);
+        }
+    }
+    
+    private void untrack() {
+        if (trackingIndex != 0) {
+            MyStringService.findMyStringTracker(myStrProcessor).remove(trackingIndex);
+            trackingIndex = 0;
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if ((index < 0) || (index >= length)) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+        return readValue(index);
+    }
+    
+    private int codePointAtImpl(int index, int limit) {
+        char c1 = readValue(index++);
+        if (Character.isHighSurrogate(c1)) {
+            if (index < limit) {
+                char c2 = readValue(index);
+                if (Character.isLowSurrogate(c2)) {
+                    return Character.toCodePoint(c1, c2);
+                }
+            }
+        }
+        return c1;
+    }
+
+    @Override
+    public int codePointAt(int index) {
+        if ((index < 0) || (index >= length)) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+        return codePointAtImpl(index, length);
+    }
+    
+    private int codePointBeforeImpl(int index, int start) {
+        char c2 = readValue(--index);
+        if (Character.isLowSurrogate(c2)) {
+            if (index > start) {
+                char c1 = readValue(--index);
+                if (Character.isHighSurrogate(c1)) {
+                    return Character.toCodePoint(c1, c2);
+                }
+            }
+        }
+        return c2;
+    }
+
+    @Override
+    public int codePointBefore(int index) {
+        int i = index - 1;
+        if ((i < 0) || (i >= length)) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+        return codePointBeforeImpl(index, 0);
+    }
+    
+    private int codePointCountImpl(int offset, int count) {
+        int endIndex = offset + count;
+        int n = count;
+        for (int i = offset; i < endIndex;) {
+            if (Character.isHighSurrogate(readValue(i++)) && i < endIndex
+                    && Character.isLowSurrogate(readValue(i))) {
+                n--;
+                i++;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public int codePointCount(int beginIndex, int endIndex) {
+        if (beginIndex < 0 || endIndex > length || beginIndex > endIndex) {
+            throw new IndexOutOfBoundsException();
+        }
+        return codePointCountImpl(beginIndex, endIndex - beginIndex);
+    }
+    
+    private int offsetByCodePointsImpl(int start, int count, int index,
+            int codePointOffset) {
+        int x = index;
+        if (codePointOffset >= 0) {
+            int limit = start + count;
+            int i;
+            for (i = 0; x < limit && i < codePointOffset; i++) {
+                if (Character.isHighSurrogate(readValue(x++)) && x < limit
+                        && Character.isLowSurrogate(readValue(x))) {
+                    x++;
+                }
+            }
+            if (i < codePointOffset) {
+                throw new IndexOutOfBoundsException();
+            }
+        } else {
+            int i;
+            for (i = codePointOffset; x > start && i < 0; i++) {
+                if (Character.isLowSurrogate(readValue(--x)) && x > start
+                        && Character.isHighSurrogate(readValue(x - 1))) {
+                    x--;
+                }
+            }
+            if (i < 0) {
+                throw new IndexOutOfBoundsException();
+            }
+        }
+        return x;
+    }
+
+    @Override
+    public int offsetByCodePoints(int index, int codePointOffset) {
+        if (index < 0 || index > length) {
+            throw new IndexOutOfBoundsException();
+        }
+        return offsetByCodePointsImpl(0, length, index, codePointOffset);
     }
 
     @Override
@@ -426,19 +1321,24 @@ public final class MyStringTemplate
         if (anObject instanceof String) {
             String anotherString = (String)anObject;
             int n = length;
+            if (n != getLength(anotherString)) {
+                return false;
+            }
             boolean isMyString = anObject instanceof MyStringTemplate;
             char[] anotherValue = getValue(anotherString);
-            int anotherLength = anotherValue != null ? anotherValue.length : 0;
-            if (n == anotherLength) {
-                int i = 0;
-                while (n-- != 0) {
-                    if (readValue(i) != readValue(i, anObject, anotherValue, isMyString)) {
-                        return false;
-                    }    
-                    i++;
-                }
-                return true;
+            int anotherHash = isMyString ? ((MyStringTemplate) anObject).hash : getHash(anotherString);
+            if (hash != 0 && anotherHash != 0 && hash != anotherHash) {
+                return false;
+            }
+            if (getPrefix() != getPrefix(anotherString, anotherValue, isMyString)) {
+                return false;
+            }
+            for (int i = Math.min(PREFIX_CHARS, n); i < n; i++) {
+                if (readValue(i) != readValue(i, anObject, anotherValue, isMyString)) {
+                    return false;
+                }    
             }
+            return true;
         }
         return false;
     }
@@ -472,7 +1372,7 @@ public final class MyStringTemplate
         return (this == (Object) anotherString) ? true
                 : (anotherString != null)
                 && (getLength(anotherString) == length)
-                && regionMatches(true, 0, anotherString, 0, length);
+                && equalsIgnoreCaseAscii(anotherString);
     }
 
     @Override
@@ -483,7 +1383,18 @@ public final class MyStringTemplate
         boolean isMyString = isMyString(anotherString);
         char[] anotherValue = getValue(anotherString);
 
-        int k = 0;
+        long prefix1 = getPrefix();
+        long prefix2 = getPrefix(anotherString, anotherValue, isMyString);
+        if (prefix1 != prefix2) {
+            // Index of the first different char in the prefixes
+            int i = Long.numberOfLeadingZeros(prefix1 ^ prefix2) / Character.SIZE;
+            if (i < lim) {
+                return prefixChar(prefix1, i) - prefixChar(prefix2, i);
+            }
+            // Difference is after the end of the shorter one
+            return len1 - len2;
+        }
+        int k = Math.min(PREFIX_CHARS, lim);
         while (k < lim) {
             char c1 = readValue(k);
             char c2 = readValue(k, anotherString, anotherValue, isMyString);
@@ -611,6 +1522,15 @@ public final class MyStringTemplate
         if ((toffset < 0) || (toffset > length - pc)) {
             return false;
         }
+        if (toffset == 0 && pc > 0) {
+            int n = Math.min(PREFIX_CHARS, pc);
+            long mask = -1L << ((PREFIX_CHARS - n) * Character.SIZE);
+            if (((getPrefix() ^ getPrefix(prefix, prefixValue, isMyString)) & mask) != 0) {
+                return false;
+            }
+            to = po = n;
+            pc -= n;
+        }
         while (--pc >= 0) {
             if (readValue(to++) != readValue(po++, prefix, prefixValue, isMyString)) {
                 return false;
@@ -670,12 +1590,12 @@ public final class MyStringTemplate
         }
     }
     
-    private char highSurrogate(int codePoint) {
+    private static char highSurrogate(int codePoint) {
         return (char) ((codePoint >>> 10)
                 + (Character.MIN_HIGH_SURROGATE - (Character.MIN_SUPPLEMENTARY_CODE_POINT >>> 10)));
     }
     
-    private char lowSurrogate(int codePoint) {
+    private static char lowSurrogate(int codePoint) {
         return (char) ((codePoint & 0x3ff) + Character.MIN_LOW_SURROGATE);
     }
 
@@ -851,7 +1771,7 @@ public final class MyStringTemplate
         }
         return (beginIndex == 0) 
                     ? this.toString() 
-                    : new String(toCharArray(), beginIndex, subLen);
+                    : derive(beginIndex, length);
     }
 
     @Override
@@ -868,7 +1788,13 @@ public final class MyStringTemplate
         }
         return ((beginIndex == 0) && (endIndex == length)) 
                 ? this.toString()
-                : new String(toCharArray(), beginIndex, subLen);
+                : derive(beginIndex, endIndex);
+    }
+
+    private String derive(int beginIndex, int endIndex) {
+        ValueAppender result = new ValueAppender(this, endIndex - beginIndex);
+        result.append(this, beginIndex, endIndex);
+        return result.toResult();
     }
 
     @Override
@@ -883,10 +1809,10 @@ public final class MyStringTemplate
             return this.toString();
         }
         int len = length;
-        char buf[] = new char[len + otherLen];
-        getChars(0, len, buf, 0);
-        str.getChars(0, otherLen, buf, len);
-        return new String(buf);
+        ValueAppender result = new ValueAppender(this, len + otherLen);
+        result.append(this, 0, len);
+        result.append(str);
+        return result.toResult();
     }
 
     @Override
@@ -901,16 +1827,21 @@ public final class MyStringTemplate
                 }
             }
             if (i < len) {
-                char buf[] = new char[len];
-                for (int j = 0; j < i; j++) {
-                    buf[j] = readValue(j);
-                }
+                ValueAppender result = new ValueAppender(this, len);
+                result.append(this, 0, i);
+                char[] chunk = createChunk(len - i);
                 while (i < len) {
-                    char c = readValue(i);
-                    buf[i] = (c == oldChar) ? newChar : c;
-                    i++;
+                    int n = Math.min(chunk.length, len - i);
+                    copyValue(i, chunk, 0, n);
+                    for (int j = 0; j < n; j++) {
+                        if (chunk[j] == oldChar) {
+                            chunk[j] = newChar;
+                        }
+                    }
+                    result.append(chunk, 0, n);
+                    i += n;
                 }
-                return new String(buf);
+                return result.toResult();
             }
         }
         return this.toString();
@@ -918,7 +1849,7 @@ public final class MyStringTemplate
 
     @Override
     public boolean matches(String regex) {
-        return Pattern.matches(regex, this);
+        return PATTERN_CACHE.compile(regex).matcher(this).matches();
     }
 
     @Override
@@ -928,7 +1859,7 @@ public final class MyStringTemplate
 
     @Override
     public String replaceFirst(String regex, String replacement) {
-        return Pattern
+        return PATTERN_CACHE
                 .compile(regex)
                 .matcher(this)
                 .replaceFirst(replacement);
@@ -936,7 +1867,7 @@ public final class MyStringTemplate
 
     @Override
     public String replaceAll(String regex, String replacement) {
-        return Pattern
+        return PATTERN_CACHE
                 .compile(regex)
                 .matcher(this)
                 .replaceAll(replacement);
@@ -944,10 +1875,35 @@ public final class MyStringTemplate
 
     @Override
     public String replace(CharSequence target, CharSequence replacement) {
-        return Pattern
-                .compile(target.toString(), Pattern.LITERAL)
-                .matcher(this)
-                .replaceAll(Matcher.quoteReplacement(replacement.toString()));
+        String targetStr = target.toString();
+        String replacementStr = replacement.toString();
+        int targetLength = getLength(targetStr);
+        int replacementLength = getLength(replacementStr);
+        if (targetLength == 0) {
+            // Replacement is inserted before each char and at the end
+            ValueAppender result = new ValueAppender(this, length + (length + 1) * replacementLength);
+            for (int i = 0; i < length; i++) {
+                result.append(replacementStr);
+                result.append(readValue(i));
+            }
+            result.append(replacementStr);
+            return result.toResult();
+        }
+        int index = indexOf(targetStr, 0);
+        if (index < 0) {
+            return this.toString();
+        }
+        ValueAppender result = 
+                new ValueAppender(this, length + Math.max(0, replacementLength - targetLength));
+        int off = 0;
+        do {
+            result.append(this, off, index);
+            result.append(replacementStr);
+            off = index + targetLength;
+            index = indexOf(targetStr, off);
+        } while (index >= 0);
+        result.append(this, off, length);
+        return result.toResult();
     }
 
     @Override
@@ -996,19 +1952,105 @@ public final class MyStringTemplate
             String[] result = new String[resultSize];
             return list.subList(0, resultSize).toArray(result);
         }
-        return Pattern.compile(regex).split(this, limit);
+        return PATTERN_CACHE.compile(regex).split(this, limit);
     }
 
     @Override
     public String[] split(String regex) {
         return split(regex, 0);
     }
+    
+    /**
+     * Splits this string around the given delimiter char with the semantic of 
+     * {@link String#split(String, int)} but passes the boundaries of the slices 
+     * to the given handler instead of creating strings.
+     * 
+     * @return the count of handled slices
+     */
+    public int splitTo(char delimiter, int limit, MyStringSliceHandler handler) {
+        return splitTo(delimiter, null, 1, limit, handler);
+    }
+    
+    /**
+     * Splits this string around the given literal (not regular expression) delimiter 
+     * with the semantic of {@link String#split(String, int)} but passes the boundaries 
+     * of the slices to the given handler instead of creating strings.
+     * 
+     * @return the count of handled slices
+     */
+    public int splitTo(String delimiter, int limit, MyStringSliceHandler handler) {
+        int delimiterLength = getLength(delimiter);
+        if (delimiterLength == 0) {
+            throw new IllegalArgumentException("Delimiter must not be empty!");
+        }
+        return splitTo((char) 0, delimiter, delimiterLength, limit, handler);
+    }
+    
+    private int splitTo(char delimiterChar, String delimiter, int delimiterLength, 
+                        int limit, MyStringSliceHandler handler) {
+        String str = this.toString();
+        int off = 0;
+        int next;
+        int count = 0;
+        // Empty slices are not handled until a non-empty one comes when limit is zero,  
+        // because trailing empty slices are discarded. 
+        // Since pending empty slices are consecutive, only the first one is kept.
+        int pendingBegin = 0;
+        int pendingCount = 0;
+        boolean limited = limit > 0;
+        while ((next = (delimiter == null ? indexOf(delimiterChar, off) : indexOf(delimiter, off))) != -1) {
+            if (limited && count == limit - 1) {
+                break;
+            }
+            if (limit == 0 && next == off) {
+                if (pendingCount++ == 0) {
+                    pendingBegin = off;
+                }
+            } else {
+                for (; pendingCount > 0; pendingCount--, pendingBegin += delimiterLength) {
+                    count++;
+                    if (!handler.handle(str, pendingBegin, pendingBegin)) {
+                        return count;
+                    }
+                }
+                count++;
+                if (!handler.handle(str, off, next)) {
+                    return count;
+                }
+            }
+            off = next + delimiterLength;
+        }
+        // If no match was found, this is the only slice
+        if (off == 0) {
+            handler.handle(str, 0, length);
+            return 1;
+        }
+        // Handle remaining segment
+        if (limit != 0 || off < length) {
+            for (; pendingCount > 0; pendingCount--, pendingBegin += delimiterLength) {
+                count++;
+                if (!handler.handle(str, pendingBegin, pendingBegin)) {
+                    return count;
+                }
+            }
+            count++;
+            handler.handle(str, off, length);
+        }
+        return count;
+    }
 
     @Override
     public String toLowerCase(Locale locale) {
         if (locale == null) {
             throw new NullPointerException();
         }
+        
+        if (isAsciiCaseMappable(locale)) {
+            String asciiResult = convertCaseAscii(false);
+            if (asciiResult != null) {
+                return asciiResult;
+            }
+        }
 
         int firstUpper;
         final int len = length;
@@ -1034,12 +2076,11 @@ public final class MyStringTemplate
             return this.toString();
         }
 
-        char[] result = new char[len];
-        int resultOffset = 0;  /* result may grow, so i+resultOffset
-                                * is the write location in result */
+        /* result may grow */
+        ValueAppender result = new ValueAppender(this, len);
 
         /* Just copy the first few lowerCase characters. */
-        copyValue(0, result, 0, firstUpper);
+        result.append(this, 0, firstUpper);
 
         String lang = locale.getLanguage();
         boolean localeDependent =
@@ -1064,34 +2105,15 @@ public final class MyStringTemplate
             } else {
                 lowerChar = Character.toLowerCase(srcChar);
             }
-            if ((lowerChar == MyStringUtil.ERROR)
-                    || (lowerChar >= Character.MIN_SUPPLEMENTARY_CODE_POINT)) {
-                if (lowerChar == MyStringUtil.ERROR) {
-                    lowerCharArray =
-                            MyStringUtil.toLowerCaseCharArray(this.toString(), i, locale);
-                } else if (srcCount == 2) {
-                    resultOffset += Character.toChars(lowerChar, result, i + resultOffset) - srcCount;
-                    continue;
-                } else {
-                    lowerCharArray = Character.toChars(lowerChar);
-                }
-
-                /* Grow result if needed */
-                int mapLen = lowerCharArray.length;
-                if (mapLen > srcCount) {
-                    char[] result2 = new char[result.length + mapLen - srcCount];
-                    System.arraycopy(result, 0, result2, 0, i + resultOffset);
-                    result = result2;
-                }
-                for (int x = 0; x < mapLen; ++x) {
-                    result[i + resultOffset + x] = lowerCharArray[x];
-                }
-                resultOffset += (mapLen - srcCount);
+            if (lowerChar == MyStringUtil.ERROR) {
+                lowerCharArray =
+                        MyStringUtil.toLowerCaseCharArray(this.toString(), i, locale);
+                result.append(lowerCharArray, 0, lowerCharArray.length);
             } else {
-                result[i + resultOffset] = (char)lowerChar;
+                result.appendCodePoint(lowerChar);
             }
         }
-        return new String(result, 0, len + resultOffset);
+        return result.toResult();
     }
 
     @Override
@@ -1104,6 +2126,13 @@ public final class MyStringTemplate
         if (locale == null) {
             throw new NullPointerException();
         }
+        
+        if (isAsciiCaseMappable(locale)) {
+            String asciiResult = convertCaseAscii(true);
+            if (asciiResult != null) {
+                return asciiResult;
+            }
+        }
 
         int firstLower;
         final int len = length;
@@ -1130,12 +2159,11 @@ public final class MyStringTemplate
             return this.toString();
         }
 
-        /* result may grow, so i+resultOffset is the write location in result */
-        int resultOffset = 0;
-        char[] result = new char[len]; /* may grow */
+        /* result may grow */
+        ValueAppender result = new ValueAppender(this, len);
 
         /* Just copy the first few upperCase characters. */
-        copyValue(0, result, 0, firstLower);
+        result.append(this, 0, firstLower);
 
         String lang = locale.getLanguage();
         boolean localeDependent =
@@ -1158,38 +2186,19 @@ public final class MyStringTemplate
             } else {
                 upperChar = MyStringUtil.toUpperCaseEx(srcChar);
             }
-            if ((upperChar == MyStringUtil.ERROR)
-                    || (upperChar >= Character.MIN_SUPPLEMENTARY_CODE_POINT)) {
-                if (upperChar == MyStringUtil.ERROR) {
-                    if (localeDependent) {
-                        upperCharArray =
-                                MyStringUtil.toUpperCaseCharArray(this.toString(), i, locale);
-                    } else {
-                        upperCharArray = MyStringUtil.toUpperCaseCharArray(srcChar);
-                    }
-                } else if (srcCount == 2) {
-                    resultOffset += Character.toChars(upperChar, result, i + resultOffset) - srcCount;
-                    continue;
+            if (upperChar == MyStringUtil.ERROR) {
+                if (localeDependent) {
+                    upperCharArray =
+                            MyStringUtil.toUpperCaseCharArray(this.toString(), i, locale);
                 } else {
-                    upperCharArray = Character.toChars(upperChar);
-                }
-
-                /* Grow result if needed */
-                int mapLen = upperCharArray.length;
-                if (mapLen > srcCount) {
-                    char[] result2 = new char[result.length + mapLen - srcCount];
-                    System.arraycopy(result, 0, result2, 0, i + resultOffset);
-                    result = result2;
-                }
-                for (int x = 0; x < mapLen; ++x) {
-                    result[i + resultOffset + x] = upperCharArray[x];
+                    upperCharArray = MyStringUtil.toUpperCaseCharArray(srcChar);
                 }
-                resultOffset += (mapLen - srcCount);
+                result.append(upperCharArray, 0, upperCharArray.length);
             } else {
-                result[i + resultOffset] = (char)upperChar;
+                result.appendCodePoint(upperChar);
             }
         }
-        return new String(result, 0, len + resultOffset);
+        return result.toResult();
     }
 
     @Override
@@ -1218,9 +2227,34 @@ public final class MyStringTemplate
         return result;
     }
     
+    /**
+     * Gets the canonical string with the same content from the intern pool of the processor 
+     * (this string becomes the canonical one if there is no such string). 
+     * The canonical string is not destroyed until the pool is cleared, 
+     * so if the returned string is not this string, this string can be destroyed 
+     * and its storage is freed. Strings whose processor isn't registered by a factory 
+     * are not interned.
+     */
     @Override
     public String intern() {
-        return (String) ((Object) this);
+        MyStringInternPool pool = MyStringService.findMyStringInternPool(myStrProcessor);
+        if (pool == null) {
+            return (String) ((Object) this);
+        }
+        return pool.intern(this);
+    }
+    
+    void setInterned(boolean interned) {
+        this.interned = interned;
+    }
+    
+    boolean isSharedStorage() {
+        return sharedStorage;
+    }
+    
+    // Copies the chars into a storage owned by the copy, so it doesn't depend on the shared storage
+    MyStringTemplate copyToOwnedStorage() {
+        return new MyStringTemplate(myStrProcessor, affine, (String) ((Object) this));
     }
 
     @Override
@@ -1252,24 +2286,1186 @@ public final class MyStringTemplate
     // Note that this method is not thread-safe
     @Override
     public void destroy() {
+        // Canonical strings are destroyed by clearing their intern pool
+        if (interned) {
+            return;
+        }
         if (storageSize != INVALID_STORAGE_SIZE) {
-            myStrProcessor.destroy(storageId, storageBase);
+            untrack();
+            // Shared storage is destroyed by its owner
+            if (!sharedStorage) {
+                myStrProcessor.destroy(storageId, storageBase);
+            }    
             storageSize = INVALID_STORAGE_SIZE;
             storageId = INVALID_STORAGE_ID;
             storageBase = INVALID_STORAGE_BASE;
         }    
     }
 
+    /**
+     * Creates a string by reading all the chars from the given reader into the storage 
+     * allocated by the given processor. Storage is grown as chars are read, 
+     * so the content is never fully staged on heap.
+     * 
+     * @param lengthHint expected count of chars to size the storage initially, 
+     *                   or a negative value if it is not known
+     */
+    public static String create(MyStringProcessor myStrProcessor, boolean affine, 
+                                Reader reader, int lengthHint) throws IOException {
+        ValueAppender result = 
+                new ValueAppender(myStrProcessor, true, affine, initialCapacity(lengthHint));
+        boolean done = false;
+        try {
+            char[] buffer = new char[CHUNK_SIZE];
+            int n;
+            while ((n = reader.read(buffer)) >= 0) {
+                result.append(buffer, 0, n);
+            }
+            String str = result.toResult();
+            done = true;
+            return str;
+        } finally {
+            if (!done) {
+                result.discard();
+            }
+        }
+    }
+    
+    /**
+     * Creates a string by decoding all the bytes from the given stream into the storage 
+     * allocated by the given processor. Malformed and unmappable input is replaced.
+     * 
+     * @param lengthHint expected count of chars to size the storage initially, 
+     *                   or a negative value if it is not known
+     */
+    public static String create(MyStringProcessor myStrProcessor, boolean affine, 
+                                InputStream in, Charset charset, int lengthHint) throws IOException {
+        return create(myStrProcessor, affine, Channels.newChannel(in), charset, lengthHint);
+    }
+    
+    /**
+     * Creates a string by decoding all the bytes from the given (blocking) channel into 
+     * the storage allocated by the given processor. Malformed and unmappable input is replaced.
+     * 
+     * @param lengthHint expected count of chars to size the storage initially, 
+     *                   or a negative value if it is not known
+     */
+    public static String create(MyStringProcessor myStrProcessor, boolean affine, 
+                                ReadableByteChannel channel, Charset charset, 
+                                int lengthHint) throws IOException {
+        ValueAppender result = 
+                new ValueAppender(myStrProcessor, true, affine, initialCapacity(lengthHint));
+        boolean done = false;
+        try {
+            CharsetDecoder decoder = 
+                    charset.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            ByteBuffer in = ByteBuffer.allocate(DECODE_BUFFER_SIZE);
+            CharBuffer out = CharBuffer.allocate(CHUNK_SIZE);
+            boolean endOfInput = false;
+            while (!endOfInput) {
+                endOfInput = channel.read(in) < 0;
+                in.flip();
+                decode(decoder, in, out, result, endOfInput);
+                in.compact();
+            }
+            for (;;) {
+                CoderResult cr = decoder.flush(out);
+                appendDecoded(out, result);
+                if (cr.isUnderflow()) {
+                    break;
+                }
+            }
+            String str = result.toResult();
+            done = true;
+            return str;
+        } finally {
+            if (!done) {
+                result.discard();
+            }
+        }
+    }
+    
+    /**
+     * Creates a string by decoding the given bytes into the storage allocated by 
+     * the given processor. US-ASCII and ISO-8859-1 bytes are widened without a decoder 
+     * and so is the ASCII prefix of UTF-8 bytes. For off-heap storage, they are widened 
+     * word by word straight from the bytes into the storage without any intermediate array. 
+     * Malformed and unmappable input is replaced.
+     */
+    public static String create(MyStringProcessor myStrProcessor, boolean affine, 
+                                byte[] bytes, int offset, int length, Charset charset) {
+        return create(myStrProcessor, affine, ByteBuffer.wrap(bytes, offset, length), charset);
+    }
+    
+    /**
+     * Creates a string by decoding the bytes between the given native memory address 
+     * and <code>address + length</code> into the storage allocated by the given processor.
+     */
+    public static String create(MyStringProcessor myStrProcessor, boolean affine, 
+                                long address, int length, Charset charset) {
+        return create(myStrProcessor, affine, DirectBufferUtil.wrap(address, length), charset);
+    }
+    
+    /**
+     * Creates a string by decoding the remaining bytes of the given buffer into the storage 
+     * allocated by the given processor. Position of the given buffer is not changed.
+     */
+    public static String create(MyStringProcessor myStrProcessor, boolean affine, 
+                                ByteBuffer buffer, Charset charset) {
+        ByteBuffer in = buffer.duplicate();
+        int byteCount = in.remaining();
+        int widenMode = -1;
+        int capacity;
+        if (US_ASCII.equals(charset)) {
+            widenMode = WIDEN_ASCII;
+        } else if (ISO_8859_1.equals(charset)) {
+            widenMode = WIDEN_LATIN1;
+        } else if (UTF_8.equals(charset)) {
+            widenMode = WIDEN_UTF8_ASCII_PREFIX;
+        }
+        CharsetDecoder decoder = null;
+        if (widenMode >= 0) {
+            // Single byte charsets produce exactly one char per byte and UTF-8 at most
+            capacity = byteCount;
+        } else {
+            decoder = charset.newDecoder();
+            capacity = (int) Math.min(Integer.MAX_VALUE, (long) (byteCount * (double) decoder.averageCharsPerByte()));
+        }
+        ValueAppender result = new ValueAppender(myStrProcessor, true, affine, capacity);
+        boolean done = false;
+        try {
+            if (widenMode >= 0) {
+                widen(in, result, widenMode);
+            }
+            if (in.hasRemaining()) {
+                if (decoder == null) {
+                    decoder = charset.newDecoder();
+                }
+                decoder.onMalformedInput(CodingErrorAction.REPLACE)
+                       .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                CharBuffer out = CharBuffer.allocate(CHUNK_SIZE);
+                decode(decoder, in, out, result, true);
+                for (;;) {
+                    CoderResult cr = decoder.flush(out);
+                    appendDecoded(out, result);
+                    if (cr.isUnderflow()) {
+                        break;
+                    }
+                }
+            }
+            String str = result.toResult();
+            done = true;
+            return str;
+        } finally {
+            if (!done) {
+                result.discard();
+            }
+        }
+    }
+    
+    // Widens single byte chars to the result. 
+    // In UTF-8 mode, stops at the first non-ASCII byte and leaves the buffer positioned there.
+    private static void widen(ByteBuffer in, ValueAppender result, int widenMode) {
+        long address = LITTLE_ENDIAN ? result.reserveDirect(in.remaining()) : 0;
+        if (address != 0) {
+            widenDirect(in, result, widenMode, address);
+            return;
+        }
+        byte[] bytes = new byte[Math.min(in.remaining(), CHUNK_SIZE)];
+        char[] chars = new char[bytes.length];
+        while (in.hasRemaining()) {
+            int start = in.position();
+            int n = Math.min(bytes.length, in.remaining());
+            in.get(bytes, 0, n);
+            int k = 0;
+            if (widenMode == WIDEN_LATIN1) {
+                for (; k < n; k++) {
+                    chars[k] = (char) (bytes[k] & 0xFF);
+                }
+            } else {
+                // Widen the ASCII part word by word 
+                for (; k + BYTES_PER_WORD <= n; k += BYTES_PER_WORD) {
+                    long word = UNSAFE.getLong(bytes, BYTE_ARRAY_BASE_OFFSET + k);
+                    if ((word & NON_ASCII_BYTE_BITS) != 0) {
+                        break;
+                    }
+                    for (int j = k; j < k + BYTES_PER_WORD; j++) {
+                        chars[j] = (char) bytes[j];
+                    }
+                }
+                for (; k < n; k++) {
+                    byte b = bytes[k];
+                    if (b >= 0) {
+                        chars[k] = (char) b;
+                    } else if (widenMode == WIDEN_ASCII) {
+                        chars[k] = REPLACEMENT_CHAR;
+                    } else {
+                        result.append(chars, 0, k);
+                        in.position(start + k);
+                        return;
+                    }
+                }
+            }
+            result.append(chars, 0, n);
+        }
+    }
+    
+    // Widens the bytes straight into the storage at the given address. 
+    // Bytes in the array or the native memory of the buffer are widened word by word.
+    private static void widenDirect(ByteBuffer in, ValueAppender result, int widenMode, long address) {
+        int start = in.position();
+        int n = in.remaining();
+        Object base = null;
+        long offset = 0;
+        boolean accessible = true;
+        if (in.hasArray()) {
+            base = in.array();
+            offset = BYTE_ARRAY_BASE_OFFSET + in.arrayOffset() + start;
+        } else if (in.isDirect()) {
+            offset = DirectBufferUtil.getAddress(in) + start;
+        } else {
+            accessible = false;
+        }
+        int k = 0;
+        if (accessible) {
+            for (; k + BYTES_PER_WORD <= n; k += BYTES_PER_WORD) {
+                long word = UNSAFE.getLong(base, offset + k);
+                if (widenMode != WIDEN_LATIN1 && (word & NON_ASCII_BYTE_BITS) != 0) {
+                    break;
+                }
+                long to = address + ((long) k * CHAR_SIZE);
+                UNSAFE.putLong(to, widenWord(word));
+                UNSAFE.putLong(to + BYTES_PER_WORD, widenWord(word >>> 32));
+            }
+        }
+        for (; k < n; k++) {
+            byte b = in.get(start + k);
+            char c;
+            if (b >= 0 || widenMode == WIDEN_LATIN1) {
+                c = (char) (b & 0xFF);
+            } else if (widenMode == WIDEN_ASCII) {
+                c = REPLACEMENT_CHAR;
+            } else {
+                result.advanceDirect(k);
+                in.position(start + k);
+                return;
+            }
+            UNSAFE.putChar(address + ((long) k * CHAR_SIZE), c);
+        }
+        result.advanceDirect(n);
+        in.position(start + n);
+    }
+    
+    // Widens the low 4 bytes of the given word into 4 chars (in little-endian order)
+    private static long widenWord(long word) {
+        long chars = word & 0xFFFFFFFFL;
+        chars = (chars | (chars << 16)) & 0x0000FFFF0000FFFFL;
+        return (chars | (chars << 8)) & 0x00FF00FF00FF00FFL;
+    }
+    
+    public static MyStringBatch createBatch(MyStringProcessor myStrProcessor, boolean affine, 
+                                            String[] strs) {
+        return createBatch(myStrProcessor, affine, strs, false);
+    }
+    
+    public static MyStringBatch createBatch(MyStringProcessor myStrProcessor, boolean affine, 
+                                            Collection<String> strs) {
+        return createBatch(myStrProcessor, affine, strs, false);
+    }
+    
+    public static MyStringBatch createBatch(MyStringProcessor myStrProcessor, boolean affine, 
+                                            Collection<String> strs, boolean parallel) {
+        return createBatch(myStrProcessor, affine, strs.toArray(new String[strs.size()]), parallel);
+    }
+    
+    public static MyStringBatch createBatch(MyStringProcessor myStrProcessor, boolean affine, 
+                                            Iterator<? extends CharSequence> strs) {
+        return createBatch(myStrProcessor, affine, strs, false);
+    }
+    
+    /**
+     * Creates strings with the contents of the sequences of the given iterator. 
+     * Strings are used as they are, but the other sequences may be modified 
+     * after the iterator moves on, so their chars are staged into a shared buffer 
+     * (instead of creating a string for each of them) until the storage is filled.
+     */
+    public static MyStringBatch createBatch(MyStringProcessor myStrProcessor, boolean affine, 
+                                            Iterator<? extends CharSequence> strs, boolean parallel) {
+        ArrayList<CharSequence> csqs = new ArrayList<CharSequence>();
+        char[] staged = null;
+        int stagedLength = 0;
+        // Index, start and length of the staged chars of the sequences which are not strings
+        ArrayList<int[]> stagedRanges = null;
+        while (strs.hasNext()) {
+            CharSequence csq = strs.next();
+            if (csq instanceof String) {
+                csqs.add(csq);
+                continue;
+            }
+            int len = csq.length();
+            if (staged == null || stagedLength + len > staged.length) {
+                int newLength = Math.max(stagedLength + len, staged == null ? CHUNK_SIZE : staged.length << 1);
+                staged = staged == null ? new char[newLength] : Arrays.copyOf(staged, newLength);
+                stagedRanges = stagedRanges == null ? new ArrayList<int[]>() : stagedRanges;
+            }
+            copyChars(csq, 0, len, staged, stagedLength);
+            stagedRanges.add(new int[] { csqs.size(), stagedLength, len });
+            csqs.add(null);
+            stagedLength += len;
+        }
+        if (stagedRanges != null) {
+            // Staged buffer doesn't grow anymore, so it is wrapped now
+            for (int[] range : stagedRanges) {
+                csqs.set(range[0], CharBuffer.wrap(staged, range[1], range[2]).slice());
+            }
+        }
+        return createBatch(myStrProcessor, affine, csqs.toArray(new CharSequence[csqs.size()]), parallel);
+    }
+    
+    /**
+     * Creates strings with the contents of the given strings. If the processor is 
+     * a {@link SliceableMyStringProcessor}, all of the contents are copied into 
+     * a single storage allocation and created strings are attached to its slices. 
+     * 
+     * @param parallel <code>true</code> to fill the storage by multiple threads 
+     *                 when there are many strings 
+     */
+    public static MyStringBatch createBatch(MyStringProcessor myStrProcessor, boolean affine, 
+                                            String[] strs, boolean parallel) {
+        return createBatch(myStrProcessor, affine, (CharSequence[]) strs, parallel);
+    }
+    
+    private static MyStringBatch createBatch(MyStringProcessor myStrProcessor, boolean affine, 
+                                             CharSequence[] strs, boolean parallel) {
+        int count = strs.length;
+        String[] result = new String[count];
+        if (!(myStrProcessor instanceof SliceableMyStringProcessor)) {
+            for (int i = 0; i < count; i++) {
+                result[i] = create(myStrProcessor, affine, strs[i]);
+            }
+            return new MyStringBatch(myStrProcessor, result, INVALID_STORAGE_ID, INVALID_STORAGE_BASE, 0);
+        }
+        // Byte offsets of the strings in the shared storage
+        long[] offsets = new long[count + 1];
+        for (int i = 0; i < count; i++) {
+            offsets[i + 1] = offsets[i] + (long) sequenceLength(strs[i]) * CHAR_SIZE;
+        }
+        long size = offsets[count];
+        long storageId = myStrProcessor.createStorageId(size);
+        Object storageBase = myStrProcessor.createStorageBase(storageId, size);
+        long storageSize = myStrProcessor.getStorageSize(storageId, size);
+        // Whether to split is decided by the given flag, not by the pool of the current thread, 
+        // since the root task is mostly executed by the calling thread which is not a worker of the pool
+        parallel = parallel && count > BATCH_PARALLEL_THRESHOLD;
+        BatchFiller filler = 
+                new BatchFiller((SliceableMyStringProcessor) myStrProcessor, affine, 
+                                storageId, storageBase, strs, offsets, result, 0, count, parallel);
+        if (parallel) {
+            ForkJoinPool.commonPool().invoke(filler);
+        } else {
+            filler.compute();
+        }
+        return new MyStringBatch(myStrProcessor, result, storageId, storageBase, storageSize);
+    }
+    
+    private static int sequenceLength(CharSequence csq) {
+        return csq instanceof String ? getLength((String) csq) : csq.length();
+    }
+    
+    private static String create(MyStringProcessor myStrProcessor, boolean affine, CharSequence csq) {
+        if (csq instanceof String) {
+            return new MyStringTemplate(myStrProcessor, affine, (String) csq).toString();
+        }
+        int len = csq.length();
+        MyStringTemplate myStr = new MyStringTemplate(myStrProcessor, affine, len);
+        boolean done = false;
+        try {
+            myStr.writeSequence(csq, len, null);
+            myStr.commitStorage();
+            myStr.track();
+            done = true;
+            return myStr.toString();
+        } finally {
+            if (!done) {
+                myStr.destroy();
+            }
+        }
+    }
+    
+    // Copies the chars of the given sequence (other than a string) in bulk if it is possible
+    private static void copyChars(CharSequence csq, int begin, int end, char[] dst, int dstBegin) {
+        if (csq instanceof StringBuilder) {
+            ((StringBuilder) csq).getChars(begin, end, dst, dstBegin);
+        } else if (csq instanceof StringBuffer) {
+            ((StringBuffer) csq).getChars(begin, end, dst, dstBegin);
+        } else if (csq instanceof MyStringBuilder) {
+            ((MyStringBuilder) csq).getChars(begin, end, dst, dstBegin);
+        } else {
+            for (int i = begin; i < end; i++) {
+                dst[dstBegin++] = csq.charAt(i);
+            }
+        }
+    }
+    
+    // Writes the first "len" chars of the given sequence into the storage. 
+    // Returns the chunk to be passed to the next call (created if it is null and needed).
+    private char[] writeSequence(CharSequence csq, int len, char[] chunk) {
+        if (csq instanceof String) {
+            String str = (String) csq;
+            if (!isMyString(str)) {
+                writeValue(0, getValue(str), 0, len);
+                hash = getHash(str);
+                return chunk;
+            }
+            MyStringTemplate src = (MyStringTemplate) ((Object) str);
+            if (src.isDirectlyWritable() && isDirectlyWritable()) {
+                UNSAFE.copyMemory(src.storageId, storageId, (long) len * CHAR_SIZE);
+                hash = src.hash;
+                return chunk;
+            }
+            if (chunk == null) {
+                chunk = new char[CHUNK_SIZE];
+            }
+            for (int j = 0; j < len;) {
+                int n = Math.min(chunk.length, len - j);
+                src.copyValue(j, chunk, 0, n);
+                writeValue(j, chunk, 0, n);
+                j += n;
+            }
+            hash = src.hash;
+            return chunk;
+        }
+        if (csq instanceof CharBuffer && ((CharBuffer) csq).hasArray()) {
+            CharBuffer cb = (CharBuffer) csq;
+            writeValue(0, cb.array(), cb.arrayOffset() + cb.position(), len);
+            return chunk;
+        }
+        if (chunk == null) {
+            chunk = new char[CHUNK_SIZE];
+        }
+        for (int j = 0; j < len;) {
+            int n = Math.min(chunk.length, len - j);
+            copyChars(csq, j, j + n, chunk, 0);
+            writeValue(j, chunk, 0, n);
+            j += n;
+        }
+        return chunk;
+    }
+    
+    @SuppressWarnings("serial")
+    private static final class BatchFiller extends RecursiveAction {
+        
+        private final SliceableMyStringProcessor myStrProcessor;
+        private final boolean affine;
+        private final long storageId;
+        private final Object storageBase;
+        private final CharSequence[] strs;
+        private final long[] offsets;
+        private final String[] result;
+        private final int from;
+        private final int to;
+        private final boolean parallel;
+        
+        private BatchFiller(SliceableMyStringProcessor myStrProcessor, boolean affine, 
+                            long storageId, Object storageBase, CharSequence[] strs, 
+                            long[] offsets, String[] result, int from, int to, boolean parallel) {
+            this.myStrProcessor = myStrProcessor;
+            this.affine = affine;
+            this.storageId = storageId;
+            this.storageBase = storageBase;
+            this.strs = strs;
+            this.offsets = offsets;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+            this.parallel = parallel;
+        }
+        
+        @Override
+        protected void compute() {
+            if (parallel && to - from > BATCH_PARALLEL_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BatchFiller(myStrProcessor, affine, storageId, storageBase, 
+                                          strs, offsets, result, from, mid, true), 
+                          new BatchFiller(myStrProcessor, affine, storageId, storageBase, 
+                                          strs, offsets, result, mid, to, true));
+                return;
+            }
+            char[] chunk = null;
+            for (int i = from; i < to; i++) {
+                long offset = offsets[i];
+                int length = (int) ((offsets[i + 1] - offset) / CHAR_SIZE);
+                MyStringTemplate myStr = 
+                        new MyStringTemplate(myStrProcessor, affine,
+                                             myStrProcessor.sliceStorageId(storageId, storageBase, offset),
+                                             myStrProcessor.sliceStorageBase(storageId, storageBase, offset),
+                                             (long) length * CHAR_SIZE, length, true, false);
+                // Contents of off-heap strings are copied by a single copy for each string
+                chunk = myStr.writeSequence(strs[i], length, chunk);
+                // Tracked after its content is written, so snapshots never see a partial content
+                myStr.track();
+                result[i] = myStr.toString();
+            }
+        }
+        
+    }
+    
+    public static MyStringBuilder createBuilder(MyStringProcessor myStrProcessor, boolean affine, 
+                                                int capacity) {
+        return new MyStringBuilder(myStrProcessor, affine, initialCapacity(capacity));
+    }
+    
+    private static int initialCapacity(int lengthHint) {
+        return lengthHint >= 0 ? lengthHint : CHUNK_SIZE;
+    }
+    
+    private static void decode(CharsetDecoder decoder, ByteBuffer in, CharBuffer out, 
+                               ValueAppender result, boolean endOfInput) {
+        for (;;) {
+            CoderResult cr = decoder.decode(in, out, endOfInput);
+            appendDecoded(out, result);
+            if (cr.isUnderflow()) {
+                return;
+            } else if (!cr.isOverflow()) {
+                // Should not happen since malformed and unmappable input are replaced
+                throw new IllegalStateException(cr.toString());
+            }
+        }
+    }
+    
+    private static void appendDecoded(CharBuffer out, ValueAppender result) {
+        out.flip();
+        result.append(out.array(), out.arrayOffset() + out.position(), out.remaining());
+        out.clear();
+    }
+    
+    /**
+     * Collects the content of a derived string. 
+     * If the source string is affine, content is written directly into a new storage 
+     * allocated through the same processor. Otherwise it is collected on heap 
+     * and an ordinary string is created.
+     */
+    static final class ValueAppender {
+        
+        private final MyStringProcessor myStrProcessor;
+        private final boolean affine;
+        // Collected chars for heap mode or staged chars to be flushed for storage mode
+        private char[] value;
+        private int count;
+        private MyStringTemplate target;
+        private int capacity;
+        private int written;
+        
+        private ValueAppender(MyStringTemplate source, int capacity) {
+            this(source.myStrProcessor, source.affine, source.affine, capacity);
+        }
+        
+        ValueAppender(MyStringProcessor myStrProcessor, boolean toStorage, 
+                      boolean affine, int capacity) {
+            this.myStrProcessor = myStrProcessor;
+            this.affine = affine;
+            this.capacity = capacity;
+            if (toStorage) {
+                this.target = new MyStringTemplate(myStrProcessor, affine, capacity);
+                this.value = new char[CHUNK_SIZE];
+            } else {
+                this.value = new char[capacity];
+            }
+        }
+        
+        void append(char c) {
+            if (count == value.length) {
+                if (target != null) {
+                    flush();
+                } else {
+                    growValue(count + 1);
+                }    
+            }
+            value[count++] = c;
+        }
+        
+        void appendCodePoint(int codePoint) {
+            if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                append((char) codePoint);
+            } else {
+                append(highSurrogate(codePoint));
+                append(lowSurrogate(codePoint));
+            }
+        }
+        
+        void append(char[] chars, int offset, int len) {
+            if (target != null) {
+                flush();
+                ensureStorageCapacity(written + len);
+                target.writeValue(written, chars, offset, len);
+                written += len;
+            } else {
+                if (count + len > value.length) {
+                    growValue(count + len);
+                }
+                System.arraycopy(chars, offset, value, count, len);
+                count += len;
+            }
+        }
+        
+        void append(String str) {
+            if (isMyString(str)) {
+                append((MyStringTemplate) ((Object) str), 0, getLength(str));
+            } else {
+                char[] strValue = getValue(str);
+                append(strValue, 0, strValue.length);
+            }
+        }
+        
+        void append(String str, int beginIndex, int endIndex) {
+            if (isMyString(str)) {
+                append((MyStringTemplate) ((Object) str), beginIndex, endIndex);
+            } else {
+                append(getValue(str), beginIndex, endIndex - beginIndex);
+            }
+        }
+        
+        int length() {
+            return target != null ? written + count : count;
+        }
+        
+        char charAt(int index) {
+            if (target != null) {
+                return index < written ? target.readValue(index) : value[index - written];
+            } else {
+                return value[index];
+            }
+        }
+        
+        // Copies the chars in the given range without flushing the staged chars
+        void getChars(int beginIndex, int endIndex, char[] dst, int dstBegin) {
+            if (target != null && beginIndex < written) {
+                int n = Math.min(endIndex, written) - beginIndex;
+                target.copyValue(beginIndex, dst, dstBegin, n);
+                beginIndex += n;
+                dstBegin += n;
+            }
+            if (beginIndex < endIndex) {
+                int offset = target != null ? written : 0;
+                System.arraycopy(value, beginIndex - offset, dst, dstBegin, endIndex - beginIndex);
+            }
+        }
+        
+        private void append(MyStringTemplate str, int beginIndex, int endIndex) {
+            int len = endIndex - beginIndex;
+            if (target != null) {
+                flush();
+                ensureStorageCapacity(written + len);
+                while (beginIndex < endIndex) {
+                    int n = Math.min(value.length, endIndex - beginIndex);
+                    str.copyValue(beginIndex, value, 0, n);
+                    target.writeValue(written, value, 0, n);
+                    written += n;
+                    beginIndex += n;
+                }
+            } else {
+                if (count + len > value.length) {
+                    growValue(count + len);
+                }
+                str.copyValue(beginIndex, value, count, len);
+                count += len;
+            }
+        }
+        
+        // Gets the address to write the given count of chars into the storage directly 
+        // after the chars appended so far, or 0 if the storage can't be written directly. 
+        // Chars written there are appended by "advanceDirect".
+        long reserveDirect(int len) {
+            if (target == null || !target.isDirectlyWritable()) {
+                return 0;
+            }
+            flush();
+            ensureStorageCapacity(written + len);
+            return target.storageId + ((long) written * CHAR_SIZE);
+        }
+        
+        void advanceDirect(int len) {
+            written += len;
+        }
+        
+        private void flush() {
+            if (count > 0) {
+                ensureStorageCapacity(written + count);
+                target.writeValue(written, value, 0, count);
+                written += count;
+                count = 0;
+            }
+        }
+        
+        private int newCapacity(int minCapacity) {
+            int newCapacity = capacity + (capacity >> 1) + 1;
+            return newCapacity - minCapacity < 0 || newCapacity < 0 ? minCapacity : newCapacity;
+        }
+        
+        private void growValue(int minCapacity) {
+            capacity = newCapacity(minCapacity);
+            value = Arrays.copyOf(value, capacity);
+        }
+        
+        private void ensureStorageCapacity(int minCapacity) {
+            if (minCapacity <= capacity) {
+                return;
+            }
+            int newCapacity = newCapacity(minCapacity);
+            if (myStrProcessor instanceof ResizableMyStringProcessor) {
+                target.resizeStorage((long) newCapacity * CHAR_SIZE);
+                capacity = newCapacity;
+                return;
+            }
+            MyStringTemplate newTarget = new MyStringTemplate(myStrProcessor, affine, newCapacity);
+            char[] chunk = new char[Math.min(Math.max(written, 1), CHUNK_SIZE)];
+            for (int i = 0; i < written;) {
+                int n = Math.min(chunk.length, written - i);
+                target.copyValue(i, chunk, 0, n);
+                newTarget.writeValue(i, chunk, 0, n);
+                i += n;
+            }
+            target.destroy();
+            target = newTarget;
+            capacity = newCapacity;
+        }
+        
+        // Releases the storage collected so far if result won't be created
+        void discard() {
+            if (target != null) {
+                target.destroy();
+                target = null;
+            }
+        }
+        
+        String toResult() {
+            if (target != null) {
+                flush();
+                // Unused capacity is released if it is cheap
+                if (written > 0 && written < capacity && myStrProcessor instanceof ResizableMyStringProcessor) {
+                    target.resizeStorage((long) written * CHAR_SIZE);
+                    capacity = written;
+                }
+                target.length = written;
+                target.commitStorage();
+                target.track();
+                return target.toString();
+            } else {
+                return new String(value, 0, count);
+            }
+        }
+        
+    }
+
+    // String is special cased by serialization, but "writeReplace" is still honored before that. 
+    // So content is written from storage by the serial form instead of being copied to heap.
+    private Object writeReplace() throws ObjectStreamException {
+        return new SerialForm(this);
+    }
+    
+    private void writeContent(ObjectOutputStream out) throws IOException {
+        String factoryId = MyStringService.findMyStringFactoryId(myStrProcessor);
+        out.writeUTF(factoryId != null ? factoryId : "");
+        out.writeInt(length);
+        char[] chunk = createChunk(length);
+        boolean latin1 = true;
+        long utfLength = 0;
+        for (int i = 0; i < length;) {
+            int n = Math.min(chunk.length, length - i);
+            copyValue(i, chunk, 0, n);
+            for (int k = 0; k < n; k++) {
+                char c = chunk[k];
+                if (c >= LATIN1_LIMIT) {
+                    latin1 = false;
+                }
+                utfLength += (c >= 0x0001 && c <= 0x007F) ? 1 : (c <= 0x07FF ? 2 : 3);
+            }
+            i += n;
+        }
+        byte[] ba = new byte[chunk.length * (latin1 ? 1 : 3)];
+        if (latin1) {
+            out.writeByte(SERIAL_FORMAT_LATIN1);
+        } else {
+            out.writeByte(SERIAL_FORMAT_MODIFIED_UTF8);
+            out.writeLong(utfLength);
+        }
+        for (int i = 0; i < length;) {
+            int n = Math.min(chunk.length, length - i);
+            copyValue(i, chunk, 0, n);
+            int size = 0;
+            for (int k = 0; k < n; k++) {
+                char c = chunk[k];
+                if (latin1 || (c >= 0x0001 && c <= 0x007F)) {
+                    ba[size++] = (byte) c;
+                } else if (c <= 0x07FF) {
+                    ba[size++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+                    ba[size++] = (byte) (0x80 | (c & 0x3F));
+                } else {
+                    ba[size++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+                    ba[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    ba[size++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            out.write(ba, 0, size);
+            i += n;
+        }
+    }
+    
+    private static String readContent(ObjectInputStream in) throws IOException {
+        String factoryId = in.readUTF();
+        int length = in.readInt();
+        byte format = in.readByte();
+        if (length < 0) {
+            throw new StreamCorruptedException("Invalid length: " + length);
+        }
+        // If the originating factory is not available, string is created on heap
+        MyStringService.MyStringFactoryRegistration registration = 
+                factoryId.isEmpty() ? null : MyStringService.findMyStringFactoryRegistration(factoryId);
+        // Length is not trusted to allocate before the content is actually read, 
+        // so result starts small and grows as the content is read
+        int capacity = Math.min(length, CHUNK_SIZE);
+        ValueAppender result = 
+                registration != null
+                    ? new ValueAppender(registration.myStrProcessor, true, registration.affine, capacity)
+                    : new ValueAppender(null, false, false, capacity);
+        boolean done = false;
+        try {
+            byte[] bytes = new byte[CHUNK_SIZE];
+            char[] chars = new char[CHUNK_SIZE];
+            if (format == SERIAL_FORMAT_LATIN1) {
+                for (int i = 0; i < length;) {
+                    int n = Math.min(bytes.length, length - i);
+                    in.readFully(bytes, 0, n);
+                    for (int k = 0; k < n; k++) {
+                        chars[k] = (char) (bytes[k] & 0xFF);
+                    }
+                    result.append(chars, 0, n);
+                    i += n;
+                }
+            } else if (format == SERIAL_FORMAT_MODIFIED_UTF8) {
+                readModifiedUtf8(in, in.readLong(), length, bytes, chars, result);
+            } else {
+                throw new StreamCorruptedException("Unknown format: " + format);
+            }
+            String str = result.toResult();
+            if (str.length() != length) {
+                throw new StreamCorruptedException(
+                        "Expected length was " + length + " but read " + str.length() + " chars");
+            }
+            done = true;
+            return str;
+        } finally {
+            if (!done) {
+                result.discard();
+            }
+        }
+    }
+    
+    private static void readModifiedUtf8(ObjectInputStream in, long utfLength, int length, 
+                                         byte[] bytes, char[] chars, ValueAppender result) throws IOException {
+        if (utfLength < length || utfLength > (long) length * 3) {
+            throw new StreamCorruptedException("Invalid encoded length " + utfLength + " for " + length + " chars");
+        }
+        long remaining = utfLength;
+        long decoded = 0;
+        // Count of bytes of a partial char at the end of the previous read
+        int carry = 0;
+        while (remaining > 0) {
+            int n = (int) Math.min(bytes.length - carry, remaining);
+            in.readFully(bytes, carry, n);
+            remaining -= n;
+            int end = carry + n;
+            int k = 0;
+            int c = 0;
+            while (k < end) {
+                int b1 = bytes[k] & 0xFF;
+                if (b1 < 0x80) {
+                    chars[c++] = (char) b1;
+                    k++;
+                } else if ((b1 & 0xE0) == 0xC0) {
+                    if (k + 2 > end) {
+                        break;
+                    }
+                    int b2 = bytes[k + 1];
+                    if ((b2 & 0xC0) != 0x80) {
+                        throw new UTFDataFormatException("Malformed input around byte " + k);
+                    }
+                    chars[c++] = (char) (((b1 & 0x1F) << 6) | (b2 & 0x3F));
+                    k += 2;
+                } else if ((b1 & 0xF0) == 0xE0) {
+                    if (k + 3 > end) {
+                        break;
+                    }
+                    int b2 = bytes[k + 1];
+                    int b3 = bytes[k + 2];
+                    if (((b2 & 0xC0) != 0x80) || ((b3 & 0xC0) != 0x80)) {
+                        throw new UTFDataFormatException("Malformed input around byte " + k);
+                    }
+                    chars[c++] = (char) (((b1 & 0x0F) << 12) | ((b2 & 0x3F) << 6) | (b3 & 0x3F));
+                    k += 3;
+                } else {
+                    throw new UTFDataFormatException("Malformed input around byte " + k);
+                }
+            }
+            decoded += c;
+            if (decoded > length) {
+                throw new StreamCorruptedException("Content is longer than " + length + " chars");
+            }
+            result.append(chars, 0, c);
+            carry = end - k;
+            System.arraycopy(bytes, k, bytes, 0, carry);
+        }
+        if (carry > 0) {
+            throw new UTFDataFormatException("Malformed input: partial character at end");
+        }
+    }
+    
+    private static final class SerialForm implements Serializable {
+        
+        private static final long serialVersionUID = -2411487624389839462L;
+        
+        private transient MyStringTemplate myStr;
+        private transient String str;
+        
+        private SerialForm(MyStringTemplate myStr) {
+            this.myStr = myStr;
+        }
+        
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            myStr.writeContent(out);
+        }
+        
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            str = readContent(in);
+        }
+        
+        /** Replaces the de-serialized object. */
+        private Object readResolve() { 
+            return str; 
+        }
+        
+    }
+
     @Override
     public IntStream chars() {
-        // TODO Auto-generated method stub
-        return null;
+        return StreamSupport.intStream(new CharSpliterator(this, 0, length), false);
     }
 
     @Override
     public IntStream codePoints() {
-        // TODO Auto-generated method stub
-        return null;
+        return StreamSupport.intStream(new CodePointSpliterator(this, 0, length), false);
+    }
+    
+    private static abstract class ChunkedSpliterator implements Spliterator.OfInt {
+        
+        protected final MyStringTemplate str;
+        protected final char[] chunk;
+        protected int index;
+        protected final int fence;
+        protected int chunkIndex;
+        protected int chunkCount;
+        
+        protected ChunkedSpliterator(MyStringTemplate str, int origin, int fence) {
+            this.str = str;
+            this.chunk = str.createChunk(fence - origin);
+            this.index = origin;
+            this.fence = fence;
+        }
+        
+        protected boolean ensureChunk() {
+            if (chunkIndex < chunkCount) {
+                return true;
+            }
+            if (index >= fence) {
+                return false;
+            }
+            chunkCount = str.readChunk(index, fence, chunk);
+            chunkIndex = 0;
+            index += chunkCount;
+            return true;
+        }
+        
+        protected int splitIndex() {
+            // Split is not allowed while there are buffered chars
+            if (chunkIndex < chunkCount) {
+                return -1;
+            }
+            int mid = (index + fence) >>> 1;
+            return mid > index ? mid : -1;
+        }
+        
+        @Override
+        public long estimateSize() {
+            return (fence - index) + (chunkCount - chunkIndex);
+        }
+        
+        @Override
+        public long getExactSizeIfKnown() {
+            return hasCharacteristics(Spliterator.SIZED) ? estimateSize() : -1L;
+        }
+        
+        @Override
+        public boolean hasCharacteristics(int characteristics) {
+            return (characteristics() & characteristics) == characteristics;
+        }
+        
+        @Override
+        public Comparator<? super Integer> getComparator() {
+            throw new IllegalStateException();
+        }
+        
+        @Override
+        public boolean tryAdvance(Consumer<? super Integer> action) {
+            return tryAdvance(toIntConsumer(action));
+        }
+        
+        @Override
+        public void forEachRemaining(Consumer<? super Integer> action) {
+            forEachRemaining(toIntConsumer(action));
+        }
+        
+        private static IntConsumer toIntConsumer(final Consumer<? super Integer> action) {
+            if (action instanceof IntConsumer) {
+                return (IntConsumer) action;
+            }
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            return new IntConsumer() {
+                @Override
+                public void accept(int value) {
+                    action.accept(value);
+                }
+            };
+        }
+        
+    }
+    
+    private static final class CharSpliterator extends ChunkedSpliterator {
+        
+        private CharSpliterator(MyStringTemplate str, int origin, int fence) {
+            super(str, origin, fence);
+        }
+        
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            if (!ensureChunk()) {
+                return false;
+            }
+            action.accept(chunk[chunkIndex++]);
+            return true;
+        }
+        
+        @Override
+        public void forEachRemaining(IntConsumer action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            while (ensureChunk()) {
+                int count = chunkCount;
+                for (int i = chunkIndex; i < count; i++) {
+                    action.accept(chunk[i]);
+                }
+                chunkIndex = count;
+            }
+        }
+        
+        @Override
+        public Spliterator.OfInt trySplit() {
+            int mid = splitIndex();
+            if (mid < 0) {
+                return null;
+            }
+            int lo = index;
+            index = mid;
+            return new CharSpliterator(str, lo, mid);
+        }
+        
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED 
+                    | Spliterator.IMMUTABLE | Spliterator.NONNULL;
+        }
+        
+    }
+    
+    private static final class CodePointSpliterator extends ChunkedSpliterator {
+        
+        private CodePointSpliterator(MyStringTemplate str, int origin, int fence) {
+            super(str, origin, fence);
+        }
+        
+        private int nextCodePoint() {
+            char c1 = chunk[chunkIndex++];
+            // Chunks never end with a high surrogate unless it is the last char, 
+            // so low surrogate of the pair (if there is) is always in the same chunk
+            if (Character.isHighSurrogate(c1) && chunkIndex < chunkCount) {
+                char c2 = chunk[chunkIndex];
+                if (Character.isLowSurrogate(c2)) {
+                    chunkIndex++;
+                    return Character.toCodePoint(c1, c2);
+                }
+            }
+            return c1;
+        }
+        
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            if (!ensureChunk()) {
+                return false;
+            }
+            action.accept(nextCodePoint());
+            return true;
+        }
+        
+        @Override
+        public void forEachRemaining(IntConsumer action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            while (ensureChunk()) {
+                while (chunkIndex < chunkCount) {
+                    action.accept(nextCodePoint());
+                }
+            }
+        }
+        
+        @Override
+        public Spliterator.OfInt trySplit() {
+            int mid = splitIndex();
+            if (mid < 0) {
+                return null;
+            }
+            // Don't split surrogate pairs between spliterators
+            if (Character.isLowSurrogate(str.readValue(mid)) 
+                    && Character.isHighSurrogate(str.readValue(mid - 1))) {
+                mid++;
+                if (mid >= fence) {
+                    return null;
+                }
+            }
+            int lo = index;
+            index = mid;
+            return new CodePointSpliterator(str, lo, mid);
+        }
+        
+        @Override
+        public int characteristics() {
+            // Count of code points is not known without scanning the storage, 
+            // so estimated size is just the upper bound
+            return Spliterator.ORDERED | Spliterator.IMMUTABLE | Spliterator.NONNULL;
+        }
+        
     }
 
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+/**
+ * Reusable tokenizer for single char and literal delimiters. 
+ * Tokens are exposed by their boundaries and a string is only created 
+ * when {@link #token()} is called, so tokenizing doesn't allocate anything. 
+ * Unlike <code>split</code>, empty tokens (including the trailing ones) are not removed.
+ * 
+ * Note that this class is not thread-safe.
+ */
+public final class MyStringTokenizer {
+
+    private final char delimiterChar;
+    private final String delimiter;
+    private final int delimiterLength;
+    private String str;
+    private int length;
+    private int position;
+    private int tokenBegin;
+    private int tokenEnd;
+    
+    public MyStringTokenizer(char delimiter) {
+        this.delimiterChar = delimiter;
+        this.delimiter = null;
+        this.delimiterLength = 1;
+    }
+    
+    public MyStringTokenizer(String delimiter) {
+        if (delimiter.isEmpty()) {
+            throw new IllegalArgumentException("Delimiter must not be empty!");
+        }
+        this.delimiterChar = 0;
+        this.delimiter = delimiter;
+        this.delimiterLength = delimiter.length();
+    }
+    
+    public MyStringTokenizer reset(String str) {
+        this.str = str;
+        this.length = str.length();
+        this.position = 0;
+        this.tokenBegin = 0;
+        this.tokenEnd = 0;
+        return this;
+    }
+    
+    public boolean next() {
+        if (str == null || position > length) {
+            return false;
+        }
+        int index = delimiter == null 
+                        ? str.indexOf(delimiterChar, position) 
+                        : str.indexOf(delimiter, position);
+        if (index < 0) {
+            index = length;
+        }
+        tokenBegin = position;
+        tokenEnd = index;
+        position = index + delimiterLength;
+        return true;
+    }
+    
+    public int tokenBegin() {
+        return tokenBegin;
+    }
+    
+    public int tokenEnd() {
+        return tokenEnd;
+    }
+    
+    public int tokenLength() {
+        return tokenEnd - tokenBegin;
+    }
+    
+    public boolean tokenEquals(String other) {
+        int tokenLength = tokenEnd - tokenBegin;
+        return other.length() == tokenLength 
+                && str.regionMatches(tokenBegin, other, 0, tokenLength);
+    }
+    
+    public String token() {
+        return str.substring(tokenBegin, tokenEnd);
+    }
+    
+}
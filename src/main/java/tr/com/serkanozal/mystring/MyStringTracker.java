@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * Keeps the live (created but not destroyed yet) strings of a processor, 
+ * so they can be found later (for example, to be snapshotted). 
+ * Strings are referenced by the indexes in the tracker, 
+ * so they are added and removed in constant time. 
+ * Strings are referenced weakly, so tracking doesn't keep the strings which are not destroyed 
+ * explicitly (such as the ones of heap-backed processors) alive. Indexes of the collected strings 
+ * are reused without waiting for them to be removed.
+ */
+final class MyStringTracker {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    
+    private static final class TrackedString extends WeakReference<MyStringTemplate> {
+        
+        private final int index;
+        
+        private TrackedString(MyStringTemplate str, ReferenceQueue<MyStringTemplate> queue, int index) {
+            super(str, queue);
+            this.index = index;
+        }
+        
+    }
+    
+    private final ReferenceQueue<MyStringTemplate> collectedStrs = new ReferenceQueue<MyStringTemplate>();
+    // Index 0 is never used, so it means "not tracked" for the strings
+    private TrackedString[] strs = new TrackedString[INITIAL_CAPACITY];
+    private int[] freeIndexes = new int[INITIAL_CAPACITY];
+    private int freeIndexCount;
+    private int nextIndex = 1;
+    private int size;
+    
+    synchronized int add(MyStringTemplate str) {
+        expungeCollectedStrings();
+        int index;
+        if (freeIndexCount > 0) {
+            index = freeIndexes[--freeIndexCount];
+        } else {
+            if (nextIndex == strs.length) {
+                strs = Arrays.copyOf(strs, strs.length << 1);
+                freeIndexes = Arrays.copyOf(freeIndexes, freeIndexes.length << 1);
+            }
+            index = nextIndex++;
+        }
+        strs[index] = new TrackedString(str, collectedStrs, index);
+        size++;
+        return index;
+    }
+    
+    synchronized void remove(int index) {
+        strs[index] = null;
+        freeIndexes[freeIndexCount++] = index;
+        size--;
+    }
+    
+    synchronized int size() {
+        expungeCollectedStrings();
+        return size;
+    }
+    
+    synchronized MyStringTemplate[] toArray() {
+        expungeCollectedStrings();
+        MyStringTemplate[] result = new MyStringTemplate[size];
+        int count = 0;
+        for (int i = 1; i < nextIndex; i++) {
+            TrackedString trackedStr = strs[i];
+            MyStringTemplate str = trackedStr != null ? trackedStr.get() : null;
+            if (str != null) {
+                result[count++] = str;
+            }
+        }
+        // Some strings might be collected after expunging
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+    
+    private void expungeCollectedStrings() {
+        TrackedString trackedStr;
+        while ((trackedStr = (TrackedString) collectedStrs.poll()) != null) {
+            // Its index might have been removed (and reused) already if it was destroyed before collected
+            if (strs[trackedStr.index] == trackedStr) {
+                remove(trackedStr.index);
+            }
+        }
+    }
+    
+}
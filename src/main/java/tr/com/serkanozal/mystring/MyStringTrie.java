@@ -0,0 +1,1011 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import java.util.Arrays;
+
+import sun.misc.Unsafe;
+import tr.com.serkanozal.mystring.util.JvmUtil;
+
+/**
+ * Adaptive radix tree (ART) whose keys and values are strings stored in native memory, 
+ * for exact, longest-prefix and prefix range lookups without creating any object on heap. 
+ * 
+ * Each char of a key is split into two bytes (high byte first), 
+ * so keys are ordered as {@link String#compareTo(String)} orders them. 
+ * Inner nodes adapt their sizes (4, 16, 48 or 256 children) to their fan-outs, 
+ * and the common bytes of the keys below an inner node are compressed into its prefix 
+ * (first 8 bytes are kept in the node, the rest are read from any leaf below it). 
+ * A key which ends at an inner node is kept as the terminal leaf of that node. 
+ * Leaves hold the key and the value chars of the entries. 
+ * 
+ * Keys and values are got as read-only views which are valid 
+ * until their entries are removed or replaced, or the trie is destroyed. 
+ * 
+ * Nodes and leaves are allocated by {@link Unsafe} directly, not through a 
+ * {@link tr.com.serkanozal.mystring.api.MyStringProcessor MyStringProcessor}, 
+ * since inner nodes are not strings and a leaf packs its key and value into a single block. 
+ * So their memory is not managed (for example, tracked or snapshotted) by any processor 
+ * and it is freed only when the entries are removed or the trie is destroyed. 
+ * 
+ * Note that this class is not thread-safe.
+ */
+public final class MyStringTrie {
+
+    private static final Unsafe UNSAFE = JvmUtil.getUnsafe();
+    
+    private static final int CHAR_SIZE = 2;
+    
+    // Layout of a leaf: key length (int) | value length (int) | key chars | value chars
+    private static final int LEAF_VALUE_LENGTH_OFFSET = 4;
+    private static final int LEAF_HEADER_SIZE = 8;
+    private static final int NO_VALUE = -1;
+    /** Leaf addresses are tagged by this bit to distinguish them from the node addresses */
+    private static final long LEAF_TAG = 1;
+    
+    private static final byte NODE4 = 1;
+    private static final byte NODE16 = 2;
+    private static final byte NODE48 = 3;
+    private static final byte NODE256 = 4;
+    
+    // Layout of a node header: 
+    //      type (byte) | padding (byte) | child count (short) | prefix length (int) | 
+    //      first bytes of prefix (8 bytes) | terminal leaf (long)
+    private static final int NODE_COUNT_OFFSET = 2;
+    private static final int NODE_PREFIX_LENGTH_OFFSET = 4;
+    private static final int NODE_PREFIX_OFFSET = 8;
+    private static final int MAX_INLINE_PREFIX_LENGTH = 8;
+    private static final int NODE_TERMINAL_OFFSET = 16;
+    private static final int NODE_HEADER_SIZE = 24;
+    
+    // Node4 and Node16: header | sorted key bytes | children
+    // Node48: header | child index + 1 by key byte (256 bytes) | children
+    // Node256: header | children by key byte
+    private static final int NODE_KEYS_OFFSET = NODE_HEADER_SIZE;
+    private static final int NODE4_CHILDREN_OFFSET = NODE_KEYS_OFFSET + 8;
+    private static final int NODE16_CHILDREN_OFFSET = NODE_KEYS_OFFSET + 16;
+    private static final int NODE48_CHILDREN_OFFSET = NODE_KEYS_OFFSET + 256;
+    private static final int NODE256_CHILDREN_OFFSET = NODE_HEADER_SIZE;
+    private static final int NODE4_SIZE = NODE4_CHILDREN_OFFSET + 4 * 8;
+    private static final int NODE16_SIZE = NODE16_CHILDREN_OFFSET + 16 * 8;
+    private static final int NODE48_SIZE = NODE48_CHILDREN_OFFSET + 48 * 8;
+    private static final int NODE256_SIZE = NODE256_CHILDREN_OFFSET + 256 * 8;
+    // Nodes are shrunk when their child counts drop to these counts
+    private static final int NODE16_SHRINK_COUNT = 3;
+    private static final int NODE48_SHRINK_COUNT = 12;
+    private static final int NODE256_SHRINK_COUNT = 37;
+    
+    /** Address of the native cell holding the root, so root is replaced as any child */
+    private long rootRef;
+    private long size;
+    private char[] copyChunk;
+    private boolean destroyed;
+    
+    public MyStringTrie() {
+        rootRef = UNSAFE.allocateMemory(8);
+        UNSAFE.putLong(rootRef, 0);
+    }
+    
+    private void checkNotDestroyed() {
+        if (destroyed) {
+            throw new IllegalStateException("Trie is destroyed!");
+        }
+    }
+    
+    public long size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    private static boolean isLeaf(long ref) {
+        return (ref & LEAF_TAG) != 0;
+    }
+    
+    private static long leafAddress(long leaf) {
+        return leaf & ~LEAF_TAG;
+    }
+    
+    private static int keyByte(CharSequence key, int depth) {
+        char c = key.charAt(depth >> 1);
+        return (depth & 1) == 0 ? c >>> 8 : c & 0xFF;
+    }
+    
+    private static int leafKeyLength(long leaf) {
+        return UNSAFE.getInt(leafAddress(leaf));
+    }
+    
+    private static int leafByte(long leaf, int depth) {
+        char c = UNSAFE.getChar(leafAddress(leaf) + LEAF_HEADER_SIZE + (long) (depth >> 1) * CHAR_SIZE);
+        return (depth & 1) == 0 ? c >>> 8 : c & 0xFF;
+    }
+    
+    private static boolean leafMatches(long leaf, CharSequence key) {
+        int keyLength = key.length();
+        if (leafKeyLength(leaf) != keyLength) {
+            return false;
+        }
+        return leafStartsWith(leaf, key, keyLength);
+    }
+    
+    // Checks whether the first chars of the leaf key are the same with the given key
+    private static boolean leafStartsWith(long leaf, CharSequence key, int length) {
+        long keyAddress = leafAddress(leaf) + LEAF_HEADER_SIZE;
+        for (int i = 0; i < length; i++) {
+            if (UNSAFE.getChar(keyAddress + (long) i * CHAR_SIZE) != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static int nodeType(long node) {
+        return UNSAFE.getByte(node);
+    }
+    
+    private static int childCount(long node) {
+        return UNSAFE.getShort(node + NODE_COUNT_OFFSET);
+    }
+    
+    private static void setChildCount(long node, int count) {
+        UNSAFE.putShort(node + NODE_COUNT_OFFSET, (short) count);
+    }
+    
+    private static int prefixLength(long node) {
+        return UNSAFE.getInt(node + NODE_PREFIX_LENGTH_OFFSET);
+    }
+    
+    private static int inlinePrefixByte(long node, int index) {
+        return UNSAFE.getByte(node + NODE_PREFIX_OFFSET + index) & 0xFF;
+    }
+    
+    private static long terminal(long node) {
+        return UNSAFE.getLong(node + NODE_TERMINAL_OFFSET);
+    }
+    
+    // Gets any leaf below the given node to read the bytes of its prefix beyond the inline ones
+    private static long anyLeaf(long node) {
+        while (!isLeaf(node)) {
+            long terminal = terminal(node);
+            if (terminal != 0) {
+                return terminal;
+            }
+            node = UNSAFE.getLong(firstChildRef(node));
+        }
+        return node;
+    }
+    
+    private static long firstChildRef(long node) {
+        switch (nodeType(node)) {
+            case NODE4:
+                return node + NODE4_CHILDREN_OFFSET;
+            case NODE16:
+                return node + NODE16_CHILDREN_OFFSET;
+            case NODE48:
+                for (int b = 0; b < 256; b++) {
+                    int index = UNSAFE.getByte(node + NODE_KEYS_OFFSET + b) & 0xFF;
+                    if (index != 0) {
+                        return node + NODE48_CHILDREN_OFFSET + (long) (index - 1) * 8;
+                    }
+                }
+                break;
+            default:
+                for (int b = 0; b < 256; b++) {
+                    long ref = node + NODE256_CHILDREN_OFFSET + (long) b * 8;
+                    if (UNSAFE.getLong(ref) != 0) {
+                        return ref;
+                    }
+                }
+                break;
+        }
+        throw new IllegalStateException("Node has no child!");
+    }
+    
+    // Gets the count of the prefix bytes of the node matching the key bytes from the given depth
+    private static int prefixMatch(long node, CharSequence key, int keyBytes, int depth) {
+        int max = Math.min(prefixLength(node), keyBytes - depth);
+        int inline = Math.min(max, MAX_INLINE_PREFIX_LENGTH);
+        for (int i = 0; i < inline; i++) {
+            if (inlinePrefixByte(node, i) != keyByte(key, depth + i)) {
+                return i;
+            }
+        }
+        if (max > MAX_INLINE_PREFIX_LENGTH) {
+            long leaf = anyLeaf(node);
+            for (int i = MAX_INLINE_PREFIX_LENGTH; i < max; i++) {
+                if (leafByte(leaf, depth + i) != keyByte(key, depth + i)) {
+                    return i;
+                }
+            }
+        }
+        return max;
+    }
+    
+    // Gets the address of the child slot of the given key byte, or 0 if there is no such child
+    private static long findChildRef(long node, int b) {
+        switch (nodeType(node)) {
+            case NODE4:
+            case NODE16: {
+                int count = childCount(node);
+                long childrenOffset = nodeType(node) == NODE4 ? NODE4_CHILDREN_OFFSET : NODE16_CHILDREN_OFFSET;
+                for (int i = 0; i < count; i++) {
+                    if ((UNSAFE.getByte(node + NODE_KEYS_OFFSET + i) & 0xFF) == b) {
+                        return node + childrenOffset + (long) i * 8;
+                    }
+                }
+                return 0;
+            }
+            case NODE48: {
+                int index = UNSAFE.getByte(node + NODE_KEYS_OFFSET + b) & 0xFF;
+                return index != 0 ? node + NODE48_CHILDREN_OFFSET + (long) (index - 1) * 8 : 0;
+            }
+            default: {
+                long ref = node + NODE256_CHILDREN_OFFSET + (long) b * 8;
+                return UNSAFE.getLong(ref) != 0 ? ref : 0;
+            }
+        }
+    }
+    
+    // Finds the leaf of the given key, or returns 0 if it isn't found
+    private long find(CharSequence key) {
+        checkNotDestroyed();
+        int keyBytes = key.length() << 1;
+        long node = UNSAFE.getLong(rootRef);
+        int depth = 0;
+        while (node != 0) {
+            if (isLeaf(node)) {
+                return leafMatches(node, key) ? node : 0;
+            }
+            int prefixLength = prefixLength(node);
+            if (prefixMatch(node, key, keyBytes, depth) != prefixLength) {
+                return 0;
+            }
+            depth += prefixLength;
+            if (depth == keyBytes) {
+                // Path to the terminal leaf has been fully compared
+                return terminal(node);
+            }
+            long childRef = findChildRef(node, keyByte(key, depth));
+            if (childRef == 0) {
+                return 0;
+            }
+            node = UNSAFE.getLong(childRef);
+            depth++;
+        }
+        return 0;
+    }
+    
+    private static String keyOf(long leaf) {
+        long address = leafAddress(leaf);
+        return MyStringNativeChars.view(address + LEAF_HEADER_SIZE, UNSAFE.getInt(address), 0);
+    }
+    
+    private static String valueOf(long leaf) {
+        if (leaf == 0) {
+            return null;
+        }
+        long address = leafAddress(leaf);
+        int valueLength = UNSAFE.getInt(address + LEAF_VALUE_LENGTH_OFFSET);
+        if (valueLength == NO_VALUE) {
+            return null;
+        }
+        long valueAddress = address + LEAF_HEADER_SIZE + (long) UNSAFE.getInt(address) * CHAR_SIZE;
+        return MyStringNativeChars.view(valueAddress, valueLength, 0);
+    }
+    
+    public boolean containsKey(CharSequence key) {
+        return find(key) != 0;
+    }
+    
+    /**
+     * Gets a read-only view of the value of the given key, 
+     * or <code>null</code> if there is no such key or the key has no value.
+     */
+    public String get(CharSequence key) {
+        return valueOf(find(key));
+    }
+    
+    // Finds the leaf of the longest key which is a prefix of the given string, or returns 0 if there is none
+    private long findLongestPrefix(CharSequence str) {
+        checkNotDestroyed();
+        int strBytes = str.length() << 1;
+        long node = UNSAFE.getLong(rootRef);
+        long longest = 0;
+        int depth = 0;
+        while (node != 0) {
+            if (isLeaf(node)) {
+                int keyLength = leafKeyLength(node);
+                if (keyLength << 1 <= strBytes && leafStartsWith(node, str, keyLength)) {
+                    longest = node;
+                }
+                break;
+            }
+            int prefixLength = prefixLength(node);
+            if (prefixMatch(node, str, strBytes, depth) != prefixLength) {
+                break;
+            }
+            depth += prefixLength;
+            long terminal = terminal(node);
+            if (terminal != 0) {
+                longest = terminal;
+            }
+            if (depth == strBytes) {
+                break;
+            }
+            long childRef = findChildRef(node, keyByte(str, depth));
+            if (childRef == 0) {
+                break;
+            }
+            node = UNSAFE.getLong(childRef);
+            depth++;
+        }
+        return longest;
+    }
+    
+    /**
+     * Gets a read-only view of the longest key which is a prefix of the given string 
+     * (or the same with it), or <code>null</code> if there is no such key.
+     */
+    public String longestPrefixKey(CharSequence str) {
+        long leaf = findLongestPrefix(str);
+        return leaf != 0 ? keyOf(leaf) : null;
+    }
+    
+    /**
+     * Gets a read-only view of the value of the longest key which is a prefix of the given string 
+     * (or the same with it), or <code>null</code> if there is no such key or the key has no value.
+     */
+    public String longestPrefixValue(CharSequence str) {
+        return valueOf(findLongestPrefix(str));
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    private void writeChars(long address, CharSequence csq, int length) {
+        copyChunk = MyStringNativeChars.writeChars(address, csq, length, copyChunk);
+    }
+    
+    private long newLeaf(CharSequence key, CharSequence value) {
+        int keyLength = key.length();
+        int valueLength = value != null ? value.length() : NO_VALUE;
+        long address = 
+                UNSAFE.allocateMemory(LEAF_HEADER_SIZE + ((long) keyLength + Math.max(valueLength, 0)) * CHAR_SIZE);
+        UNSAFE.putInt(address, keyLength);
+        UNSAFE.putInt(address + LEAF_VALUE_LENGTH_OFFSET, valueLength);
+        writeChars(address + LEAF_HEADER_SIZE, key, keyLength);
+        if (value != null) {
+            writeChars(address + LEAF_HEADER_SIZE + (long) keyLength * CHAR_SIZE, value, valueLength);
+        }
+        return address | LEAF_TAG;
+    }
+    
+    // Replaces the value of the leaf in the given slot
+    private void replaceValue(long ref, CharSequence key, CharSequence value) {
+        long address = leafAddress(UNSAFE.getLong(ref));
+        int oldValueLength = UNSAFE.getInt(address + LEAF_VALUE_LENGTH_OFFSET);
+        int valueLength = value != null ? value.length() : NO_VALUE;
+        if (valueLength <= oldValueLength) {
+            // New value fits into the space of the old one
+            UNSAFE.putInt(address + LEAF_VALUE_LENGTH_OFFSET, valueLength);
+            if (value != null) {
+                writeChars(address + LEAF_HEADER_SIZE + (long) UNSAFE.getInt(address) * CHAR_SIZE, 
+                           value, valueLength);
+            }
+        } else {
+            UNSAFE.putLong(ref, newLeaf(key, value));
+            UNSAFE.freeMemory(address);
+        }
+    }
+    
+    private static long newNode(byte type, int size) {
+        long node = UNSAFE.allocateMemory(size);
+        UNSAFE.setMemory(node, size, (byte) 0);
+        UNSAFE.putByte(node, type);
+        return node;
+    }
+    
+    private static void copyHeader(long from, long to) {
+        UNSAFE.copyMemory(from + NODE_COUNT_OFFSET, to + NODE_COUNT_OFFSET, NODE_HEADER_SIZE - NODE_COUNT_OFFSET);
+    }
+    
+    // Puts the leaf into the node as a child or as the terminal leaf
+    private static void addLeaf(long nodeRef, long leaf, int depth) {
+        long node = UNSAFE.getLong(nodeRef);
+        if (leafKeyLength(leaf) << 1 == depth) {
+            UNSAFE.putLong(node + NODE_TERMINAL_OFFSET, leaf);
+        } else {
+            addChild(nodeRef, leafByte(leaf, depth), leaf);
+        }
+    }
+    
+    private static void addChild(long nodeRef, int b, long child) {
+        long node = UNSAFE.getLong(nodeRef);
+        int type = nodeType(node);
+        int count = childCount(node);
+        switch (type) {
+            case NODE4:
+            case NODE16: {
+                int capacity = type == NODE4 ? 4 : 16;
+                if (count == capacity) {
+                    growNode(nodeRef);
+                    addChild(nodeRef, b, child);
+                    return;
+                }
+                long keys = node + NODE_KEYS_OFFSET;
+                long children = node + (type == NODE4 ? NODE4_CHILDREN_OFFSET : NODE16_CHILDREN_OFFSET);
+                int i = 0;
+                while (i < count && (UNSAFE.getByte(keys + i) & 0xFF) < b) {
+                    i++;
+                }
+                UNSAFE.copyMemory(keys + i, keys + i + 1, count - i);
+                UNSAFE.copyMemory(children + (long) i * 8, children + (long) (i + 1) * 8, (long) (count - i) * 8);
+                UNSAFE.putByte(keys + i, (byte) b);
+                UNSAFE.putLong(children + (long) i * 8, child);
+                break;
+            }
+            case NODE48: {
+                if (count == 48) {
+                    growNode(nodeRef);
+                    addChild(nodeRef, b, child);
+                    return;
+                }
+                long children = node + NODE48_CHILDREN_OFFSET;
+                int i = 0;
+                while (UNSAFE.getLong(children + (long) i * 8) != 0) {
+                    i++;
+                }
+                UNSAFE.putLong(children + (long) i * 8, child);
+                UNSAFE.putByte(node + NODE_KEYS_OFFSET + b, (byte) (i + 1));
+                break;
+            }
+            default:
+                UNSAFE.putLong(node + NODE256_CHILDREN_OFFSET + (long) b * 8, child);
+                break;
+        }
+        setChildCount(node, count + 1);
+    }
+    
+    private static void growNode(long nodeRef) {
+        long node = UNSAFE.getLong(nodeRef);
+        int count = childCount(node);
+        long newNode;
+        switch (nodeType(node)) {
+            case NODE4:
+                newNode = newNode(NODE16, NODE16_SIZE);
+                copyHeader(node, newNode);
+                UNSAFE.copyMemory(node + NODE_KEYS_OFFSET, newNode + NODE_KEYS_OFFSET, count);
+                UNSAFE.copyMemory(node + NODE4_CHILDREN_OFFSET, newNode + NODE16_CHILDREN_OFFSET, (long) count * 8);
+                break;
+            case NODE16:
+                newNode = newNode(NODE48, NODE48_SIZE);
+                copyHeader(node, newNode);
+                for (int i = 0; i < count; i++) {
+                    int b = UNSAFE.getByte(node + NODE_KEYS_OFFSET + i) & 0xFF;
+                    UNSAFE.putByte(newNode + NODE_KEYS_OFFSET + b, (byte) (i + 1));
+                }
+                UNSAFE.copyMemory(node + NODE16_CHILDREN_OFFSET, newNode + NODE48_CHILDREN_OFFSET, (long) count * 8);
+                break;
+            default:
+                newNode = newNode(NODE256, NODE256_SIZE);
+                copyHeader(node, newNode);
+                for (int b = 0; b < 256; b++) {
+                    int index = UNSAFE.getByte(node + NODE_KEYS_OFFSET + b) & 0xFF;
+                    if (index != 0) {
+                        UNSAFE.putLong(newNode + NODE256_CHILDREN_OFFSET + (long) b * 8, 
+                                       UNSAFE.getLong(node + NODE48_CHILDREN_OFFSET + (long) (index - 1) * 8));
+                    }
+                }
+                break;
+        }
+        UNSAFE.putLong(nodeRef, newNode);
+        UNSAFE.freeMemory(node);
+    }
+    
+    /**
+     * Puts the given key with the given value (or without value if it is <code>null</code>) 
+     * by copying them into native memory. If the key exists, its value is replaced.
+     * 
+     * @return <code>true</code> if the key is added, <code>false</code> if it already exists
+     */
+    public boolean put(CharSequence key, CharSequence value) {
+        checkNotDestroyed();
+        int keyBytes = key.length() << 1;
+        long ref = rootRef;
+        int depth = 0;
+        for (;;) {
+            long node = UNSAFE.getLong(ref);
+            if (node == 0) {
+                UNSAFE.putLong(ref, newLeaf(key, value));
+                size++;
+                return true;
+            }
+            if (isLeaf(node)) {
+                if (leafMatches(node, key)) {
+                    replaceValue(ref, key, value);
+                    return false;
+                }
+                // Split the leaf by a node holding the common bytes of both keys as its prefix
+                long leaf = newLeaf(key, value);
+                int max = Math.min(leafKeyLength(node) << 1, keyBytes);
+                int common = 0;
+                while (depth + common < max && leafByte(node, depth + common) == keyByte(key, depth + common)) {
+                    common++;
+                }
+                long newNode = newNode(NODE4, NODE4_SIZE);
+                UNSAFE.putInt(newNode + NODE_PREFIX_LENGTH_OFFSET, common);
+                for (int i = 0; i < Math.min(common, MAX_INLINE_PREFIX_LENGTH); i++) {
+                    UNSAFE.putByte(newNode + NODE_PREFIX_OFFSET + i, (byte) keyByte(key, depth + i));
+                }
+                UNSAFE.putLong(ref, newNode);
+                addLeaf(ref, node, depth + common);
+                addLeaf(ref, leaf, depth + common);
+                size++;
+                return true;
+            }
+            int prefixLength = prefixLength(node);
+            if (prefixLength > 0) {
+                int match = prefixMatch(node, key, keyBytes, depth);
+                if (match < prefixLength) {
+                    splitPrefix(ref, node, match, depth, newLeaf(key, value));
+                    size++;
+                    return true;
+                }
+                depth += prefixLength;
+            }
+            if (depth == keyBytes) {
+                long terminalRef = node + NODE_TERMINAL_OFFSET;
+                if (UNSAFE.getLong(terminalRef) != 0) {
+                    replaceValue(terminalRef, key, value);
+                    return false;
+                }
+                UNSAFE.putLong(terminalRef, newLeaf(key, value));
+                size++;
+                return true;
+            }
+            int b = keyByte(key, depth);
+            long childRef = findChildRef(node, b);
+            if (childRef == 0) {
+                addChild(ref, b, newLeaf(key, value));
+                size++;
+                return true;
+            }
+            ref = childRef;
+            depth++;
+        }
+    }
+    
+    // Splits the prefix of the node from the mismatching byte by a new parent node 
+    // holding the matching bytes as its prefix, the node and the given leaf as its children
+    private static void splitPrefix(long ref, long node, int match, int depth, long leaf) {
+        int prefixLength = prefixLength(node);
+        long newNode = newNode(NODE4, NODE4_SIZE);
+        UNSAFE.putInt(newNode + NODE_PREFIX_LENGTH_OFFSET, match);
+        UNSAFE.copyMemory(node + NODE_PREFIX_OFFSET, newNode + NODE_PREFIX_OFFSET, 
+                          Math.min(match, MAX_INLINE_PREFIX_LENGTH));
+        int remaining = prefixLength - match - 1;
+        int b;
+        if (prefixLength <= MAX_INLINE_PREFIX_LENGTH) {
+            b = inlinePrefixByte(node, match);
+            UNSAFE.copyMemory(node + NODE_PREFIX_OFFSET + match + 1, node + NODE_PREFIX_OFFSET, remaining);
+        } else {
+            long anyLeaf = anyLeaf(node);
+            b = leafByte(anyLeaf, depth + match);
+            for (int i = 0; i < Math.min(remaining, MAX_INLINE_PREFIX_LENGTH); i++) {
+                UNSAFE.putByte(node + NODE_PREFIX_OFFSET + i, (byte) leafByte(anyLeaf, depth + match + 1 + i));
+            }
+        }
+        UNSAFE.putInt(node + NODE_PREFIX_LENGTH_OFFSET, remaining);
+        UNSAFE.putLong(ref, newNode);
+        addChild(ref, b, node);
+        addLeaf(ref, leaf, depth + match);
+    }
+    
+    /**
+     * Adds the given key without value.
+     * 
+     * @return <code>true</code> if the key is added, <code>false</code> if it already exists
+     */
+    public boolean add(CharSequence key) {
+        return put(key, null);
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    /**
+     * Removes the given key. Its key and value views must not be used anymore.
+     * 
+     * @return <code>true</code> if the key is removed, <code>false</code> if it doesn't exist
+     */
+    public boolean remove(CharSequence key) {
+        checkNotDestroyed();
+        int keyBytes = key.length() << 1;
+        long ref = rootRef;
+        int depth = 0;
+        for (;;) {
+            long node = UNSAFE.getLong(ref);
+            if (node == 0) {
+                return false;
+            }
+            if (isLeaf(node)) {
+                // Only the root can be a leaf here, since leaf children are removed by their parents
+                if (!leafMatches(node, key)) {
+                    return false;
+                }
+                UNSAFE.putLong(ref, 0);
+                UNSAFE.freeMemory(leafAddress(node));
+                size--;
+                return true;
+            }
+            int prefixLength = prefixLength(node);
+            if (prefixMatch(node, key, keyBytes, depth) != prefixLength) {
+                return false;
+            }
+            depth += prefixLength;
+            if (depth == keyBytes) {
+                long terminal = terminal(node);
+                if (terminal == 0) {
+                    return false;
+                }
+                UNSAFE.putLong(node + NODE_TERMINAL_OFFSET, 0);
+                UNSAFE.freeMemory(leafAddress(terminal));
+                size--;
+                shrinkNode(ref);
+                return true;
+            }
+            int b = keyByte(key, depth);
+            long childRef = findChildRef(node, b);
+            if (childRef == 0) {
+                return false;
+            }
+            long child = UNSAFE.getLong(childRef);
+            if (isLeaf(child)) {
+                if (!leafMatches(child, key)) {
+                    return false;
+                }
+                removeChild(node, b, childRef);
+                UNSAFE.freeMemory(leafAddress(child));
+                size--;
+                shrinkNode(ref);
+                return true;
+            }
+            ref = childRef;
+            depth++;
+        }
+    }
+    
+    private static void removeChild(long node, int b, long childRef) {
+        int count = childCount(node);
+        switch (nodeType(node)) {
+            case NODE4:
+            case NODE16: {
+                long children = node + (nodeType(node) == NODE4 ? NODE4_CHILDREN_OFFSET : NODE16_CHILDREN_OFFSET);
+                int i = (int) ((childRef - children) >> 3);
+                long keys = node + NODE_KEYS_OFFSET;
+                UNSAFE.copyMemory(keys + i + 1, keys + i, count - i - 1);
+                UNSAFE.copyMemory(children + (long) (i + 1) * 8, children + (long) i * 8, (long) (count - i - 1) * 8);
+                break;
+            }
+            case NODE48:
+                UNSAFE.putByte(node + NODE_KEYS_OFFSET + b, (byte) 0);
+                UNSAFE.putLong(childRef, 0);
+                break;
+            default:
+                UNSAFE.putLong(childRef, 0);
+                break;
+        }
+        setChildCount(node, count - 1);
+    }
+    
+    // Shrinks the node after one of its leaves is removed, 
+    // or replaces it with its only remaining leaf or child node
+    private static void shrinkNode(long ref) {
+        long node = UNSAFE.getLong(ref);
+        int count = childCount(node);
+        long newNode;
+        switch (nodeType(node)) {
+            case NODE4: {
+                long terminal = terminal(node);
+                if (count == 0) {
+                    UNSAFE.putLong(ref, terminal);
+                    UNSAFE.freeMemory(node);
+                } else if (count == 1 && terminal == 0) {
+                    long child = UNSAFE.getLong(node + NODE4_CHILDREN_OFFSET);
+                    if (!isLeaf(child)) {
+                        mergePrefix(node, child);
+                    }
+                    UNSAFE.putLong(ref, child);
+                    UNSAFE.freeMemory(node);
+                }
+                return;
+            }
+            case NODE16:
+                if (count > NODE16_SHRINK_COUNT) {
+                    return;
+                }
+                newNode = newNode(NODE4, NODE4_SIZE);
+                copyHeader(node, newNode);
+                UNSAFE.copyMemory(node + NODE_KEYS_OFFSET, newNode + NODE_KEYS_OFFSET, count);
+                UNSAFE.copyMemory(node + NODE16_CHILDREN_OFFSET, newNode + NODE4_CHILDREN_OFFSET, (long) count * 8);
+                break;
+            case NODE48: {
+                if (count > NODE48_SHRINK_COUNT) {
+                    return;
+                }
+                newNode = newNode(NODE16, NODE16_SIZE);
+                copyHeader(node, newNode);
+                int i = 0;
+                for (int b = 0; b < 256; b++) {
+                    int index = UNSAFE.getByte(node + NODE_KEYS_OFFSET + b) & 0xFF;
+                    if (index != 0) {
+                        UNSAFE.putByte(newNode + NODE_KEYS_OFFSET + i, (byte) b);
+                        UNSAFE.putLong(newNode + NODE16_CHILDREN_OFFSET + (long) i * 8, 
+                                       UNSAFE.getLong(node + NODE48_CHILDREN_OFFSET + (long) (index - 1) * 8));
+                        i++;
+                    }
+                }
+                break;
+            }
+            default: {
+                if (count > NODE256_SHRINK_COUNT) {
+                    return;
+                }
+                newNode = newNode(NODE48, NODE48_SIZE);
+                copyHeader(node, newNode);
+                int i = 0;
+                for (int b = 0; b < 256; b++) {
+                    long child = UNSAFE.getLong(node + NODE256_CHILDREN_OFFSET + (long) b * 8);
+                    if (child != 0) {
+                        UNSAFE.putLong(newNode + NODE48_CHILDREN_OFFSET + (long) i * 8, child);
+                        UNSAFE.putByte(newNode + NODE_KEYS_OFFSET + b, (byte) ++i);
+                    }
+                }
+                break;
+            }
+        }
+        UNSAFE.putLong(ref, newNode);
+        UNSAFE.freeMemory(node);
+    }
+    
+    // Prepends the prefix of the node and the key byte of its only child to the prefix of the child
+    private static void mergePrefix(long node, long child) {
+        int prefixLength = prefixLength(node);
+        int childPrefixLength = prefixLength(child);
+        if (prefixLength < MAX_INLINE_PREFIX_LENGTH) {
+            byte[] prefix = new byte[MAX_INLINE_PREFIX_LENGTH];
+            int length = 0;
+            for (int i = 0; i < prefixLength; i++) {
+                prefix[length++] = (byte) inlinePrefixByte(node, i);
+            }
+            prefix[length++] = UNSAFE.getByte(node + NODE_KEYS_OFFSET);
+            for (int i = 0; i < childPrefixLength && length < MAX_INLINE_PREFIX_LENGTH; i++) {
+                prefix[length++] = (byte) inlinePrefixByte(child, i);
+            }
+            for (int i = 0; i < length; i++) {
+                UNSAFE.putByte(child + NODE_PREFIX_OFFSET + i, prefix[i]);
+            }
+        } else {
+            UNSAFE.copyMemory(node + NODE_PREFIX_OFFSET, child + NODE_PREFIX_OFFSET, MAX_INLINE_PREFIX_LENGTH);
+        }
+        UNSAFE.putInt(child + NODE_PREFIX_LENGTH_OFFSET, prefixLength + 1 + childPrefixLength);
+    }
+    
+    private static void freeTree(long node) {
+        if (node == 0) {
+            return;
+        }
+        if (isLeaf(node)) {
+            UNSAFE.freeMemory(leafAddress(node));
+            return;
+        }
+        freeTree(terminal(node));
+        int type = nodeType(node);
+        if (type == NODE4 || type == NODE16) {
+            long children = node + (type == NODE4 ? NODE4_CHILDREN_OFFSET : NODE16_CHILDREN_OFFSET);
+            for (int i = 0, count = childCount(node); i < count; i++) {
+                freeTree(UNSAFE.getLong(children + (long) i * 8));
+            }
+        } else {
+            long children = node + (type == NODE48 ? NODE48_CHILDREN_OFFSET : NODE256_CHILDREN_OFFSET);
+            for (int i = 0, count = type == NODE48 ? 48 : 256; i < count; i++) {
+                freeTree(UNSAFE.getLong(children + (long) i * 8));
+            }
+        }
+        UNSAFE.freeMemory(node);
+    }
+    
+    /**
+     * Removes all the keys and releases the memory of the nodes and the leaves.
+     */
+    public void clear() {
+        checkNotDestroyed();
+        freeTree(UNSAFE.getLong(rootRef));
+        UNSAFE.putLong(rootRef, 0);
+        size = 0;
+    }
+    
+    /**
+     * Releases all the native memory of the trie. 
+     * The trie and its key and value views must not be used anymore.
+     */
+    public void destroy() {
+        if (!destroyed) {
+            freeTree(UNSAFE.getLong(rootRef));
+            UNSAFE.freeMemory(rootRef);
+            rootRef = 0;
+            destroyed = true;
+        }
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    
+    /**
+     * Iterates over the entries of the trie in the order of their keys. 
+     * Trie must not be modified while it is being iterated.
+     */
+    public Cursor cursor() {
+        checkNotDestroyed();
+        return new Cursor(UNSAFE.getLong(rootRef));
+    }
+    
+    /**
+     * Iterates over the entries whose keys start with the given prefix in the order of their keys. 
+     * Trie must not be modified while it is being iterated.
+     */
+    public Cursor prefixCursor(CharSequence prefix) {
+        checkNotDestroyed();
+        int prefixBytes = prefix.length() << 1;
+        long node = UNSAFE.getLong(rootRef);
+        int depth = 0;
+        while (node != 0) {
+            if (isLeaf(node)) {
+                int keyLength = leafKeyLength(node);
+                if (keyLength << 1 < prefixBytes || !leafStartsWith(node, prefix, prefix.length())) {
+                    node = 0;
+                }
+                break;
+            }
+            int prefixLength = prefixLength(node);
+            int match = prefixMatch(node, prefix, prefixBytes, depth);
+            if (match != Math.min(prefixLength, prefixBytes - depth)) {
+                node = 0;
+                break;
+            }
+            depth += prefixLength;
+            if (depth >= prefixBytes) {
+                // All the keys below the node start with the prefix
+                break;
+            }
+            long childRef = findChildRef(node, keyByte(prefix, depth));
+            node = childRef != 0 ? UNSAFE.getLong(childRef) : 0;
+            depth++;
+        }
+        return new Cursor(node);
+    }
+    
+    public final class Cursor {
+        
+        private long[] nodes = new long[16];
+        // Position of the next child to visit for each node, or -1 if its terminal leaf is not visited yet
+        private int[] positions = new int[16];
+        private int depth;
+        private long leaf;
+        
+        private Cursor(long root) {
+            if (root != 0) {
+                push(root);
+            }
+        }
+        
+        private void push(long node) {
+            if (depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth << 1);
+                positions = Arrays.copyOf(positions, depth << 1);
+            }
+            nodes[depth] = node;
+            positions[depth] = -1;
+            depth++;
+        }
+        
+        // Gets the next child of the node on top from the current position, or returns 0 if there is none
+        private long nextChild() {
+            long node = nodes[depth - 1];
+            int position = positions[depth - 1];
+            switch (nodeType(node)) {
+                case NODE4:
+                case NODE16:
+                    if (position < childCount(node)) {
+                        positions[depth - 1] = position + 1;
+                        long children = 
+                                node + (nodeType(node) == NODE4 ? NODE4_CHILDREN_OFFSET : NODE16_CHILDREN_OFFSET);
+                        return UNSAFE.getLong(children + (long) position * 8);
+                    }
+                    break;
+                case NODE48:
+                    for (int b = position; b < 256; b++) {
+                        int index = UNSAFE.getByte(node + NODE_KEYS_OFFSET + b) & 0xFF;
+                        if (index != 0) {
+                            positions[depth - 1] = b + 1;
+                            return UNSAFE.getLong(node + NODE48_CHILDREN_OFFSET + (long) (index - 1) * 8);
+                        }
+                    }
+                    break;
+                default:
+                    for (int b = position; b < 256; b++) {
+                        long child = UNSAFE.getLong(node + NODE256_CHILDREN_OFFSET + (long) b * 8);
+                        if (child != 0) {
+                            positions[depth - 1] = b + 1;
+                            return child;
+                        }
+                    }
+                    break;
+            }
+            return 0;
+        }
+        
+        public boolean next() {
+            while (depth > 0) {
+                long node = nodes[depth - 1];
+                if (isLeaf(node)) {
+                    // Root of the iteration is a leaf
+                    depth--;
+                    leaf = node;
+                    return true;
+                }
+                if (positions[depth - 1] < 0) {
+                    positions[depth - 1] = 0;
+                    long terminal = terminal(node);
+                    if (terminal != 0) {
+                        leaf = terminal;
+                        return true;
+                    }
+                }
+                long child = nextChild();
+                if (child == 0) {
+                    depth--;
+                } else if (isLeaf(child)) {
+                    leaf = child;
+                    return true;
+                } else {
+                    push(child);
+                }
+            }
+            leaf = 0;
+            return false;
+        }
+        
+        /**
+         * Gets a read-only view of the key of the current entry.
+         */
+        public String key() {
+            return keyOf(leaf);
+        }
+        
+        /**
+         * Gets a read-only view of the value of the current entry, 
+         * or <code>null</code> if it has no value.
+         */
+        public String value() {
+            return valueOf(leaf);
+        }
+        
+    }
+    
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import tr.com.serkanozal.mystring.api.MyStringProcessor;
+
+/**
+ * Optional extension of {@link MyStringProcessor} for processors whose storages 
+ * can be resized in place (or moved by keeping their content, like <code>realloc</code>), 
+ * so growing strings don't need to be copied into larger storages.
+ */
+public interface ResizableMyStringProcessor<S> extends MyStringProcessor<S> {
+
+    /**
+     * Resizes the given storage to the given size in bytes by keeping its content 
+     * (up to the new size) and gets the id of the resized storage, which may be different. 
+     * Base of the resized storage is got by {@link #createStorageBase(long, long)}.
+     */
+    long resizeStorage(long storageId, S storageBase, long size);
+    
+}
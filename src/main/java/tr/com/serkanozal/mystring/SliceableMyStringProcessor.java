@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import tr.com.serkanozal.mystring.api.MyStringProcessor;
+
+/**
+ * Optional extension of {@link MyStringProcessor} for processors whose storages 
+ * can be sliced, so many strings can share a single storage allocation.
+ */
+public interface SliceableMyStringProcessor<S> extends MyStringProcessor<S> {
+
+    /**
+     * Gets the id of the storage starting at the given byte offset of the given storage.
+     */
+    long sliceStorageId(long storageId, S storageBase, long offset);
+    
+    /**
+     * Gets the base of the storage starting at the given byte offset of the given storage.
+     */
+    S sliceStorageBase(long storageId, S storageBase, long offset);
+    
+}
@@ -17,11 +17,14 @@
 package tr.com.serkanozal.mystring.offheap;
 
 import sun.misc.Unsafe;
+import tr.com.serkanozal.mystring.ResizableMyStringProcessor;
+import tr.com.serkanozal.mystring.SliceableMyStringProcessor;
 import tr.com.serkanozal.mystring.api.MyString;
 import tr.com.serkanozal.mystring.api.MyStringProcessor;
 import tr.com.serkanozal.mystring.util.JvmUtil;
 
-public class OffHeapMyStringProcessor implements MyStringProcessor<Void> {
+public class OffHeapMyStringProcessor 
+        implements SliceableMyStringProcessor<Void>, ResizableMyStringProcessor<Void> {
 
     private static final Unsafe UNSAFE = JvmUtil.getUnsafe();
     
@@ -99,12 +102,12 @@ public class OffHeapMyStringProcessor implements MyStringProcessor<Void> {
     
     @Override
     public char readValue(long storageId, Void storageBase, int index) {
-        return UNSAFE.getChar(storageId + index);
+        return UNSAFE.getChar(storageId + (index * CHAR_ARRAY_INDEX_SCALE));
     }
     
     @Override
     public void writeValue(long storageId, Void storageBase, int index, char c) {
-        UNSAFE.putChar(storageId + index, c);
+        UNSAFE.putChar(storageId + (index * CHAR_ARRAY_INDEX_SCALE), c);
     }
     
     @Override
@@ -114,6 +117,21 @@ public class OffHeapMyStringProcessor implements MyStringProcessor<Void> {
                           len * CHAR_ARRAY_INDEX_SCALE);
     }
     
+    @Override
+    public long sliceStorageId(long storageId, Void storageBase, long offset) {
+        return storageId + offset;
+    }
+    
+    @Override
+    public Void sliceStorageBase(long storageId, Void storageBase, long offset) {
+        return null;
+    }
+    
+    @Override
+    public long resizeStorage(long storageId, Void storageBase, long size) {
+        return UNSAFE.reallocateMemory(storageId, size);
+    }
+    
     @Override
     public void destroy(long storageId, Void storageBase) {
         UNSAFE.freeMemory(storageId);
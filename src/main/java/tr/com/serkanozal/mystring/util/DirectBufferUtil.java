@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring.util;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+import sun.misc.Unsafe;
+
+/**
+ * Utility for exposing native memory regions as direct {@link ByteBuffer}s without copying.
+ * 
+ * Note that wrapping buffers don't own the memory, 
+ * so they must not be used after the memory is freed.
+ */
+public final class DirectBufferUtil {
+
+    private static final Unsafe UNSAFE = JvmUtil.getUnsafe();
+    
+    private static final Constructor<?> DIRECT_BYTE_BUFFER_CONSTRUCTOR;
+    private static final long ADDRESS_FIELD_OFFSET;
+    
+    static {
+        try {
+            Class<?> directByteBufferClass = Class.forName("java.nio.DirectByteBuffer");
+            DIRECT_BYTE_BUFFER_CONSTRUCTOR = 
+                    directByteBufferClass.getDeclaredConstructor(long.class, int.class);
+            DIRECT_BYTE_BUFFER_CONSTRUCTOR.setAccessible(true);
+            ADDRESS_FIELD_OFFSET = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+    
+    private DirectBufferUtil() {
+    }
+    
+    public static ByteBuffer wrap(long address, int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Length must not be negative: " + length);
+        }
+        try {
+            return (ByteBuffer) DIRECT_BYTE_BUFFER_CONSTRUCTOR.newInstance(address, length);
+        } catch (Throwable t) {
+            throw new IllegalStateException("Unable to wrap address " + address + " as direct buffer!", t);
+        }
+    }
+    
+    /**
+     * Gets the native address of the given direct (or memory-mapped) buffer.
+     */
+    public static long getAddress(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("Buffer is not direct!");
+        }
+        return UNSAFE.getLong(buffer, ADDRESS_FIELD_OFFSET);
+    }
+    
+    /**
+     * Releases the memory (or unmaps the file region) of the given direct buffer 
+     * without waiting for it to be garbage collected. 
+     * The buffer and its address must not be used anymore after this call.
+     * 
+     * @return <code>true</code> if the buffer is released, 
+     *         <code>false</code> if it will be released by garbage collection
+     */
+    public static boolean release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return false;
+        }
+        try {
+            // Java 9+
+            Method invokeCleanerMethod = UNSAFE.getClass().getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleanerMethod.invoke(UNSAFE, buffer);
+            return true;
+        } catch (NoSuchMethodException e) {
+            // Java 6/7/8
+        } catch (Throwable t) {
+            return false;
+        }
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner == null) {
+                return false;
+            }
+            Method cleanMethod = cleaner.getClass().getMethod("clean");
+            cleanMethod.setAccessible(true);
+            cleanMethod.invoke(cleaner);
+            return true;
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+    
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import tr.com.serkanozal.mystring.api.MyString;
+
+/**
+ * Bounded cache of compiled {@link Pattern}s keyed by regular expression and flags. 
+ * Entries are distributed over lock-striped segments and 
+ * each segment evicts its least recently used entry when it is full.
+ * 
+ * Regular expressions given as {@link MyString} are cached as heap copies, 
+ * since they might be destroyed while their patterns are still cached.
+ */
+public final class PatternCache {
+
+    public static final int DEFAULT_CAPACITY = 
+            Integer.getInteger("tr.com.serkanozal.mystring.patternCacheCapacity", 256);
+    
+    private static final int MAX_SEGMENT_COUNT = 16;
+    
+    private static final PatternCache DEFAULT = new PatternCache(DEFAULT_CAPACITY);
+    
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    
+    public PatternCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        // Small caches have fewer segments, so capacity is shared by the segments exactly
+        int segmentCount = Math.min(MAX_SEGMENT_COUNT, Integer.highestOneBit(capacity));
+        this.segments = new Segment[segmentCount];
+        this.segmentMask = segmentCount - 1;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(capacity / segmentCount + (i < capacity % segmentCount ? 1 : 0));
+        }
+    }
+    
+    public static PatternCache getDefault() {
+        return DEFAULT;
+    }
+    
+    public Pattern compile(String regex) {
+        return compile(regex, 0);
+    }
+    
+    public Pattern compile(String regex, int flags) {
+        Key key = new Key(regex, flags);
+        Segment segment = segments[(key.hash ^ (key.hash >>> 16)) & segmentMask];
+        Pattern pattern;
+        synchronized (segment) {
+            pattern = segment.get(key);
+        }
+        if (pattern != null) {
+            hitCount.incrementAndGet();
+            return pattern;
+        }
+        missCount.incrementAndGet();
+        if (((Object) regex) instanceof MyString) {
+            // Both of the key and the pattern keep the given string
+            regex = new String(regex.toCharArray());
+            key = new Key(regex, flags);
+        }
+        // Compile outside of the lock, concurrent misses for the same key just compile twice
+        pattern = Pattern.compile(regex, flags);
+        synchronized (segment) {
+            segment.put(key, pattern);
+        }
+        return pattern;
+    }
+    
+    public long getHitCount() {
+        return hitCount.get();
+    }
+    
+    public long getMissCount() {
+        return missCount.get();
+    }
+    
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+    
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+        hitCount.set(0);
+        missCount.set(0);
+    }
+    
+    private static final class Key {
+        
+        private final String regex;
+        private final int flags;
+        private final int hash;
+        
+        private Key(String regex, int flags) {
+            this.regex = regex;
+            this.flags = flags;
+            this.hash = 31 * regex.hashCode() + flags;
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return flags == other.flags && regex.equals(other.regex);
+        }
+        
+    }
+    
+    @SuppressWarnings("serial")
+    private static final class Segment extends LinkedHashMap<Key, Pattern> {
+        
+        private final int capacity;
+        
+        private Segment(int capacity) {
+            super(16, 0.75F, true);
+            this.capacity = capacity;
+        }
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Pattern> eldest) {
+            return size() > capacity;
+        }
+        
+    }
+    
+}
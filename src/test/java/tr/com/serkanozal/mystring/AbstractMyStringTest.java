@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+
+import tr.com.serkanozal.mystring.api.MyString;
+
+/**
+ * Base class of the tests which create off-heap strings. 
+ * Strings created by {@link #create(String)} are destroyed after each test.
+ */
+public abstract class AbstractMyStringTest {
+
+    protected final MyStringFactory factory = MyStringService.getOffHeapMyStringFactory();
+    
+    private final List<String> createdStrs = new ArrayList<String>();
+    
+    @After
+    public void destroyCreatedStrings() {
+        for (String str : createdStrs) {
+            destroy(str);
+        }
+        createdStrs.clear();
+    }
+    
+    protected String create(String str) {
+        String myStr = factory.create(str);
+        createdStrs.add(myStr);
+        return myStr;
+    }
+    
+    protected String own(String myStr) {
+        createdStrs.add(myStr);
+        return myStr;
+    }
+    
+    protected static MyStringTemplate template(String myStr) {
+        return (MyStringTemplate) ((Object) myStr);
+    }
+    
+    protected static boolean isMyString(String str) {
+        return ((Object) str) instanceof MyString;
+    }
+    
+    protected static void destroy(String str) {
+        MyString myStr = MyStringService.getMyStringOrNull(str);
+        if (myStr != null) {
+            myStr.destroy();
+        }
+    }
+    
+    protected static String randomString(Random random, int length, String alphabet) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+        }
+        return new String(chars);
+    }
+    
+    protected static String randomUnicodeString(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    chars[i] = (char) random.nextInt(0x80);
+                    break;
+                case 1:
+                    chars[i] = (char) random.nextInt(0x800);
+                    break;
+                case 2:
+                    chars[i] = (char) random.nextInt(0x10000);
+                    break;
+                default:
+                    if (i + 1 < length) {
+                        Character.toChars(0x10000 + random.nextInt(0x100000), chars, i++);
+                    } else {
+                        chars[i] = 'x';
+                    }
+                    break;
+            }
+        }
+        return new String(chars);
+    }
+    
+}
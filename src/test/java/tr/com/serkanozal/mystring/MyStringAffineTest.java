@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import tr.com.serkanozal.mystring.api.MyString;
+
+public class MyStringAffineTest extends AbstractMyStringTest {
+
+    private final MyStringFactory affineFactory = MyStringService.getAffineOffHeapMyStringFactory();
+    
+    private String createAffine(String str) {
+        return own(affineFactory.create(str));
+    }
+    
+    private void assertDerived(String expected, String derived, String source) {
+        assertEquals(expected, derived);
+        assertTrue(isMyString(derived));
+        assertSame(((MyString) ((Object) source)).getMyStringProcessor(), 
+                   ((MyString) ((Object) derived)).getMyStringProcessor());
+        own(derived);
+    }
+    
+    @Test
+    public void derivedStringsOfAffineStringShouldBeCreatedByTheSameProcessor() {
+        String content = "  Hello World \u00DF\u0130  ";
+        String myStr = createAffine(content);
+        assertDerived(content.substring(3), myStr.substring(3), myStr);
+        assertDerived(content.substring(2, 9), myStr.substring(2, 9), myStr);
+        assertDerived(content.concat("!"), myStr.concat("!"), myStr);
+        assertDerived(content.replace('o', '0'), myStr.replace('o', '0'), myStr);
+        assertDerived(content.trim(), myStr.trim(), myStr);
+        // Upper case of sharp s is expanded to two chars, so storage must grow
+        assertDerived(content.toUpperCase(), myStr.toUpperCase(), myStr);
+        assertDerived(content.toLowerCase(), myStr.toLowerCase(), myStr);
+    }
+    
+    @Test
+    public void derivedStringsOfLargeAffineStringShouldBeSameWithString() {
+        String content = randomUnicodeString(new Random(28), 10000) + "\u00DF";
+        String myStr = createAffine(content);
+        assertDerived(content.toUpperCase(), myStr.toUpperCase(), myStr);
+        assertDerived(content.toLowerCase(), myStr.toLowerCase(), myStr);
+        assertDerived(content.substring(1000, 9000), myStr.substring(1000, 9000), myStr);
+    }
+    
+    @Test
+    public void derivedStringsOfNonAffineStringShouldBeOnHeap() {
+        String content = "  Hello World  ";
+        String myStr = create(content);
+        String derived = myStr.substring(3);
+        assertEquals(content.substring(3), derived);
+        assertFalse(isMyString(derived));
+        assertFalse(isMyString(myStr.toUpperCase()));
+        assertFalse(isMyString(myStr.trim()));
+    }
+    
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import org.junit.Test;
+
+import tr.com.serkanozal.mystring.offheap.OffHeapMyStringProcessor;
+
+public class MyStringBatchTest extends AbstractMyStringTest {
+
+    /**
+     * Records whether any content is written by a worker thread of a fork-join pool.
+     */
+    private static final class RecordingMyStringProcessor extends OffHeapMyStringProcessor {
+        
+        private volatile boolean writtenByWorker;
+        
+        @Override
+        public void writeValue(long storageId, Void storageBase, int index, char c) {
+            if (!writtenByWorker && Thread.currentThread() instanceof ForkJoinWorkerThread) {
+                writtenByWorker = true;
+            }
+            super.writeValue(storageId, storageBase, index, c);
+        }
+        
+    }
+    
+    private static String[] randomStrings(int count) {
+        Random random = new Random(34);
+        String[] strs = new String[count];
+        for (int i = 0; i < count; i++) {
+            strs[i] = randomUnicodeString(random, random.nextInt(20));
+        }
+        return strs;
+    }
+    
+    private static void assertBatch(String[] expected, MyStringBatch batch) {
+        assertEquals(expected.length, batch.size());
+        long size = 0;
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], batch.get(i));
+            assertEquals(expected[i].hashCode(), batch.get(i).hashCode());
+            assertTrue(isMyString(batch.get(i)));
+            size += (long) expected[i].length() * 2;
+        }
+        assertTrue(batch.isShared());
+        assertEquals(size, batch.getStorageSize());
+        assertTrue(Arrays.equals(expected, batch.toArray()));
+    }
+    
+    @Test
+    public void batchShouldContainContentsOfGivenStrings() {
+        String[] strs = randomStrings(1000);
+        strs[1] = create("already off-heap");
+        MyStringBatch batch = factory.createBatch(strs);
+        try {
+            assertBatch(strs, batch);
+        } finally {
+            batch.destroy();
+        }
+    }
+    
+    @Test
+    public void batchShouldBeCreatedFromCollectionAndIterator() {
+        String[] strs = randomStrings(100);
+        List<String> strList = Arrays.asList(strs);
+        MyStringBatch batch1 = factory.createBatch(strList);
+        List<CharSequence> builders = new ArrayList<CharSequence>();
+        for (String str : strs) {
+            builders.add(new StringBuilder(str));
+        }
+        MyStringBatch batch2 = factory.createBatch(builders.iterator());
+        try {
+            assertBatch(strs, batch1);
+            assertBatch(strs, batch2);
+        } finally {
+            batch1.destroy();
+            batch2.destroy();
+        }
+    }
+    
+    @Test
+    public void batchShouldBeCreatedFromIteratorReusingSameBuilder() {
+        final String[] strs = randomStrings(20000);
+        strs[1] = create("already off-heap");
+        final StringBuilder builder = new StringBuilder();
+        Iterator<CharSequence> iter = new Iterator<CharSequence>() {
+            private int i;
+            @Override
+            public boolean hasNext() {
+                return i < strs.length;
+            }
+            @Override
+            public CharSequence next() {
+                String str = strs[i++];
+                if (isMyString(str)) {
+                    return str;
+                }
+                builder.setLength(0);
+                return builder.append(str);
+            }
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        MyStringBatch batch = factory.createBatch(iter, true);
+        try {
+            assertBatch(strs, batch);
+        } finally {
+            batch.destroy();
+        }
+    }
+    
+    @Test
+    public void parallelBatchShouldBeFilledByWorkerThreads() {
+        String id = "RecordingMyStringProcessor-" + System.nanoTime();
+        RecordingMyStringProcessor processor = new RecordingMyStringProcessor();
+        MyStringService.registerMyStringFactory(id, processor);
+        try {
+            MyStringFactory recordingFactory = MyStringService.getMyStringFactory(id);
+            String[] strs = randomStrings(200000);
+            
+            MyStringBatch sequentialBatch = recordingFactory.createBatch(strs, false);
+            try {
+                assertBatch(strs, sequentialBatch);
+                assertFalse(processor.writtenByWorker);
+            } finally {
+                sequentialBatch.destroy();
+            }
+            
+            MyStringBatch parallelBatch = recordingFactory.createBatch(strs, true);
+            try {
+                assertBatch(strs, parallelBatch);
+                assertTrue("Batch is expected to be filled by forked tasks", processor.writtenByWorker);
+            } finally {
+                parallelBatch.destroy();
+            }
+            
+            processor.writtenByWorker = false;
+            MyStringBatch parallelCollectionBatch = recordingFactory.createBatch(Arrays.asList(strs), true);
+            try {
+                assertBatch(strs, parallelCollectionBatch);
+                assertTrue("Batch is expected to be filled by forked tasks", processor.writtenByWorker);
+            } finally {
+                parallelCollectionBatch.destroy();
+            }
+        } finally {
+            MyStringService.deregisterMyStringFactory(id);
+        }
+    }
+    
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import tr.com.serkanozal.mystring.util.DirectBufferUtil;
+
+public class MyStringBufferCreationTest extends AbstractMyStringTest {
+
+    private static final List<Charset> CHARSETS = 
+            Arrays.asList(Charset.forName("US-ASCII"), Charset.forName("ISO-8859-1"), 
+                          Charset.forName("UTF-8"), Charset.forName("UTF-16BE"), 
+                          Charset.forName("windows-1252"));
+    
+    private List<byte[]> inputs(Charset charset) {
+        Random random = new Random(33);
+        byte[] randomBytes = new byte[5000];
+        random.nextBytes(randomBytes);
+        return Arrays.asList(new byte[0], 
+                             "plain ascii".getBytes(charset), 
+                             ("ascii prefix then caf\u00E9 \uD83D\uDE00").getBytes(charset), 
+                             randomString(random, 5000, "abc\u00E9\u20AC").getBytes(charset), 
+                             randomBytes);
+    }
+    
+    @Test
+    public void createFromBytesShouldDecodeAsString() {
+        for (Charset charset : CHARSETS) {
+            for (byte[] bytes : inputs(charset)) {
+                assertEquals(new String(bytes, charset), own(factory.create(bytes, charset)));
+                if (bytes.length > 2) {
+                    assertEquals(new String(bytes, 1, bytes.length - 2, charset), 
+                                 own(factory.create(bytes, 1, bytes.length - 2, charset)));
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void createFromBufferShouldDecodeRemainingBytesWithoutMovingPosition() {
+        for (Charset charset : CHARSETS) {
+            for (byte[] bytes : inputs(charset)) {
+                ByteBuffer heapBuffer = ByteBuffer.wrap(bytes);
+                ByteBuffer directBuffer = ByteBuffer.allocateDirect(bytes.length);
+                directBuffer.put(bytes).clear();
+                // Read-only heap buffer doesn't expose its array
+                ByteBuffer readOnlyBuffer = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+                for (ByteBuffer buffer : new ByteBuffer[] { heapBuffer, directBuffer, readOnlyBuffer }) {
+                    int begin = bytes.length / 3;
+                    int end = bytes.length - bytes.length / 3;
+                    buffer.limit(end).position(begin);
+                    assertEquals(new String(bytes, begin, end - begin, charset), 
+                                 own(factory.create(buffer, charset)));
+                    assertEquals(begin, buffer.position());
+                    assertEquals(end, buffer.limit());
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void createFromAddressShouldDecodeAsString() {
+        for (Charset charset : CHARSETS) {
+            for (byte[] bytes : inputs(charset)) {
+                ByteBuffer directBuffer = ByteBuffer.allocateDirect(bytes.length);
+                directBuffer.put(bytes).clear();
+                long address = DirectBufferUtil.getAddress(directBuffer);
+                assertEquals(new String(bytes, charset), own(factory.create(address, bytes.length, charset)));
+            }
+        }
+    }
+    
+    @Test
+    public void singleByteCharsShouldBeWidenedUpToFirstNonAsciiByte() {
+        Charset[] charsets = { Charset.forName("US-ASCII"), Charset.forName("ISO-8859-1"), Charset.forName("UTF-8") };
+        // Non-ASCII char is at every position of a word and after several words
+        for (int prefix = 0; prefix < 40; prefix++) {
+            StringBuilder str = new StringBuilder();
+            for (int i = 0; i < prefix; i++) {
+                str.append((char) ('a' + i % 26));
+            }
+            str.append('\u00E9').append("tail after the non ascii char");
+            for (Charset charset : charsets) {
+                byte[] bytes = str.toString().getBytes(charset);
+                ByteBuffer directBuffer = ByteBuffer.allocateDirect(bytes.length);
+                directBuffer.put(bytes).clear();
+                assertEquals(new String(bytes, charset), own(factory.create(bytes, charset)));
+                assertEquals(new String(bytes, charset), own(factory.create(directBuffer, charset)));
+            }
+        }
+    }
+    
+}
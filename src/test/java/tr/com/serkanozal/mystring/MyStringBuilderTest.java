@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MyStringBuilderTest extends AbstractMyStringTest {
+
+    @Test
+    public void builtStringShouldContainAppendedValues() {
+        Random random = new Random(40);
+        MyStringBuilder builder = factory.createBuilder(4);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            String str = randomUnicodeString(random, random.nextInt(30));
+            switch (i % 6) {
+                case 0:
+                    builder.append(str);
+                    expected.append(str);
+                    break;
+                case 1:
+                    builder.append(new StringBuilder(str), 0, str.length() / 2);
+                    expected.append(str, 0, str.length() / 2);
+                    break;
+                case 2:
+                    builder.append(str.toCharArray());
+                    expected.append(str.toCharArray());
+                    break;
+                case 3:
+                    builder.append(i).append(true).append((long) -i);
+                    expected.append(i).append(true).append((long) -i);
+                    break;
+                case 4:
+                    builder.appendCodePoint(0x1F600);
+                    expected.appendCodePoint(0x1F600);
+                    break;
+                default:
+                    builder.append(create(str));
+                    expected.append(str);
+                    break;
+            }
+        }
+        assertEquals(expected.length(), builder.length());
+        assertEquals(expected.toString(), builder.toString());
+        assertEquals(expected.substring(100, 5000), builder.subSequence(100, 5000));
+        assertEquals(expected.charAt(777), builder.charAt(777));
+        
+        String myStr = own(builder.toMyString());
+        assertTrue(isMyString(myStr));
+        assertEquals(expected.toString(), myStr);
+        assertEquals(0, builder.length());
+        
+        builder.append("again");
+        assertEquals("again", own(builder.toMyString()));
+    }
+    
+    @Test
+    public void discardShouldResetBuilder() {
+        MyStringBuilder builder = factory.createBuilder();
+        builder.append("discarded");
+        builder.discard();
+        assertEquals(0, builder.length());
+        builder.append("kept");
+        assertEquals("kept", own(builder.toMyString()));
+    }
+    
+    @Test
+    public void subSequenceShouldRejectInvalidRange() {
+        MyStringBuilder builder = factory.createBuilder();
+        builder.append("abcdef");
+        int[][] ranges = { { 4, 2 }, { -1, 2 }, { 2, 7 } };
+        for (int[] range : ranges) {
+            try {
+                builder.subSequence(range[0], range[1]);
+                fail("Range [" + range[0] + ", " + range[1] + ") should be rejected");
+            } catch (StringIndexOutOfBoundsException e) {
+                // Expected
+            }
+        }
+        assertEquals("", builder.subSequence(6, 6));
+        builder.discard();
+    }
+    
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import tr.com.serkanozal.mystring.offheap.OffHeapMyStringProcessor;
+
+public class MyStringCacheTest extends AbstractMyStringTest {
+
+    /**
+     * Counts the destroyed strings.
+     */
+    private static final class DestroyCountingMyStringProcessor extends OffHeapMyStringProcessor {
+        
+        private final AtomicInteger destroyed = new AtomicInteger();
+        
+        @Override
+        public void destroy(long storageId, Void storageBase) {
+            destroyed.incrementAndGet();
+            super.destroy(storageId, storageBase);
+        }
+        
+    }
+    
+    private String id;
+    private DestroyCountingMyStringProcessor processor;
+    private MyStringFactory cacheFactory;
+    
+    @Before
+    public void registerFactory() {
+        id = "DestroyCountingMyStringProcessor-" + System.nanoTime();
+        processor = new DestroyCountingMyStringProcessor();
+        MyStringService.registerMyStringFactory(id, processor);
+        cacheFactory = MyStringService.getMyStringFactory(id);
+    }
+    
+    @After
+    public void deregisterFactory() {
+        MyStringService.deregisterMyStringFactory(id);
+    }
+    
+    // All the values have the same length, so the same storage size
+    private static String value(int i) {
+        return String.format("%08d", i);
+    }
+    
+    private long valueBytes() {
+        String myStr = cacheFactory.create(value(0));
+        try {
+            return MyStringService.getMyStringOrNull(myStr).getStorageSize();
+        } finally {
+            destroy(myStr);
+        }
+    }
+    
+    @Test
+    public void valuesShouldBeCachedAndDestroyedWhenRemoved() {
+        MyStringCache<Integer> cache = new MyStringCache<Integer>(cacheFactory, 1 << 20);
+        int destroyed = processor.destroyed.get();
+        
+        assertTrue(cache.put(1, "one"));
+        assertTrue(cache.put(2, cacheFactory.create("two")));
+        assertEquals(2, cache.size());
+        assertTrue(cache.containsKey(1));
+        assertEquals("one", cache.getCopy(1));
+        assertEquals("two", cache.getCopy(2));
+        assertNull(cache.getCopy(3));
+        assertEquals(destroyed, processor.destroyed.get());
+        
+        // Replaced value is destroyed
+        assertTrue(cache.put(1, "uno"));
+        assertEquals("uno", cache.getCopy(1));
+        assertEquals(destroyed + 1, processor.destroyed.get());
+        
+        assertTrue(cache.remove(2));
+        assertFalse(cache.remove(2));
+        assertFalse(cache.containsKey(2));
+        assertEquals(destroyed + 2, processor.destroyed.get());
+        
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+        assertEquals(destroyed + 3, processor.destroyed.get());
+    }
+    
+    @Test
+    public void valueLargerThanCacheShouldBeRejected() {
+        MyStringCache<Integer> cache = new MyStringCache<Integer>(cacheFactory, valueBytes() - 1);
+        int destroyed = processor.destroyed.get();
+        assertFalse(cache.put(1, value(1)));
+        assertFalse(cache.containsKey(1));
+        assertEquals(destroyed + 1, processor.destroyed.get());
+    }
+    
+    @Test
+    public void acquiredValueShouldBeDestroyedWhenReleased() {
+        MyStringCache<Integer> cache = new MyStringCache<Integer>(cacheFactory, 1 << 20);
+        cache.put(1, value(1));
+        int destroyed = processor.destroyed.get();
+        
+        MyStringCache.Entry<Integer> entry = cache.acquire(1);
+        assertEquals(Integer.valueOf(1), entry.getKey());
+        cache.remove(1);
+        assertNull(cache.acquire(1));
+        // Value is still held by the reader
+        assertEquals(value(1), new String(entry.getValue().toCharArray()));
+        assertEquals(destroyed, processor.destroyed.get());
+        
+        entry.release();
+        assertEquals(destroyed + 1, processor.destroyed.get());
+        try {
+            entry.release();
+            fail("Entry should not be released more than acquired");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+    
+    @Test
+    public void cacheShouldBeBoundedByStorageSize() {
+        long valueBytes = valueBytes();
+        long maxBytes = 100 * valueBytes;
+        MyStringCache<Integer> cache = new MyStringCache<Integer>(cacheFactory, maxBytes);
+        int destroyed = processor.destroyed.get();
+        for (int i = 0; i < 10000; i++) {
+            cache.put(i, value(i));
+            assertTrue(cache.getBytes() <= maxBytes);
+        }
+        assertEquals(cache.size() * valueBytes, cache.getBytes());
+        assertEquals(10000 - cache.size(), processor.destroyed.get() - destroyed);
+        for (int i = 0; i < 10000; i++) {
+            String copy = cache.getCopy(i);
+            if (copy != null) {
+                assertEquals(value(i), copy);
+            }
+        }
+        cache.clear();
+        assertEquals(10000, processor.destroyed.get() - destroyed);
+    }
+    
+    @Test
+    public void frequentlyUsedValuesShouldSurviveScan() {
+        MyStringCache<Integer> cache = new MyStringCache<Integer>(cacheFactory, 100 * valueBytes());
+        int hotCount = 20;
+        for (int i = 0; i < hotCount; i++) {
+            cache.put(i, value(i));
+        }
+        for (int j = 0; j < 10; j++) {
+            for (int i = 0; i < hotCount; i++) {
+                assertEquals(value(i), cache.getCopy(i));
+            }
+        }
+        // Each of the other keys is used only once, so they don't evict the frequently used ones
+        for (int i = hotCount; i < 10000; i++) {
+            cache.put(i, value(i));
+            if (i % 50 == 0) {
+                for (int j = 0; j < hotCount; j++) {
+                    assertEquals(value(j), cache.getCopy(j));
+                }
+            }
+        }
+        for (int i = 0; i < hotCount; i++) {
+            assertTrue("Frequently used key is evicted: " + i, cache.containsKey(i));
+        }
+        cache.clear();
+    }
+    
+}
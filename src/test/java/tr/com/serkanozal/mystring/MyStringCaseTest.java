@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MyStringCaseTest extends AbstractMyStringTest {
+
+    private static final List<Locale> LOCALES = 
+            Arrays.asList(Locale.ENGLISH, Locale.ROOT, new Locale("tr"), new Locale("az"), new Locale("lt"));
+    
+    private List<String> contents() {
+        Random random = new Random(29);
+        return Arrays.asList("", "a", "A", "abc", "ABC", "Hello World 123 [@`{]", 
+                             "IIii", "\u00C7a\u011F\u0130", "ascii then \u00DF", "\u00DF then ascii", 
+                             randomString(random, 3001, "abcxyzABCXYZ0189@[`{ "), 
+                             randomString(random, 3001, "abcxyzABCXYZ0189@[`{ ") + "\u0130", 
+                             randomUnicodeString(random, 3000));
+    }
+    
+    @Test
+    public void caseConversionShouldBeSameWithString() {
+        for (String content : contents()) {
+            String myStr = create(content);
+            assertEquals(content.toLowerCase(), myStr.toLowerCase());
+            assertEquals(content.toUpperCase(), myStr.toUpperCase());
+            for (Locale locale : LOCALES) {
+                assertEquals(locale + ": " + content, content.toLowerCase(locale), myStr.toLowerCase(locale));
+                assertEquals(locale + ": " + content, content.toUpperCase(locale), myStr.toUpperCase(locale));
+            }
+        }
+    }
+    
+    @Test
+    public void equalsIgnoreCaseShouldBeSameWithString() {
+        for (String content : contents()) {
+            String myStr = create(content);
+            String[] others = { 
+                content, content.toUpperCase(Locale.ROOT), content.toLowerCase(Locale.ROOT), 
+                content + "x", content.replace('a', 'b'), content.replace('a', 'A') 
+            };
+            for (String other : others) {
+                assertEquals(content + " ~ " + other, content.equalsIgnoreCase(other), myStr.equalsIgnoreCase(other));
+                String otherMyStr = create(other);
+                assertEquals(content.equalsIgnoreCase(other), myStr.equalsIgnoreCase(otherMyStr));
+            }
+        }
+    }
+    
+}
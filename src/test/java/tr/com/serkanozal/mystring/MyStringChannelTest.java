@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MyStringChannelTest extends AbstractMyStringTest {
+
+    private static final Charset NATIVE_UTF_16 = 
+            Charset.forName(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? "UTF-16LE" : "UTF-16BE");
+    
+    /**
+     * Writes at most a few bytes at each call, as a non-blocking socket might do.
+     */
+    private static final class PartialWritingChannel implements WritableByteChannel {
+        
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        
+        @Override
+        public int write(ByteBuffer src) {
+            int n = Math.min(src.remaining(), 7);
+            for (int i = 0; i < n; i++) {
+                out.write(src.get());
+            }
+            return n;
+        }
+        
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+        
+        @Override
+        public void close() {
+        }
+        
+    }
+    
+    @Test
+    public void writeToShouldWriteAllBytesToChannelWritingPartially() throws IOException {
+        String content = randomUnicodeString(new Random(35), 20000);
+        MyStringTemplate myStr = template(create(content));
+        for (Charset charset : new Charset[] { NATIVE_UTF_16, Charset.forName("UTF-8"), Charset.forName("UTF-16BE") }) {
+            PartialWritingChannel channel = new PartialWritingChannel();
+            long written = myStr.writeTo(channel, charset);
+            assertArrayEquals(charset.name(), content.getBytes(charset), channel.out.toByteArray());
+            assertEquals(content.getBytes(charset).length, written);
+        }
+    }
+    
+    @Test
+    public void encodeIntoShouldFillDirectBuffer() {
+        String content = randomUnicodeString(new Random(35), 5000);
+        MyStringTemplate myStr = template(create(content));
+        for (Charset charset : new Charset[] { NATIVE_UTF_16, Charset.forName("UTF-8") }) {
+            byte[] expected = content.getBytes(charset);
+            ByteBuffer dst = ByteBuffer.allocateDirect(expected.length);
+            assertEquals(content.length(), myStr.encodeInto(dst, charset));
+            assertEquals(expected.length, dst.position());
+            byte[] actual = new byte[expected.length];
+            dst.flip();
+            dst.get(actual);
+            assertArrayEquals(expected, actual);
+        }
+    }
+    
+    @Test
+    public void encodeIntoShouldNotSplitSurrogatePairs() {
+        // 2 bytes of room after "a" can't take the pair in any charset
+        MyStringTemplate myStr = template(create("a\uD83D\uDE00b"));
+        for (Charset charset : new Charset[] { NATIVE_UTF_16, Charset.forName("UTF-8") }) {
+            ByteBuffer dst = ByteBuffer.allocate(charset == NATIVE_UTF_16 ? 4 : 2);
+            assertEquals(charset.name(), 1, myStr.encodeInto(dst, charset));
+            dst = ByteBuffer.allocate(16);
+            assertEquals(4, myStr.encodeInto(1, dst, charset));
+            assertEquals(charset.name(), "\uD83D\uDE00b", new String(dst.array(), 0, dst.position(), charset));
+        }
+    }
+    
+    @Test
+    public void encodeIntoShouldReturnLengthWhenNothingIsLeft() {
+        MyStringTemplate myStr = template(create("abc"));
+        assertEquals(3, myStr.encodeInto(3, ByteBuffer.allocate(0), NATIVE_UTF_16));
+        assertEquals(0, myStr.encodeInto(ByteBuffer.allocate(0), Charset.forName("UTF-8")));
+    }
+    
+    @Test(expected = StringIndexOutOfBoundsException.class)
+    public void encodeIntoShouldRejectInvalidIndex() {
+        template(create("abc")).encodeInto(4, ByteBuffer.allocate(16), NATIVE_UTF_16);
+    }
+    
+}
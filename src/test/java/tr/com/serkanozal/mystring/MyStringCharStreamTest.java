@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+import org.junit.Test;
+
+public class MyStringCharStreamTest extends AbstractMyStringTest {
+
+    private List<String> contents() {
+        Random random = new Random(27);
+        StringBuilder splitPair = new StringBuilder();
+        for (int i = 0; i < 1023; i++) {
+            splitPair.append('a');
+        }
+        // Surrogate pair at the boundary of the chunks
+        splitPair.append("\uD83D\uDE00tail");
+        return Arrays.asList("", "a", "\uD83D\uDE00", "lone \uD83D", "\uDE00 lone", 
+                             splitPair.toString(), randomUnicodeString(random, 10000));
+    }
+    
+    @Test
+    public void charsShouldBeSameWithString() {
+        for (String content : contents()) {
+            String myStr = create(content);
+            assertArrayEquals(content.chars().toArray(), myStr.chars().toArray());
+            assertArrayEquals(content.chars().toArray(), myStr.chars().parallel().toArray());
+            assertEquals(content.chars().sum(), myStr.chars().parallel().sum());
+        }
+    }
+    
+    @Test
+    public void codePointsShouldBeSameWithString() {
+        for (String content : contents()) {
+            String myStr = create(content);
+            assertArrayEquals(content.codePoints().toArray(), myStr.codePoints().toArray());
+            assertArrayEquals(content.codePoints().toArray(), myStr.codePoints().parallel().toArray());
+        }
+    }
+    
+    @Test
+    public void splitsShouldCoverAllCharsWithoutSplittingSurrogatePairs() {
+        String content = contents().get(6);
+        String myStr = create(content);
+        List<Spliterator.OfInt> spliterators = new ArrayList<Spliterator.OfInt>();
+        spliterators.add(myStr.codePoints().spliterator());
+        for (int i = 0; i < spliterators.size(); i++) {
+            Spliterator.OfInt split;
+            while ((split = spliterators.get(i).trySplit()) != null) {
+                spliterators.add(i, split);
+            }
+        }
+        assertTrue(spliterators.size() > 1);
+        final List<Integer> codePoints = new ArrayList<Integer>();
+        for (Spliterator.OfInt spliterator : spliterators) {
+            spliterator.forEachRemaining(new IntConsumer() {
+                @Override
+                public void accept(int value) {
+                    codePoints.add(value);
+                }
+            });
+        }
+        int[] expected = content.codePoints().toArray();
+        assertEquals(expected.length, codePoints.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], codePoints.get(i).intValue());
+        }
+    }
+    
+    @Test
+    public void boxedConsumerShouldBeComposable() {
+        String myStr = create("abc");
+        final StringBuilder first = new StringBuilder();
+        final StringBuilder second = new StringBuilder();
+        Consumer<Integer> consumer = new Consumer<Integer>() {
+            @Override
+            public void accept(Integer value) {
+                first.append((char) value.intValue());
+            }
+        };
+        Spliterator.OfInt spliterator = myStr.chars().spliterator();
+        assertTrue(spliterator.tryAdvance(consumer));
+        spliterator.forEachRemaining(consumer.andThen(new Consumer<Integer>() {
+            @Override
+            public void accept(Integer value) {
+                second.append((char) value.intValue());
+            }
+        }));
+        assertEquals("abc", first.toString());
+        assertEquals("bc", second.toString());
+    }
+    
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class MyStringColumnTest extends AbstractMyStringTest {
+
+    private static String[] randomValues(int count, int distinctCount) {
+        Random random = new Random(44);
+        String[] distinct = new String[distinctCount];
+        for (int i = 0; i < distinctCount; i++) {
+            distinct[i] = randomUnicodeString(random, random.nextInt(12));
+        }
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = random.nextInt(20) == 0 ? null : distinct[random.nextInt(distinctCount)];
+        }
+        return values;
+    }
+    
+    private static MyStringColumn build(MyStringColumn.Builder builder, String[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                builder.appendNull();
+            } else if (i % 2 == 0) {
+                builder.append(values[i]);
+            } else {
+                builder.append(new StringBuilder(values[i]));
+            }
+        }
+        return builder.build();
+    }
+    
+    private static void assertColumn(String[] expected, MyStringColumn column) {
+        int nullCount = 0;
+        assertEquals(expected.length, column.size());
+        MyStringColumn.Value value = column.flyweight();
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] == null) {
+                nullCount++;
+                assertTrue(column.isNull(i));
+                assertNull(column.get(i));
+                continue;
+            }
+            assertFalse(column.isNull(i));
+            assertEquals(expected[i].length(), column.length(i));
+            assertEquals(expected[i], new String(column.get(i).toCharArray()));
+            assertTrue(column.contentEquals(i, expected[i]));
+            char[] chars = new char[expected[i].length()];
+            column.getChars(i, chars, 0);
+            assertArrayEquals(expected[i].toCharArray(), chars);
+            assertEquals(expected[i], value.at(i).toString());
+            if (expected[i].length() > 0) {
+                assertEquals(expected[i].charAt(0), column.charAt(i, 0));
+            }
+        }
+        assertEquals(nullCount, column.nullCount());
+    }
+    
+    @Test
+    public void columnShouldHoldAppendedValues() {
+        String[] values = randomValues(10000, 3000);
+        MyStringColumn column = build(MyStringColumn.builder(), values);
+        try {
+            assertFalse(column.isDictionaryEncoded());
+            assertColumn(values, column);
+        } finally {
+            column.destroy();
+        }
+    }
+    
+    @Test
+    public void dictionaryEncodedColumnShouldHoldDistinctValuesOnce() {
+        String[] values = randomValues(10000, 50);
+        MyStringColumn column = build(MyStringColumn.dictionaryBuilder(), values);
+        try {
+            assertTrue(column.isDictionaryEncoded());
+            assertColumn(values, column);
+            Set<String> distinct = new HashSet<String>();
+            for (String value : values) {
+                if (value != null) {
+                    distinct.add(value);
+                }
+            }
+            MyStringColumn dictionary = column.getDictionary();
+            assertEquals(distinct.size(), dictionary.size());
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    assertEquals(values[i], new String(dictionary.get(column.getDictionaryIndex(i)).toCharArray()));
+                }
+            }
+        } finally {
+            column.destroy();
+        }
+    }
+    
+    @Test
+    public void flyweightShouldViewSubSequences() {
+        MyStringColumn column = build(MyStringColumn.builder(), new String[] { "abcdef", "", null });
+        try {
+            MyStringColumn.Value value = column.flyweight().at(0);
+            assertEquals(6, value.length());
+            assertEquals('c', value.charAt(2));
+            assertEquals("cde", new String(value.subSequence(2, 5).toString().toCharArray()));
+            assertEquals("", value.subSequence(3, 3).toString());
+            assertEquals(0, column.length(1));
+            assertEquals("", column.flyweight().at(1).toString());
+        } finally {
+            column.destroy();
+        }
+    }
+    
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MyStringDictionaryTest {
+
+    // Offset of the data section of a dictionary having a single block
+    private static final int SINGLE_BLOCK_DATA_OFFSET = 48;
+    
+    private File file;
+    
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("mystring-dictionary", ".dic");
+    }
+    
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+    
+    private static List<String> sortedStrings(int count) {
+        Random random = new Random(47);
+        TreeSet<String> strs = new TreeSet<String>();
+        while (strs.size() < count) {
+            // Some strings have lengths encoded by multiple chars
+            int length = random.nextInt(500) == 0 ? 40000 + random.nextInt(1000) : random.nextInt(12);
+            strs.add(AbstractMyStringTest.randomString(random, length, "abcd\u00E7"));
+        }
+        return new ArrayList<String>(strs);
+    }
+    
+    private static void assertDictionary(List<String> expected, MyStringDictionary dictionary) {
+        assertEquals(expected.size(), dictionary.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(i, dictionary.rank(expected.get(i)));
+            assertEquals(expected.get(i), dictionary.select(i));
+        }
+        MyStringDictionary.Cursor cursor = dictionary.cursor();
+        for (String str : expected) {
+            assertTrue(cursor.next());
+            assertEquals(str, cursor.key().toString());
+        }
+        assertFalse(cursor.next());
+    }
+    
+    @Test
+    public void dictionaryShouldRankAndSelectStrings() {
+        List<String> strs = sortedStrings(3000);
+        MyStringDictionary dictionary = MyStringDictionary.build(strs.iterator(), 7);
+        try {
+            assertDictionary(strs, dictionary);
+            Random random = new Random(47);
+            for (int i = 0; i < 2000; i++) {
+                String key = AbstractMyStringTest.randomString(random, random.nextInt(13), "abcd\u00E7e");
+                int expectedRank = Arrays.binarySearch(strs.toArray(new String[strs.size()]), key);
+                assertEquals(key, expectedRank, dictionary.rank(key));
+                assertEquals(expectedRank >= 0, dictionary.contains(new StringBuilder(key)));
+            }
+            MyStringDictionary.Cursor cursor = dictionary.prefixCursor("ab");
+            for (String str : strs) {
+                if (str.startsWith("ab")) {
+                    assertTrue(cursor.next());
+                    assertEquals(str, cursor.key().toString());
+                }
+            }
+            assertFalse(cursor.next());
+        } finally {
+            dictionary.destroy();
+        }
+    }
+    
+    @Test
+    public void unsortedStringsShouldBeRejected() {
+        try {
+            MyStringDictionary.build(Arrays.asList("b", "a"));
+            fail("Unsorted strings should be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+    
+    @Test
+    public void savedDictionaryShouldBeLoaded() throws IOException {
+        List<String> strs = sortedStrings(3000);
+        MyStringDictionary dictionary = MyStringDictionary.build(strs);
+        try {
+            dictionary.save(file);
+            assertEquals(dictionary.getImageSize(), file.length());
+        } finally {
+            dictionary.destroy();
+        }
+        MyStringDictionary loaded = MyStringDictionary.load(file);
+        try {
+            assertDictionary(strs, loaded);
+        } finally {
+            loaded.destroy();
+        }
+    }
+    
+    private void writeChar(long offset, char c) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(2).order(ByteOrder.nativeOrder());
+        bytes.putChar(c);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(offset);
+            raf.write(bytes.array());
+        } finally {
+            raf.close();
+        }
+    }
+    
+    private void assertCorrupted() {
+        try {
+            MyStringDictionary.load(file).destroy();
+            fail("Corrupted dictionary should be rejected");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+    
+    @Test
+    public void corruptedLengthsShouldBeRejected() throws IOException {
+        MyStringDictionary dictionary = MyStringDictionary.build(Arrays.asList("abc", "abd", "b"));
+        try {
+            dictionary.save(file);
+        } finally {
+            dictionary.destroy();
+        }
+        // Data: 3 a b c | 2 1 d | 0 1 b
+        long data = SINGLE_BLOCK_DATA_OFFSET;
+        
+        // Length of the first string exceeds the data section
+        writeChar(data, (char) 0x7FFF);
+        assertCorrupted();
+        writeChar(data, (char) 3);
+        
+        // Length of the last suffix runs beyond the data section
+        writeChar(data + 2 * 8, (char) 0x8000);
+        writeChar(data + 2 * 9, (char) 0x8000);
+        assertCorrupted();
+        writeChar(data + 2 * 8, (char) 1);
+        writeChar(data + 2 * 9, 'b');
+        
+        // Shared prefix is longer than the previous string
+        writeChar(data + 2 * 4, (char) 4);
+        assertCorrupted();
+        writeChar(data + 2 * 4, (char) 2);
+        
+        MyStringDictionary loaded = MyStringDictionary.load(file);
+        try {
+            assertDictionary(Arrays.asList("abc", "abd", "b"), loaded);
+        } finally {
+            loaded.destroy();
+        }
+        
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 2);
+        } finally {
+            raf.close();
+        }
+        assertCorrupted();
+    }
+    
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MyStringEncodingTest extends AbstractMyStringTest {
+
+    private static final List<Charset> CHARSETS = 
+            Arrays.asList(Charset.forName("US-ASCII"), Charset.forName("ISO-8859-1"), 
+                          Charset.forName("UTF-8"), Charset.forName("UTF-16"), 
+                          Charset.forName("UTF-16LE"), Charset.forName("UTF-16BE"), 
+                          Charset.forName("windows-1252"));
+    
+    private List<String> contents() {
+        Random random = new Random(26);
+        StringBuilder splitPair = new StringBuilder();
+        for (int i = 0; i < 1023; i++) {
+            splitPair.append('a');
+        }
+        // Surrogate pair at the boundary of the encoding chunks
+        splitPair.append("\uD83D\uDE00tail");
+        return Arrays.asList("", "a", "hello world", "caf\u00E9 \u00FC\u00DF", 
+                             "\u20AC\u4E2D\u6587", "\uD83D\uDE00 emoji", 
+                             // Lone surrogates, also at the very end of the content
+                             "lone \uDE00 low", "lone high \uD83D", "\uD83D", 
+                             splitPair.toString(), 
+                             randomString(random, 5000, "abcdefghijklmnopqrstuvwxyz0123456789 "),
+                             randomUnicodeString(random, 5000));
+    }
+    
+    @Test
+    public void getBytesShouldBeSameWithString() throws IOException {
+        for (String content : contents()) {
+            String myStr = create(content);
+            assertArrayEquals(content.getBytes(), myStr.getBytes());
+            for (Charset charset : CHARSETS) {
+                assertArrayEquals(charset + ": " + content, 
+                                  content.getBytes(charset), myStr.getBytes(charset));
+                assertArrayEquals(content.getBytes(charset.name()), myStr.getBytes(charset.name()));
+            }
+        }
+    }
+    
+    @Test
+    public void writeToShouldWriteSameBytesWithString() throws IOException {
+        for (String content : contents()) {
+            MyStringTemplate myStr = template(create(content));
+            for (Charset charset : CHARSETS) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                long written = myStr.writeTo(Channels.newChannel(out), charset);
+                byte[] expected = content.getBytes(charset);
+                assertArrayEquals(charset + ": " + content, expected, out.toByteArray());
+                assertEquals(expected.length, written);
+            }
+        }
+    }
+    
+    @Test
+    public void encodeIntoShouldEncodeSameBytesWithStringByMultipleCalls() {
+        for (String content : contents()) {
+            MyStringTemplate myStr = template(create(content));
+            for (Charset charset : CHARSETS) {
+                if (charset.name().equals("UTF-16")) {
+                    // Byte order mark is written at each call
+                    continue;
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ByteBuffer buffer = ByteBuffer.allocate(64);
+                int index = 0;
+                do {
+                    buffer.clear();
+                    index = myStr.encodeInto(index, buffer, charset);
+                    out.write(buffer.array(), 0, buffer.position());
+                } while (index < content.length());
+                assertArrayEquals(charset + ": " + content, content.getBytes(charset), out.toByteArray());
+            }
+        }
+    }
+    
+    @Test
+    public void encodeIntoShouldCompleteEncodingOfStatefulCharsetAtEachCall() {
+        Charset charset = Charset.forName("ISO-2022-JP");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("ab\u65E5\u672C\u8A9Ecd\u6587");
+        }
+        String content = sb.toString();
+        MyStringTemplate myStr = template(create(content));
+        for (int size = 8; size <= 64; size++) {
+            StringBuilder decoded = new StringBuilder();
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            int index = 0;
+            do {
+                buffer.clear();
+                int next = myStr.encodeInto(index, buffer, charset);
+                assertTrue(next > index);
+                // Each part returns to the initial state, so it is decoded independently
+                String part = new String(buffer.array(), 0, buffer.position(), charset);
+                assertEquals(content.substring(index, next), part);
+                decoded.append(part);
+                index = next;
+            } while (index < content.length());
+            assertEquals(content, decoded.toString());
+        }
+    }
+    
+}
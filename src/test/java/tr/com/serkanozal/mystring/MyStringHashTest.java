@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MyStringHashTest extends AbstractMyStringTest {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    
+    private static String alphabet(int length) {
+        StringBuilder str = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            str.append((char) ('a' + i % 26));
+        }
+        return str.toString();
+    }
+    
+    @Test
+    public void hashShouldBeXxHash64OfUtf16LittleEndianBytes() {
+        // Reference values are computed by xxHash64 over the UTF-16LE bytes of the strings
+        assertEquals(0xEF46DB3751D8E999L, MyStringHash.longHash(""));
+        assertEquals(0xAFF0F2A2F8B32731L, MyStringHash.longHash("abc"));
+        assertEquals(0xE9014574A9485C64L, MyStringHash.longHash("\u00E7\u011F\u20AC"));
+        assertEquals(0xF7A0BF02720376ECL, MyStringHash.longHash(alphabet(100)));
+        assertEquals(0xA20F8C5E6DED21D6L, MyStringHash.longHash(alphabet(100), 47));
+    }
+    
+    @Test
+    public void hasherShouldProduceSameHashForContentInPieces() {
+        Random random = new Random(50);
+        for (int i = 0; i < 500; i++) {
+            String str = randomUnicodeString(random, random.nextInt(200));
+            long seed = random.nextLong();
+            MyStringHash.Hasher hasher = MyStringHash.newHasher(seed);
+            for (int begin = 0; begin < str.length();) {
+                int end = begin + Math.min(str.length() - begin, random.nextInt(40));
+                switch (random.nextInt(4)) {
+                    case 0:
+                        for (int j = begin; j < end; j++) {
+                            hasher.update(str.charAt(j));
+                        }
+                        break;
+                    case 1:
+                        hasher.update(str.toCharArray(), begin, end - begin);
+                        break;
+                    case 2:
+                        hasher.update(str, begin, end);
+                        break;
+                    default:
+                        hasher.update(new StringBuilder(str), begin, end);
+                        break;
+                }
+                begin = end;
+            }
+            assertEquals(MyStringHash.longHash(str, seed), hasher.hash());
+            // Hasher can be reused after it is reset
+            assertEquals(MyStringHash.longHash(str, seed), hasher.reset().update(str).hash());
+        }
+    }
+    
+    @Test
+    public void hashOfOffHeapStringShouldBeSameAsHashOfHeapString() {
+        Random random = new Random(50);
+        for (int length = 0; length < 100; length++) {
+            // Lengths cover both full stripes and the remaining chars
+            String str = randomUnicodeString(random, length);
+            String myStr = create(str);
+            assertTrue(isMyString(myStr));
+            assertEquals(MyStringHash.longHash(str), MyStringHash.longHash(myStr));
+            assertEquals(MyStringHash.longHash(str, length), MyStringHash.longHash(myStr, length));
+            
+            // Hasher is fed from the middle of the storage, so the stripes are not aligned
+            int begin = length > 0 ? random.nextInt(length) : 0;
+            MyStringHash.Hasher hasher = MyStringHash.newHasher().update(str, 0, begin).update(myStr, begin, length);
+            assertEquals(MyStringHash.longHash(str), hasher.hash());
+        }
+    }
+    
+    @Test
+    public void hashOfViewShouldBeSameAsHashOfHeapString() throws IOException {
+        File file = File.createTempFile("mystring-hash", ".txt");
+        try {
+            Random random = new Random(50);
+            String[] lines = new String[100];
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = randomString(random, random.nextInt(100), "abc\u00E7\u011F\u00FC ");
+                content.append(lines[i]).append('\n');
+            }
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(content.toString().getBytes(ISO_8859_1));
+            } finally {
+                out.close();
+            }
+            // Lines are views of the mapped file, which are hashed from chunks of their chars
+            MyStringLineReader reader = new MyStringLineReader(file, ISO_8859_1);
+            try {
+                for (String line : lines) {
+                    assertTrue(reader.next());
+                    String view = reader.line();
+                    assertTrue(isMyString(view));
+                    assertEquals(MyStringHash.longHash(line), MyStringHash.longHash(view));
+                }
+            } finally {
+                reader.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+    
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import tr.com.serkanozal.mystring.offheap.OffHeapMyStringProcessor;
+
+public class MyStringInternTest extends AbstractMyStringTest {
+
+    private String id;
+    private MyStringFactory internFactory;
+    
+    @Before
+    public void registerFactory() {
+        id = "InternMyStringProcessor-" + System.nanoTime();
+        MyStringService.registerMyStringFactory(id, new OffHeapMyStringProcessor());
+        internFactory = MyStringService.getMyStringFactory(id);
+    }
+    
+    @After
+    public void deregisterFactory() {
+        MyStringService.clearInternPool(id);
+        MyStringService.deregisterMyStringFactory(id);
+    }
+    
+    @Test
+    public void equalStringsShouldBeInternedToSameString() {
+        String str1 = own(internFactory.create("interned"));
+        String str2 = own(internFactory.create("interned"));
+        String canonical = str1.intern();
+        assertSame(str1, canonical);
+        assertSame(canonical, str2.intern());
+        assertNotSame(canonical, own(internFactory.create("other")).intern());
+        assertEquals(2, MyStringService.clearInternPool(id));
+        assertEquals(0, MyStringService.clearInternPool(id));
+    }
+    
+    @Test
+    public void canonicalStringShouldNotBeDestroyedByItsOwner() {
+        String str = internFactory.create("canonical");
+        String canonical = str.intern();
+        destroy(str);
+        assertEquals("canonical", new String(canonical.toCharArray()));
+        assertSame(canonical, own(internFactory.create("canonical")).intern());
+    }
+    
+    @Test
+    public void internedBatchStringShouldOutliveBatch() {
+        String[] strs = new String[100];
+        for (int i = 0; i < strs.length; i++) {
+            strs[i] = "batch-" + i;
+        }
+        MyStringBatch batch = internFactory.createBatch(strs);
+        String[] canonicals = new String[strs.length];
+        for (int i = 0; i < strs.length; i++) {
+            canonicals[i] = batch.get(i).intern();
+            assertTrue(isMyString(canonicals[i]));
+            // Batch strings share the storage of the batch, so they are copied to become canonical
+            assertNotSame(batch.get(i), canonicals[i]);
+        }
+        batch.destroy();
+        for (int i = 0; i < strs.length; i++) {
+            assertEquals(strs[i], new String(canonicals[i].toCharArray()));
+            assertSame(canonicals[i], own(internFactory.create(strs[i])).intern());
+        }
+    }
+    
+}
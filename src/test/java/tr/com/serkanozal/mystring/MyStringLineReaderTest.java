@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MyStringLineReaderTest extends AbstractMyStringTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private File file;
+    
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("mystring-lines", ".txt");
+    }
+    
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+    
+    private void write(String content, Charset charset) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(charset));
+        } finally {
+            out.close();
+        }
+    }
+    
+    private static List<String> readLines(MyStringLineReader reader) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        while (reader.next()) {
+            lines.add(reader.line());
+        }
+        return lines;
+    }
+    
+    @Test
+    public void linesShouldBeReadAcrossWindows() throws IOException {
+        Random random = new Random(39);
+        List<String> expected = new ArrayList<String>();
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            // Some lines are longer than the window, so the window is grown for them
+            String line = i % 5 == 0 
+                    ? randomUnicodeString(random, random.nextInt(100)).replace('\n', ' ').replace('\r', ' ') 
+                    : randomString(random, random.nextInt(i % 7 == 0 ? 300 : 30), "abcdefghij ");
+            expected.add(line);
+            content.append(line).append('\n');
+        }
+        write(content.toString(), UTF_8);
+        MyStringLineReader reader = new MyStringLineReader(file, UTF_8, (byte) '\n', 64);
+        try {
+            List<String> lines = readLines(reader);
+            assertEquals(expected.size(), lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                assertEquals(expected.get(i), new String(lines.get(i).toCharArray()));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+    
+    @Test
+    public void asciiLinesShouldBeViewed() throws IOException {
+        write("ascii\n\u00E7\u011F\u00FC\n", UTF_8);
+        MyStringLineReader reader = new MyStringLineReader(file);
+        try {
+            assertTrue(reader.next());
+            assertTrue(reader.isViewable());
+            assertTrue(isMyString(reader.line()));
+            assertEquals("ascii", reader.line());
+            assertTrue(reader.next());
+            assertFalse(reader.isViewable());
+            assertEquals("\u00E7\u011F\u00FC", reader.line());
+            assertEquals(6, reader.lineByteLength());
+            String decoded = own(reader.line(factory));
+            assertTrue(isMyString(decoded));
+            assertEquals("\u00E7\u011F\u00FC", decoded);
+            assertFalse(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+    
+    @Test
+    public void carriageReturnShouldBeStrippedOnlyBeforeNewLine() throws IOException {
+        write("first\r\nsecond\r\n\r\nlast\r", UTF_8);
+        MyStringLineReader reader = new MyStringLineReader(file);
+        try {
+            List<String> lines = readLines(reader);
+            assertEquals(4, lines.size());
+            assertEquals("first", lines.get(0));
+            assertEquals("second", lines.get(1));
+            assertEquals("", lines.get(2));
+            // Unterminated last line keeps its trailing '\r'
+            assertEquals("last\r", lines.get(3));
+        } finally {
+            reader.close();
+        }
+    }
+    
+    @Test
+    public void customDelimiterShouldEndRecords() throws IOException {
+        write("a,bb,,ccc\r", UTF_8);
+        MyStringLineReader reader = new MyStringLineReader(file, UTF_8, (byte) ',', 8);
+        try {
+            List<String> records = readLines(reader);
+            assertEquals(4, records.size());
+            assertEquals("a", records.get(0));
+            assertEquals("bb", records.get(1));
+            assertEquals("", records.get(2));
+            assertEquals("ccc\r", records.get(3));
+        } finally {
+            reader.close();
+        }
+    }
+    
+    @Test
+    public void viewsShouldStayValidAfterReaderIsClosed() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append("line-").append(i).append('\n');
+        }
+        write(content.toString(), UTF_8);
+        MyStringLineReader reader = new MyStringLineReader(file, UTF_8, (byte) '\n', 64);
+        List<String> lines = new ArrayList<String>();
+        ByteBuffer lastBytes = null;
+        try {
+            while (reader.next()) {
+                lines.add(reader.line());
+                lastBytes = reader.lineBytes();
+            }
+        } finally {
+            reader.close();
+        }
+        // Forces GC to unmap the windows which are not referenced anymore
+        System.gc();
+        assertEquals(1000, lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            assertTrue(isMyString(lines.get(i)));
+            assertEquals("line-" + i, new String(lines.get(i).toCharArray()));
+        }
+        byte[] bytes = new byte[lastBytes.remaining()];
+        lastBytes.get(bytes);
+        assertEquals("line-999", new String(bytes, UTF_8));
+    }
+    
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MyStringLogTest extends AbstractMyStringTest {
+
+    private static final String FACTORY_ID = "MyStringLogTest";
+    private static final int SEGMENT_SIZE = 16 * 1024;
+    
+    private File directory;
+    private MyStringLog log;
+    
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("mystring-log", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+    }
+    
+    @After
+    public void deleteDirectory() {
+        if (log != null) {
+            log.close();
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+    
+    private MyStringLog reopen() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+        log = MyStringLog.open(directory, FACTORY_ID, SEGMENT_SIZE, 0);
+        return log;
+    }
+    
+    private static List<String> contents(List<String> strs) {
+        List<String> contents = new ArrayList<String>();
+        for (String str : strs) {
+            contents.add(new String(str.toCharArray()));
+        }
+        Collections.sort(contents);
+        return contents;
+    }
+    
+    @Test
+    public void openShouldRecoverCreatedStrings() throws IOException {
+        Random random = new Random(37);
+        List<String> expected = new ArrayList<String>();
+        List<String> created = new ArrayList<String>();
+        MyStringFactory logFactory = reopen().getFactory();
+        assertTrue(log.getRecoveredStrings().isEmpty());
+        for (int i = 0; i < 1000; i++) {
+            String content = randomUnicodeString(random, random.nextInt(40));
+            String myStr = logFactory.create(content);
+            assertTrue(isMyString(myStr));
+            assertEquals(content, new String(myStr.toCharArray()));
+            expected.add(content);
+            created.add(myStr);
+        }
+        log.sync();
+        Collections.sort(expected);
+        assertEquals(expected, contents(created));
+        
+        List<String> recovered = reopen().getRecoveredStrings();
+        assertEquals(expected, contents(recovered));
+        // Recovered strings are in the log, so they survive another reopen
+        assertEquals(expected, contents(reopen().getRecoveredStrings()));
+    }
+    
+    @Test
+    public void destroyedStringsShouldNotBeRecovered() throws IOException {
+        Random random = new Random(37);
+        MyStringFactory logFactory = reopen().getFactory();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 500; i++) {
+            String content = randomString(random, 1 + random.nextInt(30), "abcdefgh");
+            String myStr = logFactory.create(content);
+            if (i % 3 == 0) {
+                expected.add(content);
+            } else {
+                destroy(myStr);
+            }
+        }
+        Collections.sort(expected);
+        
+        List<String> recovered = reopen().getRecoveredStrings();
+        assertEquals(expected, contents(recovered));
+        
+        // Destroying a recovered string removes it from the log too
+        destroy(recovered.get(0));
+        List<String> remaining = new ArrayList<String>(recovered.subList(1, recovered.size()));
+        List<String> expectedRemaining = contents(remaining);
+        assertEquals(expectedRemaining, contents(reopen().getRecoveredStrings()));
+    }
+    
+    @Test
+    public void compactShouldReclaimDeadRecordsAndKeepLiveStrings() throws IOException {
+        Random random = new Random(37);
+        MyStringFactory logFactory = reopen().getFactory();
+        List<String> live = new ArrayList<String>();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            String content = randomString(random, 20 + random.nextInt(20), "0123456789");
+            String myStr = logFactory.create(content);
+            if (i % 10 == 0) {
+                live.add(myStr);
+                expected.add(content);
+            } else {
+                destroy(myStr);
+            }
+        }
+        Collections.sort(expected);
+        long sizeBefore = log.getSize();
+        long liveSize = log.getLiveSize();
+        assertTrue(liveSize < sizeBefore / 4);
+        
+        log.compact();
+        
+        assertTrue(log.getSize() < sizeBefore);
+        assertEquals(liveSize, log.getLiveSize());
+        // Strings are moved by compaction, but still read the same content
+        assertEquals(expected, contents(live));
+        assertEquals(expected, contents(reopen().getRecoveredStrings()));
+    }
+    
+    @Test
+    public void readersShouldNotSeeUnmappedSegmentsWhileCompacting() throws Exception {
+        final MyStringFactory logFactory = reopen().getFactory();
+        final List<String> live = new ArrayList<String>();
+        final List<String> expected = new ArrayList<String>();
+        // Live records occupy a small part of their segments, so they are moved by compaction
+        for (int i = 0; i < 50; i++) {
+            String content = "live-" + i;
+            live.add(logFactory.create(content));
+            expected.add(content);
+        }
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (!done.get()) {
+                            for (int i = 0; i < live.size(); i++) {
+                                assertEquals(expected.get(i), new String(live.get(i).toCharArray()));
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            };
+            readers[t].start();
+        }
+        try {
+            Random random = new Random(37);
+            for (int round = 0; round < 50; round++) {
+                for (int i = 0; i < 500; i++) {
+                    destroy(logFactory.create(randomString(random, 20, "abcdefgh")));
+                }
+                log.compact();
+            }
+        } finally {
+            done.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        for (int i = 0; i < live.size(); i++) {
+            assertEquals(expected.get(i), new String(live.get(i).toCharArray()));
+        }
+    }
+    
+    @Test
+    public void recordLargerThanSegmentShouldBeRejected() throws IOException {
+        reopen();
+        // Record size of this capacity overflows int
+        try {
+            log.createStorageId(2L * 1100 * 1000 * 1000);
+            fail("Record larger than the max segment size should be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+    
+    @Test
+    public void recoveryShouldStopAtRecordWithCorruptedCapacity() throws IOException {
+        MyStringFactory logFactory = reopen().getFactory();
+        logFactory.create("abcd");
+        logFactory.create("efgh");
+        logFactory.create("ijkl");
+        log.close();
+        log = null;
+        
+        File[] files = directory.listFiles();
+        assertEquals(1, files.length);
+        // Segment header (16 bytes) and the first record (32 bytes of header and 8 bytes of chars) 
+        // are followed by the capacity of the second record
+        ByteBuffer capacity = ByteBuffer.allocate(4).order(ByteOrder.nativeOrder());
+        capacity.putInt(Integer.MAX_VALUE);
+        RandomAccessFile raf = new RandomAccessFile(files[0], "rw");
+        try {
+            raf.seek(16 + 40 + 24);
+            raf.write(capacity.array());
+        } finally {
+            raf.close();
+        }
+        assertEquals(Arrays.asList("abcd"), contents(reopen().getRecoveredStrings()));
+    }
+    
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MyStringMapTest extends AbstractMyStringTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // Keys are made of 1, 2, 3 and 4 byte UTF-8 sequences
+    private static final String[] KEY_TOKENS = { "a", "b", "c", "\u00e7", "\u011f", "\u20ac", "\ud83d\ude00" };
+    
+    private MyStringMap map;
+    
+    @Before
+    public void createMap() {
+        map = new MyStringMap();
+    }
+    
+    @After
+    public void destroyMap() {
+        map.destroy();
+    }
+    
+    private static String randomKey(Random random) {
+        StringBuilder key = new StringBuilder();
+        for (int i = random.nextInt(5); i > 0; i--) {
+            key.append(KEY_TOKENS[random.nextInt(KEY_TOKENS.length)]);
+        }
+        return key.toString();
+    }
+    
+    private void assertSameContent(Map<String, String> expected) {
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<String, String> e : expected.entrySet()) {
+            assertTrue(map.containsKey(e.getKey()));
+            assertEquals(e.getValue(), map.get(e.getKey()));
+            byte[] bytes = e.getKey().getBytes(UTF_8);
+            assertTrue(map.containsKey(bytes, 0, bytes.length));
+            assertEquals(e.getValue(), map.get(bytes, 0, bytes.length));
+        }
+        Map<String, String> iterated = new HashMap<String, String>();
+        MyStringMap.Cursor cursor = map.cursor();
+        while (cursor.next()) {
+            String value = cursor.value();
+            iterated.put(new String(cursor.key().toCharArray()), 
+                         value != null ? new String(value.toCharArray()) : null);
+        }
+        assertEquals(expected, iterated);
+    }
+    
+    @Test
+    public void mapShouldBehaveAsHashMap() {
+        Random random = new Random(41);
+        Map<String, String> expected = new HashMap<String, String>();
+        for (int i = 0; i < 50000; i++) {
+            String key = randomKey(random);
+            int op = random.nextInt(10);
+            if (op < 5) {
+                String value = random.nextInt(10) == 0 ? null : randomUnicodeString(random, random.nextInt(20));
+                assertEquals(!expected.containsKey(key), map.put(key, value));
+                expected.put(key, value);
+            } else if (op < 8) {
+                boolean exists = expected.containsKey(key);
+                expected.remove(key);
+                assertEquals(exists, map.remove(key));
+            } else {
+                assertEquals(expected.containsKey(key), map.containsKey(new StringBuilder(key)));
+            }
+        }
+        assertSameContent(expected);
+    }
+    
+    @Test
+    public void mapShouldHandleRemovingAndAddingRepeatedly() {
+        Map<String, String> expected = new HashMap<String, String>();
+        // Removed slots are reused or cleared, so probing still terminates
+        for (int i = 0; i < 100000; i++) {
+            String key = "key-" + i;
+            map.put(key, "value-" + i);
+            expected.put(key, "value-" + i);
+            if (i >= 10) {
+                String removedKey = "key-" + (i - 10);
+                assertTrue(map.remove(removedKey));
+                expected.remove(removedKey);
+                assertFalse(map.containsKey(removedKey));
+            }
+        }
+        assertSameContent(expected);
+    }
+    
+    @Test
+    public void valueShouldBeReplaced() {
+        assertTrue(map.put("key", "a long value"));
+        assertFalse(map.put("key", "short"));
+        assertEquals("short", map.get("key"));
+        assertFalse(map.put(create("key"), "a value longer than the old one"));
+        assertEquals("a value longer than the old one", map.get("key"));
+        assertFalse(map.put("key", null));
+        assertTrue(map.containsKey("key"));
+        assertNull(map.get("key"));
+        assertTrue(map.add("other"));
+        assertFalse(map.add("other"));
+        assertEquals(2, map.size());
+        
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey("key"));
+    }
+    
+    @Test
+    public void destroyedMapShouldNotBeUsed() {
+        MyStringMap destroyed = new MyStringMap(100);
+        destroyed.put("key", "value");
+        destroyed.destroy();
+        try {
+            destroyed.get("key");
+            fail("Destroyed map should not be used");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+    
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MyStringPrefixTest extends AbstractMyStringTest {
+
+    // Strings are the same or prefixes of each other in their first chars, 
+    // end by zero chars (as the padding of the prefixes) or have the highest char
+    private static final String[] CONTENTS = {
+        "", "a", "ab", "ab\u0000", "ab\u0000\u0000", "abc", "abcd", "abcd\u0000", "abcde", "abcdf", 
+        "abce", "abd", "b", "\u0000", "\uFFFF", "\uFFFF\uFFFF\uFFFF\uFFFF\uFFFF", "a\uFFFF", "Abcd"
+    };
+    
+    private static int sign(int value) {
+        return value < 0 ? -1 : (value > 0 ? 1 : 0);
+    }
+    
+    private static String heapCopy(String str) {
+        return new String(str.toCharArray());
+    }
+    
+    // Creates off-heap strings with the given contents in different ways, 
+    // so some of them have their prefixes cached at creation and others on first use
+    private List<String> createVariants(String content) {
+        List<String> variants = new ArrayList<String>();
+        variants.add(create(content));
+        variants.add(own(factory.create(content.toCharArray())));
+        MyStringBuilder builder = factory.createBuilder();
+        builder.append(content);
+        variants.add(own(builder.toMyString()));
+        variants.add(own(create("x" + content).substring(1)));
+        return variants;
+    }
+    
+    private static void assertSameComparisons(String expected1, String expected2, String str1, String str2) {
+        String message = "'" + expected1 + "' vs '" + expected2 + "'";
+        assertEquals(message, expected1.equals(expected2), str1.equals(str2));
+        assertEquals(message, sign(expected1.compareTo(expected2)), sign(str1.compareTo(str2)));
+        assertEquals(message, expected1.startsWith(expected2), str1.startsWith(str2));
+        assertEquals(message, expected1.startsWith(expected2, 0), str1.startsWith(str2, 0));
+    }
+    
+    @Test
+    public void comparisonsShouldMatchHeapStrings() {
+        List<List<String>> variants = new ArrayList<List<String>>();
+        for (String content : CONTENTS) {
+            variants.add(createVariants(content));
+        }
+        for (int i = 0; i < CONTENTS.length; i++) {
+            for (int j = 0; j < CONTENTS.length; j++) {
+                for (String str1 : variants.get(i)) {
+                    // Off-heap with heap in both directions
+                    assertSameComparisons(CONTENTS[i], CONTENTS[j], str1, heapCopy(CONTENTS[j]));
+                    assertSameComparisons(CONTENTS[j], CONTENTS[i], heapCopy(CONTENTS[j]), str1);
+                    for (String str2 : variants.get(j)) {
+                        assertSameComparisons(CONTENTS[i], CONTENTS[j], str1, str2);
+                    }
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void comparisonsOfRandomStringsShouldMatchHeapStrings() {
+        Random random = new Random(46);
+        for (int i = 0; i < 5000; i++) {
+            String content1 = randomString(random, random.nextInt(8), "ab\u0000\uFFFF");
+            String content2 = random.nextInt(4) == 0 
+                    ? content1.substring(0, random.nextInt(content1.length() + 1)) 
+                    : randomString(random, random.nextInt(8), "ab\u0000\uFFFF");
+            String str1 = create(content1);
+            String str2 = create(content2);
+            assertSameComparisons(content1, content2, str1, str2);
+            assertSameComparisons(content1, content2, str1, heapCopy(content2));
+            if (str1.equals(str2)) {
+                assertEquals(str1.hashCode(), str2.hashCode());
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MyStringReplaceTest extends AbstractMyStringTest {
+
+    @Test
+    public void literalReplaceShouldBeSameWithString() {
+        Random random = new Random(31);
+        String[][] replacements = { 
+            { "a", "b" }, { "ab", "" }, { "b", "xyz" }, { "", "-" }, { "aa", "a" }, { "$", "\\" }, { "zzz", "q" } 
+        };
+        for (int i = 0; i < 200; i++) {
+            String content = randomString(random, random.nextInt(30), "ab$.");
+            String myStr = create(content);
+            for (String[] replacement : replacements) {
+                assertEquals(content + " / " + replacement[0], 
+                             content.replace(replacement[0], replacement[1]), 
+                             myStr.replace(replacement[0], replacement[1]));
+            }
+        }
+    }
+    
+    @Test
+    public void regexOperationsShouldBeSameWithString() {
+        String content = "key1=value1; key2=value2;key3 = value3";
+        String myStr = create(content);
+        assertEquals(content.replaceAll("\\s*=\\s*", ":"), myStr.replaceAll("\\s*=\\s*", ":"));
+        assertEquals(content.replaceFirst("key(\\d)", "k$1"), myStr.replaceFirst("key(\\d)", "k$1"));
+        assertEquals(content.matches(".*value2.*"), myStr.matches(".*value2.*"));
+        assertEquals(content.matches("value2"), myStr.matches("value2"));
+        assertArrayEquals(content.split(";\\s*"), myStr.split(";\\s*"));
+        assertArrayEquals(content.split("[=;]", 3), myStr.split("[=;]", 3));
+    }
+    
+    @Test
+    public void destroyedMyStringRegexShouldNotBreakCachedPatterns() {
+        String content = "a1b22c333";
+        String regex = factory.create("\\d+");
+        assertEquals(content.replaceAll("\\d+", "#"), create(content).replaceAll(regex, "#"));
+        destroy(regex);
+        assertEquals(content.replaceAll("\\d+", "#"), create(content).replaceAll("\\d+", "#"));
+    }
+    
+}
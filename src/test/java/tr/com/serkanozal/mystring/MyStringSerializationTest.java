@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MyStringSerializationTest extends AbstractMyStringTest {
+
+    private static byte[] serialize(Object obj) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bos);
+        out.writeObject(obj);
+        out.close();
+        return bos.toByteArray();
+    }
+    
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+    
+    @Test
+    public void stringShouldBeRecreatedByItsFactory() throws Exception {
+        Random random = new Random(36);
+        for (String content : Arrays.asList("", "latin1 caf\u00E9", "\u0000 null char", 
+                                            randomString(random, 5000, "abc\u00FF"), 
+                                            randomUnicodeString(random, 5000))) {
+            String myStr = create(content);
+            String deserialized = own((String) deserialize(serialize(myStr)));
+            assertEquals(content, deserialized);
+            assertTrue(isMyString(deserialized));
+        }
+    }
+    
+    @Test
+    public void stringsInObjectGraphShouldBeRecreated() throws Exception {
+        List<String> strs = new ArrayList<String>();
+        strs.add(create("first"));
+        strs.add(create("second \u20AC"));
+        strs.add("heap");
+        @SuppressWarnings("unchecked")
+        List<String> deserialized = (List<String>) deserialize(serialize(strs));
+        assertEquals(strs, deserialized);
+        for (String str : deserialized) {
+            own(str);
+        }
+    }
+    
+    @Test
+    public void untrustedLengthShouldNotBeAllocatedBeforeContentIsRead() throws Exception {
+        Charset utf8 = Charset.forName("UTF-8");
+        String myStr = create("abc");
+        byte[] bytes = serialize(myStr);
+        // Factory id is followed by the length of the string
+        byte[] factoryId = "OffHeapMyStringProcessor".getBytes(utf8);
+        int index = indexOf(bytes, factoryId) + factoryId.length;
+        assertEquals(3, bytes[index + 3]);
+        bytes[index] = 0x7F;
+        bytes[index + 1] = (byte) 0xFF;
+        bytes[index + 2] = (byte) 0xFF;
+        bytes[index + 3] = (byte) 0xFF;
+        try {
+            deserialize(bytes);
+            fail("Truncated content must not be accepted");
+        } catch (IOException e) {
+            // Expected, since the content is shorter than the length
+        }
+    }
+    
+    private static int indexOf(byte[] bytes, byte[] part) {
+        for (int i = 0; i + part.length <= bytes.length; i++) {
+            if (Arrays.equals(part, Arrays.copyOfRange(bytes, i, i + part.length))) {
+                return i;
+            }
+        }
+        throw new AssertionError("Not found");
+    }
+    
+}
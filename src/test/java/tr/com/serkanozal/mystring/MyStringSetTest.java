@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MyStringSetTest extends AbstractMyStringTest {
+
+    private MyStringSet set;
+    
+    @Before
+    public void createSet() {
+        set = new MyStringSet(16, 0.01);
+    }
+    
+    @After
+    public void destroySet() {
+        set.destroy();
+    }
+    
+    private void assertSameContent(Set<String> expected) {
+        assertEquals(expected.size(), set.size());
+        for (String str : expected) {
+            assertTrue(set.mightContain(str));
+            assertTrue(set.contains(str));
+        }
+        assertTrue(set.containsAll(expected));
+        Set<String> iterated = new HashSet<String>();
+        MyStringSet.Cursor cursor = set.cursor();
+        while (cursor.next()) {
+            iterated.add(new String(cursor.key().toCharArray()));
+        }
+        assertEquals(expected, iterated);
+    }
+    
+    @Test
+    public void setShouldBehaveAsHashSet() {
+        Random random = new Random(47);
+        Set<String> expected = new HashSet<String>();
+        // Grows beyond the capacity of the filter, so the filter is rebuilt several times
+        for (int i = 0; i < 20000; i++) {
+            String str = randomString(random, random.nextInt(8), "abc\u00E7\u011F\u20AC");
+            if (random.nextInt(4) == 0) {
+                assertEquals(expected.remove(str), set.remove(str));
+            } else {
+                assertEquals(expected.add(str), set.add(str));
+            }
+            assertEquals(expected.contains(str), set.contains(new StringBuilder(str)));
+        }
+        assertSameContent(expected);
+        
+        set.clear();
+        assertTrue(set.isEmpty());
+        for (String str : expected) {
+            assertFalse(set.mightContain(str));
+        }
+        
+        List<String> strs = new ArrayList<String>(expected);
+        assertEquals(strs.size(), set.addAll(strs));
+        assertEquals(0, set.addAll(strs));
+        assertSameContent(expected);
+        assertFalse(set.containsAll(Arrays.asList(strs.get(0), "not in the set")));
+    }
+    
+    // Strings made of "Aa" and "BB" pairs have the same String#hashCode()
+    private static List<String> stringsWithSameHashCode(int pairCount) {
+        List<String> strs = new ArrayList<String>();
+        for (int i = 0; i < 1 << pairCount; i++) {
+            StringBuilder str = new StringBuilder();
+            for (int j = 0; j < pairCount; j++) {
+                str.append((i & (1 << j)) != 0 ? "Aa" : "BB");
+            }
+            strs.add(str.toString());
+        }
+        return strs;
+    }
+    
+    @Test
+    public void filterShouldRejectStringsWithSameHashCode() {
+        List<String> strs = stringsWithSameHashCode(12);
+        List<String> added = strs.subList(0, strs.size() / 2);
+        List<String> others = strs.subList(strs.size() / 2, strs.size());
+        assertEquals(added.get(0).hashCode(), others.get(0).hashCode());
+        
+        set.addAll(added);
+        for (String str : added) {
+            assertTrue(set.contains(str));
+        }
+        int falsePositives = 0;
+        for (String str : others) {
+            if (set.mightContain(str)) {
+                falsePositives++;
+            }
+            assertFalse(set.contains(str));
+        }
+        // Expected rate is 1%, the margin keeps the test stable
+        assertTrue("False positives: " + falsePositives, falsePositives < others.size() / 20);
+    }
+    
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import tr.com.serkanozal.mystring.offheap.OffHeapMyStringProcessor;
+
+public class MyStringSnapshotTest extends AbstractMyStringTest {
+
+    /**
+     * Records whether content is written into a string which is already tracked.
+     */
+    private static final class TrackCheckingMyStringProcessor extends OffHeapMyStringProcessor {
+        
+        private volatile boolean writtenWhileTracked;
+        
+        @Override
+        public void writeValue(long storageId, Void storageBase, int index, char c) {
+            MyStringTracker tracker = MyStringService.findMyStringTracker(this);
+            if (tracker != null && !writtenWhileTracked) {
+                for (MyStringTemplate tracked : tracker.toArray()) {
+                    if (tracked.getStorageId() == storageId) {
+                        writtenWhileTracked = true;
+                        break;
+                    }
+                }
+            }
+            super.writeValue(storageId, storageBase, index, c);
+        }
+        
+    }
+    
+    private static String[] randomStrings(int count) {
+        Random random = new Random(38);
+        String[] strs = new String[count];
+        for (int i = 0; i < count; i++) {
+            strs[i] = randomUnicodeString(random, 1 + random.nextInt(20));
+        }
+        return strs;
+    }
+    
+    private static String[] sortedContents(String[] strs) {
+        String[] contents = new String[strs.length];
+        for (int i = 0; i < strs.length; i++) {
+            contents[i] = new String(strs[i].toCharArray());
+        }
+        Arrays.sort(contents);
+        return contents;
+    }
+    
+    @Test
+    public void batchStringsShouldBeTrackedAfterTheirContentIsWritten() {
+        String id = "TrackCheckingMyStringProcessor-" + System.nanoTime();
+        TrackCheckingMyStringProcessor processor = new TrackCheckingMyStringProcessor();
+        MyStringService.registerMyStringFactory(id, processor);
+        try {
+            MyStringService.trackMyStringFactory(id);
+            String[] strs = randomStrings(100);
+            MyStringBatch batch = MyStringService.getMyStringFactory(id).createBatch(strs, false);
+            try {
+                assertFalse("Content is written into an already tracked string", processor.writtenWhileTracked);
+                assertEquals(strs.length, MyStringService.findMyStringTracker(processor).size());
+            } finally {
+                batch.destroy();
+            }
+            assertEquals(0, MyStringService.findMyStringTracker(processor).size());
+        } finally {
+            MyStringService.deregisterMyStringFactory(id);
+        }
+    }
+    
+    @Test
+    public void trackerShouldNotKeepStringsWhichAreNotReferencedAnymore() throws InterruptedException {
+        String id = "CollectedMyStringProcessor-" + System.nanoTime();
+        OffHeapMyStringProcessor processor = new OffHeapMyStringProcessor();
+        MyStringService.registerMyStringFactory(id, processor);
+        try {
+            MyStringService.trackMyStringFactory(id);
+            MyStringFactory trackedFactory = MyStringService.getMyStringFactory(id);
+            String[] contents = randomStrings(100);
+            long[] storageIds = new long[contents.length];
+            for (int i = 0; i < contents.length; i++) {
+                // Strings are not destroyed and not referenced, as a heap-backed factory would leave them
+                storageIds[i] = template(trackedFactory.create(contents[i])).getStorageId();
+            }
+            MyStringTracker tracker = MyStringService.findMyStringTracker(processor);
+            for (int i = 0; i < 100 && tracker.size() > 0; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertEquals(0, tracker.size());
+            assertEquals(0, tracker.toArray().length);
+            for (long storageId : storageIds) {
+                processor.destroy(storageId, null);
+            }
+        } finally {
+            MyStringService.deregisterMyStringFactory(id);
+        }
+    }
+    
+    @Test
+    public void snapshotShouldBeLoadedAndMappedBack() throws IOException {
+        String id = "SnapshotMyStringProcessor-" + System.nanoTime();
+        MyStringService.registerMyStringFactory(id, new OffHeapMyStringProcessor());
+        File file = File.createTempFile("mystring-snapshot", ".snapshot");
+        try {
+            MyStringService.trackMyStringFactory(id);
+            String[] strs = randomStrings(20000);
+            MyStringBatch batch = MyStringService.getMyStringFactory(id).createBatch(strs, true);
+            String[] expected = sortedContents(strs);
+            try {
+                assertEquals(strs.length, MyStringService.snapshotMyStringFactory(id, file));
+            } finally {
+                batch.destroy();
+            }
+            
+            MyStringBatch loaded = MyStringService.loadMyStringSnapshot(id, file);
+            try {
+                String[] loadedStrs = loaded.toArray();
+                for (String str : loadedStrs) {
+                    assertTrue(isMyString(str));
+                }
+                assertTrue(Arrays.equals(expected, sortedContents(loadedStrs)));
+            } finally {
+                loaded.destroy();
+            }
+            
+            MyStringBatch mapped = MyStringService.mapMyStringSnapshot(file);
+            try {
+                assertTrue(Arrays.equals(expected, sortedContents(mapped.toArray())));
+            } finally {
+                mapped.destroy();
+            }
+        } finally {
+            MyStringService.deregisterMyStringFactory(id);
+            file.delete();
+        }
+    }
+    
+}
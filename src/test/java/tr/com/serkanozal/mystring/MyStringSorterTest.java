@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import org.junit.Test;
+
+import tr.com.serkanozal.mystring.offheap.OffHeapMyStringProcessor;
+
+public class MyStringSorterTest extends AbstractMyStringTest {
+
+    /**
+     * Records whether any content is read by a worker thread of a fork-join pool.
+     */
+    private static final class RecordingMyStringProcessor extends OffHeapMyStringProcessor {
+        
+        private volatile boolean readByWorker;
+        
+        private void record() {
+            if (!readByWorker && Thread.currentThread() instanceof ForkJoinWorkerThread) {
+                readByWorker = true;
+            }
+        }
+        
+        @Override
+        public char readValue(long storageId, Void storageBase, int index) {
+            record();
+            return super.readValue(storageId, storageBase, index);
+        }
+        
+        @Override
+        public void copyValue(long storageId, Void storageBase, int srcBegin, char[] dst, int dstBegin, int len) {
+            record();
+            super.copyValue(storageId, storageBase, srcBegin, dst, dstBegin, len);
+        }
+        
+    }
+    
+    // Strings share long prefixes, so they are sorted at several depths
+    private static String[] randomStrings(Random random, int count) {
+        String[] prefixes = { "", "a", "abcd", "abcdabcd", "abcdabcdx" };
+        String[] strs = new String[count];
+        for (int i = 0; i < count; i++) {
+            strs[i] = prefixes[random.nextInt(prefixes.length)] 
+                    + (random.nextBoolean() 
+                            ? randomString(random, random.nextInt(6), "abcd") 
+                            : randomUnicodeString(random, random.nextInt(10)));
+        }
+        return strs;
+    }
+    
+    private static String[] contents(String[] strs) {
+        String[] contents = new String[strs.length];
+        for (int i = 0; i < strs.length; i++) {
+            contents[i] = new String(strs[i].toCharArray());
+        }
+        return contents;
+    }
+    
+    @Test
+    public void sortShouldOrderAsCompareTo() {
+        Random random = new Random(45);
+        for (boolean parallel : new boolean[] { false, true }) {
+            String[] expected = randomStrings(random, 50000);
+            String[] strs = expected.clone();
+            for (int i = 0; i < strs.length; i += 3) {
+                strs[i] = create(strs[i]);
+            }
+            Arrays.sort(expected);
+            MyStringSorter.sort(strs, parallel);
+            assertArrayEquals(expected, contents(strs));
+        }
+    }
+    
+    @Test
+    public void sortShouldHandleLongDuplicatesAndLongSharedPrefixes() {
+        Random random = new Random(45);
+        String longStr = randomString(random, 100000, "ab");
+        for (boolean parallel : new boolean[] { false, true }) {
+            // Equal long strings stay in a single group until their ends
+            String[] duplicates = new String[64];
+            for (int i = 0; i < duplicates.length; i++) {
+                duplicates[i] = i % 2 == 0 ? longStr : create(longStr);
+            }
+            MyStringSorter.sort(duplicates, parallel);
+            for (String str : contents(duplicates)) {
+                assertEquals(longStr, str);
+            }
+            
+            // Strings share prefixes of thousands of chars before they diverge
+            String[] expected = new String[9000];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = longStr.substring(0, 500 * (1 + random.nextInt(5))) 
+                        + randomString(random, random.nextInt(6), "ab");
+            }
+            String[] strs = expected.clone();
+            for (int i = 0; i < strs.length; i += 100) {
+                strs[i] = create(strs[i]);
+            }
+            Arrays.sort(expected);
+            MyStringSorter.sort(strs, parallel);
+            assertArrayEquals(expected, contents(strs));
+        }
+    }
+    
+    @Test
+    public void sortShouldOrderOnlyGivenRange() {
+        Random random = new Random(45);
+        String[] strs = randomStrings(random, 1000);
+        String[] expected = strs.clone();
+        Arrays.sort(expected, 100, 900);
+        MyStringSorter.sort(strs, 100, 900, false);
+        assertArrayEquals(expected, strs);
+        
+        List<String> list = new ArrayList<String>(Arrays.asList(randomStrings(random, 1000)));
+        List<String> expectedList = new ArrayList<String>(list);
+        Collections.sort(expectedList);
+        MyStringSorter.sort(list, false);
+        assertEquals(expectedList, list);
+    }
+    
+    @Test
+    public void parallelSortShouldUseWorkerThreads() {
+        String id = "RecordingMyStringProcessor-" + System.nanoTime();
+        RecordingMyStringProcessor processor = new RecordingMyStringProcessor();
+        MyStringService.registerMyStringFactory(id, processor);
+        try {
+            MyStringFactory recordingFactory = MyStringService.getMyStringFactory(id);
+            Random random = new Random(45);
+            String[] expected = randomStrings(random, 100000);
+            String[] strs = new String[expected.length];
+            for (int i = 0; i < strs.length; i++) {
+                strs[i] = own(recordingFactory.create(expected[i]));
+            }
+            Arrays.sort(expected);
+            
+            String[] sequential = strs.clone();
+            MyStringSorter.sort(sequential, false);
+            assertArrayEquals(expected, contents(sequential));
+            assertFalse(processor.readByWorker);
+            
+            MyStringSorter.sort(strs, true);
+            assertArrayEquals(expected, contents(strs));
+            assertTrue("Strings are expected to be read by forked tasks", processor.readByWorker);
+        } finally {
+            MyStringService.deregisterMyStringFactory(id);
+        }
+    }
+    
+    @Test
+    public void sortedIndicesShouldPutNullsFirst() {
+        Random random = new Random(45);
+        String[] values = randomStrings(random, 20000);
+        MyStringColumn.Builder builder = MyStringColumn.builder();
+        List<Integer> nullIndices = new ArrayList<Integer>();
+        for (int i = 0; i < values.length; i++) {
+            if (i % 17 == 0) {
+                values[i] = null;
+                nullIndices.add(i);
+                builder.appendNull();
+            } else {
+                builder.append(values[i]);
+            }
+        }
+        MyStringColumn column = builder.build();
+        try {
+            for (boolean parallel : new boolean[] { false, true }) {
+                int[] indices = MyStringSorter.sortedIndices(column, parallel);
+                assertEquals(values.length, indices.length);
+                for (int i = 0; i < nullIndices.size(); i++) {
+                    assertEquals(nullIndices.get(i).intValue(), indices[i]);
+                }
+                for (int i = nullIndices.size() + 1; i < indices.length; i++) {
+                    assertTrue(values[indices[i - 1]].compareTo(values[indices[i]]) <= 0);
+                }
+            }
+        } finally {
+            column.destroy();
+        }
+    }
+    
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class MyStringSplitTest extends AbstractMyStringTest {
+
+    private static final int[] LIMITS = { -1, 0, 1, 2, 3, 10 };
+    
+    private static final class CollectingHandler implements MyStringSliceHandler {
+        
+        private final List<String> slices = new ArrayList<String>();
+        
+        @Override
+        public boolean handle(String str, int beginIndex, int endIndex) {
+            slices.add(str.substring(beginIndex, endIndex));
+            return true;
+        }
+        
+        private String[] toArray() {
+            return slices.toArray(new String[slices.size()]);
+        }
+        
+    }
+    
+    @Test
+    public void splitToByCharShouldBeSameWithSplit() {
+        Random random = new Random(30);
+        for (int i = 0; i < 200; i++) {
+            String content = randomString(random, random.nextInt(20), "ab,");
+            MyStringTemplate myStr = template(create(content));
+            for (int limit : LIMITS) {
+                CollectingHandler handler = new CollectingHandler();
+                int count = myStr.splitTo(',', limit, handler);
+                String[] expected = content.split(",", limit);
+                assertArrayEquals(content + " / " + limit, expected, handler.toArray());
+                assertEquals(expected.length, count);
+            }
+        }
+    }
+    
+    @Test
+    public void splitToByStringShouldBeSameWithSplit() {
+        Random random = new Random(30);
+        for (int i = 0; i < 200; i++) {
+            String content = randomString(random, random.nextInt(30), "ab:");
+            MyStringTemplate myStr = template(create(content));
+            for (String delimiter : new String[] { ":", "::", "a:", "ab:b" }) {
+                for (int limit : LIMITS) {
+                    CollectingHandler handler = new CollectingHandler();
+                    int count = myStr.splitTo(delimiter, limit, handler);
+                    String[] expected = content.split(Pattern.quote(delimiter), limit);
+                    assertArrayEquals(content + " / " + delimiter + " / " + limit, expected, handler.toArray());
+                    assertEquals(expected.length, count);
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void splitToShouldStopWhenHandlerReturnsFalse() {
+        MyStringTemplate myStr = template(create("a,b,c,d"));
+        final List<String> slices = new ArrayList<String>();
+        myStr.splitTo(',', 0, new MyStringSliceHandler() {
+            @Override
+            public boolean handle(String str, int beginIndex, int endIndex) {
+                slices.add(str.substring(beginIndex, endIndex));
+                return slices.size() < 2;
+            }
+        });
+        assertEquals(2, slices.size());
+        assertEquals("b", slices.get(1));
+    }
+    
+    @Test
+    public void tokenizerShouldKeepEmptyTokens() {
+        MyStringTokenizer tokenizer = new MyStringTokenizer("::");
+        for (String content : new String[] { "", "a", "::a::::b::", "a::b:c" }) {
+            String myStr = create(content);
+            List<String> tokens = new ArrayList<String>();
+            tokenizer.reset(myStr);
+            while (tokenizer.next()) {
+                assertEquals(tokenizer.tokenEnd() - tokenizer.tokenBegin(), tokenizer.tokenLength());
+                assertTrue(tokenizer.tokenEquals(tokenizer.token()));
+                tokens.add(tokenizer.token());
+            }
+            assertArrayEquals(content.split(Pattern.quote("::"), -1), tokens.toArray(new String[tokens.size()]));
+        }
+    }
+    
+    @Test
+    public void tokenizerShouldCompareTokensInPlace() {
+        MyStringTokenizer tokenizer = new MyStringTokenizer(',').reset(create("key,value,"));
+        assertTrue(tokenizer.next());
+        assertTrue(tokenizer.tokenEquals("key"));
+        assertFalse(tokenizer.tokenEquals("ke"));
+        assertTrue(tokenizer.next());
+        assertEquals("value", tokenizer.token());
+        assertTrue(tokenizer.next());
+        assertEquals(0, tokenizer.tokenLength());
+        assertFalse(tokenizer.next());
+    }
+    
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MyStringStreamCreationTest extends AbstractMyStringTest {
+
+    private static final List<Charset> CHARSETS = 
+            Arrays.asList(Charset.forName("UTF-8"), Charset.forName("ISO-8859-1"), 
+                          Charset.forName("UTF-16LE"), Charset.forName("UTF-16"));
+    
+    /**
+     * Returns a single byte at each read, so multi-byte sequences are split between reads.
+     */
+    private static final class TricklingInputStream extends FilterInputStream {
+        
+        private TricklingInputStream(InputStream in) {
+            super(in);
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1));
+        }
+        
+    }
+    
+    private List<String> contents() {
+        Random random = new Random(32);
+        return Arrays.asList("", "a", "caf\u00E9 \uD83D\uDE00", 
+                             randomString(random, 10000, "abcdefgh \n"), 
+                             randomUnicodeString(random, 10000));
+    }
+    
+    @Test
+    public void createFromReaderShouldReadAllChars() throws IOException {
+        for (String content : contents()) {
+            String myStr = own(factory.create(new StringReader(content)));
+            assertEquals(content, myStr);
+            assertTrue(isMyString(myStr));
+            for (int lengthHint : new int[] { 0, 1, content.length(), content.length() * 2 }) {
+                assertEquals(content, own(factory.create(new StringReader(content), lengthHint)));
+            }
+        }
+    }
+    
+    @Test
+    public void createFromInputStreamShouldDecodeAsString() throws IOException {
+        for (String content : contents()) {
+            for (Charset charset : CHARSETS) {
+                byte[] bytes = content.getBytes(charset);
+                String expected = new String(bytes, charset);
+                assertEquals(expected, own(factory.create(new ByteArrayInputStream(bytes), charset)));
+                assertEquals(expected, own(factory.create(new TricklingInputStream(new ByteArrayInputStream(bytes)), 
+                                                          charset, 1)));
+            }
+        }
+    }
+    
+    @Test
+    public void createFromChannelShouldDecodeAsString() throws IOException {
+        for (String content : contents()) {
+            for (Charset charset : CHARSETS) {
+                byte[] bytes = content.getBytes(charset);
+                String expected = new String(bytes, charset);
+                assertEquals(expected, 
+                             own(factory.create(Channels.newChannel(new ByteArrayInputStream(bytes)), charset)));
+                assertEquals(expected, 
+                             own(factory.create(Channels.newChannel(
+                                                    new TricklingInputStream(new ByteArrayInputStream(bytes))), 
+                                                charset, bytes.length)));
+            }
+        }
+    }
+    
+    @Test
+    public void malformedInputShouldBeReplacedAsString() throws IOException {
+        Charset utf8 = Charset.forName("UTF-8");
+        byte[] bytes = { 'a', (byte) 0xC3, 'b', (byte) 0xE2, (byte) 0x82, (byte) 0xF0 };
+        assertEquals(new String(bytes, utf8), own(factory.create(new ByteArrayInputStream(bytes), utf8)));
+    }
+    
+}
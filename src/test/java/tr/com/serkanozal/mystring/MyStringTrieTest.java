@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MyStringTrieTest extends AbstractMyStringTest {
+
+    // Chars with different high and low bytes, so keys are ordered by both of their bytes
+    private static final String KEY_ALPHABET = "ab\u0100\u0161\u4E00";
+    
+    private MyStringTrie trie;
+    
+    @Before
+    public void createTrie() {
+        trie = new MyStringTrie();
+    }
+    
+    @After
+    public void destroyTrie() {
+        trie.destroy();
+    }
+    
+    private static List<String> entries(MyStringTrie.Cursor cursor) {
+        List<String> entries = new ArrayList<String>();
+        while (cursor.next()) {
+            String value = cursor.value();
+            entries.add(new String(cursor.key().toCharArray()) + "=" 
+                        + (value != null ? new String(value.toCharArray()) : null));
+        }
+        return entries;
+    }
+    
+    private static List<String> entries(Map<String, String> map) {
+        List<String> entries = new ArrayList<String>();
+        for (Map.Entry<String, String> e : map.entrySet()) {
+            entries.add(e.getKey() + "=" + e.getValue());
+        }
+        return entries;
+    }
+    
+    private static String longestPrefix(TreeMap<String, String> map, String str) {
+        for (int i = str.length(); i >= 0; i--) {
+            if (map.containsKey(str.substring(0, i))) {
+                return str.substring(0, i);
+            }
+        }
+        return null;
+    }
+    
+    @Test
+    public void trieShouldBehaveAsSortedMap() {
+        Random random = new Random(43);
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        for (int i = 0; i < 30000; i++) {
+            // Short keys from a small alphabet share prefixes, so nodes grow, shrink and split
+            String key = randomString(random, random.nextInt(7), KEY_ALPHABET);
+            int op = random.nextInt(10);
+            if (op < 6) {
+                String value = random.nextInt(10) == 0 ? null : "v" + i;
+                assertEquals(!expected.containsKey(key), trie.put(key, value));
+                expected.put(key, value);
+            } else if (op < 9) {
+                boolean exists = expected.containsKey(key);
+                expected.remove(key);
+                assertEquals(exists, trie.remove(key));
+            } else {
+                assertEquals(expected.containsKey(key), trie.containsKey(new StringBuilder(key)));
+                assertEquals(expected.get(key), trie.get(key));
+            }
+        }
+        assertEquals(expected.size(), trie.size());
+        assertEquals(entries(expected), entries(trie.cursor()));
+    }
+    
+    @Test
+    public void trieShouldHoldDenseNodes() {
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        // Every byte value under the same parent, so the largest nodes are used
+        for (int i = 0; i < 0x10000; i += 7) {
+            String key = "k" + (char) i;
+            trie.put(key, String.valueOf(i));
+            expected.put(key, String.valueOf(i));
+        }
+        assertEquals(entries(expected), entries(trie.cursor()));
+        for (int i = 0; i < 0x10000; i += 14) {
+            trie.remove("k" + (char) i);
+            expected.remove("k" + (char) i);
+        }
+        assertEquals(entries(expected), entries(trie.cursor()));
+    }
+    
+    @Test
+    public void prefixLookupsShouldMatchSortedMap() {
+        Random random = new Random(43);
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        for (int i = 0; i < 3000; i++) {
+            String key = randomString(random, random.nextInt(8), KEY_ALPHABET);
+            trie.put(key, "v" + i);
+            expected.put(key, "v" + i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            String str = randomString(random, random.nextInt(10), KEY_ALPHABET);
+            String longest = longestPrefix(expected, str);
+            String key = trie.longestPrefixKey(str);
+            assertEquals(longest, key != null ? new String(key.toCharArray()) : null);
+            String value = trie.longestPrefixValue(str);
+            assertEquals(longest != null ? expected.get(longest) : null, 
+                         value != null ? new String(value.toCharArray()) : null);
+            
+            String prefix = str.substring(0, Math.min(str.length(), 3));
+            SortedMap<String, String> range = expected.subMap(prefix, prefix + Character.MAX_VALUE);
+            assertEquals(entries(range), entries(trie.prefixCursor(prefix)));
+        }
+    }
+    
+    @Test
+    public void clearShouldRemoveAllKeys() {
+        trie.put("key", "value");
+        trie.add("other");
+        assertFalse(trie.add("other"));
+        assertNull(trie.get("other"));
+        trie.clear();
+        assertTrue(trie.isEmpty());
+        assertFalse(trie.containsKey("key"));
+        assertFalse(trie.cursor().next());
+        assertTrue(trie.put("key", "again"));
+        assertEquals("again", trie.get("key"));
+    }
+    
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 1986-2016, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tr.com.serkanozal.mystring.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import tr.com.serkanozal.mystring.MyStringService;
+import tr.com.serkanozal.mystring.api.MyString;
+
+public class PatternCacheTest {
+
+    @Test
+    public void compiledPatternShouldBeReusedForSameRegexAndFlags() {
+        PatternCache cache = new PatternCache(64);
+        Pattern pattern = cache.compile("a+b");
+        assertSame(pattern, cache.compile(new String("a+b")));
+        assertNotSame(pattern, cache.compile("a+b", Pattern.CASE_INSENSITIVE));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHitCount());
+    }
+    
+    @Test
+    public void sizeShouldNotExceedCapacity() {
+        for (int capacity : new int[] { 1, 2, 5, 15, 16, 17, 100 }) {
+            PatternCache cache = new PatternCache(capacity);
+            for (int i = 0; i < 1000; i++) {
+                cache.compile("regex" + i);
+            }
+            assertTrue(capacity + ": " + cache.size(), cache.size() <= capacity);
+        }
+    }
+    
+    @Test
+    public void capacitySmallerThanSegmentCountShouldBeHonored() {
+        PatternCache cache = new PatternCache(1);
+        Pattern pattern = cache.compile("a");
+        assertSame(pattern, cache.compile("a"));
+        // Least recently used pattern is evicted
+        cache.compile("b");
+        assertEquals(1, cache.size());
+        assertNotSame(pattern, cache.compile("a"));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveCapacityShouldBeRejected() {
+        new PatternCache(0);
+    }
+    
+    @Test
+    public void myStringRegexShouldBeCachedAsHeapCopy() {
+        PatternCache cache = new PatternCache(16);
+        String regex = MyStringService.getOffHeapMyStringFactory().create("[a-z]+\\d");
+        Pattern pattern = cache.compile(regex);
+        assertTrue(((Object) regex) instanceof MyString);
+        assertFalse(((Object) pattern.pattern()) instanceof MyString);
+        ((MyString) ((Object) regex)).destroy();
+        assertSame(pattern, cache.compile("[a-z]+\\d"));
+        assertTrue(pattern.matcher("abc1").matches());
+    }
+    
+}